@@ -32,3 +32,26 @@ COMMENT ON COLUMN device_info.firmware_version IS 'Версия прошивки
 COMMENT ON COLUMN device_info.first_seen IS 'Время первого появления устройства в системе';
 COMMENT ON COLUMN device_info.last_seen IS 'Время последнего появления устройства в системе';
 COMMENT ON COLUMN device_info.status IS 'Статус устройства (active, inactive, error, etc.)';
+
+-- Создание таблицы device_presence: горячий last_seen отдельно от device_info.
+-- Без индекса на last_seen и с fillfactor обновления идут как HOT и не раздувают индексы device_info
+CREATE TABLE device_presence (
+    device_id VARCHAR(255) PRIMARY KEY,
+    last_seen TIMESTAMP NOT NULL
+) WITH (fillfactor = 70);
+
+ALTER TABLE device_presence SET (
+    autovacuum_vacuum_scale_factor = 0.02,
+    autovacuum_analyze_scale_factor = 0.05
+);
+
+-- Registry вместе с актуальным last_seen
+CREATE VIEW device_info_current AS
+SELECT d.*, GREATEST(d.last_seen, p.last_seen) AS current_last_seen
+FROM device_info d
+LEFT JOIN device_presence p ON p.device_id = d.device_id;
+
+COMMENT ON TABLE device_presence IS 'Последнее появление устройств';
+COMMENT ON COLUMN device_presence.device_id IS 'Уникальный идентификатор устройства';
+COMMENT ON COLUMN device_presence.last_seen IS 'Время последнего появления устройства в системе';
+COMMENT ON VIEW device_info_current IS 'Информация об устройствах с last_seen из device_presence';
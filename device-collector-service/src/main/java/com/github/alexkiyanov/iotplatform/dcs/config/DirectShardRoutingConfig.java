@@ -0,0 +1,25 @@
+package com.github.alexkiyanov.iotplatform.dcs.config;
+
+import com.github.alexkiyanov.iotplatform.dcs.sharding.DeviceShardRouter;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.DirectShardDataSources;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * Запись device_info напрямую в мастер шарда, минуя разбор SQL в ShardingSphere.
+ * Чтения и прочие запросы по-прежнему идут через ShardingSphere.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.sharding.direct-routing.enabled", havingValue = "true")
+public class DirectShardRoutingConfig {
+
+    @Bean(destroyMethod = "close")
+    public DirectShardDataSources directShardDataSources(Environment environment,
+                                                         DeviceShardRouter router,
+                                                         @Value("${app.sharding.direct-routing.pool-size:10}") int poolSize) {
+        return DirectShardDataSources.fromShardingSphereRules(environment, "device_info", router.shardCount(), poolSize);
+    }
+}
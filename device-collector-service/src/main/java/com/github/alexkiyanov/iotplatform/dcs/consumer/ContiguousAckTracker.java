@@ -0,0 +1,59 @@
+package com.github.alexkiyanov.iotplatform.dcs.consumer;
+
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Подтверждает батчи строго в порядке получения: батч, завершившийся раньше предыдущего, ждет его.
+ * Закоммиченный offset поэтому всегда покрывает только непрерывный обработанный префикс партиции.
+ */
+class ContiguousAckTracker {
+
+    private final Deque<Ticket> inFlight = new ArrayDeque<>();
+    private long acknowledged;
+
+    /**
+     * Регистрирует батч; parts - число частей, после завершения которых батч считается обработанным
+     */
+    synchronized Ticket register(Acknowledgment ack, int parts) {
+        final Ticket ticket = new Ticket(ack, parts);
+        inFlight.addLast(ticket);
+        return ticket;
+    }
+
+    synchronized int inFlight() {
+        return inFlight.size();
+    }
+
+    synchronized long acknowledged() {
+        return acknowledged;
+    }
+
+    // Подтверждаем под блокировкой: иначе два потока могли бы вызвать ack в обратном порядке.
+    // Acknowledgment из чужого потока только ставится в очередь контейнера, так что вызов дешевый
+    private synchronized void partDone(Ticket ticket) {
+        if (--ticket.remaining > 0) {
+            return;
+        }
+        while (!inFlight.isEmpty() && inFlight.peekFirst().remaining == 0) {
+            inFlight.pollFirst().ack.acknowledge();
+            acknowledged++;
+        }
+    }
+
+    final class Ticket {
+        private final Acknowledgment ack;
+        private int remaining;
+
+        private Ticket(Acknowledgment ack, int parts) {
+            this.ack = ack;
+            this.remaining = parts;
+        }
+
+        void partDone() {
+            ContiguousAckTracker.this.partDone(this);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.alexkiyanov.iotplatform.dcs.consumer;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import com.github.alexkiyanov.iotplatform.dcs.repository.DeviceInfoBatchRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Применяет heartbeat-ы ECS (ключ - deviceId, значение - lastSeen в epoch millis) к device_presence.
+ * Heartbeat не меняет карточку устройства, поэтому registry не переписывается: last_seen обновляется
+ * через {@link DeviceInfoBatchRepository#touchAll}, который не откатывает его назад.
+ */
+@Component
+@ConditionalOnProperty(name = "app.heartbeat.enabled", havingValue = "true")
+public class DeviceHeartbeatListener {
+    private static final Logger log = LoggerFactory.getLogger(DeviceHeartbeatListener.class);
+
+    private final DeviceInfoBatchRepository repository;
+    private final Counter appliedCounter;
+    private final Counter invalidCounter;
+
+    public DeviceHeartbeatListener(DeviceInfoBatchRepository repository, MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.appliedCounter = Counter.builder("dcs.heartbeat.applied.total")
+                .description("Device heartbeats applied to device_presence")
+                .register(meterRegistry);
+        this.invalidCounter = Counter.builder("dcs.heartbeat.invalid.total")
+                .description("Device heartbeats skipped because of an empty key or a malformed timestamp")
+                .register(meterRegistry);
+    }
+
+    @KafkaListener(topics = "#{'${app.topics.heartbeat}'}", containerFactory = "heartbeatListenerContainerFactory")
+    public void onBatch(List<ConsumerRecord<String, String>> records) {
+        final List<DeviceInfoUpsert> rows = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, String> record : records) {
+            final LocalDateTime lastSeen = parse(record.value());
+            if (record.key() == null || record.key().isBlank() || lastSeen == null) {
+                invalidCounter.increment();
+                log.debug("Skipping malformed heartbeat key={} value={}", record.key(), record.value());
+                continue;
+            }
+            rows.add(DeviceInfoUpsert.seen(record.key(), lastSeen));
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        repository.touchAll(rows);
+        appliedCounter.increment(rows.size());
+    }
+
+    private static LocalDateTime parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(value.trim())), ZoneOffset.UTC);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -1,193 +1,185 @@
 package com.github.alexkiyanov.iotplatform.dcs.consumer;
 
-import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoEntity;
-import com.github.alexkiyanov.iotplatform.dcs.repository.DeviceInfoRepository;
-import com.github.alexkiyanov.iotplatform.dcs.service.DeviceInfoPublisher;
+import com.github.alexkiyanov.iotplatform.avro.DeviceInfo;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceUpdate;
+import com.github.alexkiyanov.iotplatform.dcs.service.DeviceInfoWriter;
+import com.github.alexkiyanov.iotplatform.dcs.service.DeviceUpdateMapper;
+import com.github.alexkiyanov.iotplatform.dcs.service.DltReplayService;
 import com.github.alexkiyanov.iotplatform.dcs.service.PoisonMessageHandler;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.log.LogAccessor;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.Acknowledgment;
-import org.springframework.kafka.support.KafkaHeaders;
-import org.springframework.messaging.handler.annotation.Header;
-import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.kafka.support.serializer.DeserializationException;
+import org.springframework.kafka.support.serializer.SerializationUtils;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 @Component
 public class DeviceIdListener {
     private static final Logger log = LoggerFactory.getLogger(DeviceIdListener.class);
+    private static final LogAccessor LOG_ACCESSOR = new LogAccessor(DeviceIdListener.class);
 
-    private final DeviceInfoRepository repository;
-    private final DeviceInfoPublisher publisher;
+    private final DeviceInfoWriter writer;
+    private final DeviceInfoCoalescer coalescer;
+    private final KeyOrderedExecutor keyOrdered;
     private final PoisonMessageHandler poisonMessageHandler;
     private final String inputTopic;
-    private final ObjectMapper objectMapper;
+    private final DeviceUpdateMapper mapper;
 
-    public DeviceIdListener(DeviceInfoRepository repository,
-                           DeviceInfoPublisher publisher,
+    public DeviceIdListener(DeviceInfoWriter writer,
+                           DeviceInfoCoalescer coalescer,
+                           KeyOrderedExecutor keyOrdered,
                            PoisonMessageHandler poisonMessageHandler,
                            @Value("${app.topics.input}") String inputTopic,
-                           ObjectMapper objectMapper) {
-        this.repository = repository;
-        this.publisher = publisher;
+                           DeviceUpdateMapper mapper) {
+        if (coalescer.isEnabled() && keyOrdered.isEnabled()) {
+            // Окно слияния переупорядочивает обновления и подтверждает батчи само - с полосами это несовместимо
+            throw new IllegalStateException("app.coalescing.enabled and app.key-ordered.enabled are mutually exclusive");
+        }
+        this.writer = writer;
+        this.coalescer = coalescer;
+        this.keyOrdered = keyOrdered;
         this.poisonMessageHandler = poisonMessageHandler;
         this.inputTopic = inputTopic;
-        this.objectMapper = objectMapper;
+        this.mapper = mapper;
     }
 
     @KafkaListener(topics = "#{'${app.topics.input}'}", containerFactory = "kafkaListenerContainerFactory")
-    public void onBatch(@Payload List<com.github.alexkiyanov.iotplatform.avro.DeviceInfo> deviceInfos, 
-                       @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
-                       @Header(KafkaHeaders.RECEIVED_PARTITION) int partition,
-                       @Header(KafkaHeaders.OFFSET) long offset,
-                       Acknowledgment ack) {
-        if (deviceInfos == null || deviceInfos.isEmpty()) {
+    public void onBatch(List<ConsumerRecord<String, DeviceInfo>> records, Acknowledgment ack) {
+        if (records == null || records.isEmpty()) {
             return;
         }
-        log.info("Received batch: {} device infos from {}", deviceInfos.size(), inputTopic);
-
-        List<com.github.alexkiyanov.iotplatform.avro.DeviceInfo> successfulMessages = new ArrayList<>();
-        List<com.github.alexkiyanov.iotplatform.avro.DeviceInfo> poisonMessages = new ArrayList<>();
-        
-        LocalDateTime now = LocalDateTime.now();
-        
-        // Разделяем сообщения на успешные и poison
-        for (com.github.alexkiyanov.iotplatform.avro.DeviceInfo avroDeviceInfo : deviceInfos) {
-            if (avroDeviceInfo == null
-                    || avroDeviceInfo.getDeviceId() == null
-                    || avroDeviceInfo.getDeviceId().trim().isEmpty()) {
-                poisonMessages.add(avroDeviceInfo);
+        log.info("Received batch: {} device infos from {}", records.size(), inputTopic);
+
+        List<DeviceUpdate> updates = new ArrayList<>();
+        List<DeviceUpdate> replayed = new ArrayList<>();
+        Map<TopicPartition, List<DeviceUpdate>> byPartition = new LinkedHashMap<>();
+        int poisonMessages = 0;
+
+        // Разделяем сообщения на валидные и poison
+        for (ConsumerRecord<String, DeviceInfo> record : records) {
+            DeviceInfo avroDeviceInfo = record.value();
+            if (avroDeviceInfo == null) {
+                poisonMessages++;
+                sendUndeserializable(record);
+                continue;
+            }
+            if (avroDeviceInfo.getDeviceId() == null || avroDeviceInfo.getDeviceId().trim().isEmpty()) {
+                poisonMessages++;
+                sendPoison(record, new RuntimeException("Empty or null deviceId"));
                 continue;
             }
 
             try {
-                processDeviceInfo(avroDeviceInfo, now);
-                successfulMessages.add(avroDeviceInfo);
-                log.debug("Successfully processed device info for deviceId={}", avroDeviceInfo.getDeviceId());
-                
+                DeviceUpdate update = mapper.toUpdate(avroDeviceInfo);
+                if (record.headers().lastHeader(DltReplayService.REPLAY_HEADER) != null) {
+                    replayed.add(update);
+                    continue;
+                }
+                updates.add(update);
+                byPartition.computeIfAbsent(new TopicPartition(record.topic(), record.partition()),
+                        partition -> new ArrayList<>()).add(update);
             } catch (Exception e) {
                 log.error("Failed to process device info for deviceId={}: {}", avroDeviceInfo.getDeviceId(), e.getMessage());
-                poisonMessages.add(avroDeviceInfo);
+                poisonMessages++;
+                sendPoison(record, new RuntimeException("Invalid message format", e));
             }
         }
 
-        // Обрабатываем poison messages отдельно
-        if (!poisonMessages.isEmpty()) {
-            log.warn("Found {} poison messages in batch, processing separately", poisonMessages.size());
-            processPoisonMessages(poisonMessages, topic, partition, offset);
+        if (poisonMessages > 0) {
+            log.warn("Found {} poison messages in batch, sent to DLT", poisonMessages);
         }
 
+        // Повтор из DLT мог отстать от более новых обновлений устройства, поэтому пишется с проверкой
+        // давности и до остальной части батча: исключение оставит весь батч неподтвержденным
+        int replayedWritten = replayed.isEmpty() ? 0 : writer.writeReplayed(replayed);
+
+        if (updates.isEmpty()) {
+            if (replayedWritten > 0) {
+                ack.acknowledge();
+            }
+            return;
+        }
+
+        // В окне слияния батч подтвердится после сброса буфера в базу
+        if (coalescer.isEnabled()) {
+            coalescer.offer(updates, ack);
+            return;
+        }
+
+        // Разные устройства пишутся параллельно, батч подтвердится после записи его и всех предыдущих
+        if (keyOrdered.isEnabled()) {
+            try {
+                keyOrdered.submit(byPartition, ack);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while waiting for a key-ordered slot, batch left unacknowledged");
+            }
+            return;
+        }
+
+        // Один многострочный upsert на шард вместо оператора и коммита на каждую запись;
+        // если неудачное обновление не ушло на повтор, исключение оставит батч неподтвержденным
+        int written = replayedWritten + writer.write(updates);
+
         // Подтверждаем только успешно обработанные сообщения
-        if (!successfulMessages.isEmpty()) {
+        if (written > 0) {
             ack.acknowledge();
-            log.info("Acknowledged {} successful messages", successfulMessages.size());
+            log.info("Acknowledged {} successful messages", written);
         }
     }
 
     /**
-     * Обрабатывает одно сообщение с информацией об устройстве
+     * Сообщение не удалось десериализовать: ErrorHandlingDeserializer сохранил исходные байты в заголовке,
+     * они уходят в DLT как есть, чтобы сообщение можно было повторить после исправления
      */
-    private void processDeviceInfo(com.github.alexkiyanov.iotplatform.avro.DeviceInfo avroDeviceInfo, LocalDateTime now) 
-            throws JsonProcessingException {
-        String deviceId = avroDeviceInfo.getDeviceId();
-        
-        // Создаем метаданные из Avro объекта
-        Map<String, Object> meta = createMetaFromAvro(avroDeviceInfo);
-        String metaJson = objectMapper.writeValueAsString(meta);
-        
-        // Конвертируем timestamp в LocalDateTime
-        LocalDateTime firstSeen = convertTimestampToLocalDateTime(avroDeviceInfo.getFirstSeen());
-        LocalDateTime lastSeen = convertTimestampToLocalDateTime(avroDeviceInfo.getLastSeen());
-        
-        // Выполняем upsert на уровне базы данных
-        repository.upsertDeviceInfo(
-            deviceId,
-            avroDeviceInfo.getDeviceType(),
-            avroDeviceInfo.getManufacturer(),
-            avroDeviceInfo.getModel(),
-            avroDeviceInfo.getFirmwareVersion(),
-            firstSeen,
-            lastSeen,
-            avroDeviceInfo.getStatus(),
-            metaJson,
-            now,
-            now
-        );
-        
-        // Создаем Entity для публикации
-        DeviceInfoEntity deviceEntity = new DeviceInfoEntity(
-            deviceId,
-            avroDeviceInfo.getDeviceType(),
-            avroDeviceInfo.getManufacturer(),
-            avroDeviceInfo.getModel(),
-            avroDeviceInfo.getFirmwareVersion(),
-            firstSeen,
-            lastSeen,
-            avroDeviceInfo.getStatus(),
-            meta
-        );
-        
-        publisher.publishDeviceInfo(deviceEntity);
+    private void sendUndeserializable(ConsumerRecord<String, DeviceInfo> record) {
+        DeserializationException error = SerializationUtils.getExceptionFromHeader(
+                record, SerializationUtils.VALUE_DESERIALIZER_EXCEPTION_HEADER, LOG_ACCESSOR);
+        if (error == null) {
+            toDeadLetter(record, new byte[0], null, new RuntimeException("Null message received"));
+            return;
+        }
+        byte[] value = error.getData() != null ? error.getData() : new byte[0];
+        toDeadLetter(record, value, null, error);
     }
-    
+
     /**
-     * Конвертирует timestamp в LocalDateTime
+     * Сообщение прочитано, но невалидно. Исходные байты уже декодированы, поэтому в DLT уходит
+     * то же сообщение в Avro single-object encoding - повтор читает его без потерь
      */
-    private LocalDateTime convertTimestampToLocalDateTime(long timestamp) {
-        return LocalDateTime.ofEpochSecond(timestamp / 1000, (int)((timestamp % 1000) * 1_000_000), ZoneOffset.UTC);
+    private void sendPoison(ConsumerRecord<String, DeviceInfo> record, Exception error) {
+        byte[] value;
+        try {
+            value = mapper.toBytes(record.value());
+        } catch (Exception e) {
+            log.error("Failed to encode poison message {}-{}@{}: {}",
+                    record.topic(), record.partition(), record.offset(), e.getMessage());
+            value = new byte[0];
+        }
+        toDeadLetter(record, value, record.value().getDeviceId(), error);
     }
 
     /**
-     * Обрабатывает poison messages с retry механизмом
+     * Отправляет poison message сразу в DLT: ошибка в самом сообщении не исчезнет при повторе,
+     * а ожидание в потоке listener-а остановило бы всю партицию
      */
-    private void processPoisonMessages(List<com.github.alexkiyanov.iotplatform.avro.DeviceInfo> poisonMessages, 
-                                     String topic, int partition, long offset) {
-        for (com.github.alexkiyanov.iotplatform.avro.DeviceInfo poisonMessage : poisonMessages) {
-            try {
-                String deviceId = poisonMessage != null && poisonMessage.getDeviceId() != null ? 
-                    poisonMessage.getDeviceId() : 
-                    poisonMessageHandler.extractDeviceId(null, null);
-                
-                // Создаем ключ для DLT
-                String key = deviceId != null ? deviceId : "unknown-device-" + System.currentTimeMillis();
-                
-                // Симулируем получение значения (в реальности это будет сериализованное Avro сообщение)
-                byte[] value = new byte[0]; // В реальности это будет сериализованное Avro сообщение
-                
-                // Определяем тип ошибки
-                RuntimeException error;
-                if (poisonMessage == null) {
-                    error = new RuntimeException("Null message received");
-                } else if (poisonMessage.getDeviceId() == null || poisonMessage.getDeviceId().trim().isEmpty()) {
-                    error = new RuntimeException("Empty or null deviceId");
-                } else {
-                    error = new RuntimeException("Invalid message format");
-                }
-                
-                // Обрабатываем poison message с retry
-                poisonMessageHandler.handlePoisonMessage(topic, key, value, error, 3, deviceId);
-                
-            } catch (Exception e) {
-                log.error("Failed to process poison message: {}", e.getMessage(), e);
-            }
+    private void toDeadLetter(ConsumerRecord<String, DeviceInfo> record, byte[] value, String deviceId, Exception error) {
+        try {
+            String key = record.key() != null ? record.key() : poisonMessageHandler.extractDeviceId(null, value);
+            String dltDeviceId = deviceId != null ? deviceId : poisonMessageHandler.extractDeviceId(record.key(), value);
+            poisonMessageHandler.sendToDeadLetter(record.topic(), key, value, error, 1, dltDeviceId);
+        } catch (Exception e) {
+            log.error("Failed to process poison message: {}", e.getMessage(), e);
         }
     }
-    
-    private Map<String, Object> createMetaFromAvro(com.github.alexkiyanov.iotplatform.avro.DeviceInfo avroDeviceInfo) {
-        Map<String, Object> meta = new HashMap<>();
-        meta.put("source", "device-collector-service");
-        meta.put("processed_at", System.currentTimeMillis());
-        meta.put("avro_schema_version", "1.0");
-        return meta;
-    }
 }
@@ -0,0 +1,198 @@
+package com.github.alexkiyanov.iotplatform.dcs.consumer;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceUpdate;
+import com.github.alexkiyanov.iotplatform.dcs.service.DeviceInfoWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Окно слияния обновлений устройств между батчами: повторы одного deviceId за window-ms превращаются
+ * в один upsert (самый ранний first_seen, last_seen и статус - из самого позднего обновления).
+ * <p>
+ * Батч подтверждается только после того, как его записи сброшены в базу, поэтому закоммиченный offset
+ * не опережает сохраненные данные: после падения несброшенные записи будут прочитаны заново.
+ * Acknowledgment можно вызывать из потока сброса - Spring Kafka выполнит коммит в потоке consumer-а.
+ */
+@Component
+public class DeviceInfoCoalescer {
+    private static final Logger log = LoggerFactory.getLogger(DeviceInfoCoalescer.class);
+
+    private final DeviceInfoWriter writer;
+    private final boolean enabled;
+    private final long windowMs;
+    private final int maxDevices;
+
+    private final Object bufferLock = new Object();
+    // Сбросы идут строго по очереди: иначе более поздний батч мог бы подтвердиться раньше записи раннего
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private Map<String, DeviceUpdate> pending = new LinkedHashMap<>();
+    private List<Acknowledgment> pendingAcks = new ArrayList<>();
+    private long oldestMs;
+
+    private final Counter mergedCounter;
+    private final Counter flushesCounter;
+    private final Counter flushedRowsCounter;
+    private ScheduledExecutorService flusher;
+
+    public DeviceInfoCoalescer(DeviceInfoWriter writer,
+                               @Value("${app.coalescing.enabled:false}") boolean enabled,
+                               @Value("${app.coalescing.window-ms:1000}") long windowMs,
+                               @Value("${app.coalescing.max-devices:5000}") int maxDevices,
+                               MeterRegistry meterRegistry) {
+        this.writer = writer;
+        this.enabled = enabled;
+        this.windowMs = windowMs;
+        this.maxDevices = maxDevices;
+        this.mergedCounter = Counter.builder("dcs.coalescing.merged.total")
+                .description("Device updates merged into an already buffered update")
+                .register(meterRegistry);
+        this.flushesCounter = Counter.builder("dcs.coalescing.flushes.total")
+                .description("Coalescing buffer flushes")
+                .register(meterRegistry);
+        this.flushedRowsCounter = Counter.builder("dcs.coalescing.flushed.rows.total")
+                .description("Merged device rows written by coalescing flushes")
+                .register(meterRegistry);
+        Gauge.builder("dcs.coalescing.pending", this, DeviceInfoCoalescer::pendingDevices)
+                .description("Devices waiting in the coalescing buffer")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        // Окно должно закрываться и без новых сообщений, иначе хвост батчей не подтвердится
+        final long interval = Math.max(10, windowMs / 4);
+        flusher = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().daemon().name("dcs-coalescing-flusher").factory());
+        flusher.scheduleWithFixedDelay(this::flushIfDue, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        if (enabled) {
+            flush();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Добавляет обновления батча в буфер; ack будет вызван после сброса этих обновлений в базу.
+     */
+    public void offer(List<DeviceUpdate> updates, Acknowledgment ack) {
+        final boolean due;
+        synchronized (bufferLock) {
+            if (pending.isEmpty() && pendingAcks.isEmpty()) {
+                oldestMs = System.currentTimeMillis();
+            }
+            for (DeviceUpdate update : updates) {
+                final DeviceUpdate previous = pending.get(update.deviceId());
+                if (previous == null) {
+                    pending.put(update.deviceId(), update);
+                } else {
+                    pending.put(update.deviceId(), previous.merge(update));
+                    mergedCounter.increment();
+                }
+            }
+            pendingAcks.add(ack);
+            due = isDue();
+        }
+        if (due) {
+            flush();
+        }
+    }
+
+    void flushIfDue() {
+        final boolean due;
+        synchronized (bufferLock) {
+            due = isDue();
+        }
+        if (due) {
+            flush();
+        }
+    }
+
+    /**
+     * Записывает накопленные обновления и подтверждает батчи, из которых они пришли
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            final Map<String, DeviceUpdate> toWrite;
+            final List<Acknowledgment> toAck;
+            synchronized (bufferLock) {
+                if (pending.isEmpty() && pendingAcks.isEmpty()) {
+                    return;
+                }
+                toWrite = pending;
+                toAck = pendingAcks;
+                pending = new LinkedHashMap<>();
+                pendingAcks = new ArrayList<>();
+            }
+
+            try {
+                writer.write(new ArrayList<>(toWrite.values()));
+            } catch (RuntimeException e) {
+                // Возвращаем записи в буфер без ack: offset не продвинется, следующий сброс повторит запись
+                log.error("Coalescing flush of {} devices failed, keeping them buffered: {}", toWrite.size(), e.getMessage(), e);
+                requeue(toWrite, toAck);
+                return;
+            }
+            flushesCounter.increment();
+            flushedRowsCounter.increment(toWrite.size());
+            toAck.forEach(Acknowledgment::acknowledge);
+            log.debug("Flushed {} coalesced devices, acknowledged {} batches", toWrite.size(), toAck.size());
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void requeue(Map<String, DeviceUpdate> failed, List<Acknowledgment> acks) {
+        synchronized (bufferLock) {
+            final Map<String, DeviceUpdate> merged = new LinkedHashMap<>(failed);
+            // Обновления, пришедшие во время сброса, новее вернувшихся
+            pending.forEach((deviceId, update) -> merged.merge(deviceId, update, DeviceUpdate::merge));
+            pending = merged;
+            acks.addAll(pendingAcks);
+            pendingAcks = acks;
+            oldestMs = System.currentTimeMillis();
+        }
+    }
+
+    private boolean isDue() {
+        if (pending.isEmpty() && pendingAcks.isEmpty()) {
+            return false;
+        }
+        return pending.size() >= maxDevices || System.currentTimeMillis() - oldestMs >= windowMs;
+    }
+
+    private int pendingDevices() {
+        synchronized (bufferLock) {
+            return pending.size();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.github.alexkiyanov.iotplatform.dcs.consumer;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceUpdate;
+import com.github.alexkiyanov.iotplatform.dcs.service.DeviceInfoWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Параллельная обработка батча внутри партиции с сохранением порядка по deviceId.
+ * <p>
+ * Обновления раскладываются по lanes полосам по хэшу deviceId; каждая полоса - один поток, поэтому
+ * обновления одного устройства пишутся в порядке offset-ов, а разные устройства - параллельно.
+ * Consumer не ждет записи и читает следующий батч. У каждой партиции свой {@link ContiguousAckTracker} и
+ * свой лимит max-in-flight-batches: части батча подтверждаются непрерывным префиксом своей партиции,
+ * и медленная партиция не держит подтверждения и слоты остальных. Батч подтверждается, когда подтверждены
+ * его части во всех партициях; коммит батча сдвигает offset-ы только его партиций.
+ * Неудачные обновления части ({@link DeviceInfoWriter#writeInOrder}) полоса повторяет с паузой
+ * retry-backoff-ms, пока они не запишутся, не пропуская вперед более поздние обновления тех же устройств;
+ * отвергнутые базой уходят в DLT.
+ * <p>
+ * При отзыве партиции (rebalance listener основного контейнера) ее очередные части отбрасываются, повторы
+ * прекращаются, а уже начатые записи дожидаются не дольше revoke-timeout-ms - иначе новый владелец писал бы
+ * те же устройства одновременно. Неподтвержденные батчи партиции новый владелец прочитает повторно, upsert
+ * идемпотентен; при повторном назначении партиция начинает с чистого состояния.
+ */
+@Component
+public class KeyOrderedExecutor implements ConsumerAwareRebalanceListener {
+    private static final Logger log = LoggerFactory.getLogger(KeyOrderedExecutor.class);
+
+    private final DeviceInfoWriter writer;
+    private final boolean enabled;
+    private final int lanes;
+    private final long retryBackoffMs;
+    private final long revokeTimeoutMs;
+    private final int maxInFlightBatches;
+    private final Map<TopicPartition, PartitionState> partitions = new ConcurrentHashMap<>();
+    private final Counter retriesCounter;
+    private ExecutorService[] executors;
+    private volatile boolean stopping;
+
+    public KeyOrderedExecutor(DeviceInfoWriter writer,
+                              @Value("${app.key-ordered.enabled:false}") boolean enabled,
+                              @Value("${app.key-ordered.lanes:16}") int lanes,
+                              @Value("${app.key-ordered.max-in-flight-batches:8}") int maxInFlightBatches,
+                              @Value("${app.key-ordered.retry-backoff-ms:1000}") long retryBackoffMs,
+                              @Value("${app.key-ordered.revoke-timeout-ms:10000}") long revokeTimeoutMs,
+                              MeterRegistry meterRegistry) {
+        if (lanes < 1 || maxInFlightBatches < 1) {
+            throw new IllegalArgumentException("lanes and max-in-flight-batches must be positive");
+        }
+        this.writer = writer;
+        this.enabled = enabled;
+        this.lanes = lanes;
+        this.retryBackoffMs = retryBackoffMs;
+        this.revokeTimeoutMs = revokeTimeoutMs;
+        this.maxInFlightBatches = maxInFlightBatches;
+        this.retriesCounter = Counter.builder("dcs.key.ordered.retries.total")
+                .description("Lane writes retried after a failure")
+                .register(meterRegistry);
+        Gauge.builder("dcs.key.ordered.in.flight", this, KeyOrderedExecutor::inFlight)
+                .description("Partition parts of batches dispatched to lanes and not yet acknowledged")
+                .register(meterRegistry);
+        Gauge.builder("dcs.key.ordered.acknowledged", this, KeyOrderedExecutor::acknowledged)
+                .description("Partition parts acknowledged as part of their partition's contiguous completed prefix")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        executors = new ExecutorService[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            executors[lane] = Executors.newSingleThreadExecutor(
+                    Thread.ofPlatform().daemon().name("dcs-key-lane-" + lane).factory());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executors == null) {
+            return;
+        }
+        // Даем полосам дописать принятые части, затем прерываем повторы
+        for (ExecutorService executor : executors) {
+            executor.shutdown();
+        }
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        try {
+            for (ExecutorService executor : executors) {
+                executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stopping = true;
+        for (ExecutorService executor : executors) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Раскладывает обновления батча по полосам; ack будет вызван, когда в каждой партиции батча записана
+     * его часть и все предыдущие. Блокирует поток consumer-а, пока у партиции в работе max-in-flight-batches частей.
+     */
+    public void submit(Map<TopicPartition, List<DeviceUpdate>> byPartition, Acknowledgment ack)
+            throws InterruptedException {
+        final List<PartitionState> states = new ArrayList<>(byPartition.size());
+        for (TopicPartition partition : byPartition.keySet()) {
+            final PartitionState state = partitions.computeIfAbsent(partition, p -> new PartitionState(maxInFlightBatches));
+            try {
+                state.slots.acquire();
+            } catch (InterruptedException e) {
+                states.forEach(acquired -> acquired.slots.release());
+                throw e;
+            }
+            states.add(state);
+        }
+        final AtomicInteger pendingPartitions = new AtomicInteger(states.size());
+        int index = 0;
+        for (List<DeviceUpdate> updates : byPartition.values()) {
+            final PartitionState state = states.get(index++);
+            final List<List<DeviceUpdate>> byLane = new ArrayList<>(lanes);
+            for (int lane = 0; lane < lanes; lane++) {
+                byLane.add(new ArrayList<>());
+            }
+            for (DeviceUpdate update : updates) {
+                byLane.get(laneOf(update.deviceId())).add(update);
+            }
+            final int parts = (int) byLane.stream().filter(part -> !part.isEmpty()).count();
+            final ContiguousAckTracker.Ticket ticket = state.tracker.register(() -> {
+                state.slots.release();
+                if (pendingPartitions.decrementAndGet() == 0) {
+                    ack.acknowledge();
+                }
+            }, parts);
+            for (int lane = 0; lane < lanes; lane++) {
+                final List<DeviceUpdate> part = byLane.get(lane);
+                if (!part.isEmpty()) {
+                    executors[lane].execute(() -> writeUntilDone(part, state, ticket));
+                }
+            }
+        }
+    }
+
+    int laneOf(String deviceId) {
+        return Math.floorMod(deviceId.hashCode(), lanes);
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        revoke(partitions);
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        revoke(partitions);
+    }
+
+    /**
+     * Отбрасывает работу отозванных партиций и ждет начатые записи; части батчей этих партиций не подтверждаются
+     */
+    void revoke(Collection<TopicPartition> revoked) {
+        final List<PartitionState> states = new ArrayList<>();
+        for (TopicPartition partition : revoked) {
+            final PartitionState state = partitions.remove(partition);
+            if (state != null) {
+                state.revoke();
+                states.add(state);
+            }
+        }
+        if (states.isEmpty()) {
+            return;
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(revokeTimeoutMs);
+        try {
+            for (PartitionState state : states) {
+                if (!state.awaitIdle(deadline)) {
+                    log.warn("Key-ordered writes of revoked partitions {} still running after {} ms",
+                            revoked, revokeTimeoutMs);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        log.info("Dropped key-ordered work of revoked partitions {}", revoked);
+    }
+
+    private void writeUntilDone(List<DeviceUpdate> part, PartitionState state, ContiguousAckTracker.Ticket ticket) {
+        List<DeviceUpdate> pending = part;
+        while (!stopping) {
+            if (!state.beginWrite()) {
+                // Партиция отозвана: ее батч прочитает новый владелец
+                return;
+            }
+            try {
+                pending = writer.writeInOrder(pending);
+                if (pending.isEmpty()) {
+                    ticket.partDone();
+                    return;
+                }
+                log.warn("Key-ordered write of {} devices failed, retrying in {} ms", pending.size(), retryBackoffMs);
+            } catch (RuntimeException e) {
+                log.error("Key-ordered write of {} devices failed, retrying in {} ms: {}",
+                        pending.size(), retryBackoffMs, e.getMessage(), e);
+            } finally {
+                state.endWrite();
+            }
+            retriesCounter.increment();
+            try {
+                Thread.sleep(retryBackoffMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        // Батч остается неподтвержденным: после перезапуска он будет прочитан заново
+        log.warn("Key-ordered write of {} devices abandoned on shutdown", pending.size());
+    }
+
+    private int inFlight() {
+        return partitions.values().stream().mapToInt(state -> state.tracker.inFlight()).sum();
+    }
+
+    private long acknowledged() {
+        return partitions.values().stream().mapToLong(state -> state.tracker.acknowledged()).sum();
+    }
+
+    private static final class PartitionState {
+        private final ContiguousAckTracker tracker = new ContiguousAckTracker();
+        private final Semaphore slots;
+        private boolean revoked;
+        private int writing;
+
+        private PartitionState(int maxInFlightBatches) {
+            this.slots = new Semaphore(maxInFlightBatches);
+        }
+
+        private synchronized boolean beginWrite() {
+            if (revoked) {
+                return false;
+            }
+            writing++;
+            return true;
+        }
+
+        private synchronized void endWrite() {
+            if (--writing == 0) {
+                notifyAll();
+            }
+        }
+
+        private synchronized void revoke() {
+            revoked = true;
+        }
+
+        private synchronized boolean awaitIdle(long deadlineNanos) throws InterruptedException {
+            while (writing > 0) {
+                final long left = deadlineNanos - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.github.alexkiyanov.iotplatform.dcs.consumer;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceInfo;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceUpdate;
+import com.github.alexkiyanov.iotplatform.dcs.service.DeviceInfoWriter;
+import com.github.alexkiyanov.iotplatform.dcs.service.DeviceUpdateMapper;
+import com.github.alexkiyanov.iotplatform.dcs.service.PoisonMessageHandler;
+import com.github.alexkiyanov.iotplatform.dcs.service.RetryTopicRouter;
+import io.micrometer.core.instrument.Counter;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.RecordDeserializationException;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.log.LogAccessor;
+import org.springframework.kafka.support.serializer.DeserializationException;
+import org.springframework.kafka.support.serializer.SerializationUtils;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.LongSupplier;
+
+/**
+ * Читает одну ступень retry-топиков. Запись, срок которой не наступил, возвращается seek-ом,
+ * а ее партиция ставится на паузу до срока: поток не спит, остальные партиции читаются дальше.
+ * Записи ступени приходят в порядке сроков, поэтому все записи за первой несозревшей тоже еще рано повторять.
+ * Нечитаемые и невалидные записи уходят в DLT с исходными байтами; offset коммитится только после того,
+ * как брокер принял эти отправки.
+ */
+class RetryTierWorker implements Runnable, ConsumerRebalanceListener {
+    private static final Logger log = LoggerFactory.getLogger(RetryTierWorker.class);
+    private static final LogAccessor LOG_ACCESSOR = new LogAccessor(RetryTierWorker.class);
+
+    private final int tier;
+    private final String topic;
+    private final long delayMs;
+    private final Consumer<String, DeviceInfo> consumer;
+    private final DeviceInfoWriter writer;
+    private final DeviceUpdateMapper mapper;
+    private final PoisonMessageHandler poisonMessageHandler;
+    private final Duration pollTimeout;
+    private final LongSupplier clock;
+    private final Counter processedCounter;
+    private final Counter pausedCounter;
+    private final Map<TopicPartition, Long> pausedUntil = new HashMap<>();
+    private volatile boolean running = true;
+
+    RetryTierWorker(int tier, String topic, long delayMs, Consumer<String, DeviceInfo> consumer,
+                    DeviceInfoWriter writer, DeviceUpdateMapper mapper, PoisonMessageHandler poisonMessageHandler,
+                    Duration pollTimeout, LongSupplier clock, Counter processedCounter, Counter pausedCounter) {
+        this.tier = tier;
+        this.topic = topic;
+        this.delayMs = delayMs;
+        this.consumer = consumer;
+        this.writer = writer;
+        this.mapper = mapper;
+        this.poisonMessageHandler = poisonMessageHandler;
+        this.pollTimeout = pollTimeout;
+        this.clock = clock;
+        this.processedCounter = processedCounter;
+        this.pausedCounter = pausedCounter;
+    }
+
+    @Override
+    public void run() {
+        subscribe();
+        try {
+            while (running) {
+                pollOnce();
+            }
+        } catch (WakeupException e) {
+            if (running) {
+                throw e;
+            }
+        } finally {
+            consumer.close();
+        }
+    }
+
+    void subscribe() {
+        consumer.subscribe(List.of(topic), this);
+    }
+
+    void stop() {
+        running = false;
+        consumer.wakeup();
+    }
+
+    void pollOnce() {
+        resumeDue();
+        final ConsumerRecords<String, DeviceInfo> records;
+        try {
+            records = consumer.poll(pollTimeout);
+        } catch (RecordDeserializationException e) {
+            // Нечитаемая запись не станет читаемой при повторе: в DLT, и только потом дальше
+            log.error("Undeserializable record {}@{} in {}: {}", e.topicPartition(), e.offset(), topic, e.getMessage());
+            final byte[] value = bytes(e.valueBuffer());
+            if (awaitDeadLetters(List.of(deadLetter(e.topicPartition().topic(), null, value, e)))) {
+                consumer.seek(e.topicPartition(), e.offset() + 1);
+            } else {
+                pauseUntil(e.topicPartition(), e.offset(), clock.getAsLong() + delayMs);
+            }
+            return;
+        }
+        final Map<TopicPartition, OffsetAndMetadata> processed = new HashMap<>();
+        for (TopicPartition partition : records.partitions()) {
+            final long next = process(partition, records.records(partition));
+            if (next >= 0) {
+                processed.put(partition, new OffsetAndMetadata(next));
+            }
+        }
+        if (!processed.isEmpty()) {
+            consumer.commitSync(processed);
+        }
+    }
+
+    /**
+     * @return offset, с которого продолжить партицию после коммита, или -1, если ничего не обработано
+     */
+    private long process(TopicPartition partition, List<ConsumerRecord<String, DeviceInfo>> records) {
+        final long now = clock.getAsLong();
+        final List<DeviceUpdate> due = new ArrayList<>(records.size());
+        final List<CompletableFuture<?>> deadLetters = new ArrayList<>();
+        long first = -1;
+        long next = -1;
+        for (ConsumerRecord<String, DeviceInfo> record : records) {
+            final long dueAt = RetryTopicRouter.longHeader(record.headers(), RetryTopicRouter.DUE_AT_HEADER,
+                    record.timestamp() + delayMs);
+            if (dueAt > now) {
+                pauseUntil(partition, record.offset(), dueAt);
+                break;
+            }
+            if (first < 0) {
+                first = record.offset();
+            }
+            next = record.offset() + 1;
+            if (record.value() == null) {
+                log.warn("Sending undeserializable record {}@{} in {} to DLT", partition, record.offset(), topic);
+                deadLetters.add(undeserializable(record));
+                continue;
+            }
+            try {
+                due.add(mapper.toUpdate(record.value()));
+            } catch (Exception e) {
+                log.error("Sending unmappable record {}@{} in {} to DLT: {}", partition, record.offset(), topic, e.getMessage());
+                deadLetters.add(deadLetter(record.topic(), record.key(), encode(record),
+                        new RuntimeException("Invalid message format", e)));
+            }
+        }
+        if (!awaitDeadLetters(deadLetters)) {
+            pauseUntil(partition, first, now + delayMs);
+            return -1;
+        }
+        if (due.isEmpty()) {
+            return next;
+        }
+        try {
+            // Неудачные обновления writer отправит на следующую ступень
+            writer.write(due, tier + 1);
+            processedCounter.increment(due.size());
+            return next;
+        } catch (RuntimeException e) {
+            log.error("Retry of {} devices from {} failed, pausing {} for {} ms: {}",
+                    due.size(), topic, partition, delayMs, e.getMessage());
+            pauseUntil(partition, first, now + delayMs);
+            return -1;
+        }
+    }
+
+    private CompletableFuture<?> undeserializable(ConsumerRecord<String, DeviceInfo> record) {
+        final DeserializationException error = SerializationUtils.getExceptionFromHeader(
+                record, SerializationUtils.VALUE_DESERIALIZER_EXCEPTION_HEADER, LOG_ACCESSOR);
+        if (error == null) {
+            return deadLetter(record.topic(), record.key(), new byte[0], new RuntimeException("Null message received"));
+        }
+        return deadLetter(record.topic(), record.key(), error.getData() != null ? error.getData() : new byte[0], error);
+    }
+
+    private byte[] encode(ConsumerRecord<String, DeviceInfo> record) {
+        try {
+            return mapper.toBytes(record.value());
+        } catch (Exception e) {
+            log.error("Failed to encode record {}-{}@{}: {}", record.topic(), record.partition(), record.offset(), e.getMessage());
+            return new byte[0];
+        }
+    }
+
+    private CompletableFuture<?> deadLetter(String recordTopic, String key, byte[] value, Exception error) {
+        try {
+            final String deviceId = poisonMessageHandler.extractDeviceId(key, value);
+            return poisonMessageHandler.sendToDeadLetter(recordTopic, key != null ? key : deviceId, value, error,
+                    tier + 1, deviceId);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private boolean awaitDeadLetters(List<CompletableFuture<?>> deadLetters) {
+        if (deadLetters.isEmpty()) {
+            return true;
+        }
+        try {
+            CompletableFuture.allOf(deadLetters.toArray(CompletableFuture[]::new)).join();
+            return true;
+        } catch (CompletionException e) {
+            log.error("Failed to send {} records from {} to DLT, pausing for {} ms: {}",
+                    deadLetters.size(), topic, delayMs, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            return false;
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        if (buffer == null) {
+            return new byte[0];
+        }
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private void pauseUntil(TopicPartition partition, long offset, long until) {
+        consumer.seek(partition, offset);
+        consumer.pause(List.of(partition));
+        pausedUntil.put(partition, until);
+        pausedCounter.increment();
+    }
+
+    private void resumeDue() {
+        if (pausedUntil.isEmpty()) {
+            return;
+        }
+        final long now = clock.getAsLong();
+        final Iterator<Map.Entry<TopicPartition, Long>> it = pausedUntil.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<TopicPartition, Long> entry = it.next();
+            if (entry.getValue() <= now) {
+                consumer.resume(List.of(entry.getKey()));
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        pausedUntil.keySet().removeAll(partitions);
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        // Новый владелец начинает с закоммиченного offset-а и сам проверит сроки
+    }
+}
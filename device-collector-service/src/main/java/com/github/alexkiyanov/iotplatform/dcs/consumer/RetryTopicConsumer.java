@@ -0,0 +1,90 @@
+package com.github.alexkiyanov.iotplatform.dcs.consumer;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceInfo;
+import com.github.alexkiyanov.iotplatform.dcs.service.DeviceInfoWriter;
+import com.github.alexkiyanov.iotplatform.dcs.service.DeviceUpdateMapper;
+import com.github.alexkiyanov.iotplatform.dcs.service.PoisonMessageHandler;
+import com.github.alexkiyanov.iotplatform.dcs.service.RetryTopicRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Запускает по потоку {@link RetryTierWorker} на каждую ступень retry-топиков.
+ * Основной listener не повторяет записи сам: он только публикует их на первую ступень через {@link RetryTopicRouter}.
+ */
+@Component
+public class RetryTopicConsumer {
+
+    private final ConsumerFactory<String, DeviceInfo> consumerFactory;
+    private final DeviceInfoWriter writer;
+    private final DeviceUpdateMapper mapper;
+    private final PoisonMessageHandler poisonMessageHandler;
+    private final RetryTopicRouter router;
+    private final String groupId;
+    private final Duration pollTimeout;
+    private final Counter processedCounter;
+    private final Counter pausedCounter;
+    private final List<RetryTierWorker> workers = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+
+    public RetryTopicConsumer(@Qualifier("consumerFactory") ConsumerFactory<String, DeviceInfo> consumerFactory,
+                              DeviceInfoWriter writer,
+                              DeviceUpdateMapper mapper,
+                              PoisonMessageHandler poisonMessageHandler,
+                              RetryTopicRouter router,
+                              @Value("${spring.kafka.consumer.group-id}") String groupId,
+                              @Value("${app.retry-topics.poll-ms:200}") long pollMs,
+                              MeterRegistry meterRegistry) {
+        this.consumerFactory = consumerFactory;
+        this.writer = writer;
+        this.mapper = mapper;
+        this.poisonMessageHandler = poisonMessageHandler;
+        this.router = router;
+        this.groupId = groupId;
+        this.pollTimeout = Duration.ofMillis(pollMs);
+        this.processedCounter = Counter.builder("dcs.retry.topic.processed.total")
+                .description("Device updates re-processed from retry topics")
+                .register(meterRegistry);
+        this.pausedCounter = Counter.builder("dcs.retry.topic.paused.total")
+                .description("Retry topic partitions paused until their next record is due")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!router.isEnabled()) {
+            return;
+        }
+        final List<Long> delays = router.delaysMs();
+        for (int tier = 0; tier < delays.size(); tier++) {
+            final String topic = router.topic(tier);
+            final RetryTierWorker worker = new RetryTierWorker(tier, topic, delays.get(tier),
+                    consumerFactory.createConsumer(groupId + "-retry", null, "-retry-" + tier),
+                    writer, mapper, poisonMessageHandler, pollTimeout, System::currentTimeMillis, processedCounter, pausedCounter);
+            workers.add(worker);
+            threads.add(Thread.ofPlatform().daemon().name("dcs-" + topic).start(worker));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        workers.forEach(RetryTierWorker::stop);
+        try {
+            for (Thread thread : threads) {
+                thread.join(5000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
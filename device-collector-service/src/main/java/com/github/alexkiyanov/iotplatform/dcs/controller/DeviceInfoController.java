@@ -0,0 +1,32 @@
+package com.github.alexkiyanov.iotplatform.dcs.controller;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoEntity;
+import com.github.alexkiyanov.iotplatform.dcs.repository.DeviceInfoRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Карточка устройства из registry с last_seen из device_presence
+ */
+@RestController
+@RequestMapping("/api/devices")
+@ConditionalOnProperty(name = "app.presence.enabled", havingValue = "true", matchIfMissing = true)
+public class DeviceInfoController {
+
+    private final DeviceInfoRepository repository;
+
+    public DeviceInfoController(DeviceInfoRepository repository) {
+        this.repository = repository;
+    }
+
+    @GetMapping("/{deviceId}")
+    public ResponseEntity<DeviceInfoEntity> device(@PathVariable String deviceId) {
+        return repository.findWithPresence(deviceId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+}
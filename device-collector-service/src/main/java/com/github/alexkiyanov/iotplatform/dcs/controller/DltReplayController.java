@@ -0,0 +1,54 @@
+package com.github.alexkiyanov.iotplatform.dcs.controller;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DltReplayRequest;
+import com.github.alexkiyanov.iotplatform.dcs.service.DltReplayJob;
+import com.github.alexkiyanov.iotplatform.dcs.service.DltReplayService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Запуск, статус и остановка повтора сообщений из DLT
+ */
+@RestController
+@RequestMapping("/api/dlt/replay")
+@ConditionalOnProperty(name = "app.dlt-replay.enabled", havingValue = "true", matchIfMissing = true)
+public class DltReplayController {
+
+    private final DltReplayService replayService;
+
+    public DltReplayController(DltReplayService replayService) {
+        this.replayService = replayService;
+    }
+
+    @PostMapping
+    public ResponseEntity<?> start(@RequestBody(required = false) DltReplayRequest request) {
+        try {
+            final DltReplayRequest filter = request != null ? request
+                    : new DltReplayRequest(null, null, null, null, null, null);
+            return ResponseEntity.accepted().body(replayService.start(filter));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping
+    public ResponseEntity<DltReplayJob> status() {
+        return replayService.current()
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    @DeleteMapping
+    public ResponseEntity<Void> cancel() {
+        return replayService.cancel() ? ResponseEntity.accepted().build() : ResponseEntity.notFound().build();
+    }
+}
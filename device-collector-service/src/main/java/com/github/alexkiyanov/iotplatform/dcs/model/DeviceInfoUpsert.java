@@ -0,0 +1,24 @@
+package com.github.alexkiyanov.iotplatform.dcs.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Строка для upsert в device_info, meta - JSON
+ */
+public record DeviceInfoUpsert(String deviceId,
+                               String deviceType,
+                               String manufacturer,
+                               String model,
+                               String firmwareVersion,
+                               LocalDateTime firstSeen,
+                               LocalDateTime lastSeen,
+                               String status,
+                               String meta) {
+
+    /**
+     * Строка только с отметкой присутствия - для {@code DeviceInfoBatchRepository#touchAll}
+     */
+    public static DeviceInfoUpsert seen(String deviceId, LocalDateTime lastSeen) {
+        return new DeviceInfoUpsert(deviceId, null, null, null, null, null, lastSeen, null, null);
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.alexkiyanov.iotplatform.dcs.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Обновление устройства из Kafka: Entity для публикации и строка для upsert
+ */
+public record DeviceUpdate(DeviceInfoEntity entity, DeviceInfoUpsert row) {
+
+    public String deviceId() {
+        return row.deviceId();
+    }
+
+    /**
+     * Сливает с более поздним обновлением того же устройства: first_seen - самый ранний,
+     * остальные поля - из обновления с большим last_seen (при равенстве - из более позднего).
+     */
+    public DeviceUpdate merge(DeviceUpdate next) {
+        final DeviceUpdate latest = isAfter(row.lastSeen(), next.row.lastSeen()) ? this : next;
+        final LocalDateTime firstSeen = earliest(row.firstSeen(), next.row.firstSeen());
+        final LocalDateTime lastSeen = latest.row.lastSeen();
+
+        final DeviceInfoEntity source = latest.entity;
+        final DeviceInfoEntity merged = new DeviceInfoEntity(source.getDeviceId(), source.getDeviceType(),
+                source.getManufacturer(), source.getModel(), source.getFirmwareVersion(), firstSeen, lastSeen,
+                source.getStatus(), source.getMeta());
+        return new DeviceUpdate(merged, new DeviceInfoUpsert(latest.row.deviceId(), latest.row.deviceType(),
+                latest.row.manufacturer(), latest.row.model(), latest.row.firmwareVersion(), firstSeen, lastSeen,
+                latest.row.status(), latest.row.meta()));
+    }
+
+    private static boolean isAfter(LocalDateTime a, LocalDateTime b) {
+        return a != null && (b == null || a.isAfter(b));
+    }
+
+    private static LocalDateTime earliest(LocalDateTime a, LocalDateTime b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || a.isBefore(b) ? a : b;
+    }
+}
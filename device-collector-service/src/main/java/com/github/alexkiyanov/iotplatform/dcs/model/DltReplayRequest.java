@@ -0,0 +1,28 @@
+package com.github.alexkiyanov.iotplatform.dcs.model;
+
+import com.github.alexkiyanov.iotplatform.avro.PoisonMessage;
+
+import java.time.Instant;
+
+/**
+ * Фильтры и скорость повтора сообщений из DLT. Пустой фильтр не ограничивает выборку;
+ * from/to сравниваются с lastFailureTime, limit - максимум повторенных сообщений,
+ * ratePerSecond - скорость отправки (по умолчанию из app.dlt-replay.rate-per-second).
+ */
+public record DltReplayRequest(String errorType, String deviceId, Instant from, Instant to,
+                               Long limit, Integer ratePerSecond) {
+
+    public boolean matches(PoisonMessage message) {
+        if (errorType != null && !errorType.equals(message.getErrorType())) {
+            return false;
+        }
+        if (deviceId != null && !deviceId.equals(message.getDeviceId())) {
+            return false;
+        }
+        final long failedAt = message.getLastFailureTime();
+        if (from != null && failedAt < from.toEpochMilli()) {
+            return false;
+        }
+        return to == null || failedAt <= to.toEpochMilli();
+    }
+}
@@ -0,0 +1,415 @@
+package com.github.alexkiyanov.iotplatform.dcs.repository;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.DeviceShardRouter;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.DirectShardDataSources;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.ShardSpillover;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.ShardWriteDispatcher;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+/**
+ * Пакетный upsert в device_info: записи батча группируются по шарду и пишутся одним многострочным
+ * INSERT ... ON CONFLICT на шард (не больше max-rows строк в операторе).
+ * <p>
+ * Все строки оператора относятся к одному шарду, поэтому ShardingSphere отправляет его в один источник
+ * данных без разбиения. С app.sharding.direct-routing.enabled оператор выполняется сразу на мастере шарда
+ * через {@link DirectShardDataSources}, без разбора SQL в ShardingSphere; текст оператора для каждого числа строк
+ * строится один раз, и драйвер переиспользует серверный prepared statement.
+ * Строка обновляется, только если изменилось что-то кроме meta.processed_at, а сдвиг одного last_seen -
+ * не чаще last-seen-granularity-ms: иначе каждый повтор устройства порождал бы новую версию строки и WAL.
+ * Шарды пишутся параллельно через {@link ShardWriteDispatcher}. Если оператор не прошел,
+ * строки этого оператора повторяются по одной тем же оператором на том же источнике данных,
+ * чтобы вернуть результат по каждому устройству, не теряя проверки изменений и прямой маршрутизации.
+ * {@link #upsertAllIfNewer} - для повторов из retry-топиков и DLT: строка с более новым last_seen не перезаписывается.
+ * <p>
+ * С app.presence.enabled тем же проходом по шарду last_seen пишется в узкую таблицу device_presence,
+ * а {@link #touchAll} обновляет только ее - для повторов, которые не меняют registry.
+ * Отметка присутствия - best effort: ошибка записи попадает в лог и метрику, а не в DLT,
+ * потому что device_info.last_seen отстает от нее не больше чем на last-seen-granularity-ms.
+ * <p>
+ * С {@link ShardSpillover} (app.shard-breaker.enabled) ошибка шарда целиком - недоступность соединения или
+ * таймаут - открывает его предохранитель, и строки шарда пишутся в локальный spill-лог и считаются сохраненными;
+ * SpillDrainer дописывает их в шард через {@link #writeSpilled} после восстановления. Отметки присутствия
+ * в шард с открытым предохранителем не отправляются.
+ */
+@Repository
+public class DeviceInfoBatchRepository {
+    private static final Logger log = LoggerFactory.getLogger(DeviceInfoBatchRepository.class);
+
+    private static final int COLUMNS = 11;
+    private static final String INSERT = """
+            INSERT INTO device_info (device_id, device_type, manufacturer, model, firmware_version,
+                                     first_seen, last_seen, status, meta, created_at, updated_at)
+            VALUES\s""";
+    private static final String ROW = "(?, ?, ?, ?, ?, ?, ?, ?, CAST(? AS jsonb), ?, ?)";
+    private static final String ON_CONFLICT = """
+
+            ON CONFLICT (device_id)
+            DO UPDATE SET
+                device_type = EXCLUDED.device_type,
+                manufacturer = EXCLUDED.manufacturer,
+                model = EXCLUDED.model,
+                firmware_version = EXCLUDED.firmware_version,
+                first_seen = COALESCE(device_info.first_seen, EXCLUDED.first_seen),
+                last_seen = EXCLUDED.last_seen,
+                status = EXCLUDED.status,
+                meta = EXCLUDED.meta,
+                updated_at = EXCLUDED.updated_at
+            WHERE %s((device_info.device_type, device_info.manufacturer, device_info.model,
+                   device_info.firmware_version, device_info.status)
+                  IS DISTINCT FROM (EXCLUDED.device_type, EXCLUDED.manufacturer, EXCLUDED.model,
+                                    EXCLUDED.firmware_version, EXCLUDED.status)
+               OR device_info.first_seen IS NULL
+               OR (device_info.meta - 'processed_at') IS DISTINCT FROM (EXCLUDED.meta - 'processed_at')
+               OR %s)""";
+    // Отставшее обновление (retry-топик, повтор из DLT) не откатывает строку к более старому состоянию
+    private static final String NOT_OLDER =
+            "(device_info.last_seen IS NULL OR device_info.last_seen <= EXCLUDED.last_seen) AND ";
+    // Изменение только last_seen пишется не чаще, чем раз в last-seen-granularity-ms
+    private static final String LAST_SEEN_ANY = "device_info.last_seen IS DISTINCT FROM EXCLUDED.last_seen";
+    private static final String LAST_SEEN_THROTTLED =
+            "device_info.last_seen IS NULL OR EXCLUDED.last_seen >= device_info.last_seen + INTERVAL '%d milliseconds'";
+
+    private static final int PRESENCE_COLUMNS = 2;
+    private static final String PRESENCE_INSERT = "INSERT INTO device_presence (device_id, last_seen) VALUES ";
+    private static final String PRESENCE_ROW = "(?, ?)";
+    // Повтор из прошлого не откатывает last_seen назад
+    private static final String PRESENCE_ON_CONFLICT = """
+
+            ON CONFLICT (device_id)
+            DO UPDATE SET last_seen = EXCLUDED.last_seen
+            WHERE device_presence.last_seen < EXCLUDED.last_seen""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DeviceShardRouter router;
+    private final ShardWriteDispatcher dispatcher;
+    private final DirectShardDataSources direct;
+    private final ShardSpillover spillover;
+    private final int maxRows;
+    private final String[] statements;
+    private final String[] ifNewerStatements;
+    private final String onConflict;
+    private final String ifNewerOnConflict;
+    private final boolean presenceEnabled;
+    private final String[] presenceStatements;
+    private final Counter statementsCounter;
+    private final Counter rowsCounter;
+    private final Counter unchangedCounter;
+    private final Counter fallbacksCounter;
+    private final Counter presenceRowsCounter;
+    private final Counter presenceFailuresCounter;
+
+    public DeviceInfoBatchRepository(JdbcTemplate jdbcTemplate,
+                                     DeviceShardRouter router,
+                                     ShardWriteDispatcher dispatcher,
+                                     Optional<DirectShardDataSources> direct,
+                                     Optional<ShardSpillover> spillover,
+                                     @Value("${app.batch.max-rows:500}") int maxRows,
+                                     @Value("${app.change-detection.last-seen-granularity-ms:60000}") long lastSeenGranularityMs,
+                                     @Value("${app.presence.enabled:true}") boolean presenceEnabled,
+                                     MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.router = router;
+        this.dispatcher = dispatcher;
+        this.direct = direct.orElse(null);
+        this.spillover = spillover.orElse(null);
+        if (this.direct != null && this.direct.shardCount() != router.shardCount()) {
+            throw new IllegalStateException("Direct routing has " + this.direct.shardCount()
+                    + " shards, router expects " + router.shardCount());
+        }
+        if (this.spillover != null && this.spillover.shardCount() != router.shardCount()) {
+            throw new IllegalStateException("Spill logs exist for " + this.spillover.shardCount()
+                    + " shards, router expects " + router.shardCount());
+        }
+        // PostgreSQL ограничивает оператор 65535 параметрами
+        this.maxRows = Math.max(1, Math.min(maxRows, 65535 / COLUMNS));
+        this.statements = new String[this.maxRows + 1];
+        this.ifNewerStatements = new String[this.maxRows + 1];
+        final String lastSeenChanged = lastSeenGranularityMs > 0
+                ? LAST_SEEN_THROTTLED.formatted(lastSeenGranularityMs) : LAST_SEEN_ANY;
+        this.onConflict = ON_CONFLICT.formatted("", lastSeenChanged);
+        this.ifNewerOnConflict = ON_CONFLICT.formatted(NOT_OLDER, lastSeenChanged);
+        this.presenceEnabled = presenceEnabled;
+        this.presenceStatements = new String[this.maxRows + 1];
+        this.statementsCounter = Counter.builder("dcs.upsert.batch.statements.total")
+                .description("Multi-row device_info upsert statements executed")
+                .register(meterRegistry);
+        this.rowsCounter = Counter.builder("dcs.upsert.batch.rows.total")
+                .description("Rows written by multi-row device_info upserts")
+                .register(meterRegistry);
+        this.unchangedCounter = Counter.builder("dcs.upsert.batch.unchanged.total")
+                .description("Rows skipped by the upsert guard because nothing meaningful changed")
+                .register(meterRegistry);
+        this.fallbacksCounter = Counter.builder("dcs.upsert.batch.fallbacks.total")
+                .description("Multi-row upserts retried row by row after a failure")
+                .register(meterRegistry);
+        this.presenceRowsCounter = Counter.builder("dcs.presence.rows.total")
+                .description("Device rows sent to the device_presence upsert")
+                .register(meterRegistry);
+        this.presenceFailuresCounter = Counter.builder("dcs.presence.failures.total")
+                .description("device_presence upsert statements that failed")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Сохраняет строки и возвращает ошибки по deviceId; пустой результат - все строки записаны.
+     * Несколько строк одного устройства сливаются в одну: поля берутся из последней, first_seen из первой,
+     * как при последовательных upsert-ах.
+     */
+    public Map<String, RuntimeException> upsertAll(List<DeviceInfoUpsert> rows, LocalDateTime now) {
+        return upsertAll(rows, now, false);
+    }
+
+    /**
+     * Как {@link #upsertAll}, но строка с более новым last_seen не перезаписывается: для обновлений, которые
+     * могли отстать от более поздних обновлений тех же устройств. Такие строки считаются записанными.
+     */
+    public Map<String, RuntimeException> upsertAllIfNewer(List<DeviceInfoUpsert> rows, LocalDateTime now) {
+        return upsertAll(rows, now, true);
+    }
+
+    private Map<String, RuntimeException> upsertAll(List<DeviceInfoUpsert> rows, LocalDateTime now, boolean ifNewer) {
+        final Map<Integer, List<DeviceInfoUpsert>> byShard = byShard(merge(rows).values());
+        final Map<Integer, Callable<Map<String, RuntimeException>>> tasks = new TreeMap<>();
+        byShard.forEach((shard, shardRows) -> tasks.put(shard, () -> spillover != null && spillover.shouldSpill(shard)
+                ? spill(shard, shardRows) : upsertGuarded(shard, shardRows, now, ifNewer)));
+
+        final Map<String, RuntimeException> failures = new HashMap<>();
+        dispatcher.dispatch(tasks, (shard, e) -> {
+            log.error("Upsert into shard {} failed: {}", shard, e.getMessage());
+            if (spillover != null && spillover.recordFailure(shard)) {
+                return spill(shard, byShard.get(shard));
+            }
+            // Исход строк шарда неизвестен: отдаем их все как неудачные, повторный upsert идемпотентен
+            return failAll(byShard.get(shard), e);
+        }).values().forEach(failures::putAll);
+        return failures;
+    }
+
+    /**
+     * Пишет строки, вычитанные из spill-лога шарда, минуя предохранитель.
+     * Ошибка всего шарда пробрасывается, ошибки отдельных строк возвращаются по deviceId.
+     */
+    public Map<String, RuntimeException> writeSpilled(int shard, List<DeviceInfoUpsert> rows) {
+        return upsertShard(shard, new ArrayList<>(merge(rows).values()), LocalDateTime.now(), false);
+    }
+
+    /**
+     * Обновляет только device_presence: устройство появилось, но строка registry не изменилась.
+     * Ошибки не возвращаются - см. описание класса.
+     */
+    public void touchAll(List<DeviceInfoUpsert> rows) {
+        if (!presenceEnabled || rows.isEmpty()) {
+            return;
+        }
+        final Map<String, DeviceInfoUpsert> latest = new LinkedHashMap<>();
+        for (DeviceInfoUpsert row : rows) {
+            latest.merge(row.deviceId(), row, (a, b) -> a.lastSeen() == null
+                    || (b.lastSeen() != null && b.lastSeen().isAfter(a.lastSeen())) ? b : a);
+        }
+        final Map<Integer, Callable<Boolean>> tasks = new TreeMap<>();
+        byShard(latest.values()).forEach((shard, shardRows) -> {
+            // Шард с открытым предохранителем не ждем: отметка присутствия - best effort
+            if (spillover != null && !spillover.isClosed(shard)) {
+                return;
+            }
+            tasks.put(shard, () -> {
+                final JdbcTemplate target = target(shard);
+                for (int from = 0; from < shardRows.size(); from += maxRows) {
+                    touchChunk(target, shard, shardRows.subList(from, Math.min(shardRows.size(), from + maxRows)));
+                }
+                return true;
+            });
+        });
+        dispatcher.dispatch(tasks, (shard, e) -> {
+            log.warn("Presence update for shard {} failed: {}", shard, e.getMessage());
+            presenceFailuresCounter.increment();
+            return false;
+        });
+    }
+
+    private Map<String, RuntimeException> upsertGuarded(int shard, List<DeviceInfoUpsert> shardRows, LocalDateTime now,
+                                                        boolean ifNewer) {
+        final Map<String, RuntimeException> failures = upsertShard(shard, shardRows, now, ifNewer);
+        if (spillover != null) {
+            spillover.recordSuccess(shard);
+        }
+        return failures;
+    }
+
+    /**
+     * Строки в spill-логе считаются сохраненными: кадр уже на диске, и батч можно подтвердить
+     */
+    private Map<String, RuntimeException> spill(int shard, List<DeviceInfoUpsert> shardRows) {
+        try {
+            spillover.spill(shard, shardRows);
+            return Map.of();
+        } catch (IOException | RuntimeException e) {
+            log.error("Spilling {} devices of shard {} failed: {}", shardRows.size(), shard, e.getMessage());
+            return failAll(shardRows, e instanceof RuntimeException runtime ? runtime : new IllegalStateException(e));
+        }
+    }
+
+    private static Map<String, RuntimeException> failAll(List<DeviceInfoUpsert> rows, RuntimeException e) {
+        final Map<String, RuntimeException> failures = new HashMap<>();
+        rows.forEach(row -> failures.put(row.deviceId(), e));
+        return failures;
+    }
+
+    private Map<String, RuntimeException> upsertShard(int shard, List<DeviceInfoUpsert> shardRows, LocalDateTime now,
+                                                      boolean ifNewer) {
+        final Map<String, RuntimeException> failures = new HashMap<>();
+        final JdbcTemplate target = target(shard);
+        for (int from = 0; from < shardRows.size(); from += maxRows) {
+            final List<DeviceInfoUpsert> chunk = shardRows.subList(from, Math.min(shardRows.size(), from + maxRows));
+            try {
+                final int affected = target.update(statement(chunk.size(), ifNewer), args(chunk, now));
+                statementsCounter.increment();
+                rowsCounter.increment(chunk.size());
+                unchangedCounter.increment(Math.max(0, chunk.size() - affected));
+            } catch (DataAccessResourceFailureException | TransientDataAccessException e) {
+                // Шард недоступен: построчный повтор только умножит таймауты
+                throw e;
+            } catch (DataAccessException e) {
+                log.warn("Multi-row upsert of {} devices into shard {} failed, retrying row by row: {}",
+                        chunk.size(), shard, e.getMessage());
+                fallbacksCounter.increment();
+                upsertOneByOne(target, chunk, now, ifNewer, failures);
+            }
+            if (presenceEnabled) {
+                touchChunk(target, shard, chunk);
+            }
+        }
+        return failures;
+    }
+
+    private void touchChunk(JdbcTemplate target, int shard, List<DeviceInfoUpsert> chunk) {
+        final List<DeviceInfoUpsert> seen = chunk.stream().filter(row -> row.lastSeen() != null).toList();
+        if (seen.isEmpty()) {
+            return;
+        }
+        try {
+            target.update(presenceStatement(seen.size()), presenceArgs(seen));
+            presenceRowsCounter.increment(seen.size());
+        } catch (DataAccessException e) {
+            log.warn("Presence upsert of {} devices into shard {} failed: {}", seen.size(), shard, e.getMessage());
+            presenceFailuresCounter.increment();
+        }
+    }
+
+    private JdbcTemplate target(int shard) {
+        return direct != null ? direct.jdbcTemplate(shard) : jdbcTemplate;
+    }
+
+    private Map<Integer, List<DeviceInfoUpsert>> byShard(Iterable<DeviceInfoUpsert> rows) {
+        final Map<Integer, List<DeviceInfoUpsert>> byShard = new TreeMap<>();
+        for (DeviceInfoUpsert row : rows) {
+            byShard.computeIfAbsent(router.shardOf(row.deviceId()), shard -> new ArrayList<>()).add(row);
+        }
+        return byShard;
+    }
+
+    private void upsertOneByOne(JdbcTemplate target, List<DeviceInfoUpsert> rows, LocalDateTime now, boolean ifNewer,
+                                Map<String, RuntimeException> failures) {
+        for (DeviceInfoUpsert row : rows) {
+            try {
+                target.update(statement(1, ifNewer), args(List.of(row), now));
+            } catch (RuntimeException e) {
+                failures.put(row.deviceId(), e);
+            }
+        }
+    }
+
+    private static Map<String, DeviceInfoUpsert> merge(List<DeviceInfoUpsert> rows) {
+        final Map<String, DeviceInfoUpsert> merged = new LinkedHashMap<>();
+        for (DeviceInfoUpsert row : rows) {
+            // ON CONFLICT DO UPDATE не может обновить одну строку дважды в одном операторе
+            merged.merge(row.deviceId(), row, (first, last) -> new DeviceInfoUpsert(last.deviceId(),
+                    last.deviceType(), last.manufacturer(), last.model(), last.firmwareVersion(),
+                    first.firstSeen() != null ? first.firstSeen() : last.firstSeen(),
+                    last.lastSeen(), last.status(), last.meta()));
+        }
+        return merged;
+    }
+
+    private String statement(int rows, boolean ifNewer) {
+        // Гонка безопасна: строка неизменяема, в худшем случае текст построится дважды
+        final String[] cache = ifNewer ? ifNewerStatements : statements;
+        String sql = cache[rows];
+        if (sql == null) {
+            sql = sql(INSERT, ROW, rows, ifNewer ? ifNewerOnConflict : onConflict);
+            cache[rows] = sql;
+        }
+        return sql;
+    }
+
+    private String presenceStatement(int rows) {
+        String sql = presenceStatements[rows];
+        if (sql == null) {
+            sql = sql(PRESENCE_INSERT, PRESENCE_ROW, rows, PRESENCE_ON_CONFLICT);
+            presenceStatements[rows] = sql;
+        }
+        return sql;
+    }
+
+    private static String sql(String insert, String row, int rows, String onConflict) {
+        final StringBuilder sql = new StringBuilder(insert.length() + rows * (row.length() + 2) + onConflict.length());
+        sql.append(insert);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(row);
+        }
+        return sql.append(onConflict).toString();
+    }
+
+    private static Object[] args(List<DeviceInfoUpsert> rows, LocalDateTime now) {
+        final Object[] args = new Object[rows.size() * COLUMNS];
+        int i = 0;
+        for (DeviceInfoUpsert row : rows) {
+            args[i++] = row.deviceId();
+            args[i++] = row.deviceType();
+            args[i++] = row.manufacturer();
+            args[i++] = row.model();
+            args[i++] = row.firmwareVersion();
+            args[i++] = row.firstSeen();
+            args[i++] = row.lastSeen();
+            args[i++] = row.status();
+            args[i++] = row.meta();
+            args[i++] = now;
+            args[i++] = now;
+        }
+        return args;
+    }
+
+    private static Object[] presenceArgs(List<DeviceInfoUpsert> rows) {
+        final Object[] args = new Object[rows.size() * PRESENCE_COLUMNS];
+        int i = 0;
+        for (DeviceInfoUpsert row : rows) {
+            args[i++] = row.deviceId();
+            args[i++] = row.lastSeen();
+        }
+        return args;
+    }
+}
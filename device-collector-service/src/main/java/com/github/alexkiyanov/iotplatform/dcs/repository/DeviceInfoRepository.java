@@ -10,6 +10,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface DeviceInfoRepository extends JpaRepository<DeviceInfoEntity, String> {
@@ -51,4 +52,17 @@ public interface DeviceInfoRepository extends JpaRepository<DeviceInfoEntity, St
     );
 
     List<DeviceInfoEntity> findByDeviceId(String deviceId);
+
+    /**
+     * Устройство с актуальным last_seen из device_presence. Таблицы связаны в ShardingSphere (binding-tables),
+     * поэтому JOIN по device_id выполняется на одном шарде.
+     */
+    @Query(value = """
+        SELECT d.device_id, d.device_type, d.manufacturer, d.model, d.firmware_version, d.first_seen,
+               GREATEST(d.last_seen, p.last_seen) AS last_seen, d.status, d.meta, d.created_at, d.updated_at
+        FROM device_info d
+        LEFT JOIN device_presence p ON p.device_id = d.device_id
+        WHERE d.device_id = :deviceId
+        """, nativeQuery = true)
+    Optional<DeviceInfoEntity> findWithPresence(@Param("deviceId") String deviceId);
 }
\ No newline at end of file
@@ -0,0 +1,111 @@
+package com.github.alexkiyanov.iotplatform.dcs.service;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Кэш отпечатков последней записанной версии устройства: повтор без значимых изменений не доходит до базы.
+ * <p>
+ * Отпечаток считается по полям строки без last_seen, first_seen и meta (в meta только служебные поля);
+ * сдвиг одного last_seen пропускается, пока он меньше last-seen-granularity-ms от записанного.
+ * Записи живут cache-ttl-ms: после ребаланса партиция может вернуться, а строку за это время мог
+ * изменить другой инстанс. Проверка в самом upsert (IS DISTINCT FROM) остается второй линией защиты.
+ */
+@Component
+public class DeviceChangeDetector {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final boolean enabled;
+    private final long granularityMs;
+    private final Cache<String, Written> written;
+    private final Counter skippedCounter;
+
+    public DeviceChangeDetector(@Value("${app.change-detection.enabled:true}") boolean enabled,
+                                @Value("${app.change-detection.last-seen-granularity-ms:60000}") long granularityMs,
+                                @Value("${app.change-detection.max-devices:100000}") long maxDevices,
+                                @Value("${app.change-detection.cache-ttl-ms:600000}") long cacheTtlMs,
+                                MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.granularityMs = granularityMs;
+        this.written = Caffeine.newBuilder()
+                .maximumSize(maxDevices)
+                .expireAfterWrite(Duration.ofMillis(cacheTtlMs))
+                .build();
+        this.skippedCounter = Counter.builder("dcs.change.detection.skipped.total")
+                .description("Device updates skipped before the database because nothing meaningful changed")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return true, если строка совпадает с записанной ранее и last_seen сдвинулся меньше чем на granularity
+     */
+    public boolean isUnchanged(DeviceInfoUpsert row) {
+        if (!enabled) {
+            return false;
+        }
+        final Written previous = written.getIfPresent(row.deviceId());
+        if (previous == null || previous.fingerprint() != fingerprint(row)) {
+            return false;
+        }
+        final boolean unchanged = withinGranularity(previous.lastSeen(), row.lastSeen());
+        if (unchanged) {
+            skippedCounter.increment();
+        }
+        return unchanged;
+    }
+
+    public void recordWritten(DeviceInfoUpsert row) {
+        if (enabled) {
+            written.put(row.deviceId(), new Written(fingerprint(row), row.lastSeen()));
+        }
+    }
+
+    public void invalidate(String deviceId) {
+        written.invalidate(deviceId);
+    }
+
+    private boolean withinGranularity(LocalDateTime writtenLastSeen, LocalDateTime lastSeen) {
+        if (lastSeen == null || lastSeen.equals(writtenLastSeen)) {
+            return true;
+        }
+        if (writtenLastSeen == null) {
+            return false;
+        }
+        // Более старый last_seen (повтор из прошлого) тоже ничего не меняет
+        return Duration.between(writtenLastSeen, lastSeen).toMillis() < granularityMs;
+    }
+
+    static long fingerprint(DeviceInfoUpsert row) {
+        long hash = FNV_OFFSET;
+        hash = mix(hash, row.deviceType());
+        hash = mix(hash, row.manufacturer());
+        hash = mix(hash, row.model());
+        hash = mix(hash, row.firmwareVersion());
+        hash = mix(hash, row.status());
+        return hash;
+    }
+
+    private static long mix(long hash, String value) {
+        if (value == null) {
+            // Отличаем null от пустой строки
+            return (hash ^ 0xff) * FNV_PRIME;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        // Разделитель полей: ("ab", "c") и ("a", "bc") дают разные отпечатки
+        return (hash ^ 0x1f) * FNV_PRIME;
+    }
+
+    private record Written(long fingerprint, LocalDateTime lastSeen) {
+    }
+}
@@ -0,0 +1,179 @@
+package com.github.alexkiyanov.iotplatform.dcs.service;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceUpdate;
+import com.github.alexkiyanov.iotplatform.dcs.repository.DeviceInfoBatchRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Сохраняет обновления устройств одним пакетным upsert, публикует записанные и отправляет
+ * на повтор через retry-топики ({@link RetryTopicRouter}) те, что сохранить не удалось. Обновления без значимых изменений ({@link DeviceChangeDetector})
+ * не переписывают device_info и считаются сохраненными; их last_seen уходит только в device_presence.
+ * Отправки на повтор дожидаются: если хоть одна не прошла, write бросает исключение, и батч не подтверждается.
+ * <p>
+ * Обновления из retry-топиков и повтора из DLT могли отстать от более поздних обновлений тех же устройств,
+ * поэтому пишутся через {@link DeviceInfoBatchRepository#upsertAllIfNewer}: строку с более новым last_seen
+ * они не перезаписывают.
+ * <p>
+ * {@link #writeInOrder} не отправляет временные ошибки в retry-топики, а возвращает их вызывающему,
+ * чтобы он повторил их сам, не пропуская вперед более поздние обновления тех же устройств.
+ */
+@Service
+public class DeviceInfoWriter {
+    private static final Logger log = LoggerFactory.getLogger(DeviceInfoWriter.class);
+
+    private final DeviceInfoBatchRepository repository;
+    private final DeviceInfoPublisher publisher;
+    private final RetryTopicRouter retryRouter;
+    private final DeviceChangeDetector changeDetector;
+
+    public DeviceInfoWriter(DeviceInfoBatchRepository repository,
+                            DeviceInfoPublisher publisher,
+                            RetryTopicRouter retryRouter,
+                            DeviceChangeDetector changeDetector) {
+        this.repository = repository;
+        this.publisher = publisher;
+        this.retryRouter = retryRouter;
+        this.changeDetector = changeDetector;
+    }
+
+    /**
+     * @return число сохраненных обновлений
+     * @throws IllegalStateException если неудачное обновление не удалось отправить на повтор
+     */
+    public int write(List<DeviceUpdate> updates) {
+        return write(updates, 0, false);
+    }
+
+    /**
+     * @param attempt сколько ступеней повтора обновления уже прошли (0 - основной топик)
+     * @return число сохраненных обновлений
+     * @throws IllegalStateException если неудачное обновление не удалось отправить на повтор
+     */
+    public int write(List<DeviceUpdate> updates, int attempt) {
+        return write(updates, attempt, attempt > 0);
+    }
+
+    /**
+     * Пишет обновления, повторенные из DLT; неудачные снова проходят все ступени повтора
+     *
+     * @return число сохраненных обновлений
+     * @throws IllegalStateException если неудачное обновление не удалось отправить на повтор
+     */
+    public int writeReplayed(List<DeviceUpdate> updates) {
+        return write(updates, 0, true);
+    }
+
+    private int write(List<DeviceUpdate> updates, int attempt, boolean mayBeStale) {
+        final List<Map.Entry<DeviceUpdate, RuntimeException>> failed = new ArrayList<>();
+        final int written = persist(updates, mayBeStale, failed);
+        if (failed.isEmpty()) {
+            return written;
+        }
+        final CompletableFuture<?>[] routed = new CompletableFuture<?>[failed.size()];
+        for (int i = 0; i < routed.length; i++) {
+            final Map.Entry<DeviceUpdate, RuntimeException> failure = failed.get(i);
+            try {
+                routed[i] = retryRouter.route(failure.getKey(), failure.getValue(), attempt);
+            } catch (RuntimeException e) {
+                routed[i] = CompletableFuture.failedFuture(e);
+            }
+        }
+        try {
+            CompletableFuture.allOf(routed).join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Failed to route " + failed.size() + " device updates for retry",
+                    e.getCause());
+        }
+        return written;
+    }
+
+    /**
+     * Пишет обновления; отвергнутые базой уходят в DLT, остальные неудачные возвращаются для повтора.
+     *
+     * @return обновления, которые нужно повторить, в исходном порядке
+     */
+    public List<DeviceUpdate> writeInOrder(List<DeviceUpdate> updates) {
+        final List<Map.Entry<DeviceUpdate, RuntimeException>> failed = new ArrayList<>();
+        persist(updates, false, failed);
+        final List<DeviceUpdate> retry = new ArrayList<>(failed.size());
+        for (Map.Entry<DeviceUpdate, RuntimeException> failure : failed) {
+            if (isRetryable(failure.getValue())) {
+                retry.add(failure.getKey());
+            } else if (!deadLettered(failure.getKey(), failure.getValue())) {
+                retry.add(failure.getKey());
+            }
+        }
+        return retry;
+    }
+
+    // Повтор не поможет: ждать его в полосе значило бы остановить ее навсегда
+    private boolean deadLettered(DeviceUpdate update, RuntimeException failure) {
+        try {
+            retryRouter.deadLetter(update, failure, 1).join();
+            return true;
+        } catch (RuntimeException e) {
+            log.error("Failed to send deviceId={} to DLT, keeping it for retry: {}", update.deviceId(), e.getMessage());
+            return false;
+        }
+    }
+
+    private int persist(List<DeviceUpdate> updates, boolean mayBeStale,
+                        List<Map.Entry<DeviceUpdate, RuntimeException>> failed) {
+        final List<DeviceUpdate> changed = new ArrayList<>(updates.size());
+        final List<DeviceInfoUpsert> seenOnly = new ArrayList<>();
+        for (DeviceUpdate update : updates) {
+            if (changeDetector.isUnchanged(update.row())) {
+                seenOnly.add(update.row());
+            } else {
+                changed.add(update);
+            }
+        }
+        repository.touchAll(seenOnly);
+        int written = seenOnly.size();
+        if (changed.isEmpty()) {
+            return written;
+        }
+        final List<DeviceInfoUpsert> rows = changed.stream().map(DeviceUpdate::row).toList();
+        final Map<String, RuntimeException> failures = mayBeStale
+                ? repository.upsertAllIfNewer(rows, LocalDateTime.now())
+                : repository.upsertAll(rows, LocalDateTime.now());
+
+        for (DeviceUpdate update : changed) {
+            final RuntimeException failure = failures.get(update.deviceId());
+            if (failure != null) {
+                changeDetector.invalidate(update.deviceId());
+                log.error("Failed to process device info for deviceId={}: {}", update.deviceId(), failure.getMessage());
+                failed.add(Map.entry(update, failure));
+                continue;
+            }
+            if (mayBeStale) {
+                // Строка могла остаться более новой, чем это обновление
+                changeDetector.invalidate(update.deviceId());
+            } else {
+                changeDetector.recordWritten(update.row());
+            }
+            publisher.publishDeviceInfo(update.entity());
+            written++;
+            log.debug("Successfully processed device info for deviceId={}", update.deviceId());
+        }
+        return written;
+    }
+
+    // Недоступность шарда - тоже NonTransientDataAccessException, но она проходит сама
+    private static boolean isRetryable(RuntimeException failure) {
+        return !(failure instanceof NonTransientDataAccessException)
+                || failure instanceof DataAccessResourceFailureException;
+    }
+}
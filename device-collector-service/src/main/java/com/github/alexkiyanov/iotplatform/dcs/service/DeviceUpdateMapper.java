@@ -0,0 +1,130 @@
+package com.github.alexkiyanov.iotplatform.dcs.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.alexkiyanov.iotplatform.avro.DeviceInfo;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoEntity;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceUpdate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Преобразование Avro сообщения в обновление устройства и обратно (для retry-топиков)
+ */
+@Component
+public class DeviceUpdateMapper {
+
+    private final ObjectMapper objectMapper;
+
+    public DeviceUpdateMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public DeviceUpdate toUpdate(DeviceInfo avroDeviceInfo) throws JsonProcessingException {
+        final DeviceInfoEntity entity = toEntity(avroDeviceInfo);
+        return new DeviceUpdate(entity, toUpsert(entity));
+    }
+
+    public DeviceInfo toAvro(DeviceUpdate update) {
+        final DeviceInfoEntity entity = update.entity();
+        return DeviceInfo.newBuilder()
+                .setDeviceId(entity.getDeviceId())
+                .setDeviceType(entity.getDeviceType())
+                .setManufacturer(entity.getManufacturer())
+                .setModel(entity.getModel())
+                .setFirmwareVersion(entity.getFirmwareVersion())
+                .setFirstSeen(toTimestamp(entity.getFirstSeen()))
+                .setLastSeen(toTimestamp(entity.getLastSeen()))
+                .setStatus(entity.getStatus())
+                .build();
+    }
+
+    /**
+     * Avro сообщение из строки upsert (строки spill-лога, отклоненные шардом, уходят в DLT)
+     */
+    public DeviceInfo toAvro(DeviceInfoUpsert row) {
+        return DeviceInfo.newBuilder()
+                .setDeviceId(row.deviceId())
+                .setDeviceType(row.deviceType())
+                .setManufacturer(row.manufacturer())
+                .setModel(row.model())
+                .setFirmwareVersion(row.firmwareVersion())
+                .setFirstSeen(toTimestamp(row.firstSeen()))
+                .setLastSeen(toTimestamp(row.lastSeen()))
+                .setStatus(row.status())
+                .build();
+    }
+
+    /**
+     * Кодирует уже декодированное сообщение в Avro single-object encoding (заголовок C3 01 и fingerprint схемы),
+     * чтобы сохранить его в DLT и прочитать при повторе без Schema Registry
+     */
+    public byte[] toBytes(DeviceInfo value) {
+        try {
+            final ByteBuffer buffer = value.toByteBuffer();
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Собирает Entity устройства из Avro сообщения
+     */
+    private DeviceInfoEntity toEntity(DeviceInfo avroDeviceInfo) {
+        return new DeviceInfoEntity(
+            avroDeviceInfo.getDeviceId(),
+            avroDeviceInfo.getDeviceType(),
+            avroDeviceInfo.getManufacturer(),
+            avroDeviceInfo.getModel(),
+            avroDeviceInfo.getFirmwareVersion(),
+            convertTimestampToLocalDateTime(avroDeviceInfo.getFirstSeen()),
+            convertTimestampToLocalDateTime(avroDeviceInfo.getLastSeen()),
+            avroDeviceInfo.getStatus(),
+            createMetaFromAvro(avroDeviceInfo)
+        );
+    }
+
+    private DeviceInfoUpsert toUpsert(DeviceInfoEntity entity) throws JsonProcessingException {
+        return new DeviceInfoUpsert(
+            entity.getDeviceId(),
+            entity.getDeviceType(),
+            entity.getManufacturer(),
+            entity.getModel(),
+            entity.getFirmwareVersion(),
+            entity.getFirstSeen(),
+            entity.getLastSeen(),
+            entity.getStatus(),
+            objectMapper.writeValueAsString(entity.getMeta())
+        );
+    }
+
+    /**
+     * Конвертирует timestamp в LocalDateTime
+     */
+    private LocalDateTime convertTimestampToLocalDateTime(long timestamp) {
+        return LocalDateTime.ofEpochSecond(timestamp / 1000, (int)((timestamp % 1000) * 1_000_000), ZoneOffset.UTC);
+    }
+
+    private static long toTimestamp(LocalDateTime dateTime) {
+        return dateTime == null ? 0L : dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private Map<String, Object> createMetaFromAvro(DeviceInfo avroDeviceInfo) {
+        Map<String, Object> meta = new HashMap<>();
+        meta.put("source", "device-collector-service");
+        meta.put("processed_at", System.currentTimeMillis());
+        meta.put("avro_schema_version", "1.0");
+        return meta;
+    }
+}
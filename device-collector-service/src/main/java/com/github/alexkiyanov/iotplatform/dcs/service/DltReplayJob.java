@@ -0,0 +1,131 @@
+package com.github.alexkiyanov.iotplatform.dcs.service;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DltReplayRequest;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Состояние одного прогона повтора DLT; отдается как есть в ответе API
+ */
+public class DltReplayJob {
+
+    public enum State { RUNNING, COMPLETED, CANCELLED, FAILED }
+
+    private final String id = UUID.randomUUID().toString();
+    private final DltReplayRequest request;
+    private final int ratePerSecond;
+    private final Instant startedAt = Instant.now();
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong unrecoverable = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile State state = State.RUNNING;
+    private volatile boolean cancelRequested;
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    DltReplayJob(DltReplayRequest request, int ratePerSecond) {
+        this.request = request;
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public DltReplayRequest getRequest() {
+        return request;
+    }
+
+    public int getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * Прочитано записей DLT, включая не прошедшие фильтр
+     */
+    public long getScanned() {
+        return scanned.get();
+    }
+
+    /**
+     * Отправлено во входной топик
+     */
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    /**
+     * Прошли фильтр, но исходные байты не сохранены (записи DLT до появления повтора)
+     */
+    public long getUnrecoverable() {
+        return unrecoverable.get();
+    }
+
+    /**
+     * Отправка во входной топик не удалась
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    boolean isRunning() {
+        return state == State.RUNNING;
+    }
+
+    boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    void cancel() {
+        cancelRequested = true;
+    }
+
+    void scanned() {
+        scanned.incrementAndGet();
+    }
+
+    void replayed() {
+        replayed.incrementAndGet();
+    }
+
+    void unrecoverable() {
+        unrecoverable.incrementAndGet();
+    }
+
+    void failed() {
+        failed.incrementAndGet();
+    }
+
+    void finish() {
+        finish(cancelRequested ? State.CANCELLED : State.COMPLETED, null);
+    }
+
+    void fail(Exception e) {
+        finish(State.FAILED, e.getMessage());
+    }
+
+    private void finish(State finalState, String message) {
+        error = message;
+        finishedAt = Instant.now();
+        state = finalState;
+    }
+}
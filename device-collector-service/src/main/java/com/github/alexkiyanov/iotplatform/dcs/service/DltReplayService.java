@@ -0,0 +1,266 @@
+package com.github.alexkiyanov.iotplatform.dcs.service;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceInfo;
+import com.github.alexkiyanov.iotplatform.avro.PoisonMessage;
+import com.github.alexkiyanov.iotplatform.dcs.model.DltReplayRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Повтор сообщений из DLT через обычный конвейер: записи, прошедшие фильтр, публикуются во входной топик
+ * с заданной скоростью. DLT читается от начала (или от from по времени записи) до конца, зафиксированного
+ * при старте, поэтому повторно упавшие сообщения в этот же прогон не попадают.
+ * <p>
+ * Исходные байты в формате Schema Registry отправляются как есть; сообщения, сохраненные listener-ом
+ * в Avro single-object encoding, декодируются и отправляются обычным Avro producer-ом.
+ * Одновременно выполняется один прогон.
+ */
+@Service
+public class DltReplayService {
+    private static final Logger log = LoggerFactory.getLogger(DltReplayService.class);
+
+    public static final String REPLAY_HEADER = "dcs-dlt-replay";
+
+    private final ConsumerFactory<String, PoisonMessage> consumerFactory;
+    private final KafkaTemplate<String, byte[]> rawTemplate;
+    private final KafkaTemplate<String, DeviceInfo> avroTemplate;
+    private final String deadLetterTopic;
+    private final String inputTopic;
+    private final int defaultRatePerSecond;
+    private final Duration pollTimeout;
+    private final Counter replayedCounter;
+    private final Counter unrecoverableCounter;
+    private final AtomicReference<DltReplayJob> current = new AtomicReference<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().daemon().name("dcs-dlt-replay").factory());
+
+    public DltReplayService(@Qualifier("poisonMessageConsumerFactory") ConsumerFactory<String, PoisonMessage> consumerFactory,
+                            @Qualifier("rawKafkaTemplate") KafkaTemplate<String, byte[]> rawTemplate,
+                            @Qualifier("avroKafkaTemplate") KafkaTemplate<String, DeviceInfo> avroTemplate,
+                            @Value("${app.topics.dead-letter}") String deadLetterTopic,
+                            @Value("${app.topics.input}") String inputTopic,
+                            @Value("${app.dlt-replay.rate-per-second:1000}") int defaultRatePerSecond,
+                            @Value("${app.dlt-replay.poll-ms:500}") long pollMs,
+                            MeterRegistry meterRegistry) {
+        this.consumerFactory = consumerFactory;
+        this.rawTemplate = rawTemplate;
+        this.avroTemplate = avroTemplate;
+        this.deadLetterTopic = deadLetterTopic;
+        this.inputTopic = inputTopic;
+        this.defaultRatePerSecond = defaultRatePerSecond;
+        this.pollTimeout = Duration.ofMillis(pollMs);
+        this.replayedCounter = Counter.builder("dcs.dlt.replay.replayed.total")
+                .description("DLT messages re-published to the input topic")
+                .register(meterRegistry);
+        this.unrecoverableCounter = Counter.builder("dcs.dlt.replay.unrecoverable.total")
+                .description("DLT messages matching a replay filter but stored without original bytes")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Запускает прогон в фоне
+     *
+     * @throws IllegalStateException если предыдущий прогон еще идет
+     * @throws IllegalArgumentException если скорость не положительна
+     */
+    public DltReplayJob start(DltReplayRequest request) {
+        final int rate = request.ratePerSecond() != null ? request.ratePerSecond() : defaultRatePerSecond;
+        if (rate <= 0) {
+            throw new IllegalArgumentException("ratePerSecond must be positive");
+        }
+        final DltReplayJob job = new DltReplayJob(request, rate);
+        final DltReplayJob previous = current.get();
+        if (previous != null && previous.isRunning() || !current.compareAndSet(previous, job)) {
+            throw new IllegalStateException("DLT replay is already running");
+        }
+        executor.execute(() -> {
+            try (Consumer<String, PoisonMessage> consumer = consumerFactory.createConsumer(null, "dcs-dlt-replay", null)) {
+                replay(consumer, job);
+            } catch (Exception e) {
+                log.error("DLT replay {} failed: {}", job.getId(), e.getMessage(), e);
+                job.fail(e);
+            }
+        });
+        return job;
+    }
+
+    public Optional<DltReplayJob> current() {
+        return Optional.ofNullable(current.get());
+    }
+
+    /**
+     * Останавливает текущий прогон; уже отправленные сообщения остаются во входном топике
+     */
+    public boolean cancel() {
+        final DltReplayJob job = current.get();
+        if (job == null || !job.isRunning()) {
+            return false;
+        }
+        job.cancel();
+        return true;
+    }
+
+    void replay(Consumer<String, PoisonMessage> consumer, DltReplayJob job) throws InterruptedException {
+        final DltReplayRequest request = job.getRequest();
+        final List<TopicPartition> partitions = consumer.partitionsFor(deadLetterTopic).stream()
+                .map(info -> new TopicPartition(info.topic(), info.partition()))
+                .toList();
+        consumer.assign(partitions);
+        final Map<TopicPartition, Long> end = consumer.endOffsets(partitions);
+        seekToStart(consumer, partitions, request);
+        log.info("DLT replay {} started: {} partitions, filter {}", job.getId(), partitions.size(), request);
+
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / job.getRatePerSecond();
+        long nextSendAt = System.nanoTime();
+        final Set<TopicPartition> remaining = new HashSet<>(partitions);
+        remaining.removeIf(partition -> consumer.position(partition) >= end.get(partition));
+
+        while (!remaining.isEmpty() && !job.isCancelRequested()) {
+            final ConsumerRecords<String, PoisonMessage> records = consumer.poll(pollTimeout);
+            for (TopicPartition partition : records.partitions()) {
+                final long partitionEnd = end.get(partition);
+                for (ConsumerRecord<String, PoisonMessage> record : records.records(partition)) {
+                    if (record.offset() >= partitionEnd || job.isCancelRequested() || limitReached(job)) {
+                        break;
+                    }
+                    job.scanned();
+                    final PoisonMessage message = record.value();
+                    if (message == null || !request.matches(message)) {
+                        continue;
+                    }
+                    final long wait = nextSendAt - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    nextSendAt = Math.max(nextSendAt, System.nanoTime() - intervalNanos) + intervalNanos;
+                    send(record, message, job);
+                }
+            }
+            if (limitReached(job)) {
+                break;
+            }
+            remaining.removeIf(partition -> consumer.position(partition) >= end.get(partition));
+        }
+        rawTemplate.flush();
+        avroTemplate.flush();
+        job.finish();
+        log.info("DLT replay {} {}: scanned={}, replayed={}, unrecoverable={}, failed={}", job.getId(),
+                job.getState(), job.getScanned(), job.getReplayed(), job.getUnrecoverable(), job.getFailed());
+    }
+
+    private void seekToStart(Consumer<String, PoisonMessage> consumer, List<TopicPartition> partitions,
+                             DltReplayRequest request) {
+        if (request.from() == null) {
+            consumer.seekToBeginning(partitions);
+            return;
+        }
+        // Запись попадает в DLT не раньше lastFailureTime, поэтому более ранние записи можно не читать
+        final Map<TopicPartition, Long> timestamps = new HashMap<>();
+        partitions.forEach(partition -> timestamps.put(partition, request.from().toEpochMilli()));
+        final Map<TopicPartition, OffsetAndTimestamp> offsets = consumer.offsetsForTimes(timestamps);
+        for (TopicPartition partition : partitions) {
+            final OffsetAndTimestamp offset = offsets.get(partition);
+            if (offset != null) {
+                consumer.seek(partition, offset.offset());
+            } else {
+                consumer.seekToEnd(List.of(partition));
+            }
+        }
+    }
+
+    private static boolean limitReached(DltReplayJob job) {
+        final Long limit = job.getRequest().limit();
+        return limit != null && job.getReplayed() >= limit;
+    }
+
+    private void send(ConsumerRecord<String, PoisonMessage> record, PoisonMessage message, DltReplayJob job) {
+        final byte[] value = bytes(message.getOriginalValue());
+        if (value.length == 0) {
+            job.unrecoverable();
+            unrecoverableCounter.increment();
+            return;
+        }
+        final String key = message.getDeviceId() != null ? message.getDeviceId() : message.getOriginalKey();
+        final byte[] origin = (record.partition() + "@" + record.offset()).getBytes(StandardCharsets.UTF_8);
+
+        final DeviceInfo decoded = isSingleObject(value) ? decode(value) : null;
+        if (decoded != null) {
+            final ProducerRecord<String, DeviceInfo> out = new ProducerRecord<>(inputTopic, key, decoded);
+            out.headers().add(REPLAY_HEADER, origin);
+            avroTemplate.send(out).whenComplete((result, throwable) -> onSent(job, key, throwable));
+        } else {
+            final ProducerRecord<String, byte[]> out = new ProducerRecord<>(inputTopic, key, value);
+            out.headers().add(REPLAY_HEADER, origin);
+            rawTemplate.send(out).whenComplete((result, throwable) -> onSent(job, key, throwable));
+        }
+        job.replayed();
+        replayedCounter.increment();
+    }
+
+    private static void onSent(DltReplayJob job, String key, Throwable throwable) {
+        if (throwable != null) {
+            job.failed();
+            log.error("Failed to replay DLT message key={}: {}", key, throwable.getMessage());
+        }
+    }
+
+    /**
+     * Avro single-object encoding начинается с маркера C3 01
+     */
+    private static boolean isSingleObject(byte[] value) {
+        return value.length > 10 && value[0] == (byte) 0xC3 && value[1] == 0x01;
+    }
+
+    private static DeviceInfo decode(byte[] value) {
+        try {
+            return DeviceInfo.fromByteBuffer(ByteBuffer.wrap(value));
+        } catch (Exception e) {
+            // Не наша схема: отправляем байты как есть
+            return null;
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        if (buffer == null) {
+            return new byte[0];
+        }
+        final ByteBuffer copy = buffer.duplicate();
+        final byte[] bytes = new byte[copy.remaining()];
+        copy.get(bytes);
+        return bytes;
+    }
+}
@@ -9,13 +9,8 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
-import org.springframework.retry.annotation.Backoff;
-import org.springframework.retry.annotation.Recover;
-import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -32,7 +27,6 @@ public class PoisonMessageHandler {
 
     private final Counter poisonMessagesCounter;
     private final Counter dltMessagesCounter;
-    private final Counter retryAttemptsCounter;
 
     @Autowired
     public PoisonMessageHandler(@Qualifier("poisonMessageKafkaTemplate") KafkaTemplate<String, PoisonMessage> poisonMessageKafkaTemplate,
@@ -45,57 +39,24 @@ public class PoisonMessageHandler {
         this.dltMessagesCounter = Counter.builder("dcs.dlt.messages.total")
                 .description("Total number of messages sent to DLT")
                 .register(meterRegistry);
-        this.retryAttemptsCounter = Counter.builder("dcs.retry.attempts.total")
-                .description("Total number of retry attempts")
-                .register(meterRegistry);
     }
 
 
     /**
-     * Обрабатывает poison message с retry механизмом
-     */
-    @Retryable(backoff = @Backoff(delay = 1000, multiplier = 2.0, maxDelay = 10000))
-    public void handlePoisonMessage(
-            String originalTopic,
-            String originalKey,
-            byte[] originalValue,
-            Exception error,
-            int retryAttempt,
-            String deviceId) {
-        
-        // Увеличиваем счетчик попыток
-        retryAttemptsCounter.increment();
-        
-        log.warn("Обработка poison message для deviceId={}, попытка={}, ошибка: {}", 
-                deviceId, retryAttempt, error.getMessage());
-        
-        try {
-            // Попытка десериализации Avro сообщения
-            validateAvroMessage(originalValue);
-            
-            // Попытка валидации deviceId
-            validateDeviceId(deviceId);
-            
-            log.info("Poison message успешно обработан для deviceId={}", deviceId);
-            
-        } catch (Exception e) {
-            log.error("Ошибка при обработке poison message для deviceId={}: {}", deviceId, e.getMessage());
-            throw new RuntimeException("Не удалось обработать poison message для deviceId=" + deviceId, e);
-        }
-    }
-
-    /**
-     * Восстановление после всех неудачных попыток - отправка в DLT
+     * Отправляет сообщение в DLT без повторов
+     *
+     * @return результат отправки; ошибка отправки уже записана в лог
      */
-    @Recover
-    public void recover(Exception ex, String originalTopic, String originalKey, 
-                      byte[] originalValue, Exception error, int retryAttempt, String deviceId) {
+    public CompletableFuture<?> sendToDeadLetter(String originalTopic, String originalKey, byte[] originalValue,
+                                 Exception ex, int retryAttempt, String deviceId) {
         
         // Увеличиваем счетчик poison messages
         poisonMessagesCounter.increment();
         
-        log.error("Все попытки обработки poison message исчерпаны для deviceId={}, отправка в DLT", deviceId);
-        
+        log.error("Poison message для deviceId={} после {} попыток, отправка в DLT", deviceId, retryAttempt);
+
+        // Время в epoch millis UTC: по нему фильтрует повтор из DLT
+        long now = System.currentTimeMillis();
         PoisonMessage poisonMessage = PoisonMessage.newBuilder()
                 .setOriginalTopic(originalTopic)
                 .setOriginalKey(originalKey)
@@ -103,19 +64,19 @@ public class PoisonMessageHandler {
                 .setErrorMessage(ex.getMessage())
                 .setErrorType(ex.getClass().getSimpleName())
                 .setRetryAttempts(retryAttempt)
-                .setFirstFailureTime(LocalDateTime.now().minusSeconds(retryAttempt * 2).toEpochSecond(ZoneOffset.UTC) * 1000)
-                .setLastFailureTime(LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) * 1000)
+                .setFirstFailureTime(now - retryAttempt * 2000L)
+                .setLastFailureTime(now)
                 .setDeviceId(deviceId)
                 .setMetadata(createMetadataJson(originalTopic, originalKey, deviceId))
                 .build();
 
-        sendToDeadLetterTopic(poisonMessage);
+        return sendToDeadLetterTopic(poisonMessage);
     }
 
     /**
      * Отправляет poison message в Dead Letter Topic
      */
-    public void sendToDeadLetterTopic(PoisonMessage poisonMessage) {
+    public CompletableFuture<?> sendToDeadLetterTopic(PoisonMessage poisonMessage) {
         try {
             String key = poisonMessage.getDeviceId() != null ? 
                 poisonMessage.getDeviceId() : 
@@ -135,9 +96,10 @@ public class PoisonMessageHandler {
                         poisonMessage.getDeviceId(), result.getRecordMetadata().offset());
                 }
             });
-            
+            return future;
         } catch (Exception e) {
             log.error("Критическая ошибка при отправке poison message в DLT: {}", e.getMessage(), e);
+            return CompletableFuture.failedFuture(e);
         }
     }
 
@@ -162,44 +124,6 @@ public class PoisonMessageHandler {
         }
     }
 
-    /**
-     * Валидирует Avro сообщение
-     */
-    private void validateAvroMessage(byte[] value) throws Exception {
-        if (value == null || value.length == 0) {
-            throw new IllegalArgumentException("Avro сообщение пустое");
-        }
-        
-        // Проверяем, что это похоже на Avro сообщение (должно начинаться с магических байтов)
-        if (value.length < 4) {
-            throw new IllegalArgumentException("Avro сообщение слишком короткое");
-        }
-        
-        // В реальной реализации здесь была бы полная валидация Avro схемы
-        // Для демонстрации просто проверяем базовые условия
-        log.debug("Avro сообщение прошло базовую валидацию, размер: {} байт", value.length);
-    }
-
-    /**
-     * Валидирует deviceId
-     */
-    private void validateDeviceId(String deviceId) throws Exception {
-        if (deviceId == null || deviceId.trim().isEmpty()) {
-            throw new IllegalArgumentException("DeviceId не может быть пустым");
-        }
-        
-        if (deviceId.length() > 255) {
-            throw new IllegalArgumentException("DeviceId слишком длинный (максимум 255 символов)");
-        }
-        
-        // Проверяем на наличие недопустимых символов
-        if (!deviceId.matches("^[a-zA-Z0-9_-]+$")) {
-            throw new IllegalArgumentException("DeviceId содержит недопустимые символы");
-        }
-        
-        log.debug("DeviceId прошел валидацию: {}", deviceId);
-    }
-
     /**
      * Извлекает deviceId из сообщения (простая реализация)
      */
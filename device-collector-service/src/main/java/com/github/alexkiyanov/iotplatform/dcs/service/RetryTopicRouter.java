@@ -0,0 +1,128 @@
+package com.github.alexkiyanov.iotplatform.dcs.service;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceInfo;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceUpdate;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Неблокирующие повторы: обновление, которое не удалось записать, публикуется в retry-топик следующей ступени
+ * (по умолчанию через 1 с, 10 с и 1 мин), после последней ступени - в DLT.
+ * <p>
+ * Срок повтора передается в заголовке {@value #DUE_AT_HEADER}; retry-топики читает RetryTopicConsumer,
+ * который ставит партицию на паузу до срока вместо сна в потоке.
+ */
+@Service
+public class RetryTopicRouter {
+    private static final Logger log = LoggerFactory.getLogger(RetryTopicRouter.class);
+
+    public static final String ATTEMPT_HEADER = "dcs-retry-attempt";
+    public static final String DUE_AT_HEADER = "dcs-retry-due-at";
+    public static final String ERROR_HEADER = "dcs-retry-error";
+
+    private final KafkaTemplate<String, DeviceInfo> template;
+    private final PoisonMessageHandler poisonMessageHandler;
+    private final DeviceUpdateMapper mapper;
+    private final String inputTopic;
+    private final boolean enabled;
+    private final List<Long> delaysMs;
+    private final Counter routedCounter;
+    private final Counter exhaustedCounter;
+
+    public RetryTopicRouter(@Qualifier("avroKafkaTemplate") KafkaTemplate<String, DeviceInfo> avroKafkaTemplate,
+                            PoisonMessageHandler poisonMessageHandler,
+                            DeviceUpdateMapper mapper,
+                            @Value("${app.topics.input}") String inputTopic,
+                            @Value("${app.retry-topics.enabled:true}") boolean enabled,
+                            @Value("${app.retry-topics.delays-ms:1000,10000,60000}") List<Long> delaysMs,
+                            MeterRegistry meterRegistry) {
+        this.template = avroKafkaTemplate;
+        this.poisonMessageHandler = poisonMessageHandler;
+        this.mapper = mapper;
+        this.inputTopic = inputTopic;
+        this.enabled = enabled;
+        this.delaysMs = List.copyOf(delaysMs);
+        this.routedCounter = Counter.builder("dcs.retry.topic.routed.total")
+                .description("Failed device updates published to a retry topic")
+                .register(meterRegistry);
+        this.exhaustedCounter = Counter.builder("dcs.retry.topic.exhausted.total")
+                .description("Device updates sent to DLT instead of another retry")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public List<Long> delaysMs() {
+        return delaysMs;
+    }
+
+    /**
+     * Имя retry-топика ступени tier (с нуля)
+     */
+    public String topic(int tier) {
+        return inputTopic + "-retry-" + delaysMs.get(tier);
+    }
+
+    /**
+     * Отправляет обновление на следующую ступень; attempt - сколько ступеней оно уже прошло (0 - основной топик).
+     * Батч можно подтверждать только после успешного завершения возвращенной отправки.
+     */
+    public CompletableFuture<?> route(DeviceUpdate update, Exception error, int attempt) {
+        if (!enabled || attempt >= delaysMs.size()) {
+            return deadLetter(update, error, attempt + 1);
+        }
+        final String topic = topic(attempt);
+        final ProducerRecord<String, DeviceInfo> record =
+                new ProducerRecord<>(topic, update.deviceId(), mapper.toAvro(update));
+        final Headers headers = record.headers();
+        headers.add(ATTEMPT_HEADER, Integer.toString(attempt + 1).getBytes(StandardCharsets.UTF_8));
+        headers.add(DUE_AT_HEADER, Long.toString(System.currentTimeMillis() + delaysMs.get(attempt))
+                .getBytes(StandardCharsets.UTF_8));
+        headers.add(ERROR_HEADER, String.valueOf(error.getMessage()).getBytes(StandardCharsets.UTF_8));
+
+        return template.send(record).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                log.error("Failed to publish deviceId={} to retry topic {}: {}",
+                        update.deviceId(), topic, throwable.getMessage());
+            } else {
+                routedCounter.increment();
+                log.debug("Routed deviceId={} to retry topic {}", update.deviceId(), topic);
+            }
+        });
+    }
+
+    /**
+     * Отправляет обновление в DLT без повторов; attempts - сколько раз его пытались записать
+     */
+    public CompletableFuture<?> deadLetter(DeviceUpdate update, Exception error, int attempts) {
+        exhaustedCounter.increment();
+        return poisonMessageHandler.sendToDeadLetter(inputTopic, update.deviceId(), mapper.toBytes(mapper.toAvro(update)), error,
+                attempts, update.deviceId());
+    }
+
+    public static long longHeader(Headers headers, String name, long fallback) {
+        final var header = headers.lastHeader(name);
+        if (header == null) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(new String(header.value(), StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
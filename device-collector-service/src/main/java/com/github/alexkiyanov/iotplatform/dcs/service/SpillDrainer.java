@@ -0,0 +1,142 @@
+package com.github.alexkiyanov.iotplatform.dcs.service;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import com.github.alexkiyanov.iotplatform.dcs.repository.DeviceInfoBatchRepository;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.ShardSpillLog;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.ShardSpillover;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Раз в drain-interval-ms дописывает spill-логи в шарды. Пока предохранитель шарда открыт, лог не трогается;
+ * после open-ms первая порция лога и есть пробная запись. Порция подтверждается в логе после записи в шард,
+ * поэтому при падении она будет записана повторно - upsert идемпотентен. Строки, которые шард отклонил
+ * (например, нарушение ограничений), уходят в DLT.
+ */
+@Component
+@ConditionalOnProperty(name = "app.shard-breaker.enabled", havingValue = "true")
+public class SpillDrainer {
+    private static final Logger log = LoggerFactory.getLogger(SpillDrainer.class);
+
+    private final ShardSpillover spillover;
+    private final DeviceInfoBatchRepository repository;
+    private final PoisonMessageHandler poisonMessageHandler;
+    private final DeviceUpdateMapper mapper;
+    private final String inputTopic;
+    private final long intervalMs;
+    private final int maxRows;
+    private final Counter drainedCounter;
+    private final Counter rejectedCounter;
+    private ScheduledExecutorService scheduler;
+
+    public SpillDrainer(ShardSpillover spillover,
+                        DeviceInfoBatchRepository repository,
+                        PoisonMessageHandler poisonMessageHandler,
+                        DeviceUpdateMapper mapper,
+                        @Value("${app.topics.input}") String inputTopic,
+                        @Value("${app.shard-breaker.drain-interval-ms:1000}") long intervalMs,
+                        @Value("${app.shard-breaker.drain-max-rows:500}") int maxRows,
+                        MeterRegistry meterRegistry) {
+        this.spillover = spillover;
+        this.repository = repository;
+        this.poisonMessageHandler = poisonMessageHandler;
+        this.mapper = mapper;
+        this.inputTopic = inputTopic;
+        this.intervalMs = intervalMs;
+        this.maxRows = maxRows;
+        this.drainedCounter = Counter.builder("dcs.spill.drained.rows.total")
+                .description("Spilled rows written to their shard after recovery")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("dcs.spill.rejected.rows.total")
+                .description("Spilled rows rejected by their shard and sent to DLT")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().daemon().name("dcs-spill-drainer").factory());
+        scheduler.scheduleWithFixedDelay(this::drainAll, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    void drainAll() {
+        for (int shard = 0; shard < spillover.shardCount(); shard++) {
+            try {
+                drain(shard);
+            } catch (RuntimeException e) {
+                log.error("Draining spill log of shard {} failed: {}", shard, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * @return число строк, записанных из лога в шард
+     */
+    int drain(int shard) {
+        int drained = 0;
+        while (spillover.hasPending(shard) && spillover.tryAcquire(shard)) {
+            final ShardSpillLog.Batch batch;
+            final Map<String, RuntimeException> failures;
+            try {
+                batch = spillover.peek(shard, maxRows);
+                failures = batch.rows().isEmpty() ? Map.of() : repository.writeSpilled(shard, batch.rows());
+                spillover.commit(shard, batch);
+            } catch (IOException | RuntimeException e) {
+                spillover.recordFailure(shard);
+                log.warn("Shard {} still unavailable, {} spilled rows drained so far: {}", shard, drained, e.getMessage());
+                return drained;
+            }
+            spillover.recordSuccess(shard);
+            reject(batch, failures);
+            drained += batch.rows().size();
+            drainedCounter.increment(batch.rows().size());
+            if (batch.rows().isEmpty()) {
+                break;
+            }
+        }
+        if (drained > 0) {
+            log.info("Drained {} spilled rows into shard {}", drained, shard);
+        }
+        return drained;
+    }
+
+    private void reject(ShardSpillLog.Batch batch, Map<String, RuntimeException> failures) {
+        if (failures.isEmpty()) {
+            return;
+        }
+        // С конца: в DLT уходит последняя строка устройства, ее и писал слитый upsert
+        for (DeviceInfoUpsert row : batch.rows().reversed()) {
+            final RuntimeException failure = failures.remove(row.deviceId());
+            if (failure == null) {
+                continue;
+            }
+            rejectedCounter.increment();
+            try {
+                poisonMessageHandler.sendToDeadLetter(inputTopic, row.deviceId(), mapper.toBytes(mapper.toAvro(row)),
+                        failure, 1, row.deviceId());
+            } catch (Exception e) {
+                log.error("Failed to send rejected spilled deviceId={} to DLT: {}", row.deviceId(), e.getMessage(), e);
+            }
+        }
+    }
+}
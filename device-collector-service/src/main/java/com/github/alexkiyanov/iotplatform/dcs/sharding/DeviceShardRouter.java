@@ -0,0 +1,29 @@
+package com.github.alexkiyanov.iotplatform.dcs.sharding;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Номер шарда device_info для deviceId по тому же правилу, что и алгоритм HASH_MOD ShardingSphere:
+ * |hashCode| % shard-count. Нужен, чтобы группировать записи по шардам до отправки в базу.
+ */
+@Component
+public class DeviceShardRouter {
+
+    private final int shardCount;
+
+    public DeviceShardRouter(@Value("${app.sharding.shard-count:2}") int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shard-count must be positive: " + shardCount);
+        }
+        this.shardCount = shardCount;
+    }
+
+    public int shardOf(String deviceId) {
+        return (int) (Math.abs((long) deviceId.hashCode()) % shardCount);
+    }
+
+    public int shardCount() {
+        return shardCount;
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.alexkiyanov.iotplatform.dcs.sharding;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Пулы соединений к мастерам шардов для записи в обход ShardingSphere: без разбора, маршрутизации
+ * и переписывания SQL на каждый оператор. Индекс в списке - номер шарда по {@link DeviceShardRouter}.
+ * <p>
+ * Шарды берутся из тех же правил spring.shardingsphere.*, что и у ShardingSphere, поэтому чтения и
+ * остальные запросы через ShardingSphere видят строки на тех же узлах.
+ */
+public class DirectShardDataSources implements AutoCloseable {
+    private static final String PREFIX = "spring.shardingsphere.";
+
+    private final List<DataSource> dataSources;
+    private final List<JdbcTemplate> templates;
+    private final boolean owned;
+
+    public DirectShardDataSources(List<DataSource> dataSources) {
+        this(dataSources, false);
+    }
+
+    private DirectShardDataSources(List<DataSource> dataSources, boolean owned) {
+        if (dataSources.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard data source is required");
+        }
+        this.dataSources = List.copyOf(dataSources);
+        this.templates = this.dataSources.stream().map(JdbcTemplate::new).toList();
+        this.owned = owned;
+    }
+
+    /**
+     * Строит пулы к мастерам шардов таблицы по правилам ShardingSphere.
+     *
+     * @throws IllegalStateException если правило не HASH_MOD по shard-count шардам или узел не найден
+     */
+    public static DirectShardDataSources fromShardingSphereRules(Environment env, String table,
+                                                                 int shardCount, int poolSize) {
+        final String tableRule = PREFIX + "rules.sharding.tables." + table + ".";
+        final String algorithm = required(env, tableRule + "database-strategy.standard.sharding-algorithm-name");
+        final String algorithmRule = PREFIX + "rules.sharding.sharding-algorithms." + algorithm + ".";
+        final String type = required(env, algorithmRule + "type");
+        if (!"HASH_MOD".equalsIgnoreCase(type)) {
+            throw new IllegalStateException("Direct routing supports only HASH_MOD, " + table + " uses " + type);
+        }
+        final int configuredCount = Integer.parseInt(required(env, algorithmRule + "props.sharding-count"));
+        if (configuredCount != shardCount) {
+            throw new IllegalStateException("app.sharding.shard-count=" + shardCount
+                    + " does not match ShardingSphere sharding-count=" + configuredCount);
+        }
+
+        final List<String> groups = new ArrayList<>();
+        for (String node : required(env, tableRule + "actual-data-nodes").split(",")) {
+            if (node.contains("$")) {
+                throw new IllegalStateException("Inline actual-data-nodes are not supported for direct routing: " + node);
+            }
+            groups.add(node.trim().substring(0, node.trim().indexOf('.')));
+        }
+
+        final List<DataSource> dataSources = new ArrayList<>(shardCount);
+        try {
+            for (int shard = 0; shard < shardCount; shard++) {
+                final String group = targetOf(groups, shard);
+                final String writeSource = env.getProperty(PREFIX + "rules.readwrite-splitting.data-sources."
+                        + group + ".static-strategy.write-data-source-name", group);
+                dataSources.add(hikari(env, writeSource, shard, poolSize));
+            }
+        } catch (RuntimeException e) {
+            dataSources.forEach(ds -> ((HikariDataSource) ds).close());
+            throw e;
+        }
+        return new DirectShardDataSources(dataSources, true);
+    }
+
+    public JdbcTemplate jdbcTemplate(int shard) {
+        return templates.get(shard);
+    }
+
+    public int shardCount() {
+        return dataSources.size();
+    }
+
+    @Override
+    public void close() {
+        if (owned) {
+            dataSources.forEach(ds -> ((HikariDataSource) ds).close());
+        }
+    }
+
+    // HASH_MOD выбирает первый узел, имя которого заканчивается номером шарда; имена без числового
+    // суффикса (ds0_group) сопоставляются по порядку в actual-data-nodes
+    private static String targetOf(List<String> groups, int shard) {
+        final String suffix = String.valueOf(shard);
+        return groups.stream()
+                .filter(group -> group.endsWith(suffix))
+                .findFirst()
+                .or(() -> positional(groups, shard))
+                .orElseThrow(() -> new IllegalStateException("No data node for shard " + shard + " in " + groups));
+    }
+
+    private static Optional<String> positional(List<String> groups, int shard) {
+        if (shard >= groups.size()) {
+            return Optional.empty();
+        }
+        final String group = groups.get(shard);
+        return Character.isDigit(group.charAt(group.length() - 1)) ? Optional.empty() : Optional.of(group);
+    }
+
+    private static DataSource hikari(Environment env, String name, int shard, int poolSize) {
+        final String prefix = PREFIX + "datasource." + name + ".";
+        // Пул создается лениво: соединения открываются при первой записи
+        final HikariDataSource ds = new HikariDataSource();
+        ds.setPoolName("dcs-direct-shard-" + shard);
+        ds.setJdbcUrl(required(env, prefix + "jdbc-url"));
+        ds.setUsername(env.getProperty(prefix + "username"));
+        ds.setPassword(env.getProperty(prefix + "password"));
+        ds.setDriverClassName(env.getProperty(prefix + "driver-class-name", "org.postgresql.Driver"));
+        ds.setMaximumPoolSize(poolSize);
+        return ds;
+    }
+
+    private static String required(Environment env, String key) {
+        final String value = env.getProperty(key);
+        if (value == null || value.isBlank()) {
+            throw new IllegalStateException("Missing ShardingSphere property " + key);
+        }
+        return value;
+    }
+}
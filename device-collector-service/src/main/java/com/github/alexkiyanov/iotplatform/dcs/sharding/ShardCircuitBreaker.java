@@ -0,0 +1,81 @@
+package com.github.alexkiyanov.iotplatform.dcs.sharding;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Предохранитель записи по каждому шарду. CLOSED - пишем в базу; после failure-threshold неудачных
+ * записей шарда подряд - OPEN на open-ms, запись в шард не пробуется; затем HALF_OPEN - разрешена одна
+ * пробная запись, ее исход закрывает предохранитель или снова открывает его.
+ */
+public class ShardCircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openMs;
+    private final LongSupplier clock;
+    private final State[] states;
+    private final int[] failures;
+    private final long[] openUntil;
+
+    public ShardCircuitBreaker(int shardCount, int failureThreshold, long openMs, LongSupplier clock) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("failure-threshold must be positive: " + failureThreshold);
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+        this.clock = clock;
+        this.states = new State[shardCount];
+        this.failures = new int[shardCount];
+        this.openUntil = new long[shardCount];
+        Arrays.fill(states, State.CLOSED);
+    }
+
+    /**
+     * Можно ли писать в шард сейчас. После open-ms первый вызов получает пробную запись,
+     * остальные - отказ, пока проба не завершится.
+     */
+    public synchronized boolean tryAcquire(int shard) {
+        return switch (states[shard]) {
+            case CLOSED -> true;
+            case HALF_OPEN -> false;
+            case OPEN -> {
+                if (clock.getAsLong() < openUntil[shard]) {
+                    yield false;
+                }
+                states[shard] = State.HALF_OPEN;
+                yield true;
+            }
+        };
+    }
+
+    public synchronized void onSuccess(int shard) {
+        states[shard] = State.CLOSED;
+        failures[shard] = 0;
+    }
+
+    /**
+     * @return true, если после этой ошибки предохранитель открыт
+     */
+    public synchronized boolean onFailure(int shard) {
+        if (states[shard] == State.OPEN) {
+            return true;
+        }
+        failures[shard]++;
+        if (states[shard] == State.HALF_OPEN || failures[shard] >= failureThreshold) {
+            states[shard] = State.OPEN;
+            openUntil[shard] = clock.getAsLong() + openMs;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized State state(int shard) {
+        return states[shard];
+    }
+
+    public synchronized int openShards() {
+        return (int) Arrays.stream(states).filter(state -> state != State.CLOSED).count();
+    }
+}
@@ -0,0 +1,226 @@
+package com.github.alexkiyanov.iotplatform.dcs.sharding;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Локальный append-only лог строк одного шарда на memory-mapped сегментах (по умолчанию 64 МБ).
+ * <p>
+ * Кадр: длина данных, число строк, CRC32C данных (по int) и JSON-массив строк. Сегмент создается заполненным
+ * нулями, поэтому нулевая длина - конец записанных данных; недописанный при падении кадр не проходит CRC
+ * и перезаписывается. {@link #append} возвращается после force() кадра на диск.
+ * Позиция чтения хранится в файле checkpoint; прочитанные сегменты удаляются.
+ */
+public class ShardSpillLog {
+
+    private static final String SUFFIX = ".spill";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final int HEADER = 12;
+    private static final TypeReference<List<DeviceInfoUpsert>> ROWS = new TypeReference<>() {};
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final ObjectMapper objectMapper;
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+    private final Map<Long, MappedByteBuffer> mapped = new HashMap<>();
+    private long writeSegment;
+    private int writePosition;
+    private long readSegment;
+    private int readPosition;
+    private long pendingRows;
+
+    /**
+     * Прочитанная, но еще не подтвержденная порция; segment/position - позиция чтения после нее
+     */
+    public record Batch(List<DeviceInfoUpsert> rows, long segment, int position) {
+    }
+
+    public ShardSpillLog(Path dir, int segmentBytes, ObjectMapper objectMapper) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.objectMapper = objectMapper;
+        Files.createDirectories(dir);
+        recover();
+    }
+
+    /**
+     * Дописывает строки одним кадром и сбрасывает его на диск
+     */
+    public synchronized void append(List<DeviceInfoUpsert> rows) throws IOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        final byte[] data = objectMapper.writeValueAsBytes(rows);
+        final int frame = HEADER + data.length;
+        MappedByteBuffer buffer = buffer(writeSegment);
+        if (writePosition + frame > buffer.capacity()) {
+            writeSegment = createSegment(writeSegment + 1, Math.max(segmentBytes, frame));
+            writePosition = 0;
+            buffer = buffer(writeSegment);
+        }
+        final CRC32C crc = new CRC32C();
+        crc.update(data);
+        buffer.put(writePosition + HEADER, data);
+        buffer.putInt(writePosition + 4, rows.size());
+        buffer.putInt(writePosition + 8, (int) crc.getValue());
+        buffer.putInt(writePosition, data.length);
+        buffer.force(writePosition, frame);
+        writePosition += frame;
+        pendingRows += rows.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return readSegment == writeSegment && readPosition >= writePosition;
+    }
+
+    public synchronized long pendingRows() {
+        return pendingRows;
+    }
+
+    /**
+     * Читает кадры от позиции чтения, пока не наберется maxRows строк (кадр не делится), не сдвигая позицию
+     */
+    public synchronized Batch peek(int maxRows) throws IOException {
+        final List<DeviceInfoUpsert> rows = new ArrayList<>();
+        long segment = readSegment;
+        int position = readPosition;
+        while (rows.size() < maxRows) {
+            final ByteBuffer frame = segments.containsKey(segment) ? frame(buffer(segment), position) : null;
+            if (frame != null) {
+                rows.addAll(objectMapper.readValue(frame.array(), ROWS));
+                position += HEADER + frame.capacity();
+                continue;
+            }
+            final Long next = segments.higherKey(segment);
+            if (next == null || segment == writeSegment) {
+                break;
+            }
+            segment = next;
+            position = 0;
+        }
+        return new Batch(rows, segment, position);
+    }
+
+    /**
+     * Сдвигает позицию чтения за порцию и удаляет сегменты до нее
+     */
+    public synchronized void commit(Batch batch) throws IOException {
+        readSegment = batch.segment();
+        readPosition = batch.position();
+        pendingRows = Math.max(0, pendingRows - batch.rows().size());
+        writeCheckpoint();
+        while (!segments.isEmpty() && segments.firstKey() < readSegment) {
+            final Map.Entry<Long, Path> consumed = segments.pollFirstEntry();
+            mapped.remove(consumed.getKey());
+            Files.deleteIfExists(consumed.getValue());
+        }
+    }
+
+    private void recover() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+                    .forEach(file -> segments.put(segmentId(file), file));
+        }
+        final Path checkpoint = dir.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            final ByteBuffer saved = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+            readSegment = saved.getLong();
+            readPosition = saved.getInt();
+        }
+        while (!segments.isEmpty() && segments.firstKey() < readSegment) {
+            Files.deleteIfExists(segments.pollFirstEntry().getValue());
+        }
+        if (segments.isEmpty()) {
+            writeSegment = createSegment(readSegment + 1, segmentBytes);
+            readSegment = writeSegment;
+            readPosition = 0;
+            writePosition = 0;
+            return;
+        }
+        if (segments.firstKey() > readSegment) {
+            readSegment = segments.firstKey();
+            readPosition = 0;
+        }
+        // Конец записанных данных ищем по кадрам, заодно считаем непрочитанные строки
+        for (Map.Entry<Long, Path> entry : segments.entrySet()) {
+            final MappedByteBuffer buffer = buffer(entry.getKey());
+            int position = entry.getKey() == readSegment ? readPosition : 0;
+            ByteBuffer frame;
+            while ((frame = frame(buffer, position)) != null) {
+                pendingRows += buffer.getInt(position + 4);
+                position += HEADER + frame.capacity();
+            }
+            writeSegment = entry.getKey();
+            writePosition = position;
+        }
+    }
+
+    private ByteBuffer frame(MappedByteBuffer buffer, int position) {
+        if (position + HEADER > buffer.capacity()) {
+            return null;
+        }
+        final int length = buffer.getInt(position);
+        if (length <= 0 || position + HEADER + length > buffer.capacity()) {
+            return null;
+        }
+        final byte[] data = new byte[length];
+        buffer.get(position + HEADER, data);
+        final CRC32C crc = new CRC32C();
+        crc.update(data);
+        return (int) crc.getValue() == buffer.getInt(position + 8) ? ByteBuffer.wrap(data) : null;
+    }
+
+    private long createSegment(long id, int size) throws IOException {
+        final Path file = dir.resolve(String.format("%020d%s", id, SUFFIX));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            mapped.put(id, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+        segments.put(id, file);
+        return id;
+    }
+
+    private MappedByteBuffer buffer(long id) throws IOException {
+        MappedByteBuffer buffer = mapped.get(id);
+        if (buffer == null) {
+            try (FileChannel channel = FileChannel.open(segments.get(id),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            }
+            mapped.put(id, buffer);
+        }
+        return buffer;
+    }
+
+    private void writeCheckpoint() throws IOException {
+        final Path tmp = dir.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(12).putLong(readSegment).putInt(readPosition).flip());
+            channel.force(true);
+        }
+        Files.move(tmp, dir.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static long segmentId(Path file) {
+        final String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+}
@@ -0,0 +1,162 @@
+package com.github.alexkiyanov.iotplatform.dcs.sharding;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Предохранители шардов ({@link ShardCircuitBreaker}) и локальные spill-логи ({@link ShardSpillLog}).
+ * <p>
+ * Пока предохранитель шарда открыт, его строки дописываются в spill-лог шарда вместо базы: запись не ждет
+ * таймаутов соединения, и батч подтверждается после force() кадра, а остальные шарды пишутся как обычно.
+ * Пока в логе есть непрочитанные строки, новые строки шарда тоже идут в лог - так SpillDrainer
+ * пишет их в базу в исходном порядке и более старая строка не перезапишет более новую.
+ * <p>
+ * Включается только явно (app.shard-breaker.enabled): подтвержденный батч живет только в spill-логе,
+ * поэтому каталог должен пережить пересоздание контейнера.
+ * Если он лежит в слое контейнера или в памяти (overlay, tmpfs), сервис не стартует, пока не смонтирован
+ * том или не выключен app.shard-breaker.require-persistent-spill-dir.
+ */
+@Component
+@ConditionalOnProperty(name = "app.shard-breaker.enabled", havingValue = "true")
+public class ShardSpillover {
+    private static final Logger log = LoggerFactory.getLogger(ShardSpillover.class);
+    // Файловые системы, содержимое которых теряется вместе с контейнером или при перезагрузке
+    private static final Set<String> EPHEMERAL_FILE_STORES = Set.of("overlay", "overlayfs", "aufs", "tmpfs", "ramfs");
+
+    private final ShardCircuitBreaker breaker;
+    private final ShardSpillLog[] logs;
+    private final Counter openedCounter;
+    private final Counter spilledCounter;
+
+    public ShardSpillover(DeviceShardRouter router,
+                          ObjectMapper objectMapper,
+                          @Value("${app.shard-breaker.failure-threshold:3}") int failureThreshold,
+                          @Value("${app.shard-breaker.open-ms:10000}") long openMs,
+                          @Value("${app.shard-breaker.spill-dir:/var/lib/dcs/spill}") String spillDir,
+                          @Value("${app.shard-breaker.require-persistent-spill-dir:true}") boolean requirePersistentDir,
+                          @Value("${app.shard-breaker.segment-bytes:67108864}") int segmentBytes,
+                          MeterRegistry meterRegistry) {
+        checkPersistent(Path.of(spillDir), requirePersistentDir);
+        this.breaker = new ShardCircuitBreaker(router.shardCount(), failureThreshold, openMs, System::currentTimeMillis);
+        this.logs = new ShardSpillLog[router.shardCount()];
+        try {
+            for (int shard = 0; shard < logs.length; shard++) {
+                logs[shard] = new ShardSpillLog(Path.of(spillDir, "shard-" + shard), segmentBytes, objectMapper);
+                if (!logs[shard].isEmpty()) {
+                    log.warn("Shard {} spill log has {} rows left from a previous run", shard, logs[shard].pendingRows());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open spill logs in " + spillDir, e);
+        }
+        this.openedCounter = Counter.builder("dcs.shard.breaker.opened.total")
+                .description("Times a shard circuit breaker opened")
+                .register(meterRegistry);
+        this.spilledCounter = Counter.builder("dcs.spill.rows.total")
+                .description("Rows written to a local spill log instead of an unavailable shard")
+                .register(meterRegistry);
+        Gauge.builder("dcs.shard.breaker.open", breaker, ShardCircuitBreaker::openShards)
+                .description("Shards whose circuit breaker is open or half-open")
+                .register(meterRegistry);
+        Gauge.builder("dcs.spill.pending.rows", logs,
+                        all -> Arrays.stream(all).mapToLong(ShardSpillLog::pendingRows).sum())
+                .description("Spilled rows not yet drained to their shard")
+                .register(meterRegistry);
+    }
+
+    static boolean isEphemeral(String fileStoreType) {
+        return EPHEMERAL_FILE_STORES.contains(fileStoreType);
+    }
+
+    private static void checkPersistent(Path dir, boolean required) {
+        final String type;
+        try {
+            Files.createDirectories(dir);
+            type = Files.getFileStore(dir).type();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open spill dir " + dir, e);
+        }
+        if (!isEphemeral(type)) {
+            return;
+        }
+        if (required) {
+            throw new IllegalStateException("Spill dir " + dir + " is on " + type + " and will not survive a restart;"
+                    + " mount a volume there or set app.shard-breaker.require-persistent-spill-dir=false");
+        }
+        log.warn("Spill dir {} is on {}: spilled rows acknowledged to Kafka are lost if the container is recreated",
+                dir, type);
+    }
+
+    public int shardCount() {
+        return logs.length;
+    }
+
+    /**
+     * Писать ли строки шарда в spill-лог. false может означать пробную запись полуоткрытого
+     * предохранителя: ее исход нужно сообщить через {@link #recordSuccess}/{@link #recordFailure}.
+     */
+    public boolean shouldSpill(int shard) {
+        return !logs[shard].isEmpty() || !breaker.tryAcquire(shard);
+    }
+
+    /**
+     * Можно ли писать в шард в обход spill-лога (для записей best effort, не занимает пробу)
+     */
+    public boolean isClosed(int shard) {
+        return breaker.state(shard) == ShardCircuitBreaker.State.CLOSED;
+    }
+
+    public void spill(int shard, List<DeviceInfoUpsert> rows) throws IOException {
+        logs[shard].append(rows);
+        spilledCounter.increment(rows.size());
+    }
+
+    public void recordSuccess(int shard) {
+        breaker.onSuccess(shard);
+    }
+
+    /**
+     * @return true, если предохранитель шарда открыт и строки нужно писать в spill-лог
+     */
+    public boolean recordFailure(int shard) {
+        final boolean wasOpen = breaker.state(shard) == ShardCircuitBreaker.State.OPEN;
+        final boolean open = breaker.onFailure(shard);
+        if (open && !wasOpen) {
+            openedCounter.increment();
+            log.warn("Shard {} circuit breaker opened, spilling its writes to local log", shard);
+        }
+        return open;
+    }
+
+    public boolean hasPending(int shard) {
+        return !logs[shard].isEmpty();
+    }
+
+    public boolean tryAcquire(int shard) {
+        return breaker.tryAcquire(shard);
+    }
+
+    public ShardSpillLog.Batch peek(int shard, int maxRows) throws IOException {
+        return logs[shard].peek(maxRows);
+    }
+
+    public void commit(int shard, ShardSpillLog.Batch batch) throws IOException {
+        logs[shard].commit(batch);
+    }
+}
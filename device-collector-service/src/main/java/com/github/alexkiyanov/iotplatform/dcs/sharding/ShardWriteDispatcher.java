@@ -0,0 +1,137 @@
+package com.github.alexkiyanov.iotplatform.dcs.sharding;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+
+/**
+ * Параллельная запись в шарды: задачи разных шардов выполняются одновременно, каждая на своем потоке
+ * и, значит, на своем соединении из пула. Первый шард пишет вызывающий поток, остальные - пул writer-threads.
+ * Вызов возвращается только после завершения всех шардов (или таймаута), поэтому ack батча идет после записи.
+ */
+@Component
+public class ShardWriteDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(ShardWriteDispatcher.class);
+
+    private final ExecutorService writers;
+    private final long timeoutMs;
+    private final Timer dispatchTimer;
+    private final Counter parallelCounter;
+    private final Counter timeoutsCounter;
+
+    public ShardWriteDispatcher(@Value("${app.sharding.writer-threads:4}") int writerThreads,
+                                @Value("${app.sharding.write-timeout-ms:30000}") long timeoutMs,
+                                MeterRegistry meterRegistry) {
+        if (writerThreads <= 0) {
+            throw new IllegalArgumentException("writer-threads must be positive: " + writerThreads);
+        }
+        this.writers = Executors.newFixedThreadPool(writerThreads,
+                Thread.ofPlatform().daemon().name("dcs-shard-writer-", 0).factory());
+        this.timeoutMs = timeoutMs;
+        this.dispatchTimer = Timer.builder("dcs.shard.write.dispatch")
+                .description("Time to write one batch to all shards")
+                .register(meterRegistry);
+        this.parallelCounter = Counter.builder("dcs.shard.write.parallel.total")
+                .description("Shard writes offloaded to the writer pool")
+                .register(meterRegistry);
+        this.timeoutsCounter = Counter.builder("dcs.shard.write.timeouts.total")
+                .description("Shard writes abandoned after write-timeout-ms")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        writers.shutdownNow();
+    }
+
+    /**
+     * Выполняет задачи шардов параллельно и ждет их все.
+     *
+     * @param tasks     задача на каждый шард
+     * @param onFailure результат для шарда, задача которого упала, не дождалась пула или таймаута
+     * @return результат по каждому шарду
+     */
+    public <R> Map<Integer, R> dispatch(Map<Integer, Callable<R>> tasks,
+                                        BiFunction<Integer, RuntimeException, R> onFailure) {
+        final Map<Integer, R> results = new LinkedHashMap<>();
+        if (tasks.isEmpty()) {
+            return results;
+        }
+        final long started = System.nanoTime();
+        final Iterator<Map.Entry<Integer, Callable<R>>> it = tasks.entrySet().iterator();
+        final Map.Entry<Integer, Callable<R>> inline = it.next();
+
+        final List<Integer> shards = new ArrayList<>();
+        final List<Future<R>> futures = new ArrayList<>();
+        while (it.hasNext()) {
+            final Map.Entry<Integer, Callable<R>> task = it.next();
+            try {
+                futures.add(writers.submit(task.getValue()));
+                shards.add(task.getKey());
+                parallelCounter.increment();
+            } catch (RejectedExecutionException e) {
+                results.put(task.getKey(), onFailure.apply(task.getKey(), e));
+            }
+        }
+
+        results.put(inline.getKey(), call(inline.getKey(), inline.getValue(), onFailure));
+
+        final long deadline = started + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (int i = 0; i < futures.size(); i++) {
+            final int shard = shards.get(i);
+            results.put(shard, await(shard, futures.get(i), deadline, onFailure));
+        }
+        dispatchTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        return results;
+    }
+
+    private <R> R call(int shard, Callable<R> task, BiFunction<Integer, RuntimeException, R> onFailure) {
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            return onFailure.apply(shard, e);
+        } catch (Exception e) {
+            return onFailure.apply(shard, new IllegalStateException(e.getMessage(), e));
+        }
+    }
+
+    private <R> R await(int shard, Future<R> future, long deadline,
+                        BiFunction<Integer, RuntimeException, R> onFailure) {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timeoutsCounter.increment();
+            log.warn("Write to shard {} did not finish in {} ms", shard, timeoutMs);
+            return onFailure.apply(shard, new IllegalStateException("Shard " + shard + " write timed out", e));
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            return onFailure.apply(shard, cause instanceof RuntimeException runtime
+                    ? runtime : new IllegalStateException(cause.getMessage(), cause));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return onFailure.apply(shard, new IllegalStateException("Interrupted while waiting for shard " + shard, e));
+        }
+    }
+}
@@ -0,0 +1,25 @@
+-- Горячий last_seen вынесен из device_info в узкую таблицу device_presence.
+-- Строка registry переписывается только при значимых изменениях, а частые отметки присутствия
+-- обновляют короткую строку без индекса на last_seen: такие обновления идут как HOT
+-- в свободное место страницы (fillfactor) и не раздувают индексы device_info.
+CREATE TABLE device_presence (
+    device_id VARCHAR(255) PRIMARY KEY,
+    last_seen TIMESTAMP NOT NULL
+) WITH (fillfactor = 70);
+
+-- Таблица маленькая и обновляется постоянно: autovacuum запускается раньше порога по умолчанию
+ALTER TABLE device_presence SET (
+    autovacuum_vacuum_scale_factor = 0.02,
+    autovacuum_analyze_scale_factor = 0.05
+);
+
+-- Registry вместе с актуальным last_seen
+CREATE VIEW device_info_current AS
+SELECT d.*, GREATEST(d.last_seen, p.last_seen) AS current_last_seen
+FROM device_info d
+LEFT JOIN device_presence p ON p.device_id = d.device_id;
+
+COMMENT ON TABLE device_presence IS 'Последнее появление устройств, обновляется с каждым батчем';
+COMMENT ON COLUMN device_presence.device_id IS 'Уникальный идентификатор устройства';
+COMMENT ON COLUMN device_presence.last_seen IS 'Время последнего появления устройства в системе';
+COMMENT ON VIEW device_info_current IS 'Информация об устройствах с last_seen из device_presence';
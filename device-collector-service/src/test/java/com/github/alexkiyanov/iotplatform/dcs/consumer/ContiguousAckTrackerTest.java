@@ -0,0 +1,63 @@
+package com.github.alexkiyanov.iotplatform.dcs.consumer;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.kafka.support.Acknowledgment;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class ContiguousAckTrackerTest {
+
+    private final ContiguousAckTracker tracker = new ContiguousAckTracker();
+
+    @Test
+    void partDone_WhenLaterBatchFinishesFirst_ShouldWaitForEarlierOne() {
+        // Given
+        Acknowledgment first = mock(Acknowledgment.class);
+        Acknowledgment second = mock(Acknowledgment.class);
+        ContiguousAckTracker.Ticket firstTicket = tracker.register(first, 1);
+        ContiguousAckTracker.Ticket secondTicket = tracker.register(second, 1);
+
+        // When
+        secondTicket.partDone();
+
+        // Then - разрыв в префиксе: ничего не подтверждено
+        verify(first, never()).acknowledge();
+        verify(second, never()).acknowledge();
+        assertThat(tracker.inFlight()).isEqualTo(2);
+
+        // When
+        firstTicket.partDone();
+
+        // Then
+        InOrder order = inOrder(first, second);
+        order.verify(first).acknowledge();
+        order.verify(second).acknowledge();
+        assertThat(tracker.inFlight()).isZero();
+        assertThat(tracker.acknowledged()).isEqualTo(2);
+    }
+
+    @Test
+    void partDone_ShouldAckOnlyAfterAllPartsOfBatch() {
+        // Given
+        Acknowledgment ack = mock(Acknowledgment.class);
+        ContiguousAckTracker.Ticket ticket = tracker.register(ack, 3);
+
+        // When
+        ticket.partDone();
+        ticket.partDone();
+
+        // Then
+        verify(ack, never()).acknowledge();
+
+        // When
+        ticket.partDone();
+
+        // Then
+        verify(ack).acknowledge();
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.alexkiyanov.iotplatform.dcs.consumer;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import com.github.alexkiyanov.iotplatform.dcs.repository.DeviceInfoBatchRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceHeartbeatListenerTest {
+
+    @Mock
+    private DeviceInfoBatchRepository repository;
+
+    @Captor
+    private ArgumentCaptor<List<DeviceInfoUpsert>> rowsCaptor;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private DeviceHeartbeatListener listener;
+
+    @BeforeEach
+    void setUp() {
+        listener = new DeviceHeartbeatListener(repository, meterRegistry);
+    }
+
+    @Test
+    void onBatch_ShouldTouchPresenceWithHeartbeatTime() {
+        // When
+        listener.onBatch(List.of(heartbeat("device-1", "1735732800000"), heartbeat("device-2", "1735732801500")));
+
+        // Then
+        verify(repository).touchAll(rowsCaptor.capture());
+        assertThat(rowsCaptor.getValue()).containsExactly(
+                DeviceInfoUpsert.seen("device-1", LocalDateTime.of(2025, 1, 1, 12, 0)),
+                DeviceInfoUpsert.seen("device-2", LocalDateTime.of(2025, 1, 1, 12, 0, 1, 500_000_000)));
+        assertThat(meterRegistry.counter("dcs.heartbeat.applied.total").count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void onBatch_WhenHeartbeatMalformed_ShouldSkipIt() {
+        // When
+        listener.onBatch(List.of(heartbeat(null, "1735732800000"), heartbeat("device-1", "not-a-number"),
+                heartbeat("device-2", null)));
+
+        // Then
+        verify(repository, never()).touchAll(anyList());
+        assertThat(meterRegistry.counter("dcs.heartbeat.invalid.total").count()).isEqualTo(3.0);
+    }
+
+    private static ConsumerRecord<String, String> heartbeat(String deviceId, String lastSeen) {
+        return new ConsumerRecord<>("device-heartbeat-topic", 0, 0L, deviceId, lastSeen);
+    }
+}
@@ -2,22 +2,32 @@ package com.github.alexkiyanov.iotplatform.dcs.consumer;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.alexkiyanov.iotplatform.avro.DeviceInfo;
-import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoEntity;
-import com.github.alexkiyanov.iotplatform.dcs.repository.DeviceInfoRepository;
-import com.github.alexkiyanov.iotplatform.dcs.service.DeviceInfoPublisher;
+import com.github.alexkiyanov.iotplatform.dcs.service.DeviceInfoWriter;
+import com.github.alexkiyanov.iotplatform.dcs.service.DeviceUpdateMapper;
+import com.github.alexkiyanov.iotplatform.dcs.service.DltReplayService;
 import com.github.alexkiyanov.iotplatform.dcs.service.PoisonMessageHandler;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.SerializationException;
 import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.serializer.SerializationUtils;
 
-import java.time.LocalDateTime;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
@@ -25,10 +35,13 @@ import static org.mockito.Mockito.*;
 class DeviceIdListenerTest {
 
     @Mock
-    private DeviceInfoRepository repository;
+    private DeviceInfoWriter writer;
 
     @Mock
-    private DeviceInfoPublisher publisher;
+    private DeviceInfoCoalescer coalescer;
+
+    @Mock
+    private KeyOrderedExecutor keyOrdered;
 
     @Mock
     private PoisonMessageHandler poisonMessageHandler;
@@ -42,7 +55,8 @@ class DeviceIdListenerTest {
     @BeforeEach
     void setUp() {
         objectMapper = new ObjectMapper();
-        deviceIdListener = new DeviceIdListener(repository, publisher, poisonMessageHandler, "device-id-topic", objectMapper);
+        deviceIdListener = new DeviceIdListener(writer, coalescer, keyOrdered, poisonMessageHandler, "device-id-topic",
+                new DeviceUpdateMapper(objectMapper));
     }
 
     @Test
@@ -51,24 +65,20 @@ class DeviceIdListenerTest {
         List<DeviceInfo> emptyList = Collections.emptyList();
 
         // When
-        deviceIdListener.onBatch(emptyList, "device-id-topic", 0, 100L, acknowledgment);
+        deviceIdListener.onBatch(records(emptyList), acknowledgment);
 
         // Then
-        verify(repository, never()).upsertDeviceInfo(anyString(), anyString(), anyString(), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class));
+        verify(writer, never()).write(anyList());
         verify(acknowledgment, never()).acknowledge();
     }
 
     @Test
     void onBatch_WhenNullList_ShouldNotProcess() {
         // When
-        deviceIdListener.onBatch(null, "device-id-topic", 0, 100L, acknowledgment);
+        deviceIdListener.onBatch(null, acknowledgment);
 
         // Then
-        verify(repository, never()).upsertDeviceInfo(anyString(), anyString(), anyString(), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class));
+        verify(writer, never()).write(anyList());
         verify(acknowledgment, never()).acknowledge();
     }
 
@@ -89,19 +99,13 @@ class DeviceIdListenerTest {
 
         List<DeviceInfo> deviceInfos = Arrays.asList(avroDeviceInfo);
 
-        // Mock upsert method
-        doNothing().when(repository).upsertDeviceInfo(anyString(), anyString(), anyString(), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class));
+        when(writer.write(anyList())).thenAnswer(invocation -> invocation.<List<?>>getArgument(0).size());
 
         // When
-        deviceIdListener.onBatch(deviceInfos, "device-id-topic", 0, 100L, acknowledgment);
+        deviceIdListener.onBatch(records(deviceInfos), acknowledgment);
 
         // Then
-        verify(repository).upsertDeviceInfo(anyString(), anyString(), anyString(), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class));
-        verify(publisher).publishDeviceInfo(any(DeviceInfoEntity.class));
+        verify(writer).write(argThat(updates -> updates.size() == 1));
         verify(acknowledgment).acknowledge();
     }
 
@@ -133,19 +137,13 @@ class DeviceIdListenerTest {
 
         List<DeviceInfo> deviceInfos = Arrays.asList(device1, device2);
 
-        // Mock upsert method
-        doNothing().when(repository).upsertDeviceInfo(anyString(), anyString(), anyString(), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class));
+        when(writer.write(anyList())).thenAnswer(invocation -> invocation.<List<?>>getArgument(0).size());
 
         // When
-        deviceIdListener.onBatch(deviceInfos, "device-id-topic", 0, 100L, acknowledgment);
+        deviceIdListener.onBatch(records(deviceInfos), acknowledgment);
 
         // Then
-        verify(repository, times(2)).upsertDeviceInfo(anyString(), anyString(), anyString(), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class));
-        verify(publisher, times(2)).publishDeviceInfo(any(DeviceInfoEntity.class));
+        verify(writer).write(argThat(updates -> updates.size() == 2));
         verify(acknowledgment).acknowledge();
     }
 
@@ -165,19 +163,13 @@ class DeviceIdListenerTest {
 
         List<DeviceInfo> deviceInfos = Arrays.asList(null, validDevice, null);
 
-        // Mock upsert method
-        doNothing().when(repository).upsertDeviceInfo(anyString(), anyString(), anyString(), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class));
+        when(writer.write(anyList())).thenAnswer(invocation -> invocation.<List<?>>getArgument(0).size());
 
         // When
-        deviceIdListener.onBatch(deviceInfos, "device-id-topic", 0, 100L, acknowledgment);
+        deviceIdListener.onBatch(records(deviceInfos), acknowledgment);
 
         // Then
-        verify(repository).upsertDeviceInfo(anyString(), anyString(), anyString(), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class));
-        verify(publisher).publishDeviceInfo(any(DeviceInfoEntity.class));
+        verify(writer).write(argThat(updates -> updates.size() == 1));
         verify(acknowledgment).acknowledge();
     }
 
@@ -198,12 +190,195 @@ class DeviceIdListenerTest {
         List<DeviceInfo> deviceInfos = Arrays.asList(deviceWithEmptyId);
 
         // When
-        deviceIdListener.onBatch(deviceInfos, "device-id-topic", 0, 100L, acknowledgment);
+        deviceIdListener.onBatch(records(deviceInfos), acknowledgment);
+
+        // Then
+        verify(writer, never()).write(anyList());
+        verify(acknowledgment, never()).acknowledge();
+        // Ошибка в самом сообщении: сразу в DLT, без повторов в потоке listener-а
+        verify(poisonMessageHandler).sendToDeadLetter(eq("device-id-topic"), anyString(), any(byte[].class),
+                any(Exception.class), eq(1), anyString());
+    }
+
+    @Test
+    void onBatch_WhenDeviceIdIsEmpty_ShouldSendDecodableBytesToDlt() throws Exception {
+        // Given
+        DeviceInfo deviceWithEmptyId = DeviceInfo.newBuilder()
+                .setDeviceId("")
+                .setDeviceType("sensor")
+                .setManufacturer("TestCorp")
+                .setModel("SensorX")
+                .setFirmwareVersion("1.0.0")
+                .setFirstSeen(1_000L)
+                .setLastSeen(2_000L)
+                .setStatus("active")
+                .build();
+
+        // When
+        deviceIdListener.onBatch(records(List.of(deviceWithEmptyId)), acknowledgment);
+
+        // Then - в DLT не пустой массив, а само сообщение, которое можно повторить
+        ArgumentCaptor<byte[]> value = ArgumentCaptor.forClass(byte[].class);
+        verify(poisonMessageHandler).sendToDeadLetter(eq("device-id-topic"), any(), value.capture(),
+                any(Exception.class), eq(1), any());
+        assertThat(DeviceInfo.fromByteBuffer(ByteBuffer.wrap(value.getValue()))).isEqualTo(deviceWithEmptyId);
+    }
+
+    @Test
+    void onBatch_WhenValueNotDeserializable_ShouldSendOriginalBytesToDlt() {
+        // Given - ErrorHandlingDeserializer отдал null и сохранил исходные байты в заголовке
+        byte[] raw = "corrupted-avro-data".getBytes(StandardCharsets.UTF_8);
+        ConsumerRecord<String, DeviceInfo> record = new ConsumerRecord<>("device-id-topic", 0, 100L, "device-9", null);
+        SerializationUtils.deserializationException(record.headers(), raw,
+                new SerializationException("Unknown magic byte!"), false);
+
+        // When
+        deviceIdListener.onBatch(List.of(record), acknowledgment);
+
+        // Then
+        verify(poisonMessageHandler).sendToDeadLetter(eq("device-id-topic"), eq("device-9"), eq(raw),
+                any(Exception.class), eq(1), any());
+        verify(writer, never()).write(anyList());
+        verify(acknowledgment, never()).acknowledge();
+    }
+
+    @Test
+    void onBatch_WhenNothingWritten_ShouldNotAcknowledge() {
+        // Given
+        DeviceInfo device = DeviceInfo.newBuilder()
+                .setDeviceId("device-1")
+                .setDeviceType("sensor")
+                .setManufacturer("TestCorp")
+                .setModel("SensorX")
+                .setFirmwareVersion("1.0.0")
+                .setFirstSeen(System.currentTimeMillis())
+                .setLastSeen(System.currentTimeMillis())
+                .setStatus("active")
+                .build();
+
+        when(writer.write(anyList())).thenReturn(0);
+
+        // When
+        deviceIdListener.onBatch(records(List.of(device)), acknowledgment);
+
+        // Then
+        verify(acknowledgment, never()).acknowledge();
+    }
+
+    @Test
+    void onBatch_WhenCoalescingEnabled_ShouldBufferAndDeferAck() {
+        // Given
+        DeviceInfo device = DeviceInfo.newBuilder()
+                .setDeviceId("device-1")
+                .setDeviceType("sensor")
+                .setManufacturer("TestCorp")
+                .setModel("SensorX")
+                .setFirmwareVersion("1.0.0")
+                .setFirstSeen(System.currentTimeMillis())
+                .setLastSeen(System.currentTimeMillis())
+                .setStatus("active")
+                .build();
+
+        when(coalescer.isEnabled()).thenReturn(true);
+
+        // When
+        deviceIdListener.onBatch(records(List.of(device)), acknowledgment);
+
+        // Then
+        verify(coalescer).offer(argThat(updates -> updates.size() == 1 && "device-1".equals(updates.get(0).deviceId())),
+                eq(acknowledgment));
+        verify(writer, never()).write(anyList());
+        verify(acknowledgment, never()).acknowledge();
+    }
+
+    @Test
+    void onBatch_WhenKeyOrderedEnabled_ShouldSubmitToLanesAndDeferAck() throws InterruptedException {
+        // Given
+        DeviceInfo device = DeviceInfo.newBuilder()
+                .setDeviceId("device-1")
+                .setDeviceType("sensor")
+                .setManufacturer("TestCorp")
+                .setModel("SensorX")
+                .setFirmwareVersion("1.0.0")
+                .setFirstSeen(System.currentTimeMillis())
+                .setLastSeen(System.currentTimeMillis())
+                .setStatus("active")
+                .build();
+
+        when(keyOrdered.isEnabled()).thenReturn(true);
+
+        // When
+        deviceIdListener.onBatch(records(List.of(device)), acknowledgment);
+
+        // Then
+        TopicPartition partition = new TopicPartition("device-id-topic", 0);
+        verify(keyOrdered).submit(argThat(byPartition -> byPartition.keySet().equals(Set.of(partition))
+                        && "device-1".equals(byPartition.get(partition).get(0).deviceId())),
+                eq(acknowledgment));
+        verify(writer, never()).write(anyList());
+        verify(acknowledgment, never()).acknowledge();
+    }
+
+    @Test
+    void constructor_WhenCoalescingAndKeyOrderedBothEnabled_ShouldFail() {
+        // Given
+        when(coalescer.isEnabled()).thenReturn(true);
+        when(keyOrdered.isEnabled()).thenReturn(true);
 
         // Then
-        verify(repository, never()).upsertDeviceInfo(anyString(), anyString(), anyString(), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class), 
-                anyString(), anyString(), any(LocalDateTime.class), any(LocalDateTime.class));
+        assertThatThrownBy(() -> new DeviceIdListener(writer, coalescer, keyOrdered, poisonMessageHandler,
+                "device-id-topic", new DeviceUpdateMapper(objectMapper)))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void onBatch_WhenRecordReplayedFromDlt_ShouldWriteItWithRecencyGuard() throws InterruptedException {
+        // Given
+        List<ConsumerRecord<String, DeviceInfo>> records = records(List.of(device("device-1"), device("device-2")));
+        records.get(0).headers().add(DltReplayService.REPLAY_HEADER, "device-id-topic-dlt-0@5".getBytes(StandardCharsets.UTF_8));
+        when(keyOrdered.isEnabled()).thenReturn(true);
+        when(writer.writeReplayed(anyList())).thenReturn(1);
+
+        // When
+        deviceIdListener.onBatch(records, acknowledgment);
+
+        // Then - повтор пишется сразу и с проверкой давности, остальное идет обычным путем
+        verify(writer).writeReplayed(argThat(updates -> updates.size() == 1 && "device-1".equals(updates.get(0).deviceId())));
+        verify(keyOrdered).submit(argThat(byPartition -> byPartition.values().stream().flatMap(List::stream)
+                .allMatch(update -> "device-2".equals(update.deviceId()))), eq(acknowledgment));
+    }
+
+    @Test
+    void onBatch_WhenRetryRoutingFails_ShouldLeaveBatchUnacknowledged() {
+        // Given
+        when(writer.write(anyList())).thenThrow(new IllegalStateException("Failed to route 1 device updates for retry"));
+
+        // When / Then - исключение вернет батч контейнеру на повтор
+        assertThatThrownBy(() -> deviceIdListener.onBatch(records(List.of(device("device-1"))), acknowledgment))
+                .isInstanceOf(IllegalStateException.class);
         verify(acknowledgment, never()).acknowledge();
     }
-}
\ No newline at end of file
+
+    private static DeviceInfo device(String deviceId) {
+        return DeviceInfo.newBuilder()
+                .setDeviceId(deviceId)
+                .setDeviceType("sensor")
+                .setManufacturer("TestCorp")
+                .setModel("SensorX")
+                .setFirmwareVersion("1.0.0")
+                .setFirstSeen(System.currentTimeMillis())
+                .setLastSeen(System.currentTimeMillis())
+                .setStatus("active")
+                .build();
+    }
+
+    private static List<ConsumerRecord<String, DeviceInfo>> records(List<DeviceInfo> values) {
+        List<ConsumerRecord<String, DeviceInfo>> records = new ArrayList<>();
+        for (int i = 0; i < values.size(); i++) {
+            DeviceInfo value = values.get(i);
+            String key = value != null ? value.getDeviceId() : null;
+            records.add(new ConsumerRecord<>("device-id-topic", 0, 100L + i, key, value));
+        }
+        return records;
+    }
+}
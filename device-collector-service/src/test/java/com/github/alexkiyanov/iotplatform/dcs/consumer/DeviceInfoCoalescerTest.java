@@ -0,0 +1,156 @@
+package com.github.alexkiyanov.iotplatform.dcs.consumer;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoEntity;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceUpdate;
+import com.github.alexkiyanov.iotplatform.dcs.service.DeviceInfoWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceInfoCoalescerTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 1, 1, 12, 0);
+
+    @Mock
+    private DeviceInfoWriter writer;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private DeviceInfoCoalescer coalescer;
+
+    @AfterEach
+    void tearDown() {
+        if (coalescer != null) {
+            coalescer.stop();
+        }
+    }
+
+    @Test
+    void offer_ShouldMergeRepeatsAcrossBatchesAndAckOnlyAfterFlush() {
+        // Given
+        coalescer = new DeviceInfoCoalescer(writer, true, 60_000, 1000, meterRegistry);
+        Acknowledgment first = mock(Acknowledgment.class);
+        Acknowledgment second = mock(Acknowledgment.class);
+
+        // When
+        coalescer.offer(List.of(update("device-1", T0, T0.plusSeconds(1), "active")), first);
+        coalescer.offer(List.of(update("device-1", T0.minusMinutes(5), T0.plusSeconds(3), "inactive"),
+                update("device-2", T0, T0, "active")), second);
+
+        // Then - окно не закрыто: ничего не записано и не подтверждено
+        verify(writer, never()).write(anyList());
+        verify(first, never()).acknowledge();
+        assertThat(meterRegistry.counter("dcs.coalescing.merged.total").count()).isEqualTo(1.0);
+
+        // When
+        coalescer.flush();
+
+        // Then
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<DeviceUpdate>> written = ArgumentCaptor.forClass(List.class);
+        var order = inOrder(writer, first, second);
+        order.verify(writer).write(written.capture());
+        order.verify(first).acknowledge();
+        order.verify(second).acknowledge();
+        assertThat(written.getValue()).hasSize(2);
+        DeviceUpdate merged = written.getValue().get(0);
+        assertThat(merged.deviceId()).isEqualTo("device-1");
+        assertThat(merged.row().firstSeen()).isEqualTo(T0.minusMinutes(5));
+        assertThat(merged.row().lastSeen()).isEqualTo(T0.plusSeconds(3));
+        assertThat(merged.row().status()).isEqualTo("inactive");
+        assertThat(merged.entity().getFirstSeen()).isEqualTo(T0.minusMinutes(5));
+    }
+
+    @Test
+    void merge_WhenOlderUpdateArrivesLater_ShouldKeepLatestStatus() {
+        // Given
+        DeviceUpdate newer = update("device-1", T0, T0.plusSeconds(10), "active");
+        DeviceUpdate older = update("device-1", T0.minusSeconds(30), T0.plusSeconds(2), "inactive");
+
+        // When
+        DeviceUpdate merged = newer.merge(older);
+
+        // Then
+        assertThat(merged.row().firstSeen()).isEqualTo(T0.minusSeconds(30));
+        assertThat(merged.row().lastSeen()).isEqualTo(T0.plusSeconds(10));
+        assertThat(merged.row().status()).isEqualTo("active");
+    }
+
+    @Test
+    void offer_WhenMaxDevicesReached_ShouldFlushImmediately() {
+        // Given
+        coalescer = new DeviceInfoCoalescer(writer, true, 60_000, 2, meterRegistry);
+        Acknowledgment ack = mock(Acknowledgment.class);
+
+        // When
+        coalescer.offer(List.of(update("device-1", T0, T0, "active"), update("device-2", T0, T0, "active")), ack);
+
+        // Then
+        verify(writer).write(anyList());
+        verify(ack).acknowledge();
+    }
+
+    @Test
+    void start_ShouldFlushWhenWindowClosesWithoutNewMessages() {
+        // Given
+        coalescer = new DeviceInfoCoalescer(writer, true, 50, 1000, meterRegistry);
+        coalescer.start();
+        Acknowledgment ack = mock(Acknowledgment.class);
+
+        // When
+        coalescer.offer(List.of(update("device-1", T0, T0, "active")), ack);
+
+        // Then
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() -> verify(ack).acknowledge());
+        verify(writer).write(anyList());
+    }
+
+    @Test
+    void flush_WhenWriteFails_ShouldKeepUpdatesAndNotAck() {
+        // Given
+        coalescer = new DeviceInfoCoalescer(writer, true, 60_000, 1000, meterRegistry);
+        Acknowledgment ack = mock(Acknowledgment.class);
+        when(writer.write(anyList())).thenThrow(new IllegalStateException("database down")).thenReturn(1);
+        coalescer.offer(List.of(update("device-1", T0, T0, "active")), ack);
+
+        // When
+        coalescer.flush();
+
+        // Then
+        verify(ack, never()).acknowledge();
+
+        // When
+        coalescer.flush();
+
+        // Then
+        verify(ack).acknowledge();
+        assertThat(meterRegistry.counter("dcs.coalescing.flushed.rows.total").count()).isEqualTo(1.0);
+    }
+
+    private static DeviceUpdate update(String deviceId, LocalDateTime firstSeen, LocalDateTime lastSeen, String status) {
+        DeviceInfoEntity entity = new DeviceInfoEntity(deviceId, "sensor", "TestCorp", "SensorX", "1.0.0",
+                firstSeen, lastSeen, status, Map.of());
+        return new DeviceUpdate(entity, new DeviceInfoUpsert(deviceId, "sensor", "TestCorp", "SensorX", "1.0.0",
+                firstSeen, lastSeen, status, "{}"));
+    }
+}
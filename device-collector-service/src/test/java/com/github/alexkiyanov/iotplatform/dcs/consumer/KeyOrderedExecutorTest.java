@@ -0,0 +1,344 @@
+package com.github.alexkiyanov.iotplatform.dcs.consumer;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoEntity;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceUpdate;
+import com.github.alexkiyanov.iotplatform.dcs.service.DeviceInfoWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class KeyOrderedExecutorTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 1, 1, 12, 0);
+    private static final TopicPartition P0 = new TopicPartition("device-id-topic", 0);
+    private static final TopicPartition P1 = new TopicPartition("device-id-topic", 1);
+
+    @Mock
+    private DeviceInfoWriter writer;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private KeyOrderedExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        if (executor != null) {
+            executor.stop();
+        }
+    }
+
+    @Test
+    void submit_ShouldWriteDifferentDevicesConcurrently() throws InterruptedException {
+        // Given
+        executor = start(4, 8);
+        String a = deviceInLane(0);
+        String b = deviceInLane(1);
+        CountDownLatch bothWriting = new CountDownLatch(2);
+        doAnswer(invocation -> {
+            bothWriting.countDown();
+            // Обе полосы должны оказаться внутри write одновременно
+            assertThat(bothWriting.await(5, TimeUnit.SECONDS)).isTrue();
+            return List.of();
+        }).when(writer).writeInOrder(anyList());
+        Acknowledgment ack = mock(Acknowledgment.class);
+
+        // When
+        executor.submit(Map.of(P0, List.of(update(a, T0), update(b, T0))), ack);
+
+        // Then
+        verify(ack, timeout(5000)).acknowledge();
+        assertThat(bothWriting.getCount()).isZero();
+    }
+
+    @Test
+    void submit_ShouldKeepPerDeviceOrderAndAckContiguousPrefix() throws InterruptedException {
+        // Given
+        executor = start(4, 8);
+        String slow = deviceInLane(0);
+        String fast = deviceInLane(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<LocalDateTime> slowWrites = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            List<DeviceUpdate> part = invocation.getArgument(0);
+            if (part.get(0).deviceId().equals(slow)) {
+                if (slowWrites.isEmpty()) {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                slowWrites.add(part.get(0).row().lastSeen());
+            }
+            return List.of();
+        }).when(writer).writeInOrder(anyList());
+        Acknowledgment first = mock(Acknowledgment.class);
+        Acknowledgment second = mock(Acknowledgment.class);
+
+        // When - второй батч для fast завершается, пока первый висит на slow
+        executor.submit(Map.of(P0, List.of(update(slow, T0))), first);
+        executor.submit(Map.of(P0, List.of(update(fast, T0), update(slow, T0.plusSeconds(1)))), second);
+
+        // Then
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() ->
+                verify(writer).writeInOrder(argThat(part -> part.get(0).deviceId().equals(fast))));
+        verify(first, never()).acknowledge();
+        verify(second, never()).acknowledge();
+
+        // When
+        release.countDown();
+
+        // Then
+        verify(second, timeout(5000)).acknowledge();
+        InOrder order = inOrder(first, second);
+        order.verify(first).acknowledge();
+        order.verify(second).acknowledge();
+        assertThat(slowWrites).containsExactly(T0, T0.plusSeconds(1));
+    }
+
+    @Test
+    void submit_WhenWriteFails_ShouldRetryInLaneBeforeAck() throws InterruptedException {
+        // Given
+        executor = start(2, 8);
+        when(writer.writeInOrder(anyList()))
+                .thenThrow(new IllegalStateException("kafka unavailable"))
+                .thenReturn(List.of());
+        Acknowledgment ack = mock(Acknowledgment.class);
+
+        // When
+        executor.submit(Map.of(P0, List.of(update("device-1", T0))), ack);
+
+        // Then
+        verify(ack, timeout(5000)).acknowledge();
+        assertThat(meterRegistry.counter("dcs.key.ordered.retries.total").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void submit_WhenDeviceFails_ShouldRetryOnlyItBeforeLaterUpdatesOfSameDevice() throws InterruptedException {
+        // Given
+        executor = start(1, 8);
+        DeviceUpdate failing = update("device-1", T0);
+        List<List<String>> writes = new CopyOnWriteArrayList<>();
+        AtomicBoolean failedOnce = new AtomicBoolean();
+        doAnswer(invocation -> {
+            List<DeviceUpdate> part = invocation.getArgument(0);
+            writes.add(part.stream().map(update -> update.deviceId() + "@" + update.row().lastSeen().getSecond()).toList());
+            return part.contains(failing) && failedOnce.compareAndSet(false, true) ? List.of(failing) : List.of();
+        }).when(writer).writeInOrder(anyList());
+        Acknowledgment first = mock(Acknowledgment.class);
+        Acknowledgment second = mock(Acknowledgment.class);
+
+        // When
+        executor.submit(Map.of(P0, List.of(failing, update("device-2", T0))), first);
+        executor.submit(Map.of(P0, List.of(update("device-1", T0.plusSeconds(1)))), second);
+
+        // Then - повтор device-1 идет раньше его следующего обновления, а батч ждет повтора
+        verify(second, timeout(5000)).acknowledge();
+        assertThat(writes).containsExactly(
+                List.of("device-1@0", "device-2@0"),
+                List.of("device-1@0"),
+                List.of("device-1@1"));
+        InOrder order = inOrder(first, second);
+        order.verify(first).acknowledge();
+        order.verify(second).acknowledge();
+    }
+
+    @Test
+    void submit_WhenOnePartitionIsSlow_ShouldNotHoldAcksOrSlotsOfOthers() throws InterruptedException {
+        // Given
+        executor = start(4, 1);
+        String slow = deviceInLane(0);
+        String fast = deviceInLane(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            List<DeviceUpdate> part = invocation.getArgument(0);
+            if (part.get(0).deviceId().equals(slow)) {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            return List.of();
+        }).when(writer).writeInOrder(anyList());
+        Acknowledgment slowAck = mock(Acknowledgment.class);
+        Acknowledgment firstFast = mock(Acknowledgment.class);
+        Acknowledgment secondFast = mock(Acknowledgment.class);
+
+        // When - единственный слот P0 занят, P1 продолжает принимать и подтверждать батчи
+        executor.submit(Map.of(P0, List.of(update(slow, T0))), slowAck);
+        executor.submit(Map.of(P1, List.of(update(fast, T0))), firstFast);
+        verify(firstFast, timeout(5000)).acknowledge();
+        executor.submit(Map.of(P1, List.of(update(fast, T0.plusSeconds(1)))), secondFast);
+
+        // Then
+        verify(secondFast, timeout(5000)).acknowledge();
+        verify(slowAck, never()).acknowledge();
+        release.countDown();
+        verify(slowAck, timeout(5000)).acknowledge();
+    }
+
+    @Test
+    void submit_WhenBatchSpansPartitions_ShouldAckAfterEveryPartitionPart() throws InterruptedException {
+        // Given
+        executor = start(4, 8);
+        String slow = deviceInLane(0);
+        String fast = deviceInLane(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            List<DeviceUpdate> part = invocation.getArgument(0);
+            if (part.get(0).deviceId().equals(slow)) {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            return List.of();
+        }).when(writer).writeInOrder(anyList());
+        Acknowledgment ack = mock(Acknowledgment.class);
+        Map<TopicPartition, List<DeviceUpdate>> batch = new LinkedHashMap<>();
+        batch.put(P0, List.of(update(slow, T0)));
+        batch.put(P1, List.of(update(fast, T0)));
+
+        // When
+        executor.submit(batch, ack);
+
+        // Then
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() ->
+                verify(writer).writeInOrder(argThat(part -> part.get(0).deviceId().equals(fast))));
+        verify(ack, never()).acknowledge();
+        release.countDown();
+        verify(ack, timeout(5000)).acknowledge();
+    }
+
+    @Test
+    void submit_WhenInFlightLimitReached_ShouldBlockConsumer() throws InterruptedException {
+        // Given
+        executor = start(2, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return List.of();
+        }).when(writer).writeInOrder(anyList());
+        executor.submit(Map.of(P0, List.of(update("device-1", T0))), mock(Acknowledgment.class));
+        CountDownLatch secondSubmitted = new CountDownLatch(1);
+
+        // When
+        Thread consumer = Thread.ofPlatform().start(() -> {
+            try {
+                executor.submit(Map.of(P0, List.of(update("device-2", T0))), mock(Acknowledgment.class));
+                secondSubmitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        // Then
+        assertThat(secondSubmitted.await(200, TimeUnit.MILLISECONDS)).isFalse();
+        release.countDown();
+        assertThat(secondSubmitted.await(5, TimeUnit.SECONDS)).isTrue();
+        consumer.join(5000);
+    }
+
+    @Test
+    void revoke_ShouldStopRetriesAndStartReassignedPartitionFromCleanState() throws InterruptedException {
+        // Given - запись P0 падает всегда, полоса повторяет ее
+        executor = start(2, 1);
+        AtomicBoolean failing = new AtomicBoolean(true);
+        CopyOnWriteArrayList<String> written = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            List<DeviceUpdate> part = invocation.getArgument(0);
+            written.add(part.get(0).deviceId());
+            return failing.get() ? part : List.of();
+        }).when(writer).writeInOrder(anyList());
+        Acknowledgment revokedAck = mock(Acknowledgment.class);
+        executor.submit(Map.of(P0, List.of(update("device-1", T0))), revokedAck);
+        await().atMost(Duration.ofSeconds(5)).until(() -> written.size() >= 2);
+
+        // When
+        executor.onPartitionsRevokedBeforeCommit(null, List.of(P0));
+        int attemptsAfterRevoke = written.size();
+        Thread.sleep(100);
+
+        // Then - повторы прекратились, батч отозванной партиции не подтвержден
+        assertThat(written).hasSize(attemptsAfterRevoke);
+        verify(revokedAck, never()).acknowledge();
+
+        // When - партиция снова назначена: старый билет и занятый слот не мешают новому батчу
+        failing.set(false);
+        Acknowledgment reassignedAck = mock(Acknowledgment.class);
+        executor.submit(Map.of(P0, List.of(update("device-2", T0))), reassignedAck);
+
+        // Then
+        verify(reassignedAck, timeout(5000)).acknowledge();
+        verify(revokedAck, never()).acknowledge();
+    }
+
+    @Test
+    void revoke_ShouldWaitForStartedWrites() throws InterruptedException {
+        // Given
+        executor = start(2, 8);
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            writing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return List.of();
+        }).when(writer).writeInOrder(anyList());
+        executor.submit(Map.of(P0, List.of(update("device-1", T0))), mock(Acknowledgment.class));
+        assertThat(writing.await(5, TimeUnit.SECONDS)).isTrue();
+        CountDownLatch revoked = new CountDownLatch(1);
+
+        // When
+        Thread consumer = Thread.ofPlatform().start(() -> {
+            executor.onPartitionsRevokedBeforeCommit(null, List.of(P0));
+            revoked.countDown();
+        });
+
+        // Then - новый владелец не начнет писать те же устройства, пока идет запись
+        assertThat(revoked.await(200, TimeUnit.MILLISECONDS)).isFalse();
+        release.countDown();
+        assertThat(revoked.await(5, TimeUnit.SECONDS)).isTrue();
+        consumer.join(5000);
+    }
+
+    private KeyOrderedExecutor start(int lanes, int maxInFlight) {
+        KeyOrderedExecutor started = new KeyOrderedExecutor(writer, true, lanes, maxInFlight, 10, 5000, meterRegistry);
+        started.start();
+        return started;
+    }
+
+    private String deviceInLane(int lane) {
+        for (int i = 0; ; i++) {
+            String deviceId = "device-" + i;
+            if (executor.laneOf(deviceId) == lane) {
+                return deviceId;
+            }
+        }
+    }
+
+    private static DeviceUpdate update(String deviceId, LocalDateTime lastSeen) {
+        DeviceInfoEntity entity = new DeviceInfoEntity(deviceId, "sensor", "TestCorp", "SensorX", "1.0.0",
+                T0, lastSeen, "active", Map.of());
+        return new DeviceUpdate(entity, new DeviceInfoUpsert(deviceId, "sensor", "TestCorp", "SensorX", "1.0.0",
+                T0, lastSeen, "active", "{}"));
+    }
+}
@@ -0,0 +1,192 @@
+package com.github.alexkiyanov.iotplatform.dcs.consumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.alexkiyanov.iotplatform.avro.DeviceInfo;
+import com.github.alexkiyanov.iotplatform.dcs.service.DeviceInfoWriter;
+import com.github.alexkiyanov.iotplatform.dcs.service.DeviceUpdateMapper;
+import com.github.alexkiyanov.iotplatform.dcs.service.PoisonMessageHandler;
+import com.github.alexkiyanov.iotplatform.dcs.service.RetryTopicRouter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.support.serializer.DeserializationException;
+import org.springframework.kafka.support.serializer.SerializationUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RetryTierWorkerTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("device-id-topic-retry-1000", 0);
+
+    @Mock
+    private DeviceInfoWriter writer;
+
+    @Mock
+    private PoisonMessageHandler poisonMessageHandler;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicLong now = new AtomicLong(10_000);
+    private MockConsumer<String, DeviceInfo> consumer;
+    private RetryTierWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        worker = new RetryTierWorker(0, PARTITION.topic(), 1000, consumer, writer,
+                new DeviceUpdateMapper(new ObjectMapper()), poisonMessageHandler, Duration.ofMillis(1), now::get,
+                Counter.builder("processed").register(meterRegistry), Counter.builder("paused").register(meterRegistry));
+        worker.subscribe();
+        consumer.rebalance(List.of(PARTITION));
+        consumer.updateBeginningOffsets(Map.of(PARTITION, 0L));
+    }
+
+    @Test
+    void pollOnce_ShouldProcessDueRecordsAndPauseUntilNextIsDue() {
+        // Given
+        consumer.addRecord(record(0, "device-1", 9_000));
+        consumer.addRecord(record(1, "device-2", 12_000));
+
+        // When
+        worker.pollOnce();
+
+        // Then - записан только созревший, на несозревшем партиция встала на паузу
+        verify(writer).write(argThat(updates -> updates.size() == 1 && "device-1".equals(updates.get(0).deviceId())), eq(1));
+        assertThat(consumer.committed(Set.of(PARTITION)).get(PARTITION).offset()).isEqualTo(1);
+        assertThat(consumer.paused()).containsExactly(PARTITION);
+        assertThat(consumer.position(PARTITION)).isEqualTo(1);
+
+        // When - срок наступил, запись приходит повторно после seek
+        now.set(12_000);
+        consumer.addRecord(record(1, "device-2", 12_000));
+        worker.pollOnce();
+
+        // Then
+        assertThat(consumer.paused()).isEmpty();
+        verify(writer).write(argThat(updates -> "device-2".equals(updates.get(0).deviceId())), eq(1));
+        assertThat(consumer.committed(Set.of(PARTITION)).get(PARTITION).offset()).isEqualTo(2);
+    }
+
+    @Test
+    void pollOnce_WhenNothingDue_ShouldNotWriteOrCommit() {
+        // Given
+        consumer.addRecord(record(0, "device-1", 11_000));
+
+        // When
+        worker.pollOnce();
+        worker.pollOnce();
+
+        // Then
+        verify(writer, never()).write(anyList(), anyInt());
+        assertThat(consumer.committed(Set.of(PARTITION))).isEmpty();
+        assertThat(consumer.paused()).containsExactly(PARTITION);
+    }
+
+    @Test
+    void pollOnce_WhenWriteFails_ShouldPauseWithoutCommitting() {
+        // Given
+        when(writer.write(anyList(), anyInt())).thenThrow(new IllegalStateException("kafka unavailable"));
+        consumer.addRecord(record(0, "device-1", 9_000));
+
+        // When
+        worker.pollOnce();
+
+        // Then
+        verify(writer, times(1)).write(anyList(), eq(1));
+        assertThat(consumer.committed(Set.of(PARTITION))).isEmpty();
+        assertThat(consumer.paused()).containsExactly(PARTITION);
+        assertThat(consumer.position(PARTITION)).isZero();
+    }
+
+    @Test
+    void pollOnce_WhenRecordUndeserializable_ShouldSendOriginalBytesToDltBeforeCommit() {
+        // Given
+        byte[] raw = "not avro".getBytes(StandardCharsets.UTF_8);
+        doReturn(CompletableFuture.completedFuture(null)).when(poisonMessageHandler)
+                .sendToDeadLetter(any(), any(), any(), any(), anyInt(), any());
+        consumer.addRecord(undeserializable(0, raw, 9_000));
+        consumer.addRecord(record(1, "device-1", 9_000));
+
+        // When
+        worker.pollOnce();
+
+        // Then
+        verify(poisonMessageHandler).sendToDeadLetter(eq(PARTITION.topic()), eq("device-0"), eq(raw),
+                any(DeserializationException.class), eq(1), any());
+        verify(writer).write(argThat(updates -> updates.size() == 1 && "device-1".equals(updates.get(0).deviceId())), eq(1));
+        assertThat(consumer.committed(Set.of(PARTITION)).get(PARTITION).offset()).isEqualTo(2);
+    }
+
+    @Test
+    void pollOnce_WhenDltSendFails_ShouldPauseWithoutCommitting() {
+        // Given
+        doReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down"))).when(poisonMessageHandler)
+                .sendToDeadLetter(any(), any(), any(), any(), anyInt(), any());
+        consumer.addRecord(undeserializable(0, new byte[]{1, 2}, 9_000));
+
+        // When
+        worker.pollOnce();
+
+        // Then - запись не потеряна: партиция вернется к ней после паузы
+        verify(writer, never()).write(anyList(), anyInt());
+        assertThat(consumer.committed(Set.of(PARTITION))).isEmpty();
+        assertThat(consumer.paused()).containsExactly(PARTITION);
+        assertThat(consumer.position(PARTITION)).isZero();
+    }
+
+    private static ConsumerRecord<String, DeviceInfo> undeserializable(long offset, byte[] raw, long dueAt) {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(RetryTopicRouter.DUE_AT_HEADER, Long.toString(dueAt).getBytes(StandardCharsets.UTF_8));
+        ConsumerRecord<String, DeviceInfo> record = new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), offset,
+                dueAt - 1000, TimestampType.CREATE_TIME, -1, -1, "device-" + offset, null, headers, Optional.empty());
+        SerializationUtils.deserializationException(record.headers(), raw,
+                new DeserializationException("bad avro", raw, false, new IllegalStateException("bad magic byte")), false);
+        return record;
+    }
+
+    private static ConsumerRecord<String, DeviceInfo> record(long offset, String deviceId, long dueAt) {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(RetryTopicRouter.DUE_AT_HEADER, Long.toString(dueAt).getBytes(StandardCharsets.UTF_8));
+        DeviceInfo value = DeviceInfo.newBuilder()
+                .setDeviceId(deviceId)
+                .setDeviceType("sensor")
+                .setManufacturer("TestCorp")
+                .setModel("SensorX")
+                .setFirmwareVersion("1.0.0")
+                .setFirstSeen(0L)
+                .setLastSeen(0L)
+                .setStatus("active")
+                .build();
+        return new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), offset, dueAt - 1000,
+                TimestampType.CREATE_TIME, -1, -1, deviceId, value, headers, Optional.empty());
+    }
+}
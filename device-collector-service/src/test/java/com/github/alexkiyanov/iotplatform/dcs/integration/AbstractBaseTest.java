@@ -228,10 +228,8 @@ public abstract class AbstractBaseTest {
         registry.add("app.topics.output", () -> "device-info-topic");
         registry.add("app.topics.dead-letter", () -> "device-id-dlt");
         registry.add("app.cache.deviceInfoTtl", () -> 1440);
-        registry.add("app.retry.max-attempts", () -> 3);
-        registry.add("app.retry.initial-delay-ms", () -> 1000);
-        registry.add("app.retry.max-delay-ms", () -> 10000);
-        registry.add("app.retry.multiplier", () -> 2.0);
+        // Короткие ступени retry-топиков, чтобы ошибки записи доходили до DLT в пределах ожиданий тестов
+        registry.add("app.retry-topics.delays-ms", () -> "200,500");
         
         // Даем Hikari время на установку соединения к Proxy
         registry.add("spring.datasource.hikari.initialization-fail-timeout", () -> 60000);
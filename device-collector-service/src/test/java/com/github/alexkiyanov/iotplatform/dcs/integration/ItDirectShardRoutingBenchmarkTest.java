@@ -0,0 +1,243 @@
+package com.github.alexkiyanov.iotplatform.dcs.integration;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import com.github.alexkiyanov.iotplatform.dcs.repository.DeviceInfoBatchRepository;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.DeviceShardRouter;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.DirectShardDataSources;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.ShardWriteDispatcher;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.shardingsphere.driver.api.ShardingSphereDataSourceFactory;
+import org.apache.shardingsphere.infra.config.algorithm.AlgorithmConfiguration;
+import org.apache.shardingsphere.infra.config.rule.RuleConfiguration;
+import org.apache.shardingsphere.infra.hint.HintManager;
+import org.apache.shardingsphere.readwritesplitting.api.ReadwriteSplittingRuleConfiguration;
+import org.apache.shardingsphere.readwritesplitting.api.rule.ReadwriteSplittingDataSourceRuleConfiguration;
+import org.apache.shardingsphere.readwritesplitting.api.strategy.StaticReadwriteSplittingStrategyConfiguration;
+import org.apache.shardingsphere.sharding.api.config.ShardingRuleConfiguration;
+import org.apache.shardingsphere.sharding.api.config.rule.ShardingTableRuleConfiguration;
+import org.apache.shardingsphere.sharding.api.config.strategy.sharding.StandardShardingStrategyConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Сравнение пакетного upsert через ShardingSphere и напрямую в мастер шарда.
+ * Времена выводятся в лог; тест проверяет, что оба пути кладут строки на одни и те же шарды.
+ * <p>
+ * Оба источника строятся из application-sharding.yaml с адресами контейнеров: ShardingSphere - из
+ * правил шардирования и read/write splitting, прямые пулы - через
+ * {@link DirectShardDataSources#fromShardingSphereRules}, как в приложении.
+ */
+@Testcontainers
+class ItDirectShardRoutingBenchmarkTest extends AbstractBaseTest {
+    private static final Logger log = LoggerFactory.getLogger(ItDirectShardRoutingBenchmarkTest.class);
+    private static final String PREFIX = "spring.shardingsphere.";
+    private static final String TABLE = "device_info";
+
+    private static final int DEVICES = 1000;
+    private static final int BATCH_SIZE = 200;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 30;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DeviceShardRouter router = new DeviceShardRouter(2);
+    private final List<HikariDataSource> pools = new ArrayList<>();
+    private ShardWriteDispatcher dispatcher;
+    private DataSource shardingSphereDataSource;
+    private DirectShardDataSources direct;
+
+    @BeforeEach
+    void setUp() throws SQLException, IOException {
+        dispatcher = new ShardWriteDispatcher(2, 30000, meterRegistry);
+        StandardEnvironment env = shardingEnvironment();
+        shardingSphereDataSource = ShardingSphereDataSourceFactory.createDataSource(
+                dataSources(env), rules(env), new Properties());
+        direct = DirectShardDataSources.fromShardingSphereRules(env, TABLE, 2, 4);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        dispatcher.stop();
+        direct.close();
+        if (shardingSphereDataSource instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+        pools.forEach(HikariDataSource::close);
+    }
+
+    @Test
+    void givenSameBatches_whenWrittenDirectlyAndThroughShardingSphere_thenSameShardsAndTimingsReported() {
+        // Given
+        DeviceInfoBatchRepository viaShardingSphere = new DeviceInfoBatchRepository(
+                new JdbcTemplate(shardingSphereDataSource), router, dispatcher, Optional.empty(), Optional.empty(), 500, 0, false, meterRegistry);
+        DeviceInfoBatchRepository viaDirect = new DeviceInfoBatchRepository(
+                new JdbcTemplate(shardingSphereDataSource), router, dispatcher, Optional.of(direct), Optional.empty(), 500, 0, false, meterRegistry);
+
+        List<List<DeviceInfoUpsert>> shardingSphereBatches = batches("bench-ss-");
+        List<List<DeviceInfoUpsert>> directBatches = batches("bench-direct-");
+
+        // When
+        run(viaShardingSphere, shardingSphereBatches, WARMUP_ROUNDS);
+        run(viaDirect, directBatches, WARMUP_ROUNDS);
+        long shardingSphereNanos = run(viaShardingSphere, shardingSphereBatches, MEASURED_ROUNDS);
+        long directNanos = run(viaDirect, directBatches, MEASURED_ROUNDS);
+
+        // Then
+        long rows = (long) MEASURED_ROUNDS * DEVICES;
+        log.info("ShardingSphere path: {} rows in {} ms ({} rows/s)",
+                rows, shardingSphereNanos / 1_000_000, Math.round(rows * 1e9 / shardingSphereNanos));
+        log.info("Direct path: {} rows in {} ms ({} rows/s)",
+                rows, directNanos / 1_000_000, Math.round(rows * 1e9 / directNanos));
+
+        for (int i = 0; i < DEVICES; i++) {
+            String viaSs = "bench-ss-" + i;
+            String viaDr = "bench-direct-" + i;
+            assertThat(shardOf(viaSs)).isEqualTo(router.shardOf(viaSs));
+            assertThat(shardOf(viaDr)).isEqualTo(router.shardOf(viaDr));
+        }
+        // Строки, записанные напрямую, видны через ShardingSphere; реплики в тестах не реплицируются,
+        // поэтому чтение идет на мастер
+        try (HintManager hint = HintManager.getInstance()) {
+            hint.setWriteRouteOnly();
+            assertThat(new JdbcTemplate(shardingSphereDataSource).queryForObject(
+                    "SELECT count(*) FROM device_info WHERE device_id = ?", Integer.class, "bench-direct-7")).isEqualTo(1);
+        }
+    }
+
+    private long run(DeviceInfoBatchRepository repository, List<List<DeviceInfoUpsert>> batches, int rounds) {
+        long started = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            LocalDateTime now = LocalDateTime.now();
+            for (List<DeviceInfoUpsert> batch : batches) {
+                assertThat(repository.upsertAll(batch, now)).isEmpty();
+            }
+        }
+        return System.nanoTime() - started;
+    }
+
+    private int shardOf(String deviceId) {
+        for (int shard = 0; shard < direct.shardCount(); shard++) {
+            Integer found = direct.jdbcTemplate(shard).queryForObject(
+                    "SELECT count(*) FROM device_info WHERE device_id = ?", Integer.class, deviceId);
+            if (found != null && found > 0) {
+                return shard;
+            }
+        }
+        return -1;
+    }
+
+    private static List<List<DeviceInfoUpsert>> batches(String prefix) {
+        List<List<DeviceInfoUpsert>> batches = new ArrayList<>();
+        LocalDateTime seen = LocalDateTime.now();
+        for (int from = 0; from < DEVICES; from += BATCH_SIZE) {
+            List<DeviceInfoUpsert> batch = new ArrayList<>();
+            for (int i = from; i < Math.min(DEVICES, from + BATCH_SIZE); i++) {
+                batch.add(new DeviceInfoUpsert(prefix + i, "sensor", "BenchCorp", "SensorX", "1.0.0",
+                        seen, seen, "active", "{\"source\": \"benchmark\"}"));
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private static StandardEnvironment shardingEnvironment() throws IOException {
+        StandardEnvironment env = new StandardEnvironment();
+        new YamlPropertySourceLoader().load("application-sharding", new ClassPathResource("application-sharding.yaml"))
+                .forEach(env.getPropertySources()::addLast);
+        Map<String, Object> containers = new HashMap<>();
+        containers.put(PREFIX + "datasource.ds0.jdbc-url", jdbcUrl(postgresShard1, "dcs_shard1"));
+        containers.put(PREFIX + "datasource.ds1.jdbc-url", jdbcUrl(postgresShard2, "dcs_shard2"));
+        containers.put(PREFIX + "datasource.ds0_replica.jdbc-url", jdbcUrl(postgresShard1Replica, "dcs_shard1_replica"));
+        containers.put(PREFIX + "datasource.ds1_replica.jdbc-url", jdbcUrl(postgresShard2Replica, "dcs_shard2_replica"));
+        env.getPropertySources().addFirst(new MapPropertySource("containers", containers));
+        return env;
+    }
+
+    private static String jdbcUrl(PostgreSQLContainer<?> container, String database) {
+        return "jdbc:postgresql://localhost:" + container.getMappedPort(5432) + "/" + database;
+    }
+
+    private Map<String, DataSource> dataSources(StandardEnvironment env) {
+        Map<String, DataSource> dataSources = new LinkedHashMap<>();
+        for (String name : required(env, PREFIX + "datasource.names").split(",")) {
+            String prefix = PREFIX + "datasource." + name.trim() + ".";
+            dataSources.put(name.trim(), hikari(required(env, prefix + "jdbc-url"),
+                    env.getProperty(prefix + "username"), env.getProperty(prefix + "password")));
+        }
+        return dataSources;
+    }
+
+    // Те же правила, что ShardingSphere строит из spring.shardingsphere.rules.* в приложении
+    private static List<RuleConfiguration> rules(StandardEnvironment env) {
+        String tableRule = PREFIX + "rules.sharding.tables." + TABLE + ".";
+        String algorithm = required(env, tableRule + "database-strategy.standard.sharding-algorithm-name");
+        String algorithmRule = PREFIX + "rules.sharding.sharding-algorithms." + algorithm + ".";
+        String nodes = required(env, tableRule + "actual-data-nodes");
+
+        ShardingRuleConfiguration shardingRule = new ShardingRuleConfiguration();
+        ShardingTableRuleConfiguration table = new ShardingTableRuleConfiguration(TABLE, nodes);
+        table.setDatabaseShardingStrategy(new StandardShardingStrategyConfiguration(
+                required(env, tableRule + "database-strategy.standard.sharding-column"), algorithm));
+        shardingRule.getTables().add(table);
+        Properties algorithmProps = new Properties();
+        algorithmProps.setProperty("sharding-count", required(env, algorithmRule + "props.sharding-count"));
+        shardingRule.getShardingAlgorithms().put(algorithm,
+                new AlgorithmConfiguration(required(env, algorithmRule + "type"), algorithmProps));
+
+        List<ReadwriteSplittingDataSourceRuleConfiguration> groups = new ArrayList<>();
+        Map<String, AlgorithmConfiguration> loadBalancers = new HashMap<>();
+        for (String node : nodes.split(",")) {
+            String group = node.trim().substring(0, node.trim().indexOf('.'));
+            String strategy = PREFIX + "rules.readwrite-splitting.data-sources." + group + ".static-strategy.";
+            groups.add(new ReadwriteSplittingDataSourceRuleConfiguration(group,
+                    new StaticReadwriteSplittingStrategyConfiguration(
+                            required(env, strategy + "write-data-source-name"),
+                            List.of(required(env, strategy + "read-data-source-names").split(","))),
+                    null, group));
+            loadBalancers.put(group, new AlgorithmConfiguration(required(env,
+                    PREFIX + "rules.readwrite-splitting.load-balancers." + group + ".type"), new Properties()));
+        }
+        return List.of(shardingRule, new ReadwriteSplittingRuleConfiguration(groups, loadBalancers));
+    }
+
+    private static String required(StandardEnvironment env, String key) {
+        String value = env.getProperty(key);
+        assertThat(value).as(key).isNotBlank();
+        return value;
+    }
+
+    private HikariDataSource hikari(String jdbcUrl, String username, String password) {
+        HikariDataSource ds = new HikariDataSource();
+        ds.setDriverClassName("org.postgresql.Driver");
+        ds.setJdbcUrl(jdbcUrl);
+        ds.setUsername(username);
+        ds.setPassword(password);
+        ds.setMaximumPoolSize(4);
+        pools.add(ds);
+        return ds;
+    }
+}
@@ -69,6 +69,17 @@ public class TestShardingSphereConfig {
         ));
         
         shardingRule.getTables().add(deviceInfoTable);
+
+        // Конфигурация таблицы device_presence
+        ShardingTableRuleConfiguration devicePresenceTable = new ShardingTableRuleConfiguration(
+                "device_presence",
+                "readwrite_ds_${0..1}.device_presence"
+        );
+        devicePresenceTable.setDatabaseShardingStrategy(new StandardShardingStrategyConfiguration(
+                "device_id",
+                "device_id_hash_mod"
+        ));
+        shardingRule.getTables().add(devicePresenceTable);
         
         // Алгоритм шардирования
         Properties hashProps = new Properties();
@@ -77,7 +88,7 @@ public class TestShardingSphereConfig {
                 new AlgorithmConfiguration("HASH_MOD", hashProps));
         
         // Привязываем группы readwrite к шардам
-        shardingRule.setBindingTableGroups(Collections.singletonList("device_info"));
+        shardingRule.setBindingTableGroups(Collections.singletonList("device_info,device_presence"));
         
         return shardingRule;
     }
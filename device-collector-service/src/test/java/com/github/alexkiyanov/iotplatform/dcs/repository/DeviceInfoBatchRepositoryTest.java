@@ -0,0 +1,426 @@
+package com.github.alexkiyanov.iotplatform.dcs.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.DeviceShardRouter;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.DirectShardDataSources;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.ShardSpillover;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.ShardWriteDispatcher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceInfoBatchRepositoryTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 1, 1, 12, 0);
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private SimpleMeterRegistry meterRegistry;
+    private DeviceShardRouter router;
+    private ShardWriteDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        router = new DeviceShardRouter(2);
+        dispatcher = new ShardWriteDispatcher(2, 5000, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.stop();
+    }
+
+    @Test
+    void upsertAll_ShouldIssueOneStatementPerShard() {
+        // Given
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, router, dispatcher, Optional.empty(), Optional.empty(), 500, 60000, false, meterRegistry);
+        List<DeviceInfoUpsert> rows = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            rows.add(row("device-" + i, NOW.minusDays(1)));
+        }
+
+        // When
+        Map<String, RuntimeException> failures = batchRepository.upsertAll(rows, NOW);
+
+        // Then
+        ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+        verify(jdbcTemplate, times(2)).update(anyString(), args.capture());
+        assertThat(failures).isEmpty();
+        assertThat(args.getAllValues()).allSatisfy(statement -> {
+            int shard = router.shardOf((String) statement[0]);
+            for (int i = 0; i < statement.length; i += 11) {
+                assertThat(router.shardOf((String) statement[i])).isEqualTo(shard);
+            }
+        });
+        assertThat(args.getAllValues().stream().mapToInt(a -> a.length / 11).sum()).isEqualTo(20);
+        assertThat(meterRegistry.counter("dcs.upsert.batch.statements.total").count()).isEqualTo(2.0);
+        assertThat(meterRegistry.counter("dcs.upsert.batch.rows.total").count()).isEqualTo(20.0);
+    }
+
+    @Test
+    void upsertAll_ShouldWriteShardsConcurrentlyOnDifferentThreads() {
+        // Given
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, router, dispatcher, Optional.empty(), Optional.empty(), 500, 60000, false, meterRegistry);
+        CountDownLatch bothShardsWriting = new CountDownLatch(2);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenAnswer(invocation -> {
+            threads.add(Thread.currentThread().getName());
+            bothShardsWriting.countDown();
+            // Последовательная запись здесь не дождалась бы второго шарда
+            return bothShardsWriting.await(5, TimeUnit.SECONDS) ? 1 : 0;
+        });
+        List<DeviceInfoUpsert> rows = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            rows.add(row("device-" + i, NOW));
+        }
+
+        // When
+        Map<String, RuntimeException> failures = batchRepository.upsertAll(rows, NOW);
+
+        // Then
+        assertThat(failures).isEmpty();
+        assertThat(bothShardsWriting.getCount()).isZero();
+        assertThat(threads).hasSize(2);
+    }
+
+    @Test
+    void upsertAll_WhenDirectRoutingEnabled_ShouldWriteEachShardThroughItsOwnDataSource() {
+        // Given
+        JdbcTemplate shard0 = mock(JdbcTemplate.class);
+        JdbcTemplate shard1 = mock(JdbcTemplate.class);
+        DirectShardDataSources direct = mock(DirectShardDataSources.class);
+        when(direct.shardCount()).thenReturn(2);
+        when(direct.jdbcTemplate(0)).thenReturn(shard0);
+        when(direct.jdbcTemplate(1)).thenReturn(shard1);
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, router, dispatcher, Optional.of(direct), Optional.empty(), 500, 60000, false, meterRegistry);
+        List<DeviceInfoUpsert> rows = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            rows.add(row("device-" + i, NOW));
+        }
+
+        // When
+        batchRepository.upsertAll(rows, NOW);
+
+        // Then
+        ArgumentCaptor<Object[]> shard0Args = ArgumentCaptor.forClass(Object[].class);
+        ArgumentCaptor<Object[]> shard1Args = ArgumentCaptor.forClass(Object[].class);
+        verify(shard0).update(anyString(), shard0Args.capture());
+        verify(shard1).update(anyString(), shard1Args.capture());
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+        assertThat(router.shardOf((String) shard0Args.getValue()[0])).isZero();
+        assertThat(router.shardOf((String) shard1Args.getValue()[0])).isEqualTo(1);
+    }
+
+    @Test
+    void constructor_WhenDirectRoutingShardCountDiffers_ShouldFail() {
+        // Given
+        DirectShardDataSources direct = mock(DirectShardDataSources.class);
+        when(direct.shardCount()).thenReturn(3);
+
+        // Then
+        assertThatThrownBy(() -> new DeviceInfoBatchRepository(jdbcTemplate, router, dispatcher, Optional.of(direct), Optional.empty(), 500, 60000, false, meterRegistry))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void upsertAll_ShouldGuardUpdateAndCountRowsLeftUnchanged() {
+        // Given
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, new DeviceShardRouter(1), dispatcher, Optional.empty(), Optional.empty(), 500, 60000, false, meterRegistry);
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenReturn(1);
+
+        // When
+        batchRepository.upsertAll(List.of(row("device-1", NOW), row("device-2", NOW), row("device-3", NOW)), NOW);
+
+        // Then
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate).update(sql.capture(), any(Object[].class));
+        assertThat(sql.getValue())
+                .contains("IS DISTINCT FROM (EXCLUDED.device_type")
+                .contains("(device_info.meta - 'processed_at') IS DISTINCT FROM (EXCLUDED.meta - 'processed_at')")
+                .contains("EXCLUDED.last_seen >= device_info.last_seen + INTERVAL '60000 milliseconds'");
+        assertThat(meterRegistry.counter("dcs.upsert.batch.unchanged.total").count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void upsertAllIfNewer_ShouldNotOverwriteRowWithNewerLastSeen() {
+        // Given
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, new DeviceShardRouter(1), dispatcher, Optional.empty(), Optional.empty(), 500, 60000, false, meterRegistry);
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenReturn(1);
+
+        // When
+        batchRepository.upsertAllIfNewer(List.of(row("device-1", NOW)), NOW);
+        batchRepository.upsertAll(List.of(row("device-1", NOW)), NOW);
+
+        // Then
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate, times(2)).update(sql.capture(), any(Object[].class));
+        assertThat(sql.getAllValues().get(0))
+                .contains("device_info.last_seen <= EXCLUDED.last_seen) AND (")
+                .contains("IS DISTINCT FROM (EXCLUDED.device_type");
+        assertThat(sql.getAllValues().get(1)).doesNotContain("device_info.last_seen <= EXCLUDED.last_seen");
+    }
+
+    @Test
+    void upsertAllIfNewer_WhenStatementFails_ShouldRetryRowByRowWithGuard() {
+        // Given
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, new DeviceShardRouter(1), dispatcher, Optional.empty(), Optional.empty(), 500, 60000, false, meterRegistry);
+        when(jdbcTemplate.update(anyString(), any(Object[].class)))
+                .thenThrow(new DataIntegrityViolationException("value too long"))
+                .thenReturn(1);
+
+        // When
+        Map<String, RuntimeException> failures = batchRepository.upsertAllIfNewer(
+                List.of(row("device-1", NOW), row("device-2", NOW)), NOW);
+
+        // Then - построчный повтор тоже не откатывает более новую строку
+        assertThat(failures).isEmpty();
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate, times(3)).update(sql.capture(), any(Object[].class));
+        assertThat(sql.getAllValues()).allMatch(statement -> statement.contains("device_info.last_seen <= EXCLUDED.last_seen"));
+    }
+
+    @Test
+    void upsertAll_WhenGranularityIsZero_ShouldWriteAnyLastSeenChange() {
+        // Given
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, new DeviceShardRouter(1), dispatcher, Optional.empty(), Optional.empty(), 500, 0, false, meterRegistry);
+
+        // When
+        batchRepository.upsertAll(List.of(row("device-1", NOW)), NOW);
+
+        // Then
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate).update(sql.capture(), any(Object[].class));
+        assertThat(sql.getValue()).contains("device_info.last_seen IS DISTINCT FROM EXCLUDED.last_seen");
+    }
+
+    @Test
+    void upsertAll_WhenShardExceedsMaxRows_ShouldSplitIntoChunks() {
+        // Given
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, new DeviceShardRouter(1), dispatcher, Optional.empty(), Optional.empty(), 3, 60000, false, meterRegistry);
+        List<DeviceInfoUpsert> rows = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            rows.add(row("device-" + i, NOW));
+        }
+
+        // When
+        batchRepository.upsertAll(rows, NOW);
+
+        // Then
+        ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+        verify(jdbcTemplate, times(3)).update(anyString(), args.capture());
+        assertThat(args.getAllValues()).extracting(a -> a.length / 11).containsExactly(3, 3, 1);
+    }
+
+    @Test
+    void upsertAll_WhenDeviceRepeatsInBatch_ShouldMergeIntoOneRow() {
+        // Given
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, new DeviceShardRouter(1), dispatcher, Optional.empty(), Optional.empty(), 500, 60000, false, meterRegistry);
+        DeviceInfoUpsert first = row("device-1", NOW.minusDays(2));
+        DeviceInfoUpsert last = new DeviceInfoUpsert("device-1", "sensor", "TestCorp", "SensorX", "2.0.0",
+                NOW.minusDays(1), NOW, "inactive", "{}");
+
+        // When
+        batchRepository.upsertAll(List.of(first, last), NOW);
+
+        // Then
+        ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+        verify(jdbcTemplate).update(anyString(), args.capture());
+        Object[] statement = args.getValue();
+        assertThat(statement).hasSize(11);
+        assertThat(statement[4]).isEqualTo("2.0.0");
+        assertThat(statement[5]).isEqualTo(NOW.minusDays(2));
+        assertThat(statement[7]).isEqualTo("inactive");
+    }
+
+    @Test
+    void upsertAll_WhenStatementFails_ShouldRetryRowByRowAndReportFailures() {
+        // Given
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, new DeviceShardRouter(1), dispatcher, Optional.empty(), Optional.empty(), 500, 60000, false, meterRegistry);
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenAnswer(invocation -> {
+            Object[] args = (Object[]) invocation.getRawArguments()[1];
+            if (args.length > 11 || "device-2".equals(args[0])) {
+                throw new DataIntegrityViolationException("value too long");
+            }
+            return 1;
+        });
+
+        // When
+        Map<String, RuntimeException> failures = batchRepository.upsertAll(
+                List.of(row("device-1", NOW), row("device-2", NOW), row("device-3", NOW)), NOW);
+
+        // Then - построчный повтор идет тем же оператором с проверкой изменений
+        assertThat(failures).containsOnlyKeys("device-2");
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate, times(4)).update(sql.capture(), any(Object[].class));
+        assertThat(sql.getAllValues()).allMatch(statement -> statement.contains("IS DISTINCT FROM (EXCLUDED.device_type")
+                && !statement.contains("device_info.last_seen <= EXCLUDED.last_seen"));
+        assertThat(meterRegistry.counter("dcs.upsert.batch.fallbacks.total").count()).isEqualTo(1.0);
+        assertThat(meterRegistry.counter("dcs.upsert.batch.rows.total").count()).isZero();
+    }
+
+    @Test
+    void upsertAll_WhenEmpty_ShouldNotTouchDatabase() {
+        // Given
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, router, dispatcher, Optional.empty(), Optional.empty(), 500, 60000, false, meterRegistry);
+
+        // When
+        Map<String, RuntimeException> failures = batchRepository.upsertAll(List.of(), NOW);
+
+        // Then
+        assertThat(failures).isEmpty();
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+    }
+
+    @Test
+    void upsertAll_WhenPresenceEnabled_ShouldWritePresenceAfterRegistryChunk() {
+        // Given
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, new DeviceShardRouter(1), dispatcher, Optional.empty(), Optional.empty(), 500, 60000, true, meterRegistry);
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenReturn(1);
+
+        // When
+        batchRepository.upsertAll(List.of(row("device-1", NOW), row("device-2", NOW)), NOW);
+
+        // Then
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+        verify(jdbcTemplate, times(2)).update(sql.capture(), args.capture());
+        assertThat(sql.getAllValues().get(0)).startsWith("INSERT INTO device_info");
+        assertThat(sql.getAllValues().get(1))
+                .startsWith("INSERT INTO device_presence (device_id, last_seen) VALUES (?, ?), (?, ?)")
+                .contains("WHERE device_presence.last_seen < EXCLUDED.last_seen");
+        assertThat(args.getAllValues().get(1)).containsExactly("device-1", NOW, "device-2", NOW);
+        assertThat(meterRegistry.counter("dcs.presence.rows.total").count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void upsertAll_WhenPresenceFails_ShouldNotReportDeviceFailures() {
+        // Given
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, new DeviceShardRouter(1), dispatcher, Optional.empty(), Optional.empty(), 500, 60000, true, meterRegistry);
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenReturn(1);
+        when(jdbcTemplate.update(startsWith("INSERT INTO device_presence"), any(Object[].class)))
+                .thenThrow(new DataIntegrityViolationException("relation does not exist"));
+
+        // When
+        Map<String, RuntimeException> failures = batchRepository.upsertAll(List.of(row("device-1", NOW)), NOW);
+
+        // Then
+        assertThat(failures).isEmpty();
+        assertThat(meterRegistry.counter("dcs.presence.failures.total").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void touchAll_ShouldWriteOnlyLatestPresencePerShard() {
+        // Given
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, router, dispatcher, Optional.empty(), Optional.empty(), 500, 60000, true, meterRegistry);
+        List<DeviceInfoUpsert> rows = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            rows.add(row("device-" + i, NOW));
+        }
+        rows.add(new DeviceInfoUpsert("device-0", "sensor", "TestCorp", "SensorX", "1.0.0",
+                NOW, NOW.minusMinutes(5), "active", "{}"));
+
+        // When
+        batchRepository.touchAll(rows);
+
+        // Then
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+        verify(jdbcTemplate, times(2)).update(sql.capture(), args.capture());
+        assertThat(sql.getAllValues()).allMatch(statement -> statement.startsWith("INSERT INTO device_presence"));
+        assertThat(args.getAllValues()).extracting(a -> a.length / 2).containsExactlyInAnyOrder(
+                (int) rows.stream().limit(10).filter(r -> router.shardOf(r.deviceId()) == 0).count(),
+                (int) rows.stream().limit(10).filter(r -> router.shardOf(r.deviceId()) == 1).count());
+        // Более старый повтор device-0 не откатывает last_seen
+        assertThat(args.getAllValues()).noneMatch(a -> Arrays.asList(a).contains(NOW.minusMinutes(5)));
+    }
+
+    @Test
+    void touchAll_WhenPresenceDisabled_ShouldNotTouchDatabase() {
+        // Given
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, router, dispatcher, Optional.empty(), Optional.empty(), 500, 60000, false, meterRegistry);
+
+        // When
+        batchRepository.touchAll(List.of(row("device-1", NOW)));
+
+        // Then
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+    }
+
+    @Test
+    void upsertAll_WhenShardUnavailable_ShouldOpenBreakerAndSpillInsteadOfFailing(@TempDir Path spillDir) {
+        // Given - предохранитель открывается с первой ошибки шарда
+        ShardSpillover spillover = new ShardSpillover(new DeviceShardRouter(1), new ObjectMapper().registerModule(new JavaTimeModule()),
+                1, 60000, spillDir.toString(), false, 4096, meterRegistry);
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, new DeviceShardRouter(1), dispatcher, Optional.empty(), Optional.of(spillover), 500, 60000, false, meterRegistry);
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenThrow(new CannotGetJdbcConnectionException("shard down"));
+
+        // When
+        Map<String, RuntimeException> first = batchRepository.upsertAll(List.of(row("device-1", NOW)), NOW);
+        Map<String, RuntimeException> second = batchRepository.upsertAll(List.of(row("device-2", NOW)), NOW);
+
+        // Then - без построчного повтора, второй батч вообще не ходит в базу
+        assertThat(first).isEmpty();
+        assertThat(second).isEmpty();
+        verify(jdbcTemplate, times(1)).update(anyString(), any(Object[].class));
+        assertThat(spillover.hasPending(0)).isTrue();
+        assertThat(meterRegistry.counter("dcs.spill.rows.total").count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void upsertAll_WhenShardUnavailableBelowThreshold_ShouldReturnFailures(@TempDir Path spillDir) {
+        // Given
+        ShardSpillover spillover = new ShardSpillover(new DeviceShardRouter(1), new ObjectMapper().registerModule(new JavaTimeModule()),
+                3, 60000, spillDir.toString(), false, 4096, meterRegistry);
+        DeviceInfoBatchRepository batchRepository = new DeviceInfoBatchRepository(jdbcTemplate, new DeviceShardRouter(1), dispatcher, Optional.empty(), Optional.of(spillover), 500, 60000, false, meterRegistry);
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenThrow(new CannotGetJdbcConnectionException("shard down"));
+
+        // When
+        Map<String, RuntimeException> failures = batchRepository.upsertAll(List.of(row("device-1", NOW)), NOW);
+
+        // Then
+        assertThat(failures).containsOnlyKeys("device-1");
+        assertThat(spillover.hasPending(0)).isFalse();
+    }
+
+    private static DeviceInfoUpsert row(String deviceId, LocalDateTime firstSeen) {
+        return new DeviceInfoUpsert(deviceId, "sensor", "TestCorp", "SensorX", "1.0.0",
+                firstSeen, NOW, "active", "{}");
+    }
+}
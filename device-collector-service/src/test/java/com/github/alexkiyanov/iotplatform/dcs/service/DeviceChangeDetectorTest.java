@@ -0,0 +1,91 @@
+package com.github.alexkiyanov.iotplatform.dcs.service;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeviceChangeDetectorTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 1, 1, 12, 0);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DeviceChangeDetector detector = new DeviceChangeDetector(true, 60_000, 1000, 600_000, meterRegistry);
+
+    @Test
+    void isUnchanged_WhenDeviceNeverWritten_ShouldReturnFalse() {
+        assertThat(detector.isUnchanged(row("active", "1.0.0", T0))).isFalse();
+    }
+
+    @Test
+    void isUnchanged_WhenOnlyMetaAndSmallLastSeenShiftDiffer_ShouldReturnTrue() {
+        // Given
+        detector.recordWritten(row("active", "1.0.0", T0));
+
+        // When
+        DeviceInfoUpsert repeat = new DeviceInfoUpsert("device-1", "sensor", "TestCorp", "SensorX", "1.0.0",
+                T0.minusDays(1), T0.plusSeconds(30), "active", "{\"processed_at\": 2}");
+
+        // Then
+        assertThat(detector.isUnchanged(repeat)).isTrue();
+        assertThat(meterRegistry.counter("dcs.change.detection.skipped.total").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void isUnchanged_WhenLastSeenMovesPastGranularity_ShouldReturnFalse() {
+        // Given
+        detector.recordWritten(row("active", "1.0.0", T0));
+
+        // Then
+        assertThat(detector.isUnchanged(row("active", "1.0.0", T0.plusMinutes(1)))).isFalse();
+        assertThat(detector.isUnchanged(row("active", "1.0.0", T0.minusMinutes(5)))).isTrue();
+    }
+
+    @Test
+    void isUnchanged_WhenContentChanges_ShouldReturnFalse() {
+        // Given
+        detector.recordWritten(row("active", "1.0.0", T0));
+
+        // Then
+        assertThat(detector.isUnchanged(row("inactive", "1.0.0", T0))).isFalse();
+        assertThat(detector.isUnchanged(row("active", "1.0.1", T0))).isFalse();
+    }
+
+    @Test
+    void isUnchanged_AfterInvalidate_ShouldReturnFalse() {
+        // Given
+        detector.recordWritten(row("active", "1.0.0", T0));
+
+        // When
+        detector.invalidate("device-1");
+
+        // Then
+        assertThat(detector.isUnchanged(row("active", "1.0.0", T0))).isFalse();
+    }
+
+    @Test
+    void isUnchanged_WhenDisabled_ShouldAlwaysReturnFalse() {
+        // Given
+        DeviceChangeDetector disabled = new DeviceChangeDetector(false, 60_000, 1000, 600_000, meterRegistry);
+        disabled.recordWritten(row("active", "1.0.0", T0));
+
+        // Then
+        assertThat(disabled.isUnchanged(row("active", "1.0.0", T0))).isFalse();
+    }
+
+    @Test
+    void fingerprint_ShouldSeparateFieldBoundaries() {
+        DeviceInfoUpsert a = new DeviceInfoUpsert("device-1", "ab", "c", null, null, T0, T0, "active", "{}");
+        DeviceInfoUpsert b = new DeviceInfoUpsert("device-1", "a", "bc", null, null, T0, T0, "active", "{}");
+
+        assertThat(DeviceChangeDetector.fingerprint(a)).isNotEqualTo(DeviceChangeDetector.fingerprint(b));
+    }
+
+    private static DeviceInfoUpsert row(String status, String firmware, LocalDateTime lastSeen) {
+        return new DeviceInfoUpsert("device-1", "sensor", "TestCorp", "SensorX", firmware,
+                T0, lastSeen, status, "{\"processed_at\": 1}");
+    }
+}
@@ -0,0 +1,215 @@
+package com.github.alexkiyanov.iotplatform.dcs.service;
+
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoEntity;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceUpdate;
+import com.github.alexkiyanov.iotplatform.dcs.repository.DeviceInfoBatchRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceInfoWriterTest {
+
+    @Mock
+    private DeviceInfoBatchRepository repository;
+
+    @Mock
+    private DeviceInfoPublisher publisher;
+
+    @Mock
+    private RetryTopicRouter retryRouter;
+
+    private DeviceChangeDetector changeDetector;
+    private DeviceInfoWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        changeDetector = new DeviceChangeDetector(true, 60000, 1000, 600000, new SimpleMeterRegistry());
+        writer = new DeviceInfoWriter(repository, publisher, retryRouter, changeDetector);
+    }
+
+    @Test
+    void write_ShouldUpsertOnceAndPublishEveryDevice() {
+        // Given
+        when(repository.upsertAll(anyList(), any(LocalDateTime.class))).thenReturn(Map.of());
+
+        // When
+        int written = writer.write(List.of(update("device-1"), update("device-2")));
+
+        // Then
+        assertThat(written).isEqualTo(2);
+        verify(repository).upsertAll(argThat(rows -> rows.size() == 2), any(LocalDateTime.class));
+        verify(publisher).publishDeviceInfo(argThat(entity -> "device-1".equals(entity.getDeviceId())));
+        verify(publisher).publishDeviceInfo(argThat(entity -> "device-2".equals(entity.getDeviceId())));
+    }
+
+    @Test
+    void write_WhenUpsertFailsForOneDevice_ShouldRouteOnlyItToRetryTopic() {
+        // Given
+        when(repository.upsertAll(anyList(), any(LocalDateTime.class)))
+                .thenReturn(Map.of("device-2", new IllegalStateException("constraint violation")));
+        doReturn(CompletableFuture.completedFuture(null)).when(retryRouter).route(any(), any(), anyInt());
+
+        // When
+        int written = writer.write(List.of(update("device-1"), update("device-2")));
+
+        // Then
+        assertThat(written).isEqualTo(1);
+        verify(publisher).publishDeviceInfo(argThat(entity -> "device-1".equals(entity.getDeviceId())));
+        verify(publisher, never()).publishDeviceInfo(argThat(entity -> "device-2".equals(entity.getDeviceId())));
+        verify(retryRouter).route(argThat(update -> "device-2".equals(update.deviceId())), any(Exception.class), eq(0));
+    }
+
+    @Test
+    void write_WhenDeviceRepeatsWithoutChanges_ShouldSkipDatabase() {
+        // Given
+        when(repository.upsertAll(anyList(), any(LocalDateTime.class))).thenReturn(Map.of());
+        writer.write(List.of(update("device-1")));
+
+        // When
+        int written = writer.write(List.of(update("device-1"), update("device-2")));
+
+        // Then
+        assertThat(written).isEqualTo(2);
+        verify(repository).upsertAll(argThat(rows -> rows.size() == 1 && "device-2".equals(rows.get(0).deviceId())),
+                any(LocalDateTime.class));
+        verify(publisher, times(1)).publishDeviceInfo(argThat(entity -> "device-1".equals(entity.getDeviceId())));
+        // Повтор без изменений все равно отмечает присутствие устройства
+        verify(repository).touchAll(argThat(rows -> rows.size() == 1 && "device-1".equals(rows.get(0).deviceId())));
+    }
+
+    @Test
+    void write_WhenUpsertFails_ShouldNotRememberDevice() {
+        // Given
+        when(repository.upsertAll(anyList(), any(LocalDateTime.class)))
+                .thenReturn(Map.of("device-1", new IllegalStateException("constraint violation")))
+                .thenReturn(Map.of());
+        doReturn(CompletableFuture.completedFuture(null)).when(retryRouter).route(any(), any(), anyInt());
+        writer.write(List.of(update("device-1")));
+
+        // When
+        int written = writer.write(List.of(update("device-1")));
+
+        // Then - повтор после ошибки снова идет в базу
+        assertThat(written).isEqualTo(1);
+        verify(repository, times(2)).upsertAll(anyList(), any(LocalDateTime.class));
+    }
+
+    @Test
+    void write_WhenRetriedUpdateFailsAgain_ShouldRouteToNextTier() {
+        // Given
+        when(repository.upsertAllIfNewer(anyList(), any(LocalDateTime.class)))
+                .thenReturn(Map.of("device-1", new IllegalStateException("shard unavailable")));
+        doReturn(CompletableFuture.completedFuture(null)).when(retryRouter).route(any(), any(), anyInt());
+
+        // When
+        int written = writer.write(List.of(update("device-1")), 2);
+
+        // Then
+        assertThat(written).isZero();
+        verify(retryRouter).route(argThat(update -> "device-1".equals(update.deviceId())), any(Exception.class), eq(2));
+    }
+
+    @Test
+    void write_WhenRoutingToRetryTopicFails_ShouldThrowSoBatchStaysUnacked() {
+        // Given
+        when(repository.upsertAll(anyList(), any(LocalDateTime.class)))
+                .thenReturn(Map.of("device-2", new IllegalStateException("shard unavailable")));
+        doReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")))
+                .when(retryRouter).route(any(), any(), anyInt());
+
+        // When / Then
+        assertThatThrownBy(() -> writer.write(List.of(update("device-1"), update("device-2"))))
+                .isInstanceOf(IllegalStateException.class)
+                .hasRootCauseMessage("broker down");
+    }
+
+    @Test
+    void write_WhenUpdateIsRetried_ShouldNotOverwriteNewerRow() {
+        // Given
+        when(repository.upsertAllIfNewer(anyList(), any(LocalDateTime.class))).thenReturn(Map.of());
+
+        // When
+        int written = writer.write(List.of(update("device-1")), 1);
+
+        // Then - строка могла остаться новее, поэтому детектор изменений ее не запоминает
+        assertThat(written).isEqualTo(1);
+        verify(repository, never()).upsertAll(anyList(), any(LocalDateTime.class));
+        assertThat(changeDetector.isUnchanged(update("device-1").row())).isFalse();
+    }
+
+    @Test
+    void writeReplayed_ShouldUseRecencyGuard() {
+        // Given
+        when(repository.upsertAllIfNewer(anyList(), any(LocalDateTime.class))).thenReturn(Map.of());
+
+        // When
+        int written = writer.writeReplayed(List.of(update("device-1")));
+
+        // Then
+        assertThat(written).isEqualTo(1);
+        verify(repository).upsertAllIfNewer(argThat(rows -> rows.size() == 1), any(LocalDateTime.class));
+        verify(repository, never()).upsertAll(anyList(), any(LocalDateTime.class));
+    }
+
+    @Test
+    void writeInOrder_ShouldReturnRetryableFailuresAndDeadLetterRejectedRows() {
+        // Given
+        when(repository.upsertAll(anyList(), any(LocalDateTime.class))).thenReturn(Map.of(
+                "device-1", new CannotGetJdbcConnectionException("shard down"),
+                "device-2", new DataIntegrityViolationException("value too long")));
+        doReturn(CompletableFuture.completedFuture(null)).when(retryRouter).deadLetter(any(), any(), anyInt());
+
+        // When
+        List<DeviceUpdate> retry = writer.writeInOrder(List.of(update("device-1"), update("device-2"), update("device-3")));
+
+        // Then - временная ошибка остается вызывающему, отвергнутая строка не держит полосу
+        assertThat(retry).extracting(DeviceUpdate::deviceId).containsExactly("device-1");
+        verify(retryRouter).deadLetter(argThat(update -> "device-2".equals(update.deviceId())),
+                any(DataIntegrityViolationException.class), eq(1));
+        verify(retryRouter, never()).route(any(), any(), anyInt());
+        verify(publisher).publishDeviceInfo(argThat(entity -> "device-3".equals(entity.getDeviceId())));
+    }
+
+    @Test
+    void write_WhenEmpty_ShouldNotTouchDatabase() {
+        // When
+        int written = writer.write(List.of());
+
+        // Then
+        assertThat(written).isZero();
+        verify(repository, never()).upsertAll(anyList(), any(LocalDateTime.class));
+    }
+
+    private static DeviceUpdate update(String deviceId) {
+        LocalDateTime now = LocalDateTime.of(2025, 1, 1, 12, 0);
+        DeviceInfoEntity entity = new DeviceInfoEntity(deviceId, "sensor", "TestCorp", "SensorX", "1.0.0",
+                now, now, "active", Map.of());
+        return new DeviceUpdate(entity, new DeviceInfoUpsert(deviceId, "sensor", "TestCorp", "SensorX", "1.0.0",
+                now, now, "active", "{}"));
+    }
+}
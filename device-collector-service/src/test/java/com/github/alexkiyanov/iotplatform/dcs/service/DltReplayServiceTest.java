@@ -0,0 +1,173 @@
+package com.github.alexkiyanov.iotplatform.dcs.service;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceInfo;
+import com.github.alexkiyanov.iotplatform.avro.PoisonMessage;
+import com.github.alexkiyanov.iotplatform.dcs.model.DltReplayRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class DltReplayServiceTest {
+
+    private static final TopicPartition DLT = new TopicPartition("device-id-dlt", 0);
+    private static final long T0 = 1_700_000_000_000L;
+
+    @Mock
+    private ConsumerFactory<String, PoisonMessage> consumerFactory;
+
+    @Mock
+    private KafkaTemplate<String, byte[]> rawTemplate;
+
+    @Mock
+    private KafkaTemplate<String, DeviceInfo> avroTemplate;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private MockConsumer<String, PoisonMessage> consumer;
+    private DltReplayService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new DltReplayService(consumerFactory, rawTemplate, avroTemplate, "device-id-dlt", "device-id-topic",
+                1000, 1, meterRegistry);
+        consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.updatePartitions(DLT.topic(), List.of(new PartitionInfo(DLT.topic(), 0, null, null, null)));
+        consumer.updateBeginningOffsets(Map.of(DLT, 0L));
+        lenient().when(rawTemplate.send(any(ProducerRecord.class))).thenReturn(CompletableFuture.completedFuture(null));
+        lenient().when(avroTemplate.send(any(ProducerRecord.class))).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @Test
+    void replay_ShouldResendOriginalBytesAndDecodedMessagesUpToEndOffset() throws Exception {
+        // Given
+        DeviceInfo device = device("device-1");
+        byte[] wireBytes = {0, 0, 0, 0, 7, 'b', 'a', 'd'};
+        dlt(poison("device-1", "RuntimeException", device.toByteBuffer(), T0),
+                poison("device-2", "DeserializationException", ByteBuffer.wrap(wireBytes), T0),
+                poison("device-3", "RuntimeException", ByteBuffer.allocate(0), T0));
+        DltReplayJob job = new DltReplayJob(new DltReplayRequest(null, null, null, null, null, null), 1_000_000);
+
+        // When
+        service.replay(consumer, job);
+
+        // Then - single-object encoding декодируется, байты Schema Registry уходят как есть
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<ProducerRecord<String, DeviceInfo>> avro = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(avroTemplate).send(avro.capture());
+        assertThat(avro.getValue().topic()).isEqualTo("device-id-topic");
+        assertThat(avro.getValue().key()).isEqualTo("device-1");
+        assertThat(avro.getValue().value()).isEqualTo(device);
+        assertThat(new String(avro.getValue().headers().lastHeader(DltReplayService.REPLAY_HEADER).value(),
+                StandardCharsets.UTF_8)).isEqualTo("0@0");
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<ProducerRecord<String, byte[]>> raw = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(rawTemplate).send(raw.capture());
+        assertThat(raw.getValue().key()).isEqualTo("device-2");
+        assertThat(raw.getValue().value()).isEqualTo(wireBytes);
+
+        assertThat(job.getState()).isEqualTo(DltReplayJob.State.COMPLETED);
+        assertThat(job.getScanned()).isEqualTo(3);
+        assertThat(job.getReplayed()).isEqualTo(2);
+        assertThat(job.getUnrecoverable()).isEqualTo(1);
+        assertThat(meterRegistry.counter("dcs.dlt.replay.replayed.total").count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void replay_WithFilters_ShouldResendOnlyMatchingRecordsUpToLimit() throws Exception {
+        // Given
+        dlt(poison("device-1", "RuntimeException", device("device-1").toByteBuffer(), T0),
+                poison("device-2", "RuntimeException", device("device-2").toByteBuffer(), T0),
+                poison("device-1", "IllegalStateException", device("device-1").toByteBuffer(), T0),
+                poison("device-1", "RuntimeException", device("device-1").toByteBuffer(), T0 + 10_000),
+                poison("device-1", "RuntimeException", device("device-1").toByteBuffer(), T0 + 1));
+        DltReplayRequest request = new DltReplayRequest("RuntimeException", "device-1", null,
+                Instant.ofEpochMilli(T0 + 5_000), 1L, null);
+        DltReplayJob job = new DltReplayJob(request, 1_000_000);
+
+        // When
+        service.replay(consumer, job);
+
+        // Then - из трех подходящих (offset 0 и 4) отправлен только первый из-за limit
+        verify(avroTemplate).send(any(ProducerRecord.class));
+        verify(rawTemplate, never()).send(any(ProducerRecord.class));
+        assertThat(job.getReplayed()).isEqualTo(1);
+        assertThat(job.getState()).isEqualTo(DltReplayJob.State.COMPLETED);
+    }
+
+    @Test
+    void replay_WhenCancelled_ShouldStopWithoutSending() throws Exception {
+        // Given
+        dlt(poison("device-1", "RuntimeException", device("device-1").toByteBuffer(), T0));
+        DltReplayJob job = new DltReplayJob(new DltReplayRequest(null, null, null, null, null, null), 1_000_000);
+        job.cancel();
+
+        // When
+        service.replay(consumer, job);
+
+        // Then
+        verify(avroTemplate, never()).send(any(ProducerRecord.class));
+        assertThat(job.getState()).isEqualTo(DltReplayJob.State.CANCELLED);
+    }
+
+    private void dlt(PoisonMessage... messages) {
+        consumer.updateEndOffsets(Map.of(DLT, (long) messages.length));
+        consumer.schedulePollTask(() -> {
+            for (int i = 0; i < messages.length; i++) {
+                consumer.addRecord(new ConsumerRecord<>(DLT.topic(), 0, i, messages[i].getDeviceId(), messages[i]));
+            }
+        });
+    }
+
+    private static PoisonMessage poison(String deviceId, String errorType, ByteBuffer value, long failedAt) {
+        return PoisonMessage.newBuilder()
+                .setOriginalTopic("device-id-topic")
+                .setOriginalKey(deviceId)
+                .setOriginalValue(value)
+                .setErrorMessage("failed")
+                .setErrorType(errorType)
+                .setRetryAttempts(1)
+                .setFirstFailureTime(failedAt)
+                .setLastFailureTime(failedAt)
+                .setDeviceId(deviceId)
+                .build();
+    }
+
+    private static DeviceInfo device(String deviceId) {
+        return DeviceInfo.newBuilder()
+                .setDeviceId(deviceId)
+                .setDeviceType("sensor")
+                .setManufacturer("TestCorp")
+                .setModel("SensorX")
+                .setFirmwareVersion("1.0.0")
+                .setFirstSeen(T0)
+                .setLastSeen(T0)
+                .setStatus("active")
+                .build();
+    }
+}
@@ -34,9 +34,6 @@ class PoisonMessageHandlerTest {
     
     @Mock
     private Counter dltMessagesCounter;
-    
-    @Mock
-    private Counter retryAttemptsCounter;
 
     private PoisonMessageHandler poisonMessageHandler;
 
@@ -48,7 +45,6 @@ class PoisonMessageHandlerTest {
         ReflectionTestUtils.setField(poisonMessageHandler, "deadLetterTopic", "device-id-dlt");
         ReflectionTestUtils.setField(poisonMessageHandler, "poisonMessagesCounter", poisonMessagesCounter);
         ReflectionTestUtils.setField(poisonMessageHandler, "dltMessagesCounter", dltMessagesCounter);
-        ReflectionTestUtils.setField(poisonMessageHandler, "retryAttemptsCounter", retryAttemptsCounter);
     }
     
     private PoisonMessage createValidPoisonMessage(String deviceId) {
@@ -66,73 +62,6 @@ class PoisonMessageHandlerTest {
                 .build();
     }
 
-    @Test
-    void handlePoisonMessage_WhenValidData_ShouldProcessSuccessfully() {
-        // Given
-        String originalTopic = "device-id-topic";
-        String originalKey = "device-1";
-        byte[] originalValue = "valid-avro-data".getBytes(); // Достаточно длинное для валидации
-        Exception error = new RuntimeException("Test error");
-        int retryAttempt = 1;
-        String deviceId = "device-1";
-
-        // When & Then - метод должен выполниться без исключений
-        assertDoesNotThrow(() -> {
-            poisonMessageHandler.handlePoisonMessage(originalTopic, originalKey, originalValue, error, retryAttempt, deviceId);
-        });
-        
-        // Проверяем, что счетчик попыток увеличился
-        verify(retryAttemptsCounter).increment();
-    }
-
-    @Test
-    void handlePoisonMessage_WhenInvalidDeviceId_ShouldThrowException() {
-        // Given
-        String originalTopic = "device-id-topic";
-        String originalKey = "device-1";
-        byte[] originalValue = "valid-avro-data".getBytes();
-        Exception error = new RuntimeException("Test error");
-        int retryAttempt = 1;
-        String deviceId = ""; // Пустой deviceId
-
-        // When & Then - метод должен бросить исключение
-        assertThrows(RuntimeException.class, () -> {
-            poisonMessageHandler.handlePoisonMessage(originalTopic, originalKey, originalValue, error, retryAttempt, deviceId);
-        });
-    }
-
-    @Test
-    void handlePoisonMessage_WhenInvalidAvroData_ShouldThrowException() {
-        // Given
-        String originalTopic = "device-id-topic";
-        String originalKey = "device-1";
-        byte[] originalValue = "x".getBytes(); // Слишком короткое для Avro
-        Exception error = new RuntimeException("Test error");
-        int retryAttempt = 1;
-        String deviceId = "device-1";
-
-        // When & Then - метод должен бросить исключение
-        assertThrows(RuntimeException.class, () -> {
-            poisonMessageHandler.handlePoisonMessage(originalTopic, originalKey, originalValue, error, retryAttempt, deviceId);
-        });
-    }
-
-    @Test
-    void handlePoisonMessage_WhenDeviceIdWithInvalidChars_ShouldThrowException() {
-        // Given
-        String originalTopic = "device-id-topic";
-        String originalKey = "device-1";
-        byte[] originalValue = "valid-avro-data".getBytes();
-        Exception error = new RuntimeException("Test error");
-        int retryAttempt = 1;
-        String deviceId = "device@invalid"; // Недопустимые символы
-
-        // When & Then - метод должен бросить исключение
-        assertThrows(RuntimeException.class, () -> {
-            poisonMessageHandler.handlePoisonMessage(originalTopic, originalKey, originalValue, error, retryAttempt, deviceId);
-        });
-    }
-
     @Test
     void sendToDeadLetterTopic_ShouldSendCorrectMessage() {
         // Given
@@ -325,87 +254,7 @@ class PoisonMessageHandlerTest {
     }
 
     @Test
-    void validateDeviceId_WhenTooLong_ShouldThrowException() {
-        // Given
-        String originalTopic = "device-id-topic";
-        String originalKey = "device-1";
-        byte[] originalValue = "valid-avro-data".getBytes();
-        Exception error = new RuntimeException("Test error");
-        int retryAttempt = 1;
-        String deviceId = "a".repeat(256); // Превышает лимит в 255 символов
-
-        // When & Then - метод должен бросить исключение
-        assertThrows(RuntimeException.class, () -> {
-            poisonMessageHandler.handlePoisonMessage(originalTopic, originalKey, originalValue, error, retryAttempt, deviceId);
-        });
-    }
-
-    @Test
-    void validateDeviceId_WhenContainsSpaces_ShouldThrowException() {
-        // Given
-        String originalTopic = "device-id-topic";
-        String originalKey = "device-1";
-        byte[] originalValue = "valid-avro-data".getBytes();
-        Exception error = new RuntimeException("Test error");
-        int retryAttempt = 1;
-        String deviceId = "device with spaces";
-
-        // When & Then - метод должен бросить исключение
-        assertThrows(RuntimeException.class, () -> {
-            poisonMessageHandler.handlePoisonMessage(originalTopic, originalKey, originalValue, error, retryAttempt, deviceId);
-        });
-    }
-
-    @Test
-    void validateDeviceId_WhenContainsSpecialChars_ShouldThrowException() {
-        // Given
-        String originalTopic = "device-id-topic";
-        String originalKey = "device-1";
-        byte[] originalValue = "valid-avro-data".getBytes();
-        Exception error = new RuntimeException("Test error");
-        int retryAttempt = 1;
-        String deviceId = "device!@#$%^&*()";
-
-        // When & Then - метод должен бросить исключение
-        assertThrows(RuntimeException.class, () -> {
-            poisonMessageHandler.handlePoisonMessage(originalTopic, originalKey, originalValue, error, retryAttempt, deviceId);
-        });
-    }
-
-    @Test
-    void validateAvroMessage_WhenTooShort_ShouldThrowException() {
-        // Given
-        String originalTopic = "device-id-topic";
-        String originalKey = "device-1";
-        byte[] originalValue = new byte[2]; // Слишком короткое сообщение
-        Exception error = new RuntimeException("Test error");
-        int retryAttempt = 1;
-        String deviceId = "device-1";
-
-        // When & Then - метод должен бросить исключение
-        assertThrows(RuntimeException.class, () -> {
-            poisonMessageHandler.handlePoisonMessage(originalTopic, originalKey, originalValue, error, retryAttempt, deviceId);
-        });
-    }
-
-    @Test
-    void validateAvroMessage_WhenEmpty_ShouldThrowException() {
-        // Given
-        String originalTopic = "device-id-topic";
-        String originalKey = "device-1";
-        byte[] originalValue = new byte[0]; // Пустое сообщение
-        Exception error = new RuntimeException("Test error");
-        int retryAttempt = 1;
-        String deviceId = "device-1";
-
-        // When & Then - метод должен бросить исключение
-        assertThrows(RuntimeException.class, () -> {
-            poisonMessageHandler.handlePoisonMessage(originalTopic, originalKey, originalValue, error, retryAttempt, deviceId);
-        });
-    }
-
-    @Test
-    void recover_WhenAllRetriesExhausted_ShouldSendToDeadLetterTopic() {
+    void sendToDeadLetter_WhenAllRetriesExhausted_ShouldSendToDeadLetterTopic() {
         // Given
         String originalTopic = "device-id-topic";
         String originalKey = "device-1";
@@ -417,8 +266,8 @@ class PoisonMessageHandlerTest {
         when(poisonMessageKafkaTemplate.send(anyString(), anyString(), any(PoisonMessage.class)))
                 .thenReturn(CompletableFuture.completedFuture(null));
 
-        // When - вызываем recover напрямую (это делается Spring Retry после исчерпания попыток)
-        poisonMessageHandler.recover(error, originalTopic, originalKey, originalValue, error, retryAttempt, deviceId);
+        // When
+        poisonMessageHandler.sendToDeadLetter(originalTopic, originalKey, originalValue, error, retryAttempt, deviceId);
 
         // Then
         ArgumentCaptor<PoisonMessage> messageCaptor = ArgumentCaptor.forClass(PoisonMessage.class);
@@ -471,7 +320,7 @@ class PoisonMessageHandlerTest {
     }
 
     @Test
-    void recover_WhenMetadataCreated_ShouldContainCorrectFields() {
+    void sendToDeadLetter_WhenMetadataCreated_ShouldContainCorrectFields() {
         // Given
         String originalTopic = "test-topic";
         String originalKey = "test-key";
@@ -484,7 +333,7 @@ class PoisonMessageHandlerTest {
                 .thenReturn(CompletableFuture.completedFuture(null));
 
         // When
-        poisonMessageHandler.recover(error, originalTopic, originalKey, originalValue, error, retryAttempt, deviceId);
+        poisonMessageHandler.sendToDeadLetter(originalTopic, originalKey, originalValue, error, retryAttempt, deviceId);
 
         // Then
         ArgumentCaptor<PoisonMessage> messageCaptor = ArgumentCaptor.forClass(PoisonMessage.class);
@@ -499,42 +348,4 @@ class PoisonMessageHandlerTest {
         assertTrue(metadataJson.contains("device-collector-service"));
         assertTrue(metadataJson.contains("retry_exhausted"));
     }
-
-    @Test
-    void handlePoisonMessage_WhenNullAvroValue_ShouldThrowException() {
-        // Given
-        String originalTopic = "device-id-topic";
-        String originalKey = "device-1";
-        byte[] originalValue = null; // null значение
-        Exception error = new RuntimeException("Test error");
-        int retryAttempt = 1;
-        String deviceId = "device-1";
-
-        // When & Then - метод должен бросить исключение
-        assertThrows(RuntimeException.class, () -> {
-            poisonMessageHandler.handlePoisonMessage(originalTopic, originalKey, originalValue, error, retryAttempt, deviceId);
-        });
-        
-        // Проверяем, что счетчик попыток все равно увеличился
-        verify(retryAttemptsCounter).increment();
-    }
-
-    @Test
-    void handlePoisonMessage_WhenNullDeviceId_ShouldThrowException() {
-        // Given
-        String originalTopic = "device-id-topic";
-        String originalKey = "device-1";
-        byte[] originalValue = "valid-avro-data".getBytes();
-        Exception error = new RuntimeException("Test error");
-        int retryAttempt = 1;
-        String deviceId = null; // null deviceId
-
-        // When & Then - метод должен бросить исключение
-        assertThrows(RuntimeException.class, () -> {
-            poisonMessageHandler.handlePoisonMessage(originalTopic, originalKey, originalValue, error, retryAttempt, deviceId);
-        });
-        
-        // Проверяем, что счетчик попыток все равно увеличился
-        verify(retryAttemptsCounter).increment();
-    }
 }
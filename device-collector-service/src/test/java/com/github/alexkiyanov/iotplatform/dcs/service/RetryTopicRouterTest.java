@@ -0,0 +1,121 @@
+package com.github.alexkiyanov.iotplatform.dcs.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.alexkiyanov.iotplatform.avro.DeviceInfo;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoEntity;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceUpdate;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RetryTopicRouterTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 1, 1, 12, 0);
+
+    @Mock
+    private KafkaTemplate<String, DeviceInfo> template;
+
+    @Mock
+    private PoisonMessageHandler poisonMessageHandler;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private RetryTopicRouter router;
+
+    @BeforeEach
+    void setUp() {
+        router = new RetryTopicRouter(template, poisonMessageHandler, new DeviceUpdateMapper(new ObjectMapper()),
+                "device-id-topic", true, List.of(1000L, 10000L, 60000L), meterRegistry);
+    }
+
+    @Test
+    void route_ShouldPublishToTierTopicWithDueAtHeader() {
+        // Given
+        when(template.send(any(ProducerRecord.class))).thenReturn(new CompletableFuture<>());
+        long before = System.currentTimeMillis();
+
+        // When
+        router.route(update("device-1"), new IllegalStateException("shard unavailable"), 1);
+
+        // Then
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<ProducerRecord<String, DeviceInfo>> record = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(template).send(record.capture());
+        assertThat(record.getValue().topic()).isEqualTo("device-id-topic-retry-10000");
+        assertThat(record.getValue().key()).isEqualTo("device-1");
+        assertThat(record.getValue().value().getLastSeen()).isEqualTo(T0.toInstant(ZoneOffset.UTC).toEpochMilli());
+        long dueAt = RetryTopicRouter.longHeader(record.getValue().headers(), RetryTopicRouter.DUE_AT_HEADER, -1);
+        assertThat(dueAt).isBetween(before + 10000, System.currentTimeMillis() + 10000);
+        assertThat(RetryTopicRouter.longHeader(record.getValue().headers(), RetryTopicRouter.ATTEMPT_HEADER, -1)).isEqualTo(2);
+        verify(poisonMessageHandler, never()).sendToDeadLetter(any(), any(), any(), any(), anyInt(), any());
+    }
+
+    @Test
+    void route_WhenSendFails_ShouldReturnFailedFuture() {
+        // Given
+        when(template.send(any(ProducerRecord.class)))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+
+        // When
+        CompletableFuture<?> sent = router.route(update("device-1"), new IllegalStateException("shard unavailable"), 0);
+
+        // Then - вызывающий не должен подтверждать батч
+        assertThat(sent).isCompletedExceptionally();
+        assertThat(meterRegistry.counter("dcs.retry.topic.routed.total").count()).isZero();
+    }
+
+    @Test
+    void route_AfterLastTier_ShouldSendToDeadLetter() {
+        // When
+        router.route(update("device-1"), new IllegalStateException("shard unavailable"), 3);
+
+        // Then
+        verify(poisonMessageHandler).sendToDeadLetter(eq("device-id-topic"), eq("device-1"), any(byte[].class),
+                any(Exception.class), eq(4), eq("device-1"));
+        verify(template, never()).send(any(ProducerRecord.class));
+        assertThat(meterRegistry.counter("dcs.retry.topic.exhausted.total").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void route_WhenDisabled_ShouldSendStraightToDeadLetter() {
+        // Given
+        router = new RetryTopicRouter(template, poisonMessageHandler, new DeviceUpdateMapper(new ObjectMapper()),
+                "device-id-topic", false, List.of(1000L), meterRegistry);
+
+        // When
+        router.route(update("device-1"), new IllegalStateException("shard unavailable"), 0);
+
+        // Then
+        verify(poisonMessageHandler).sendToDeadLetter(eq("device-id-topic"), eq("device-1"), any(byte[].class),
+                any(Exception.class), eq(1), eq("device-1"));
+        verify(template, never()).send(any(ProducerRecord.class));
+    }
+
+    private static DeviceUpdate update(String deviceId) {
+        DeviceInfoEntity entity = new DeviceInfoEntity(deviceId, "sensor", "TestCorp", "SensorX", "1.0.0",
+                T0, T0, "active", Map.of());
+        return new DeviceUpdate(entity, new DeviceInfoUpsert(deviceId, "sensor", "TestCorp", "SensorX", "1.0.0",
+                T0, T0, "active", "{}"));
+    }
+}
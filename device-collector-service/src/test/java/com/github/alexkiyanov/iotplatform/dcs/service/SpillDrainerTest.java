@@ -0,0 +1,118 @@
+package com.github.alexkiyanov.iotplatform.dcs.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import com.github.alexkiyanov.iotplatform.dcs.repository.DeviceInfoBatchRepository;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.DeviceShardRouter;
+import com.github.alexkiyanov.iotplatform.dcs.sharding.ShardSpillover;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SpillDrainerTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 1, 1, 12, 0);
+
+    @Mock
+    private DeviceInfoBatchRepository repository;
+
+    @Mock
+    private PoisonMessageHandler poisonMessageHandler;
+
+    @TempDir
+    Path spillDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private ShardSpillover spillover;
+    private SpillDrainer drainer;
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        spillover = new ShardSpillover(new DeviceShardRouter(1), objectMapper, 1, 60000, spillDir.toString(), false, 4096,
+                meterRegistry);
+        drainer = new SpillDrainer(spillover, repository, poisonMessageHandler, new DeviceUpdateMapper(objectMapper),
+                "device-id-topic", 1000, 500, meterRegistry);
+    }
+
+    @Test
+    void drain_WhenShardRecovered_ShouldWriteSpilledRowsInOrderAndEmptyLog() throws Exception {
+        // Given
+        spillover.spill(0, List.of(row("device-1"), row("device-2")));
+        spillover.spill(0, List.of(row("device-3")));
+        when(repository.writeSpilled(eq(0), anyList())).thenReturn(new HashMap<>());
+
+        // When
+        int drained = drainer.drain(0);
+
+        // Then
+        assertThat(drained).isEqualTo(3);
+        verify(repository).writeSpilled(eq(0), argThat(rows -> rows.stream().map(DeviceInfoUpsert::deviceId).toList()
+                .equals(List.of("device-1", "device-2", "device-3"))));
+        assertThat(spillover.hasPending(0)).isFalse();
+        assertThat(meterRegistry.counter("dcs.spill.drained.rows.total").count()).isEqualTo(3.0);
+    }
+
+    @Test
+    void drain_WhenShardStillDown_ShouldKeepRowsAndOpenBreaker() throws Exception {
+        // Given
+        spillover.spill(0, List.of(row("device-1")));
+        when(repository.writeSpilled(eq(0), anyList())).thenThrow(new CannotGetJdbcConnectionException("shard down"));
+
+        // When
+        int drained = drainer.drain(0);
+
+        // Then - строки остаются в логе, новые записи шарда тоже пойдут в лог
+        assertThat(drained).isZero();
+        assertThat(spillover.hasPending(0)).isTrue();
+        assertThat(spillover.isClosed(0)).isFalse();
+        assertThat(drainer.drain(0)).isZero();
+        verify(repository).writeSpilled(eq(0), anyList());
+    }
+
+    @Test
+    void drain_WhenRowRejected_ShouldSendItToDltAndCommitBatch() throws Exception {
+        // Given
+        spillover.spill(0, List.of(row("device-1"), row("device-2")));
+        Map<String, RuntimeException> failures = new HashMap<>();
+        failures.put("device-1", new DataIntegrityViolationException("value too long"));
+        when(repository.writeSpilled(eq(0), anyList())).thenReturn(failures);
+
+        // When
+        drainer.drain(0);
+
+        // Then
+        verify(poisonMessageHandler).sendToDeadLetter(eq("device-id-topic"), eq("device-1"), any(byte[].class),
+                any(DataIntegrityViolationException.class), eq(1), eq("device-1"));
+        verify(poisonMessageHandler, never()).sendToDeadLetter(any(), eq("device-2"), any(), any(), anyInt(), any());
+        assertThat(spillover.hasPending(0)).isFalse();
+    }
+
+    private static DeviceInfoUpsert row(String deviceId) {
+        return new DeviceInfoUpsert(deviceId, "sensor", "TestCorp", "SensorX", "1.0.0", NOW, NOW, "active", "{}");
+    }
+}
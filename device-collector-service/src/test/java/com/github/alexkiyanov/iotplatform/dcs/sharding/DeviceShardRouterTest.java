@@ -0,0 +1,38 @@
+package com.github.alexkiyanov.iotplatform.dcs.sharding;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DeviceShardRouterTest {
+
+    @Test
+    void shardOf_ShouldMatchHashModAlgorithm() {
+        // Given
+        DeviceShardRouter router = new DeviceShardRouter(2);
+
+        // Then
+        for (int i = 0; i < 100; i++) {
+            String deviceId = "device-" + i;
+            assertThat(router.shardOf(deviceId)).isEqualTo((int) (Math.abs((long) deviceId.hashCode()) % 2));
+        }
+    }
+
+    @Test
+    void shardOf_WhenHashCodeIsMinValue_ShouldStayNonNegative() {
+        // Given
+        DeviceShardRouter router = new DeviceShardRouter(3);
+        String deviceId = "polygenelubricants"; // hashCode == Integer.MIN_VALUE
+
+        // Then
+        assertThat(deviceId.hashCode()).isEqualTo(Integer.MIN_VALUE);
+        assertThat(router.shardOf(deviceId)).isBetween(0, 2);
+    }
+
+    @Test
+    void constructor_WhenShardCountIsNotPositive_ShouldThrow() {
+        assertThatThrownBy(() -> new DeviceShardRouter(0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.alexkiyanov.iotplatform.dcs.sharding;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DirectShardDataSourcesTest {
+
+    @Test
+    void fromShardingSphereRules_ShouldResolveWriteDataSourceOfEveryShard() {
+        // Given
+        MockEnvironment env = shardingEnvironment();
+
+        // When
+        try (DirectShardDataSources direct = DirectShardDataSources.fromShardingSphereRules(env, "device_info", 2, 5)) {
+            // Then
+            assertThat(direct.shardCount()).isEqualTo(2);
+            HikariDataSource shard0 = (HikariDataSource) direct.jdbcTemplate(0).getDataSource();
+            HikariDataSource shard1 = (HikariDataSource) direct.jdbcTemplate(1).getDataSource();
+            assertThat(shard0.getJdbcUrl()).isEqualTo("jdbc:postgresql://postgres-shard1:5432/dcs_shard1");
+            assertThat(shard1.getJdbcUrl()).isEqualTo("jdbc:postgresql://postgres-shard2:5432/dcs_shard2");
+            assertThat(shard0.getMaximumPoolSize()).isEqualTo(5);
+        }
+    }
+
+    @Test
+    void fromShardingSphereRules_WhenShardCountDiffers_ShouldFail() {
+        // Given
+        MockEnvironment env = shardingEnvironment();
+
+        // Then
+        assertThatThrownBy(() -> DirectShardDataSources.fromShardingSphereRules(env, "device_info", 3, 5))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("sharding-count=2");
+    }
+
+    @Test
+    void fromShardingSphereRules_WhenAlgorithmIsNotHashMod_ShouldFail() {
+        // Given
+        MockEnvironment env = shardingEnvironment()
+                .withProperty("spring.shardingsphere.rules.sharding.sharding-algorithms.device_id_hash.type", "MOD");
+
+        // Then
+        assertThatThrownBy(() -> DirectShardDataSources.fromShardingSphereRules(env, "device_info", 2, 5))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("HASH_MOD");
+    }
+
+    @Test
+    void fromShardingSphereRules_WhenNoReadwriteSplitting_ShouldUseNodeDataSource() {
+        // Given
+        MockEnvironment env = new MockEnvironment()
+                .withProperty("spring.shardingsphere.rules.sharding.tables.device_info.actual-data-nodes", "ds1.device_info,ds0.device_info")
+                .withProperty("spring.shardingsphere.rules.sharding.tables.device_info.database-strategy.standard.sharding-algorithm-name", "device_id_hash")
+                .withProperty("spring.shardingsphere.rules.sharding.sharding-algorithms.device_id_hash.type", "HASH_MOD")
+                .withProperty("spring.shardingsphere.rules.sharding.sharding-algorithms.device_id_hash.props.sharding-count", "2")
+                .withProperty("spring.shardingsphere.datasource.ds0.jdbc-url", "jdbc:postgresql://a:5432/a")
+                .withProperty("spring.shardingsphere.datasource.ds1.jdbc-url", "jdbc:postgresql://b:5432/b");
+
+        // When
+        try (DirectShardDataSources direct = DirectShardDataSources.fromShardingSphereRules(env, "device_info", 2, 5)) {
+            // Then - номер шарда определяется суффиксом узла, а не порядком в списке
+            assertThat(((HikariDataSource) direct.jdbcTemplate(0).getDataSource()).getJdbcUrl()).isEqualTo("jdbc:postgresql://a:5432/a");
+            assertThat(((HikariDataSource) direct.jdbcTemplate(1).getDataSource()).getJdbcUrl()).isEqualTo("jdbc:postgresql://b:5432/b");
+        }
+    }
+
+    private static MockEnvironment shardingEnvironment() {
+        return new MockEnvironment()
+                .withProperty("spring.shardingsphere.datasource.ds0.jdbc-url", "jdbc:postgresql://postgres-shard1:5432/dcs_shard1")
+                .withProperty("spring.shardingsphere.datasource.ds0.username", "postgres")
+                .withProperty("spring.shardingsphere.datasource.ds1.jdbc-url", "jdbc:postgresql://postgres-shard2:5432/dcs_shard2")
+                .withProperty("spring.shardingsphere.datasource.ds1.username", "postgres")
+                .withProperty("spring.shardingsphere.datasource.ds0_replica.jdbc-url", "jdbc:postgresql://postgres-shard1-replica:5432/dcs_shard1_replica")
+                .withProperty("spring.shardingsphere.rules.sharding.tables.device_info.actual-data-nodes", "ds0_group.device_info,ds1_group.device_info")
+                .withProperty("spring.shardingsphere.rules.sharding.tables.device_info.database-strategy.standard.sharding-column", "device_id")
+                .withProperty("spring.shardingsphere.rules.sharding.tables.device_info.database-strategy.standard.sharding-algorithm-name", "device_id_hash")
+                .withProperty("spring.shardingsphere.rules.sharding.sharding-algorithms.device_id_hash.type", "HASH_MOD")
+                .withProperty("spring.shardingsphere.rules.sharding.sharding-algorithms.device_id_hash.props.sharding-count", "2")
+                .withProperty("spring.shardingsphere.rules.readwrite-splitting.data-sources.ds0_group.static-strategy.write-data-source-name", "ds0")
+                .withProperty("spring.shardingsphere.rules.readwrite-splitting.data-sources.ds1_group.static-strategy.write-data-source-name", "ds1");
+    }
+}
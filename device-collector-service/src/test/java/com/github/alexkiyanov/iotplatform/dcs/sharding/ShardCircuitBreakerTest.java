@@ -0,0 +1,77 @@
+package com.github.alexkiyanov.iotplatform.dcs.sharding;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShardCircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(1_000);
+    private final ShardCircuitBreaker breaker = new ShardCircuitBreaker(2, 2, 5_000, now::get);
+
+    @Test
+    void onFailure_AfterThreshold_ShouldOpenOnlyThatShard() {
+        // When
+        boolean openedFirst = breaker.onFailure(1);
+        boolean openedSecond = breaker.onFailure(1);
+
+        // Then
+        assertThat(openedFirst).isFalse();
+        assertThat(openedSecond).isTrue();
+        assertThat(breaker.state(1)).isEqualTo(ShardCircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire(1)).isFalse();
+        assertThat(breaker.tryAcquire(0)).isTrue();
+        assertThat(breaker.openShards()).isEqualTo(1);
+    }
+
+    @Test
+    void onSuccess_ShouldResetConsecutiveFailures() {
+        // When
+        breaker.onFailure(0);
+        breaker.onSuccess(0);
+        boolean opened = breaker.onFailure(0);
+
+        // Then
+        assertThat(opened).isFalse();
+        assertThat(breaker.state(0)).isEqualTo(ShardCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void tryAcquire_AfterOpenMs_ShouldAllowSingleProbe() {
+        // Given
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        now.addAndGet(5_000);
+
+        // When
+        boolean probe = breaker.tryAcquire(0);
+        boolean second = breaker.tryAcquire(0);
+
+        // Then
+        assertThat(probe).isTrue();
+        assertThat(second).isFalse();
+        assertThat(breaker.state(0)).isEqualTo(ShardCircuitBreaker.State.HALF_OPEN);
+    }
+
+    @Test
+    void onFailure_WhenProbeFails_ShouldReopenForAnotherOpenMs() {
+        // Given
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        now.addAndGet(5_000);
+        breaker.tryAcquire(0);
+
+        // When
+        boolean open = breaker.onFailure(0);
+
+        // Then
+        assertThat(open).isTrue();
+        assertThat(breaker.tryAcquire(0)).isFalse();
+        now.addAndGet(5_000);
+        assertThat(breaker.tryAcquire(0)).isTrue();
+        breaker.onSuccess(0);
+        assertThat(breaker.state(0)).isEqualTo(ShardCircuitBreaker.State.CLOSED);
+    }
+}
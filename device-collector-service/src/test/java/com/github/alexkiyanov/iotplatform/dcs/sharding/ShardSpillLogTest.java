@@ -0,0 +1,111 @@
+package com.github.alexkiyanov.iotplatform.dcs.sharding;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.github.alexkiyanov.iotplatform.dcs.model.DeviceInfoUpsert;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShardSpillLogTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 1, 1, 12, 0);
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void peekAndCommit_ShouldReturnRowsInAppendOrder() throws IOException {
+        // Given
+        ShardSpillLog log = new ShardSpillLog(dir, 4096, objectMapper);
+        log.append(List.of(row("device-1"), row("device-2")));
+        log.append(List.of(row("device-3")));
+
+        // When
+        ShardSpillLog.Batch first = log.peek(2);
+        log.commit(first);
+        ShardSpillLog.Batch second = log.peek(2);
+        log.commit(second);
+
+        // Then - кадр не делится: первая порция - ровно первый кадр
+        assertThat(first.rows()).extracting(DeviceInfoUpsert::deviceId).containsExactly("device-1", "device-2");
+        assertThat(second.rows()).containsExactly(row("device-3"));
+        assertThat(log.isEmpty()).isTrue();
+        assertThat(log.pendingRows()).isZero();
+    }
+
+    @Test
+    void reopen_ShouldResumeFromCheckpointAndIgnoreTornFrame() throws IOException {
+        // Given
+        ShardSpillLog log = new ShardSpillLog(dir, 4096, objectMapper);
+        log.append(List.of(row("device-1")));
+        log.append(List.of(row("device-2")));
+        log.commit(log.peek(1));
+        int end = endOfData();
+        // Недописанный кадр: длина записана, данные и CRC - нет
+        try (FileChannel channel = FileChannel.open(segments().getFirst(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, 100), end);
+        }
+
+        // When
+        ShardSpillLog reopened = new ShardSpillLog(dir, 4096, objectMapper);
+        reopened.append(List.of(row("device-3")));
+
+        // Then
+        assertThat(reopened.pendingRows()).isEqualTo(2);
+        assertThat(reopened.peek(10).rows()).extracting(DeviceInfoUpsert::deviceId).containsExactly("device-2", "device-3");
+    }
+
+    @Test
+    void append_WhenSegmentFull_ShouldRollAndDeleteConsumedSegments() throws IOException {
+        // Given - в сегмент 300 байт помещается один кадр
+        ShardSpillLog log = new ShardSpillLog(dir, 300, objectMapper);
+        for (int i = 0; i < 3; i++) {
+            log.append(List.of(row("device-" + i)));
+        }
+        assertThat(segments()).hasSize(3);
+
+        // When
+        ShardSpillLog.Batch batch = log.peek(3);
+        log.commit(batch);
+
+        // Then
+        assertThat(batch.rows()).extracting(DeviceInfoUpsert::deviceId).containsExactly("device-0", "device-1", "device-2");
+        assertThat(log.isEmpty()).isTrue();
+        assertThat(segments()).hasSize(1);
+    }
+
+    private int endOfData() throws IOException {
+        byte[] bytes = Files.readAllBytes(segments().getFirst());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int position = 0;
+        while (buffer.getInt(position) > 0) {
+            position += 12 + buffer.getInt(position);
+        }
+        return position;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.toString().endsWith(".spill")).sorted().toList();
+        }
+    }
+
+    private static DeviceInfoUpsert row(String deviceId) {
+        return new DeviceInfoUpsert(deviceId, "sensor", "TestCorp", "SensorX", "1.0.0", NOW, NOW, "active",
+                "{\"source\":\"test\"}");
+    }
+}
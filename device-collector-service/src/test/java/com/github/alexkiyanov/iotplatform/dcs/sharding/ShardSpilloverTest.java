@@ -0,0 +1,38 @@
+package com.github.alexkiyanov.iotplatform.dcs.sharding;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShardSpilloverTest {
+
+    @TempDir
+    Path spillDir;
+
+    @Test
+    void isEphemeral_ShouldRejectContainerLayerAndMemoryFileSystems() {
+        // Then
+        assertThat(ShardSpillover.isEphemeral("overlay")).isTrue();
+        assertThat(ShardSpillover.isEphemeral("tmpfs")).isTrue();
+        assertThat(ShardSpillover.isEphemeral("ext4")).isFalse();
+        assertThat(ShardSpillover.isEphemeral("xfs")).isFalse();
+    }
+
+    @Test
+    void constructor_WhenPersistenceNotRequired_ShouldOpenLogPerShard() {
+        // When
+        ShardSpillover spillover = new ShardSpillover(new DeviceShardRouter(2), new ObjectMapper(), 1, 60000,
+                spillDir.resolve("spill").toString(), false, 4096, new SimpleMeterRegistry());
+
+        // Then
+        assertThat(spillover.shardCount()).isEqualTo(2);
+        assertThat(Files.isDirectory(spillDir.resolve("spill").resolve("shard-0"))).isTrue();
+        assertThat(spillover.hasPending(1)).isFalse();
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.alexkiyanov.iotplatform.dcs.sharding;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShardWriteDispatcherTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private ShardWriteDispatcher dispatcher;
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.stop();
+    }
+
+    @Test
+    void dispatch_ShouldRunShardsConcurrentlyAndReturnEveryResult() {
+        // Given
+        dispatcher = new ShardWriteDispatcher(3, 5000, meterRegistry);
+        CountDownLatch allStarted = new CountDownLatch(4);
+        Map<Integer, Callable<String>> tasks = new TreeMap<>();
+        for (int shard = 0; shard < 4; shard++) {
+            int current = shard;
+            tasks.put(shard, () -> {
+                allStarted.countDown();
+                return allStarted.await(5, TimeUnit.SECONDS) ? "ok-" + current : "sequential";
+            });
+        }
+
+        // When
+        Map<Integer, String> results = dispatcher.dispatch(tasks, (shard, e) -> "failed");
+
+        // Then
+        assertThat(results).containsOnly(
+                Map.entry(0, "ok-0"), Map.entry(1, "ok-1"), Map.entry(2, "ok-2"), Map.entry(3, "ok-3"));
+        assertThat(meterRegistry.counter("dcs.shard.write.parallel.total").count()).isEqualTo(3.0);
+    }
+
+    @Test
+    void dispatch_WhenShardThrows_ShouldReportOnlyThatShard() {
+        // Given
+        dispatcher = new ShardWriteDispatcher(2, 5000, meterRegistry);
+        Map<Integer, Callable<String>> tasks = new TreeMap<>();
+        tasks.put(0, () -> "ok");
+        tasks.put(1, () -> {
+            throw new IllegalStateException("shard down");
+        });
+
+        // When
+        Map<Integer, String> results = dispatcher.dispatch(tasks, (shard, e) -> "failed: " + e.getMessage());
+
+        // Then
+        assertThat(results).containsEntry(0, "ok").containsEntry(1, "failed: shard down");
+    }
+
+    @Test
+    void dispatch_WhenShardExceedsTimeout_ShouldReportTimeout() {
+        // Given
+        dispatcher = new ShardWriteDispatcher(2, 100, meterRegistry);
+        Map<Integer, Callable<String>> tasks = new TreeMap<>();
+        tasks.put(0, () -> "ok");
+        tasks.put(1, () -> {
+            Thread.sleep(5000);
+            return "late";
+        });
+
+        // When
+        Map<Integer, String> results = dispatcher.dispatch(tasks, (shard, e) -> "failed");
+
+        // Then
+        assertThat(results).containsEntry(0, "ok").containsEntry(1, "failed");
+        assertThat(meterRegistry.counter("dcs.shard.write.timeouts.total").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void dispatch_WhenSingleShard_ShouldRunInCallerThread() {
+        // Given
+        dispatcher = new ShardWriteDispatcher(1, 5000, meterRegistry);
+        String caller = Thread.currentThread().getName();
+
+        // When
+        Map<Integer, String> results = dispatcher.dispatch(
+                Map.of(0, () -> Thread.currentThread().getName()), (shard, e) -> "failed");
+
+        // Then
+        assertThat(results).containsEntry(0, caller);
+        assertThat(meterRegistry.counter("dcs.shard.write.parallel.total").count()).isZero();
+    }
+}
@@ -0,0 +1,442 @@
+/**
+ * Autogenerated by Avro
+ *
+ * DO NOT EDIT DIRECTLY
+ */
+package com.github.alexkiyanov.iotplatform.avro;
+
+import org.apache.avro.generic.GenericArray;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.util.Utf8;
+import org.apache.avro.message.BinaryMessageEncoder;
+import org.apache.avro.message.BinaryMessageDecoder;
+import org.apache.avro.message.SchemaStore;
+
+@org.apache.avro.specific.AvroGenerated
+public class DeviceEventEnvelope extends org.apache.avro.specific.SpecificRecordBase implements org.apache.avro.specific.SpecificRecord {
+  private static final long serialVersionUID = 3569272603734461843L;
+
+
+  public static final org.apache.avro.Schema SCHEMA$ = new org.apache.avro.Schema.Parser().parse("{\"type\":\"record\",\"name\":\"DeviceEventEnvelope\",\"namespace\":\"com.github.alexkiyanov.iotplatform.avro\",\"fields\":[{\"name\":\"sourceId\",\"type\":{\"type\":\"string\",\"avro.java.string\":\"String\"}},{\"name\":\"events\",\"type\":{\"type\":\"array\",\"items\":{\"type\":\"record\",\"name\":\"DeviceEvent\",\"fields\":[{\"name\":\"deviceId\",\"type\":{\"type\":\"string\",\"avro.java.string\":\"String\"}},{\"name\":\"deviceType\",\"type\":{\"type\":\"string\",\"avro.java.string\":\"String\"}},{\"name\":\"createdAt\",\"type\":\"long\"},{\"name\":\"meta\",\"type\":{\"type\":\"string\",\"avro.java.string\":\"String\"}}]}}}]}");
+  public static org.apache.avro.Schema getClassSchema() { return SCHEMA$; }
+
+  private static final SpecificData MODEL$ = new SpecificData();
+
+  private static final BinaryMessageEncoder<DeviceEventEnvelope> ENCODER =
+      new BinaryMessageEncoder<>(MODEL$, SCHEMA$);
+
+  private static final BinaryMessageDecoder<DeviceEventEnvelope> DECODER =
+      new BinaryMessageDecoder<>(MODEL$, SCHEMA$);
+
+  /**
+   * Return the BinaryMessageEncoder instance used by this class.
+   * @return the message encoder used by this class
+   */
+  public static BinaryMessageEncoder<DeviceEventEnvelope> getEncoder() {
+    return ENCODER;
+  }
+
+  /**
+   * Return the BinaryMessageDecoder instance used by this class.
+   * @return the message decoder used by this class
+   */
+  public static BinaryMessageDecoder<DeviceEventEnvelope> getDecoder() {
+    return DECODER;
+  }
+
+  /**
+   * Create a new BinaryMessageDecoder instance for this class that uses the specified {@link SchemaStore}.
+   * @param resolver a {@link SchemaStore} used to find schemas by fingerprint
+   * @return a BinaryMessageDecoder instance for this class backed by the given SchemaStore
+   */
+  public static BinaryMessageDecoder<DeviceEventEnvelope> createDecoder(SchemaStore resolver) {
+    return new BinaryMessageDecoder<>(MODEL$, SCHEMA$, resolver);
+  }
+
+  /**
+   * Serializes this DeviceEventEnvelope to a ByteBuffer.
+   * @return a buffer holding the serialized data for this instance
+   * @throws java.io.IOException if this instance could not be serialized
+   */
+  public java.nio.ByteBuffer toByteBuffer() throws java.io.IOException {
+    return ENCODER.encode(this);
+  }
+
+  /**
+   * Deserializes a DeviceEventEnvelope from a ByteBuffer.
+   * @param b a byte buffer holding serialized data for an instance of this class
+   * @return a DeviceEventEnvelope instance decoded from the given buffer
+   * @throws java.io.IOException if the given bytes could not be deserialized into an instance of this class
+   */
+  public static DeviceEventEnvelope fromByteBuffer(
+      java.nio.ByteBuffer b) throws java.io.IOException {
+    return DECODER.decode(b);
+  }
+
+  private java.lang.String sourceId;
+  private java.util.List<com.github.alexkiyanov.iotplatform.avro.DeviceEvent> events;
+
+  /**
+   * Default constructor.  Note that this does not initialize fields
+   * to their default values from the schema.  If that is desired then
+   * one should use <code>newBuilder()</code>.
+   */
+  public DeviceEventEnvelope() {}
+
+  /**
+   * All-args constructor.
+   * @param sourceId The new value for sourceId
+   * @param events The new value for events
+   */
+  public DeviceEventEnvelope(java.lang.String sourceId, java.util.List<com.github.alexkiyanov.iotplatform.avro.DeviceEvent> events) {
+    this.sourceId = sourceId;
+    this.events = events;
+  }
+
+  @Override
+  public org.apache.avro.specific.SpecificData getSpecificData() { return MODEL$; }
+
+  @Override
+  public org.apache.avro.Schema getSchema() { return SCHEMA$; }
+
+  // Used by DatumWriter.  Applications should not call.
+  @Override
+  public java.lang.Object get(int field$) {
+    switch (field$) {
+    case 0: return sourceId;
+    case 1: return events;
+    default: throw new IndexOutOfBoundsException("Invalid index: " + field$);
+    }
+  }
+
+  // Used by DatumReader.  Applications should not call.
+  @Override
+  @SuppressWarnings(value="unchecked")
+  public void put(int field$, java.lang.Object value$) {
+    switch (field$) {
+    case 0: sourceId = value$ != null ? value$.toString() : null; break;
+    case 1: events = (java.util.List<com.github.alexkiyanov.iotplatform.avro.DeviceEvent>)value$; break;
+    default: throw new IndexOutOfBoundsException("Invalid index: " + field$);
+    }
+  }
+
+  /**
+   * Gets the value of the 'sourceId' field.
+   * @return The value of the 'sourceId' field.
+   */
+  public java.lang.String getSourceId() {
+    return sourceId;
+  }
+
+
+  /**
+   * Sets the value of the 'sourceId' field.
+   * @param value the value to set.
+   */
+  public void setSourceId(java.lang.String value) {
+    this.sourceId = value;
+  }
+
+  /**
+   * Gets the value of the 'events' field.
+   * @return The value of the 'events' field.
+   */
+  public java.util.List<com.github.alexkiyanov.iotplatform.avro.DeviceEvent> getEvents() {
+    return events;
+  }
+
+
+  /**
+   * Sets the value of the 'events' field.
+   * @param value the value to set.
+   */
+  public void setEvents(java.util.List<com.github.alexkiyanov.iotplatform.avro.DeviceEvent> value) {
+    this.events = value;
+  }
+
+  /**
+   * Creates a new DeviceEventEnvelope RecordBuilder.
+   * @return A new DeviceEventEnvelope RecordBuilder
+   */
+  public static com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope.Builder newBuilder() {
+    return new com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope.Builder();
+  }
+
+  /**
+   * Creates a new DeviceEventEnvelope RecordBuilder by copying an existing Builder.
+   * @param other The existing builder to copy.
+   * @return A new DeviceEventEnvelope RecordBuilder
+   */
+  public static com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope.Builder newBuilder(com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope.Builder other) {
+    if (other == null) {
+      return new com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope.Builder();
+    } else {
+      return new com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope.Builder(other);
+    }
+  }
+
+  /**
+   * Creates a new DeviceEventEnvelope RecordBuilder by copying an existing DeviceEventEnvelope instance.
+   * @param other The existing instance to copy.
+   * @return A new DeviceEventEnvelope RecordBuilder
+   */
+  public static com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope.Builder newBuilder(com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope other) {
+    if (other == null) {
+      return new com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope.Builder();
+    } else {
+      return new com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope.Builder(other);
+    }
+  }
+
+  /**
+   * RecordBuilder for DeviceEventEnvelope instances.
+   */
+  @org.apache.avro.specific.AvroGenerated
+  public static class Builder extends org.apache.avro.specific.SpecificRecordBuilderBase<DeviceEventEnvelope>
+    implements org.apache.avro.data.RecordBuilder<DeviceEventEnvelope> {
+
+    private java.lang.String sourceId;
+    private java.util.List<com.github.alexkiyanov.iotplatform.avro.DeviceEvent> events;
+
+    /** Creates a new Builder */
+    private Builder() {
+      super(SCHEMA$, MODEL$);
+    }
+
+    /**
+     * Creates a Builder by copying an existing Builder.
+     * @param other The existing Builder to copy.
+     */
+    private Builder(com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope.Builder other) {
+      super(other);
+      if (isValidValue(fields()[0], other.sourceId)) {
+        this.sourceId = data().deepCopy(fields()[0].schema(), other.sourceId);
+        fieldSetFlags()[0] = other.fieldSetFlags()[0];
+      }
+      if (isValidValue(fields()[1], other.events)) {
+        this.events = data().deepCopy(fields()[1].schema(), other.events);
+        fieldSetFlags()[1] = other.fieldSetFlags()[1];
+      }
+    }
+
+    /**
+     * Creates a Builder by copying an existing DeviceEventEnvelope instance
+     * @param other The existing instance to copy.
+     */
+    private Builder(com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope other) {
+      super(SCHEMA$, MODEL$);
+      if (isValidValue(fields()[0], other.sourceId)) {
+        this.sourceId = data().deepCopy(fields()[0].schema(), other.sourceId);
+        fieldSetFlags()[0] = true;
+      }
+      if (isValidValue(fields()[1], other.events)) {
+        this.events = data().deepCopy(fields()[1].schema(), other.events);
+        fieldSetFlags()[1] = true;
+      }
+    }
+
+    /**
+      * Gets the value of the 'sourceId' field.
+      * @return The value.
+      */
+    public java.lang.String getSourceId() {
+      return sourceId;
+    }
+
+
+    /**
+      * Sets the value of the 'sourceId' field.
+      * @param value The value of 'sourceId'.
+      * @return This builder.
+      */
+    public com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope.Builder setSourceId(java.lang.String value) {
+      validate(fields()[0], value);
+      this.sourceId = value;
+      fieldSetFlags()[0] = true;
+      return this;
+    }
+
+    /**
+      * Checks whether the 'sourceId' field has been set.
+      * @return True if the 'sourceId' field has been set, false otherwise.
+      */
+    public boolean hasSourceId() {
+      return fieldSetFlags()[0];
+    }
+
+
+    /**
+      * Clears the value of the 'sourceId' field.
+      * @return This builder.
+      */
+    public com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope.Builder clearSourceId() {
+      sourceId = null;
+      fieldSetFlags()[0] = false;
+      return this;
+    }
+
+    /**
+      * Gets the value of the 'events' field.
+      * @return The value.
+      */
+    public java.util.List<com.github.alexkiyanov.iotplatform.avro.DeviceEvent> getEvents() {
+      return events;
+    }
+
+
+    /**
+      * Sets the value of the 'events' field.
+      * @param value The value of 'events'.
+      * @return This builder.
+      */
+    public com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope.Builder setEvents(java.util.List<com.github.alexkiyanov.iotplatform.avro.DeviceEvent> value) {
+      validate(fields()[1], value);
+      this.events = value;
+      fieldSetFlags()[1] = true;
+      return this;
+    }
+
+    /**
+      * Checks whether the 'events' field has been set.
+      * @return True if the 'events' field has been set, false otherwise.
+      */
+    public boolean hasEvents() {
+      return fieldSetFlags()[1];
+    }
+
+
+    /**
+      * Clears the value of the 'events' field.
+      * @return This builder.
+      */
+    public com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope.Builder clearEvents() {
+      events = null;
+      fieldSetFlags()[1] = false;
+      return this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public DeviceEventEnvelope build() {
+      try {
+        DeviceEventEnvelope record = new DeviceEventEnvelope();
+        record.sourceId = fieldSetFlags()[0] ? this.sourceId : (java.lang.String) defaultValue(fields()[0]);
+        record.events = fieldSetFlags()[1] ? this.events : (java.util.List<com.github.alexkiyanov.iotplatform.avro.DeviceEvent>) defaultValue(fields()[1]);
+        return record;
+      } catch (org.apache.avro.AvroMissingFieldException e) {
+        throw e;
+      } catch (java.lang.Exception e) {
+        throw new org.apache.avro.AvroRuntimeException(e);
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static final org.apache.avro.io.DatumWriter<DeviceEventEnvelope>
+    WRITER$ = (org.apache.avro.io.DatumWriter<DeviceEventEnvelope>)MODEL$.createDatumWriter(SCHEMA$);
+
+  @Override public void writeExternal(java.io.ObjectOutput out)
+    throws java.io.IOException {
+    WRITER$.write(this, SpecificData.getEncoder(out));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static final org.apache.avro.io.DatumReader<DeviceEventEnvelope>
+    READER$ = (org.apache.avro.io.DatumReader<DeviceEventEnvelope>)MODEL$.createDatumReader(SCHEMA$);
+
+  @Override public void readExternal(java.io.ObjectInput in)
+    throws java.io.IOException {
+    READER$.read(this, SpecificData.getDecoder(in));
+  }
+
+  @Override protected boolean hasCustomCoders() { return true; }
+
+  @Override public void customEncode(org.apache.avro.io.Encoder out)
+    throws java.io.IOException
+  {
+    out.writeString(this.sourceId);
+
+    long size0 = this.events.size();
+    out.writeArrayStart();
+    out.setItemCount(size0);
+    long actualSize0 = 0;
+    for (com.github.alexkiyanov.iotplatform.avro.DeviceEvent e0: this.events) {
+      actualSize0++;
+      out.startItem();
+      e0.customEncode(out);
+    }
+    out.writeArrayEnd();
+    if (actualSize0 != size0)
+      throw new java.util.ConcurrentModificationException("Array-size written was " + size0 + ", but element count was " + actualSize0 + ".");
+
+  }
+
+  @Override public void customDecode(org.apache.avro.io.ResolvingDecoder in)
+    throws java.io.IOException
+  {
+    org.apache.avro.Schema.Field[] fieldOrder = in.readFieldOrderIfDiff();
+    if (fieldOrder == null) {
+      this.sourceId = in.readString();
+
+      long size0 = in.readArrayStart();
+      java.util.List<com.github.alexkiyanov.iotplatform.avro.DeviceEvent> a0 = this.events;
+      if (a0 == null) {
+        a0 = new SpecificData.Array<com.github.alexkiyanov.iotplatform.avro.DeviceEvent>((int)size0, SCHEMA$.getField("events").schema());
+        this.events = a0;
+      } else a0.clear();
+      SpecificData.Array<com.github.alexkiyanov.iotplatform.avro.DeviceEvent> ga0 = (a0 instanceof SpecificData.Array ? (SpecificData.Array<com.github.alexkiyanov.iotplatform.avro.DeviceEvent>)a0 : null);
+      for ( ; 0 < size0; size0 = in.arrayNext()) {
+        for ( ; size0 != 0; size0--) {
+          com.github.alexkiyanov.iotplatform.avro.DeviceEvent e0 = (ga0 != null ? ga0.peek() : null);
+          if (e0 == null) {
+            e0 = new com.github.alexkiyanov.iotplatform.avro.DeviceEvent();
+          }
+          e0.customDecode(in);
+          a0.add(e0);
+        }
+      }
+
+    } else {
+      for (int i = 0; i < 2; i++) {
+        switch (fieldOrder[i].pos()) {
+        case 0:
+          this.sourceId = in.readString();
+          break;
+
+        case 1:
+          long size0 = in.readArrayStart();
+          java.util.List<com.github.alexkiyanov.iotplatform.avro.DeviceEvent> a0 = this.events;
+          if (a0 == null) {
+            a0 = new SpecificData.Array<com.github.alexkiyanov.iotplatform.avro.DeviceEvent>((int)size0, SCHEMA$.getField("events").schema());
+            this.events = a0;
+          } else a0.clear();
+          SpecificData.Array<com.github.alexkiyanov.iotplatform.avro.DeviceEvent> ga0 = (a0 instanceof SpecificData.Array ? (SpecificData.Array<com.github.alexkiyanov.iotplatform.avro.DeviceEvent>)a0 : null);
+          for ( ; 0 < size0; size0 = in.arrayNext()) {
+            for ( ; size0 != 0; size0--) {
+              com.github.alexkiyanov.iotplatform.avro.DeviceEvent e0 = (ga0 != null ? ga0.peek() : null);
+              if (e0 == null) {
+                e0 = new com.github.alexkiyanov.iotplatform.avro.DeviceEvent();
+              }
+              e0.customDecode(in);
+              a0.add(e0);
+            }
+          }
+          break;
+
+        default:
+          throw new java.io.IOException("Corrupt ResolvingDecoder.");
+        }
+      }
+    }
+  }
+}
+
+
+
+
+
+
+
+
+
+
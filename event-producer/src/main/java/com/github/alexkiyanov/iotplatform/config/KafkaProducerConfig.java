@@ -1,6 +1,7 @@
 package com.github.alexkiyanov.iotplatform.config;
 
 import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
@@ -16,6 +17,10 @@ import java.util.Map;
 @Configuration
 public class KafkaProducerConfig {
 
+    // DeviceEvent и DeviceEventEnvelope пишутся в один топик, поэтому subject учитывает имя записи
+    private static final String TOPIC_RECORD_NAME_STRATEGY =
+            "io.confluent.kafka.serializers.subject.TopicRecordNameStrategy";
+
     @Value("${spring.kafka.bootstrap-servers}")
     private String bootstrapServers;
 
@@ -24,6 +29,25 @@ public class KafkaProducerConfig {
 
     @Bean
     public ProducerFactory<String, DeviceEvent> producerFactory() {
+        return new DefaultKafkaProducerFactory<>(avroProducerProps());
+    }
+
+    @Bean
+    public KafkaTemplate<String, DeviceEvent> kafkaTemplate() {
+        return new KafkaTemplate<>(producerFactory());
+    }
+
+    @Bean
+    public ProducerFactory<String, DeviceEventEnvelope> envelopeProducerFactory() {
+        return new DefaultKafkaProducerFactory<>(avroProducerProps());
+    }
+
+    @Bean
+    public KafkaTemplate<String, DeviceEventEnvelope> envelopeKafkaTemplate() {
+        return new KafkaTemplate<>(envelopeProducerFactory());
+    }
+
+    private Map<String, Object> avroProducerProps() {
         Map<String, Object> configProps = new HashMap<>();
         configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
@@ -31,12 +55,7 @@ public class KafkaProducerConfig {
                 io.confluent.kafka.serializers.KafkaAvroSerializer.class);
         configProps.put("schema.registry.url", schemaRegistryUrl);
         configProps.put("specific.avro.writer", true);
-        
-        return new DefaultKafkaProducerFactory<>(configProps);
-    }
-
-    @Bean
-    public KafkaTemplate<String, DeviceEvent> kafkaTemplate() {
-        return new KafkaTemplate<>(producerFactory());
+        configProps.put("value.subject.name.strategy", TOPIC_RECORD_NAME_STRATEGY);
+        return configProps;
     }
 }
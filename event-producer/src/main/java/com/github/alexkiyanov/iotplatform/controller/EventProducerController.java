@@ -42,4 +42,16 @@ public class EventProducerController {
                     .body("Ошибка при отправке события: " + e.getMessage());
         }
     }
+
+    @PostMapping("/send-batch")
+    public ResponseEntity<String> sendBatch(@RequestParam(defaultValue = "100") int count) {
+        try {
+            eventProducerService.produceEvents(count);
+            return ResponseEntity.ok("Отправлено событий: " + count);
+        } catch (Exception e) {
+            log.error("Ошибка при отправке событий: {}", e.getMessage(), e);
+            return ResponseEntity.internalServerError()
+                    .body("Ошибка при отправке событий: " + e.getMessage());
+        }
+    }
 }
@@ -1,6 +1,8 @@
 package com.github.alexkiyanov.iotplatform.service;
 
 import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,9 +11,12 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
-import java.util.UUID;
+import java.util.Set;
 
 @Slf4j
 @Service
@@ -19,9 +24,23 @@ import java.util.UUID;
 public class EventProducerService {
 
     private final KafkaTemplate<String, DeviceEvent> kafkaTemplate;
+    private final KafkaTemplate<String, DeviceEventEnvelope> envelopeKafkaTemplate;
     
     @Value("${app.topics.input}")
     private String topic;
+
+    @Value("${app.topics.priority:}")
+    private String priorityTopic;
+
+    // Типы событий, которые идут в приоритетную полосу, минуя общий топик и конверты
+    @Value("${app.producer.priority-types:}")
+    private Set<String> priorityTypes;
+
+    @Value("${app.producer.envelope.enabled:false}")
+    private boolean envelopeEnabled;
+
+    @Value("${app.producer.envelope.max-events:100}")
+    private int envelopeMaxEvents;
     
     private final List<String> deviceIds = List.of(
         "device-001", "device-002", "device-003", "device-004", "device-005",
@@ -29,6 +48,9 @@ public class EventProducerService {
     );
     
     private final Random random = new Random();
+
+    // Накопленные события по deviceId до отправки одним конвертом
+    private final Map<String, List<DeviceEvent>> pendingEnvelopes = new HashMap<>();
     
     private static final String[] EVENT_TYPES = {
         "TEMPERATURE_READING",
@@ -60,13 +82,89 @@ public class EventProducerService {
     public void produceEvent() {
         try {
             DeviceEvent event = createRandomEvent();
+            if (isPriority(event)) {
+                kafkaTemplate.send(priorityTopic, event.getDeviceId(), event);
+                log.info("Отправлено приоритетное событие: deviceId={}, type={}",
+                        event.getDeviceId(), event.getDeviceType());
+                return;
+            }
+            if (envelopeEnabled) {
+                addToEnvelope(event);
+                return;
+            }
             kafkaTemplate.send(topic, event.getDeviceId(), event);
-            log.info("Отправлено событие: deviceId={}, eventId={}, type={}", 
-                    event.getDeviceId(), event.getEventId(), event.getType());
+            log.info("Отправлено событие: deviceId={}, type={}, createdAt={}", 
+                    event.getDeviceId(), event.getDeviceType(), event.getCreatedAt());
         } catch (Exception e) {
             log.error("Ошибка при отправке события: {}", e.getMessage(), e);
         }
     }
+
+    public void produceEvents(int count) {
+        for (int i = 0; i < count; i++) {
+            produceEvent();
+        }
+    }
+
+    /**
+     * Отправляет накопленные конверты не реже одного раза за окно linger-ms
+     */
+    @Scheduled(fixedRateString = "${app.producer.envelope.linger-ms:100}")
+    public void flushEnvelopes() {
+        if (!envelopeEnabled) {
+            return;
+        }
+        final Map<String, List<DeviceEvent>> toSend;
+        synchronized (pendingEnvelopes) {
+            if (pendingEnvelopes.isEmpty()) {
+                return;
+            }
+            toSend = new HashMap<>(pendingEnvelopes);
+            pendingEnvelopes.clear();
+        }
+        toSend.forEach(this::sendEnvelope);
+    }
+
+    /**
+     * Дописывает накопленные конверты при остановке, чтобы не терять хвост окна linger-ms
+     */
+    @PreDestroy
+    public void flushOnShutdown() {
+        flushEnvelopes();
+        envelopeKafkaTemplate.flush();
+    }
+
+    private boolean isPriority(DeviceEvent event) {
+        return !priorityTopic.isBlank() && priorityTypes.contains(event.getDeviceType());
+    }
+
+    private void addToEnvelope(DeviceEvent event) {
+        List<DeviceEvent> full = null;
+        synchronized (pendingEnvelopes) {
+            List<DeviceEvent> pending = pendingEnvelopes.computeIfAbsent(event.getDeviceId(), id -> new ArrayList<>());
+            pending.add(event);
+            if (pending.size() >= envelopeMaxEvents) {
+                full = pendingEnvelopes.remove(event.getDeviceId());
+            }
+        }
+        if (full != null) {
+            sendEnvelope(event.getDeviceId(), full);
+        }
+    }
+
+    private void sendEnvelope(String deviceId, List<DeviceEvent> events) {
+        try {
+            // Конверт собирается по устройству, поэтому ключ записи по-прежнему deviceId
+            DeviceEventEnvelope envelope = DeviceEventEnvelope.newBuilder()
+                    .setSourceId(deviceId)
+                    .setEvents(events)
+                    .build();
+            envelopeKafkaTemplate.send(topic, deviceId, envelope);
+            log.info("Отправлен конверт: deviceId={}, events={}", deviceId, events.size());
+        } catch (Exception e) {
+            log.error("Ошибка при отправке конверта: {}", e.getMessage(), e);
+        }
+    }
     
     private DeviceEvent createRandomEvent() {
         String deviceId = deviceIds.get(random.nextInt(deviceIds.size()));
@@ -74,11 +172,10 @@ public class EventProducerService {
         String payload = PAYLOADS[random.nextInt(PAYLOADS.length)];
         
         return DeviceEvent.newBuilder()
-                .setEventId(UUID.randomUUID().toString())
                 .setDeviceId(deviceId)
-                .setTimestamp(Instant.now().toEpochMilli())
-                .setType(eventType)
-                .setPayload(payload)
+                .setDeviceType(eventType)
+                .setCreatedAt(Instant.now().toEpochMilli())
+                .setMeta(payload)
                 .build();
     }
 }
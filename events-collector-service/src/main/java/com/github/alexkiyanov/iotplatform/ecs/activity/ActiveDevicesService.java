@@ -0,0 +1,116 @@
+package com.github.alexkiyanov.iotplatform.ecs.activity;
+
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceActivitySketchEntity;
+import com.github.alexkiyanov.iotplatform.ecs.repository.DeviceActivitySketchRepository;
+import com.github.alexkiyanov.iotplatform.ecs.state.HyperLogLog;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.github.alexkiyanov.iotplatform.ecs.activity.ActiveDevicesStage.HOUR_MS;
+import static com.github.alexkiyanov.iotplatform.ecs.activity.ActiveDevicesStage.MINUTE_MS;
+import static com.github.alexkiyanov.iotplatform.ecs.activity.ActiveDevicesStage.floorHour;
+import static com.github.alexkiyanov.iotplatform.ecs.activity.ActiveDevicesStage.floorMinute;
+
+/**
+ * Считает активные устройства за окно, объединяя минутные скетчи всех инстансов ECS.
+ * Окно в час читает не больше двух партиций device_activity_sketches.
+ */
+@Service
+@ConditionalOnProperty(name = "app.active-devices.enabled", havingValue = "true", matchIfMissing = true)
+public class ActiveDevicesService {
+    private static final Logger log = LoggerFactory.getLogger(ActiveDevicesService.class);
+
+    /**
+     * Оценка числа устройств, активных в [from, to)
+     */
+    public record ActiveDevices(long from, long to, String deviceType, long devices) {
+    }
+
+    private final DeviceActivitySketchRepository repository;
+    private final int precision;
+    private final Duration maxWindow;
+    private final AtomicLong lastMinute = new AtomicLong();
+    private final AtomicLong lastHour = new AtomicLong();
+
+    public ActiveDevicesService(DeviceActivitySketchRepository repository,
+                                @Value("${app.active-devices.precision:12}") int precision,
+                                @Value("${app.active-devices.max-query-window:24h}") Duration maxWindow,
+                                MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.precision = precision;
+        this.maxWindow = maxWindow;
+        Gauge.builder("ecs.active.devices", lastMinute, AtomicLong::get)
+                .description("Distinct devices active in the last complete minute, all ECS instances")
+                .tag("window", "1m")
+                .register(meterRegistry);
+        Gauge.builder("ecs.active.devices", lastHour, AtomicLong::get)
+                .description("Distinct devices active in the last hour, all ECS instances")
+                .tag("window", "1h")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Устройства, активные за последние window (с точностью до минуты, включая текущую минуту)
+     *
+     * @param deviceType тип события или null для всех типов
+     * @throws IllegalArgumentException если окно не положительное или больше max-query-window
+     */
+    public ActiveDevices count(Duration window, String deviceType) {
+        if (window.isNegative() || window.isZero() || window.compareTo(maxWindow) > 0) {
+            throw new IllegalArgumentException("window must be in (0, " + maxWindow + "]: " + window);
+        }
+        final long to = floorMinute(System.currentTimeMillis()) + MINUTE_MS;
+        final long minutes = (window.toMillis() + MINUTE_MS - 1) / MINUTE_MS;
+        return count(to - minutes * MINUTE_MS, to, deviceType);
+    }
+
+    public ActiveDevices count(long from, long to, String deviceType) {
+        final String type = deviceType == null ? ActiveDevicesStage.ALL_TYPES : deviceType;
+        HyperLogLog merged = null;
+        for (long hour = floorHour(from); hour < to; hour += HOUR_MS) {
+            for (DeviceActivitySketchEntity row : repository.findByHour(hour, from, to)) {
+                if (!type.equals(row.getKey().getDeviceType())) {
+                    continue;
+                }
+                final HyperLogLog sketch = HyperLogLog.fromByteArray(toBytes(row.getRegisters()));
+                if (sketch.precision() != precision) {
+                    // Строки, записанные до смены точности, не объединяются с текущими
+                    continue;
+                }
+                if (merged == null) {
+                    merged = sketch;
+                } else {
+                    merged.merge(sketch);
+                }
+            }
+        }
+        return new ActiveDevices(from, to, deviceType, merged == null ? 0 : merged.estimate());
+    }
+
+    @Scheduled(fixedRateString = "${app.active-devices.gauge-refresh-ms:60000}")
+    public void refreshGauges() {
+        try {
+            final long currentMinute = floorMinute(System.currentTimeMillis());
+            lastMinute.set(count(currentMinute - MINUTE_MS, currentMinute, null).devices());
+            lastHour.set(count(Duration.ofHours(1), null).devices());
+        } catch (RuntimeException e) {
+            log.warn("Failed to refresh active device gauges: {}", e.getMessage());
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
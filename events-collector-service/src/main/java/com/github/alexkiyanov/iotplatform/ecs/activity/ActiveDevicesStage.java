@@ -0,0 +1,176 @@
+package com.github.alexkiyanov.iotplatform.ecs.activity;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceActivitySketchEntity;
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceActivitySketchKey;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.IngestStage;
+import com.github.alexkiyanov.iotplatform.ecs.state.HyperLogLog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.cassandra.core.CassandraOperations;
+import org.springframework.data.cassandra.core.InsertOptions;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Собирает HyperLogLog-скетчи активных устройств по минутам (по createdAt) и периодически
+ * сохраняет их в device_activity_sketches строкой на (минута, тип, инстанс).
+ * <p>
+ * Каждый инстанс пишет только свои строки, а {@link ActiveDevicesService} объединяет их при чтении,
+ * поэтому перезапись строки растущим скетчем идемпотентна и не требует координации между инстансами.
+ */
+@Component
+@Order(110)
+@ConditionalOnProperty(name = "app.active-devices.enabled", havingValue = "true", matchIfMissing = true)
+public class ActiveDevicesStage implements IngestStage {
+    private static final Logger log = LoggerFactory.getLogger(ActiveDevicesStage.class);
+
+    public static final String ALL_TYPES = "*";
+    static final long MINUTE_MS = 60_000L;
+    static final long HOUR_MS = 3_600_000L;
+
+    private static final class MinuteSketch {
+        private final HyperLogLog sketch;
+        private boolean dirty;
+
+        private MinuteSketch(int precision) {
+            this.sketch = new HyperLogLog(precision);
+        }
+    }
+
+    private final CassandraOperations cassandraOperations;
+    private final int precision;
+    private final boolean perType;
+    private final String instanceId;
+    private final long retentionMs;
+    private final InsertOptions insertOptions;
+    private final TreeMap<Long, Map<String, MinuteSketch>> minutes = new TreeMap<>();
+    private final Counter skippedCounter;
+    private final Counter flushFailuresCounter;
+
+    public ActiveDevicesStage(CassandraOperations cassandraOperations,
+                              @Value("${app.active-devices.precision:12}") int precision,
+                              @Value("${app.active-devices.per-type:true}") boolean perType,
+                              @Value("${app.active-devices.instance-id}") String instanceId,
+                              @Value("${app.active-devices.open-window:10m}") Duration openWindow,
+                              @Value("${app.active-devices.ttl:7d}") Duration ttl,
+                              MeterRegistry meterRegistry) {
+        this.cassandraOperations = cassandraOperations;
+        this.precision = precision;
+        this.perType = perType;
+        this.instanceId = instanceId;
+        this.retentionMs = openWindow.toMillis();
+        this.insertOptions = InsertOptions.builder().ttl(ttl).build();
+        this.skippedCounter = Counter.builder("ecs.active.devices.skipped.total")
+                .description("Events outside the open activity window, not counted")
+                .register(meterRegistry);
+        this.flushFailuresCounter = Counter.builder("ecs.active.devices.flush.failures.total")
+                .description("Failed activity sketch writes")
+                .register(meterRegistry);
+        // Проверяем точность сразу, а не на первом событии
+        new HyperLogLog(precision);
+    }
+
+    @Override
+    public void afterSave(List<DeviceEvent> events) {
+        final long now = System.currentTimeMillis();
+        final long oldest = floorMinute(now - retentionMs);
+        // Минута вперед - запас на расхождение часов устройств
+        final long newest = floorMinute(now) + MINUTE_MS;
+        int skipped = 0;
+        synchronized (minutes) {
+            for (DeviceEvent event : events) {
+                if (event.getDeviceId() == null) {
+                    continue;
+                }
+                final long minute = floorMinute(event.getCreatedAt());
+                if (minute < oldest || minute > newest) {
+                    skipped++;
+                    continue;
+                }
+                final long hash = HyperLogLog.hash(event.getDeviceId());
+                final Map<String, MinuteSketch> sketches = minutes.computeIfAbsent(minute, m -> new HashMap<>());
+                add(sketches, ALL_TYPES, hash);
+                if (perType && event.getDeviceType() != null) {
+                    add(sketches, event.getDeviceType(), hash);
+                }
+            }
+        }
+        if (skipped > 0) {
+            skippedCounter.increment(skipped);
+        }
+    }
+
+    /**
+     * Сохраняет изменившиеся скетчи и забывает минуты, вышедшие из открытого окна
+     */
+    @Scheduled(fixedRateString = "${app.active-devices.flush-interval-ms:15000}")
+    public void flush() {
+        final List<DeviceActivitySketchEntity> pending = new ArrayList<>();
+        synchronized (minutes) {
+            minutes.forEach((minute, sketches) -> sketches.forEach((type, minuteSketch) -> {
+                if (minuteSketch.dirty) {
+                    minuteSketch.dirty = false;
+                    pending.add(new DeviceActivitySketchEntity(
+                            new DeviceActivitySketchKey(floorHour(minute), minute, type, instanceId),
+                            ByteBuffer.wrap(minuteSketch.sketch.toByteArray())));
+                }
+            }));
+            minutes.headMap(floorMinute(System.currentTimeMillis() - retentionMs)).clear();
+        }
+
+        final List<DeviceActivitySketchKey> failed = new ArrayList<>();
+        for (DeviceActivitySketchEntity entity : pending) {
+            try {
+                cassandraOperations.insert(entity, insertOptions);
+            } catch (RuntimeException e) {
+                failed.add(entity.getKey());
+                log.warn("Failed to store activity sketch for minute {} type {}: {}",
+                        entity.getKey().getMinuteStart(), entity.getKey().getDeviceType(), e.getMessage());
+            }
+        }
+        if (!failed.isEmpty()) {
+            flushFailuresCounter.increment(failed.size());
+            markDirty(failed);
+        }
+    }
+
+    private void markDirty(List<DeviceActivitySketchKey> keys) {
+        synchronized (minutes) {
+            for (DeviceActivitySketchKey key : keys) {
+                final Map<String, MinuteSketch> sketches = minutes.get(key.getMinuteStart());
+                final MinuteSketch minuteSketch = sketches == null ? null : sketches.get(key.getDeviceType());
+                if (minuteSketch != null) {
+                    minuteSketch.dirty = true;
+                }
+            }
+        }
+    }
+
+    private void add(Map<String, MinuteSketch> sketches, String type, long hash) {
+        final MinuteSketch minuteSketch = sketches.computeIfAbsent(type, t -> new MinuteSketch(precision));
+        minuteSketch.sketch.addHash(hash);
+        minuteSketch.dirty = true;
+    }
+
+    static long floorMinute(long epochMs) {
+        return Math.floorDiv(epochMs, MINUTE_MS) * MINUTE_MS;
+    }
+
+    static long floorHour(long epochMs) {
+        return Math.floorDiv(epochMs, HOUR_MS) * HOUR_MS;
+    }
+}
@@ -0,0 +1,10 @@
+package com.github.alexkiyanov.iotplatform.ecs.anomaly;
+
+/**
+ * Выброс числового показателя устройства, публикуется в топик аномалий в JSON
+ *
+ * @param score |value - mean| / stddev относительно статистики до этого наблюдения
+ */
+public record AnomalyScore(String deviceId, String type, String metric, double value, double mean, double stddev,
+                           double score, long createdAt) {
+}
@@ -0,0 +1,110 @@
+package com.github.alexkiyanov.iotplatform.ecs.anomaly;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.IngestStage;
+import com.github.alexkiyanov.iotplatform.ecs.serialization.MetaFields;
+import com.github.alexkiyanov.iotplatform.ecs.state.EwmaTable;
+import com.github.alexkiyanov.iotplatform.ecs.state.Hashing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Оценивает числовые показатели из meta сохраненных событий относительно EWMA-статистики ряда
+ * (устройство, тип события, поле) и публикует выбросы в топик аномалий.
+ * <p>
+ * Ряды живут в {@link EwmaTable} фиксированного размера, поэтому память не зависит от числа устройств;
+ * при переполнении вытесняются ряды с наименьшим числом наблюдений. Оценка идет после сохранения:
+ * при повторном чтении батча наблюдения учтутся дважды, что для экспоненциального среднего некритично.
+ */
+@Component
+@Order(140)
+@ConditionalOnProperty(name = "app.anomaly.enabled", havingValue = "true")
+public class AnomalyStage implements IngestStage {
+    private static final Logger log = LoggerFactory.getLogger(AnomalyStage.class);
+
+    private final EwmaTable table;
+    private final KafkaTemplate<String, String> template;
+    private final String anomaliesTopic;
+    private final double threshold;
+    private final ObjectMapper objectMapper;
+    private final Counter scored;
+    private final Counter outliers;
+
+    public AnomalyStage(@Qualifier("stringKafkaTemplate") KafkaTemplate<String, String> template,
+                        @Value("${app.topics.anomalies}") String anomaliesTopic,
+                        @Value("${app.anomaly.alpha:0.05}") double alpha,
+                        @Value("${app.anomaly.threshold:4.0}") double threshold,
+                        @Value("${app.anomaly.min-samples:20}") int minSamples,
+                        @Value("${app.anomaly.series-capacity:1048576}") int seriesCapacity,
+                        @Value("${app.anomaly.stripes:64}") int stripes,
+                        ObjectMapper objectMapper,
+                        MeterRegistry meterRegistry) {
+        this.table = new EwmaTable(seriesCapacity, stripes, alpha, minSamples);
+        this.template = template;
+        this.anomaliesTopic = anomaliesTopic;
+        this.threshold = threshold;
+        this.objectMapper = objectMapper;
+        this.scored = Counter.builder("ecs.anomaly.scored.total")
+                .description("Numeric readings scored against their EWMA baseline")
+                .register(meterRegistry);
+        this.outliers = Counter.builder("ecs.anomaly.outliers.total")
+                .description("Readings published as anomalies")
+                .register(meterRegistry);
+        FunctionCounter.builder("ecs.anomaly.evictions.total", table, EwmaTable::evictions)
+                .description("Series evicted from the full EWMA table")
+                .register(meterRegistry);
+        Gauge.builder("ecs.anomaly.tracked.series", table, EwmaTable::size)
+                .description("Series tracked by the EWMA table")
+                .register(meterRegistry);
+        log.info("Anomaly scoring enabled: alpha={}, threshold={}, minSamples={}, capacity={}",
+                alpha, threshold, minSamples, seriesCapacity);
+    }
+
+    @Override
+    public void afterSave(List<DeviceEvent> events) {
+        final double[] baseline = new double[2];
+        for (DeviceEvent event : events) {
+            if (event.getDeviceId() == null || event.getDeviceType() == null) {
+                continue;
+            }
+            final long series = Hashing.hash64(event.getDeviceId()) * 31 + Hashing.hash64(event.getDeviceType());
+            MetaFields.forEachNumber(event.getMeta(), (field, value) -> {
+                final double score = table.scoreAndUpdate(Hashing.mix64(series * 31 + Hashing.hash64(field)),
+                        value, baseline);
+                if (Double.isNaN(score)) {
+                    return;
+                }
+                scored.increment();
+                if (score >= threshold) {
+                    publish(new AnomalyScore(event.getDeviceId(), event.getDeviceType(), field, value,
+                            baseline[0], baseline[1], score, event.getCreatedAt()));
+                }
+            });
+        }
+    }
+
+    private void publish(AnomalyScore anomaly) {
+        try {
+            template.send(anomaliesTopic, anomaly.deviceId(), objectMapper.writeValueAsString(anomaly));
+            outliers.increment();
+            log.debug("Anomaly {}.{} for device {}: score {}", anomaly.type(), anomaly.metric(),
+                    anomaly.deviceId(), anomaly.score());
+        } catch (JsonProcessingException e) {
+            log.error("Failed to serialize anomaly for device {}: {}", anomaly.deviceId(), e.getMessage());
+        }
+    }
+}
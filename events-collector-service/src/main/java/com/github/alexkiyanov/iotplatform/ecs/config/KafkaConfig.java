@@ -1,7 +1,9 @@
 package com.github.alexkiyanov.iotplatform.ecs.config;
 
-import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
 import com.github.alexkiyanov.iotplatform.avro.DeviceInfo;
+import com.github.alexkiyanov.iotplatform.ecs.serialization.DeviceIdProjectionDeserializer;
+import com.github.alexkiyanov.iotplatform.ecs.serialization.SkipValueDeserializer;
+import org.apache.avro.specific.SpecificRecord;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
@@ -33,8 +35,11 @@ public class KafkaConfig {
     @Value("${spring.kafka.consumer.properties.schema.registry.url}")
     private String schemaRegistryUrl;
 
+    @Value("${app.discovery.key-is-device-id:true}")
+    private boolean discoveryKeyIsDeviceId;
+
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, DeviceEvent> kafkaBatchListenerFactory() {
+    public ConcurrentKafkaListenerContainerFactory<String, SpecificRecord> kafkaBatchListenerFactory() {
         final Map<String, Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrap);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
@@ -47,9 +52,31 @@ public class KafkaConfig {
         props.put("specific.avro.reader", true);
         props.put("schema.registry.url", schemaRegistryUrl);
 
-        final DefaultKafkaConsumerFactory<String, DeviceEvent> cf = new DefaultKafkaConsumerFactory<>(props);
+        // Значение - DeviceEvent или DeviceEventEnvelope, в зависимости от схемы писателя
+        final DefaultKafkaConsumerFactory<String, SpecificRecord> cf = new DefaultKafkaConsumerFactory<>(props);
+
+        final ConcurrentKafkaListenerContainerFactory<String, SpecificRecord> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(cf);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        return factory;
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, Object> deviceDiscoveryListenerFactory() {
+        final Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrap);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG,
+                StringDeserializer.class);
+        // Ключ записи - deviceId, значение можно не декодировать вовсе
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
+                discoveryKeyIsDeviceId ? SkipValueDeserializer.class : ErrorHandlingDeserializer.class);
+        props.put(ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS,
+                DeviceIdProjectionDeserializer.class);
+
+        final DefaultKafkaConsumerFactory<String, Object> cf = new DefaultKafkaConsumerFactory<>(props);
 
-        final ConcurrentKafkaListenerContainerFactory<String, DeviceEvent> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        final ConcurrentKafkaListenerContainerFactory<String, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(cf);
         factory.setBatchListener(true);
         factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
@@ -0,0 +1,76 @@
+package com.github.alexkiyanov.iotplatform.ecs.config;
+
+import com.github.alexkiyanov.iotplatform.ecs.consumer.DeviceEventsListener;
+import com.github.alexkiyanov.iotplatform.ecs.lanes.PriorityLaneProperties;
+import org.apache.avro.specific.SpecificRecord;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.annotation.KafkaListenerConfigurer;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistrar;
+import org.springframework.kafka.config.MethodKafkaListenerEndpoint;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.messaging.handler.annotation.support.DefaultMessageHandlerMethodFactory;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Регистрирует отдельный контейнер листенера на каждую приоритетную полосу.
+ * Все контейнеры вызывают один и тот же DeviceEventsListener, но не делят между собой poll-цикл.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.lanes.enabled", havingValue = "true")
+@EnableConfigurationProperties(PriorityLaneProperties.class)
+public class PriorityLaneConfig implements KafkaListenerConfigurer {
+
+    private final PriorityLaneProperties properties;
+    private final DeviceEventsListener listener;
+    private final ConcurrentKafkaListenerContainerFactory<String, SpecificRecord> factory;
+    private final String inputTopic;
+
+    public PriorityLaneConfig(PriorityLaneProperties properties,
+                              DeviceEventsListener listener,
+                              @Qualifier("kafkaBatchListenerFactory")
+                              ConcurrentKafkaListenerContainerFactory<String, SpecificRecord> factory,
+                              @Value("${app.topics.input}") String inputTopic) {
+        this.properties = properties;
+        this.listener = listener;
+        this.factory = factory;
+        this.inputTopic = inputTopic;
+    }
+
+    @Override
+    public void configureKafkaListeners(KafkaListenerEndpointRegistrar registrar) {
+        final DefaultMessageHandlerMethodFactory handlerMethodFactory = new DefaultMessageHandlerMethodFactory();
+        handlerMethodFactory.afterPropertiesSet();
+        final Method onBatch = listenerMethod();
+
+        for (PriorityLaneProperties.Lane lane : properties.definitions()) {
+            if (inputTopic.equals(lane.topic())) {
+                // Эту полосу обслуживает @KafkaListener основного топика
+                continue;
+            }
+            final MethodKafkaListenerEndpoint<String, SpecificRecord> endpoint = new MethodKafkaListenerEndpoint<>();
+            endpoint.setId("lane-" + lane.name());
+            endpoint.setTopics(lane.topic());
+            endpoint.setConcurrency(lane.concurrency());
+            endpoint.setBean(listener);
+            endpoint.setMethod(onBatch);
+            endpoint.setMessageHandlerMethodFactory(handlerMethodFactory);
+            endpoint.setBatchListener(true);
+            registrar.registerEndpoint(endpoint, factory);
+        }
+    }
+
+    private static Method listenerMethod() {
+        try {
+            return DeviceEventsListener.class.getMethod("onBatch", List.class, List.class, Acknowledgment.class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("DeviceEventsListener.onBatch(List, List, Acknowledgment) not found", e);
+        }
+    }
+}
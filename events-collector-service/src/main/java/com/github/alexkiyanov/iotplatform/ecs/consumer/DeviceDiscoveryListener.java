@@ -0,0 +1,71 @@
+package com.github.alexkiyanov.iotplatform.ecs.consumer;
+
+import com.github.alexkiyanov.iotplatform.ecs.service.DeviceIdPublisher;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Обнаружение новых устройств отдельной consumer group.
+ * <p>
+ * Читает тот же входящий топик, что и {@link DeviceEventsListener}, но без полной
+ * десериализации DeviceEvent. С {@code app.discovery.key-is-device-id} deviceId берется из ключа Kafka,
+ * а если ключа нет - из проекции значения; без него ключ не deviceId и используется только проекция.
+ */
+@Component
+@ConditionalOnProperty(name = "app.discovery.mode", havingValue = DeviceEventsListener.DISCOVERY_MODE_CONSUMER_GROUP)
+public class DeviceDiscoveryListener {
+    private static final Logger log = LoggerFactory.getLogger(DeviceDiscoveryListener.class);
+
+    private final DeviceIdPublisher publisher;
+    private final boolean keyIsDeviceId;
+
+    public DeviceDiscoveryListener(DeviceIdPublisher publisher,
+                                   @Value("${app.discovery.key-is-device-id:true}") boolean keyIsDeviceId) {
+        this.publisher = publisher;
+        this.keyIsDeviceId = keyIsDeviceId;
+    }
+
+    @KafkaListener(topics = "#{'${app.topics.input}'}",
+            groupId = "#{'${app.discovery.group-id}'}",
+            containerFactory = "deviceDiscoveryListenerFactory")
+    public void onBatch(List<ConsumerRecord<String, ?>> records, Acknowledgment ack) {
+        if (records == null || records.isEmpty()) {
+            return;
+        }
+
+        final Set<String> deviceIds = new LinkedHashSet<>();
+        int unresolved = 0;
+        for (ConsumerRecord<String, ?> record : records) {
+            final String deviceId = resolveDeviceId(record);
+            if (deviceId != null) {
+                deviceIds.add(deviceId);
+            } else {
+                unresolved++;
+            }
+        }
+        if (unresolved > 0) {
+            log.warn("Discovery batch: {} records without deviceId in key or value", unresolved);
+        }
+
+        deviceIds.forEach(publisher::publishIfNew);
+        ack.acknowledge();
+    }
+
+    private String resolveDeviceId(ConsumerRecord<String, ?> record) {
+        if (keyIsDeviceId && record.key() != null) {
+            return record.key();
+        }
+        // Значение есть только при проекции; при SkipValueDeserializer оно всегда null
+        return record.value() instanceof String projected ? projected : null;
+    }
+}
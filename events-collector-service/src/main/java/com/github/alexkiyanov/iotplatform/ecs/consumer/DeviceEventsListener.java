@@ -1,18 +1,24 @@
 package com.github.alexkiyanov.iotplatform.ecs.consumer;
 
 import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope;
 import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceEventEntity;
 import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceEventKey;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.IngestStage;
 import com.github.alexkiyanov.iotplatform.ecs.repository.DeviceEventRepository;
 import com.github.alexkiyanov.iotplatform.ecs.service.DeviceIdPublisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -20,24 +26,64 @@ import java.util.UUID;
 public class DeviceEventsListener {
     private static final Logger log = LoggerFactory.getLogger(DeviceEventsListener.class);
 
+    static final String DISCOVERY_MODE_INLINE = "inline";
+    static final String DISCOVERY_MODE_CONSUMER_GROUP = "consumer-group";
+
     private final DeviceEventRepository repo;
     private final DeviceIdPublisher publisher;
     private final String inputTopic;
+    private final boolean inlineDiscovery;
+    private final List<IngestStage> stages;
+
+    public DeviceEventsListener(DeviceEventRepository repo,
+                                DeviceIdPublisher publisher,
+                                String inputTopic) {
+        this(repo, publisher, inputTopic, DISCOVERY_MODE_INLINE, List.of());
+    }
 
+    @Autowired
     public DeviceEventsListener(DeviceEventRepository repo,
                                 DeviceIdPublisher publisher,
-                                @Value("${app.topics.input}") String inputTopic) {
+                                @Value("${app.topics.input}") String inputTopic,
+                                @Value("${app.discovery.mode:" + DISCOVERY_MODE_INLINE + "}") String discoveryMode,
+                                List<IngestStage> stages) {
         this.repo = repo;
         this.publisher = publisher;
         this.inputTopic = inputTopic;
+        // В режиме consumer-group новые устройства ищет DeviceDiscoveryListener
+        this.inlineDiscovery = !DISCOVERY_MODE_CONSUMER_GROUP.equals(discoveryMode);
+        this.stages = stages;
     }
 
+    public void onBatch(List<?> records, Acknowledgment ack) {
+        onBatch(records, List.of(), ack);
+    }
+
+    /**
+     * Обрабатывает батч основного топика или приоритетной полосы (см. PriorityLaneConfig)
+     */
     @KafkaListener(topics = "#{'${app.topics.input}'}", containerFactory = "kafkaBatchListenerFactory")
-    public void onBatch(@Payload List<DeviceEvent> events, Acknowledgment ack) {
-        if (events == null || events.isEmpty()) {
+    public void onBatch(@Payload List<?> records,
+                        @Header(KafkaHeaders.RECEIVED_TOPIC) List<String> topics,
+                        Acknowledgment ack) {
+        if (records == null || records.isEmpty()) {
+            return;
+        }
+        // Контейнер подписан на один топик, поэтому все записи батча из одного топика
+        final String topic = topics == null || topics.isEmpty() ? inputTopic : topics.getFirst();
+        List<DeviceEvent> events = unpack(records);
+        log.info("Received batch: {} messages ({} events) from {}", records.size(), events.size(), topic);
+
+        for (IngestStage stage : stages) {
+            if (events.isEmpty()) {
+                break;
+            }
+            events = stage.beforeSave(topic, events);
+        }
+        if (events.isEmpty()) {
+            ack.acknowledge();
             return;
         }
-        log.info("Received batch: {} messages from {}", events.size(), inputTopic);
 
         final List<DeviceEventEntity> entities = events.stream()
                 .map(e -> {
@@ -53,11 +99,34 @@ public class DeviceEventsListener {
 
         repo.saveAll(entities);
 
-        events.stream()
-                .map(DeviceEvent::getDeviceId)
-                .distinct()
-                .forEach(publisher::publishIfNew);
+        if (inlineDiscovery) {
+            events.stream()
+                    .map(DeviceEvent::getDeviceId)
+                    .distinct()
+                    .forEach(publisher::publishIfNew);
+        }
+
+        for (IngestStage stage : stages) {
+            stage.afterSave(events);
+        }
 
         ack.acknowledge();
     }
+
+    /**
+     * Разворачивает конверты DeviceEventEnvelope в плоский список событий
+     */
+    public static List<DeviceEvent> unpack(List<?> records) {
+        final List<DeviceEvent> events = new ArrayList<>(records.size());
+        for (Object record : records) {
+            if (record instanceof DeviceEvent event) {
+                events.add(event);
+            } else if (record instanceof DeviceEventEnvelope envelope) {
+                events.addAll(envelope.getEvents());
+            } else {
+                log.warn("Skipping unsupported record type: {}", record == null ? null : record.getClass().getName());
+            }
+        }
+        return events;
+    }
 }
@@ -0,0 +1,37 @@
+package com.github.alexkiyanov.iotplatform.ecs.controller;
+
+import com.github.alexkiyanov.iotplatform.ecs.activity.ActiveDevicesService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+
+@RestController
+@RequestMapping("/api/devices")
+@ConditionalOnProperty(name = "app.active-devices.enabled", havingValue = "true", matchIfMissing = true)
+public class ActiveDevicesController {
+
+    private final ActiveDevicesService activeDevicesService;
+
+    public ActiveDevicesController(ActiveDevicesService activeDevicesService) {
+        this.activeDevicesService = activeDevicesService;
+    }
+
+    /**
+     * Число устройств, активных за последние minutes минут, опционально по типу события
+     */
+    @GetMapping("/active")
+    public ResponseEntity<ActiveDevicesService.ActiveDevices> activeDevices(
+            @RequestParam(defaultValue = "60") long minutes,
+            @RequestParam(required = false) String type) {
+        try {
+            return ResponseEntity.ok(activeDevicesService.count(Duration.ofMinutes(minutes), type));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
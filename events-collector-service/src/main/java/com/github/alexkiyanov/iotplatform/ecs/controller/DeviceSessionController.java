@@ -0,0 +1,44 @@
+package com.github.alexkiyanov.iotplatform.ecs.controller;
+
+import com.github.alexkiyanov.iotplatform.ecs.session.DeviceSession;
+import com.github.alexkiyanov.iotplatform.ecs.session.DeviceSessionService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Сессии связи устройства: онлайн с / офлайн с и длительность, без сканирования событий
+ */
+@RestController
+@RequestMapping("/api/devices/{deviceId}")
+@ConditionalOnProperty(name = "app.sessions.enabled", havingValue = "true", matchIfMissing = true)
+public class DeviceSessionController {
+
+    private final DeviceSessionService sessionService;
+
+    public DeviceSessionController(DeviceSessionService sessionService) {
+        this.sessionService = sessionService;
+    }
+
+    @GetMapping("/session")
+    public ResponseEntity<DeviceSession> session(@PathVariable String deviceId) {
+        final DeviceSession session = sessionService.current(deviceId);
+        return session == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(session);
+    }
+
+    @GetMapping("/sessions")
+    public ResponseEntity<List<DeviceSession>> sessions(@PathVariable String deviceId,
+                                                        @RequestParam(defaultValue = "20") int limit) {
+        try {
+            return ResponseEntity.ok(sessionService.recent(deviceId, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
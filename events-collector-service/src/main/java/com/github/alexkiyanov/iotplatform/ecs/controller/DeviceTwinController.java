@@ -0,0 +1,39 @@
+package com.github.alexkiyanov.iotplatform.ecs.controller;
+
+import com.github.alexkiyanov.iotplatform.ecs.twin.DeviceTwinService;
+import com.github.alexkiyanov.iotplatform.ecs.twin.DeviceTwinStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Текущее состояние устройства из device twin; устройства чужих партиций читаются из Cassandra
+ */
+@RestController
+@RequestMapping("/api/devices/{deviceId}/state")
+@ConditionalOnProperty(name = "app.twin.enabled", havingValue = "true", matchIfMissing = true)
+public class DeviceTwinController {
+
+    private final DeviceTwinService twinService;
+
+    public DeviceTwinController(DeviceTwinService twinService) {
+        this.twinService = twinService;
+    }
+
+    @GetMapping
+    public ResponseEntity<List<DeviceTwinStore.State>> state(@PathVariable String deviceId) {
+        final List<DeviceTwinStore.State> states = twinService.state(deviceId);
+        return states.isEmpty() ? ResponseEntity.notFound().build() : ResponseEntity.ok(states);
+    }
+
+    @GetMapping("/{type}")
+    public ResponseEntity<DeviceTwinStore.State> state(@PathVariable String deviceId, @PathVariable String type) {
+        final DeviceTwinStore.State state = twinService.state(deviceId, type);
+        return state == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(state);
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.alexkiyanov.iotplatform.ecs.controller;
+
+import com.github.alexkiyanov.iotplatform.ecs.streaming.EventStreamHub;
+import com.github.alexkiyanov.iotplatform.ecs.streaming.SseEventSink;
+import com.github.alexkiyanov.iotplatform.ecs.streaming.StreamSubscriber;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.util.Set;
+
+@RestController
+@RequestMapping("/api/stream")
+@ConditionalOnProperty(name = "app.streaming.enabled", havingValue = "true", matchIfMissing = true)
+public class EventStreamController {
+
+    private final EventStreamHub hub;
+    private final Duration emitterTimeout;
+
+    public EventStreamController(EventStreamHub hub,
+                                 @Value("${app.streaming.emitter-timeout:30m}") Duration emitterTimeout) {
+        this.hub = hub;
+        this.emitterTimeout = emitterTimeout;
+    }
+
+    /**
+     * Поток событий выбранных устройств и типов (без параметров - все события).
+     * Отвечает 503, если достигнут лимит подписчиков.
+     */
+    @GetMapping(path = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> events(@RequestParam(name = "deviceId", required = false) Set<String> deviceIds,
+                                             @RequestParam(name = "type", required = false) Set<String> types) {
+        final SseEmitter emitter = new SseEmitter(emitterTimeout.toMillis());
+        final StreamSubscriber subscriber = hub.subscribe(deviceIds == null ? Set.of() : deviceIds,
+                types == null ? Set.of() : types, new SseEventSink(emitter));
+        if (subscriber == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        emitter.onCompletion(() -> hub.unsubscribe(subscriber));
+        emitter.onTimeout(() -> hub.unsubscribe(subscriber));
+        emitter.onError(e -> hub.unsubscribe(subscriber));
+        return ResponseEntity.ok(emitter);
+    }
+}
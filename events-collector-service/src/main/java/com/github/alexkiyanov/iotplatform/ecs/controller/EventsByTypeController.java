@@ -0,0 +1,39 @@
+package com.github.alexkiyanov.iotplatform.ecs.controller;
+
+import com.github.alexkiyanov.iotplatform.ecs.typeindex.EventTypeIndexService;
+import com.github.alexkiyanov.iotplatform.ecs.typeindex.EventsByType;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+
+@RestController
+@RequestMapping("/api/events")
+@ConditionalOnProperty(name = "app.type-index.enabled", havingValue = "true")
+public class EventsByTypeController {
+
+    private final EventTypeIndexService indexService;
+
+    public EventsByTypeController(EventTypeIndexService indexService) {
+        this.indexService = indexService;
+    }
+
+    /**
+     * События типа по всем устройствам за последние minutes минут, от новых к старым
+     */
+    @GetMapping("/by-type/{type}")
+    public ResponseEntity<EventsByType> eventsByType(@PathVariable String type,
+                                                     @RequestParam(defaultValue = "10") long minutes,
+                                                     @RequestParam(defaultValue = "1000") int limit) {
+        try {
+            return ResponseEntity.ok(indexService.query(type, Duration.ofMinutes(minutes), limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
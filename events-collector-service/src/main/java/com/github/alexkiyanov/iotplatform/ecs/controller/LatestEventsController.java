@@ -0,0 +1,76 @@
+package com.github.alexkiyanov.iotplatform.ecs.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.alexkiyanov.iotplatform.ecs.latest.LatestEventsService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+@RestController
+@RequestMapping("/api/devices")
+@ConditionalOnProperty(name = "app.latest-events.enabled", havingValue = "true", matchIfMissing = true)
+public class LatestEventsController {
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    public record LatestEventsRequest(List<String> deviceIds, Integer limit) {
+    }
+
+    private final LatestEventsService latestEventsService;
+    private final ObjectMapper objectMapper;
+
+    public LatestEventsController(LatestEventsService latestEventsService, ObjectMapper objectMapper) {
+        this.latestEventsService = latestEventsService;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Последние события списка устройств. Ответ - NDJSON, строка на устройство, в порядке готовности.
+     * "Последние" - в порядке event_id: при createdAt не в 13-значных миллисекундах результат может
+     * не совпадать с последними по времени, см. {@link LatestEventsService}.
+     */
+    @PostMapping("/latest-events")
+    public ResponseEntity<StreamingResponseBody> latestEvents(@RequestBody LatestEventsRequest request) {
+        final int limit = request.limit() == null ? 1 : request.limit();
+        try {
+            latestEventsService.validate(request.deviceIds(), limit);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        final StreamingResponseBody body = out -> stream(request.deviceIds(), limit, out);
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    private void stream(List<String> deviceIds, int limit, OutputStream out) throws IOException {
+        try {
+            latestEventsService.lookup(deviceIds, limit, result -> {
+                try {
+                    out.write(objectMapper.writeValueAsBytes(result));
+                    out.write('\n');
+                    out.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Latest events lookup interrupted");
+        } catch (TimeoutException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+}
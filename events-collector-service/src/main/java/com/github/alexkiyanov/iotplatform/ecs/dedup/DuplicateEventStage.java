@@ -0,0 +1,105 @@
+package com.github.alexkiyanov.iotplatform.ecs.dedup;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.EventFingerprints;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.IngestStage;
+import com.github.alexkiyanov.iotplatform.ecs.state.TimeBucketedLongSet;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Отбрасывает повторы событий (ретраи продюсера, повторная доставка после ребаланса) до сохранения.
+ * <p>
+ * Отпечатки сохраненных событий ({@link EventFingerprints}) помнятся в {@link TimeBucketedLongSet}
+ * в течение окна. В окно они попадают только после успешной записи батча: если запись упадет,
+ * повторно прочитанный батч не будет принят за дубликаты.
+ */
+@Component
+@Order(3)
+@ConditionalOnProperty(name = "app.dedup.enabled", havingValue = "true", matchIfMissing = true)
+public class DuplicateEventStage implements IngestStage {
+
+    private final TimeBucketedLongSet seen;
+    private final Counter checkedCounter;
+    private final Counter duplicatesCounter;
+
+    public DuplicateEventStage(@Value("${app.dedup.window:10m}") Duration window,
+                               @Value("${app.dedup.buckets:5}") int buckets,
+                               @Value("${app.dedup.bucket-capacity:262144}") int bucketCapacity,
+                               @Value("${app.dedup.stripes:16}") int stripes,
+                               MeterRegistry meterRegistry) {
+        this.seen = new TimeBucketedLongSet(bucketCapacity, buckets, window.toMillis(), stripes);
+        this.checkedCounter = Counter.builder("ecs.dedup.checked.total")
+                .description("Events checked for duplicates")
+                .register(meterRegistry);
+        this.duplicatesCounter = Counter.builder("ecs.dedup.duplicates.total")
+                .description("Duplicate events dropped before save")
+                .register(meterRegistry);
+        FunctionCounter.builder("ecs.dedup.early.rotations.total", seen, TimeBucketedLongSet::earlyRotations)
+                .description("Dedup buckets rotated early because they were full, the window shrinks")
+                .register(meterRegistry);
+        Gauge.builder("ecs.dedup.tracked.fingerprints", seen, TimeBucketedLongSet::size)
+                .description("Event fingerprints held in the dedup window")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public List<DeviceEvent> beforeSave(String topic, List<DeviceEvent> events) {
+        final long now = System.currentTimeMillis();
+        // Повторы внутри батча (например, ретрай продюсера попал в тот же poll) ловим локальной таблицей
+        final long[] batch = new long[Integer.highestOneBit(Math.max(1, events.size()) * 2) * 2];
+        List<DeviceEvent> admitted = null;
+        for (int i = 0; i < events.size(); i++) {
+            final DeviceEvent event = events.get(i);
+            final long fingerprint = EventFingerprints.of(event);
+            final boolean duplicate = seen.contains(fingerprint, now) || !addToBatch(batch, fingerprint);
+            if (duplicate && admitted == null) {
+                // Копию создаем только при первом дубликате
+                admitted = new ArrayList<>(events.subList(0, i));
+            } else if (!duplicate && admitted != null) {
+                admitted.add(event);
+            }
+        }
+        checkedCounter.increment(events.size());
+        if (admitted == null) {
+            return events;
+        }
+        duplicatesCounter.increment(events.size() - admitted.size());
+        return admitted;
+    }
+
+    @Override
+    public void afterSave(List<DeviceEvent> events) {
+        final long now = System.currentTimeMillis();
+        for (DeviceEvent event : events) {
+            seen.add(EventFingerprints.of(event), now);
+        }
+    }
+
+    /**
+     * @return false, если отпечаток уже встречался в батче
+     */
+    private static boolean addToBatch(long[] table, long fingerprint) {
+        final long key = fingerprint == 0 ? 1 : fingerprint;
+        final int mask = table.length - 1;
+        int slot = (int) key & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = key;
+        return true;
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.alexkiyanov.iotplatform.ecs.heavyhitters;
+
+import com.github.alexkiyanov.iotplatform.ecs.state.CountMinSketch;
+import com.github.alexkiyanov.iotplatform.ecs.state.SpaceSavingTopK;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Самые частые ключи одного измерения (устройства или типы событий) за текущее окно.
+ * <p>
+ * Space-Saving держит кандидатов в top-K, Count-Min Sketch уточняет их счетчики сверху и отвечает
+ * на запрос частоты любого ключа. Обновления приходят агрегированными по батчу, поэтому монитор
+ * захватывается один раз на батч, а не на событие.
+ */
+public final class HeavyHitterTracker {
+
+    /**
+     * count - оценка сверху, guaranteed - гарантированная частота ключа в окне
+     */
+    public record HeavyHitter(String key, long count, long guaranteed) {
+    }
+
+    public record Window(long startedAt, long endedAt, long totalEvents, List<HeavyHitter> top) {
+
+        static Window empty(long at) {
+            return new Window(at, at, 0, List.of());
+        }
+    }
+
+    private final CountMinSketch sketch;
+    private final SpaceSavingTopK topK;
+    private final int reportSize;
+    private long startedAt;
+
+    public HeavyHitterTracker(int sketchDepth, int sketchWidth, int capacity, int reportSize, long startedAt) {
+        this.sketch = new CountMinSketch(sketchDepth, sketchWidth);
+        this.topK = new SpaceSavingTopK(capacity);
+        this.reportSize = reportSize;
+        this.startedAt = startedAt;
+    }
+
+    public synchronized void offer(Map<String, Integer> counts) {
+        counts.forEach((key, count) -> {
+            sketch.add(key, count);
+            topK.add(key, count);
+        });
+    }
+
+    public synchronized long estimate(String key) {
+        return sketch.estimate(key);
+    }
+
+    /**
+     * Текущее, еще не закрытое окно
+     */
+    public synchronized Window current(long now) {
+        return snapshot(now);
+    }
+
+    /**
+     * Закрывает текущее окно и начинает новое
+     */
+    public synchronized Window rotate(long now) {
+        final Window window = snapshot(now);
+        sketch.clear();
+        topK.clear();
+        startedAt = now;
+        return window;
+    }
+
+    private Window snapshot(long now) {
+        final List<SpaceSavingTopK.Entry> entries = topK.top(reportSize);
+        final List<HeavyHitter> top = new ArrayList<>(entries.size());
+        for (SpaceSavingTopK.Entry entry : entries) {
+            top.add(new HeavyHitter(entry.key(),
+                    Math.min(entry.count(), sketch.estimate(entry.key())),
+                    entry.count() - entry.error()));
+        }
+        top.sort((a, b) -> Long.compare(b.count(), a.count()));
+        return new Window(startedAt, now, sketch.total(), List.copyOf(top));
+    }
+}
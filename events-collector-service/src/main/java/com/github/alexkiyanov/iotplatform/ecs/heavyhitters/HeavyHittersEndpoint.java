@@ -0,0 +1,52 @@
+package com.github.alexkiyanov.iotplatform.ecs.heavyhitters;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code GET /actuator/heavyhitters} - top-K устройств и типов событий за текущее и прошлое окно,
+ * {@code GET /actuator/heavyhitters/{dimension}/{key}} - оценка частоты ключа в текущем окне.
+ */
+@Component
+@Endpoint(id = "heavyhitters")
+@ConditionalOnProperty(name = "app.heavy-hitters.enabled", havingValue = "true", matchIfMissing = true)
+public class HeavyHittersEndpoint {
+
+    public record Report(HeavyHitterTracker.Window current, HeavyHitterTracker.Window lastWindow) {
+    }
+
+    public record Estimate(String dimension, String key, long count) {
+    }
+
+    private final HeavyHittersStage stage;
+
+    public HeavyHittersEndpoint(HeavyHittersStage stage) {
+        this.stage = stage;
+    }
+
+    @ReadOperation
+    public Map<String, Report> heavyHitters() {
+        final long now = System.currentTimeMillis();
+        final Map<String, Report> reports = new LinkedHashMap<>();
+        for (String dimension : List.of(HeavyHittersStage.DEVICES, HeavyHittersStage.TYPES)) {
+            reports.put(dimension, new Report(stage.tracker(dimension).current(now), stage.lastWindow(dimension)));
+        }
+        return reports;
+    }
+
+    /**
+     * @return null (404) для неизвестного измерения
+     */
+    @ReadOperation
+    public Estimate estimate(@Selector String dimension, @Selector String key) {
+        final HeavyHitterTracker tracker = stage.tracker(dimension);
+        return tracker == null ? null : new Estimate(dimension, key, tracker.estimate(key));
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.alexkiyanov.iotplatform.ecs.heavyhitters;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.IngestStage;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Отслеживает устройства и типы событий, дающие основную долю трафика.
+ * <p>
+ * Метки с deviceId в Prometheus недопустимы по кардинальности, поэтому наружу отдаются только
+ * gauge-и по позиции в рейтинге (rank 1..N) за последнее закрытое окно, а сами ключи доступны через
+ * actuator endpoint {@code heavyhitters}. Этап стоит до ограничения частоты, чтобы видеть весь входящий поток.
+ */
+@Component
+@Order(5)
+@ConditionalOnProperty(name = "app.heavy-hitters.enabled", havingValue = "true", matchIfMissing = true)
+public class HeavyHittersStage implements IngestStage {
+    private static final Logger log = LoggerFactory.getLogger(HeavyHittersStage.class);
+
+    public static final String DEVICES = "devices";
+    public static final String TYPES = "types";
+
+    private final Map<String, HeavyHitterTracker> trackers;
+    private final Map<String, HeavyHitterTracker.Window> lastWindows = new HashMap<>();
+
+    public HeavyHittersStage(@Value("${app.heavy-hitters.capacity:128}") int capacity,
+                             @Value("${app.heavy-hitters.top:20}") int top,
+                             @Value("${app.heavy-hitters.sketch-depth:4}") int sketchDepth,
+                             @Value("${app.heavy-hitters.sketch-width:4096}") int sketchWidth,
+                             @Value("${app.heavy-hitters.gauge-ranks:5}") int gaugeRanks,
+                             MeterRegistry meterRegistry) {
+        final long now = System.currentTimeMillis();
+        this.trackers = Map.of(
+                DEVICES, new HeavyHitterTracker(sketchDepth, sketchWidth, capacity, top, now),
+                TYPES, new HeavyHitterTracker(sketchDepth, sketchWidth, capacity, top, now));
+        for (String dimension : trackers.keySet()) {
+            lastWindows.put(dimension, HeavyHitterTracker.Window.empty(now));
+            Gauge.builder("ecs.heavyhitters.window.events", () -> lastWindow(dimension).totalEvents())
+                    .description("Events in the last completed heavy-hitter window")
+                    .tag("dimension", dimension)
+                    .register(meterRegistry);
+            for (int rank = 1; rank <= gaugeRanks; rank++) {
+                final int position = rank - 1;
+                Gauge.builder("ecs.heavyhitters.events", () -> countAt(dimension, position))
+                        .description("Events of the key at the given rank in the last completed window")
+                        .tags("dimension", dimension, "rank", Integer.toString(rank))
+                        .register(meterRegistry);
+            }
+        }
+    }
+
+    @Override
+    public List<DeviceEvent> beforeSave(String topic, List<DeviceEvent> events) {
+        trackers.get(DEVICES).offer(countBy(events, DeviceEvent::getDeviceId));
+        trackers.get(TYPES).offer(countBy(events, DeviceEvent::getDeviceType));
+        return events;
+    }
+
+    /**
+     * Закрывает окно: результат попадает в gauge-и и в раздел lastWindow endpoint-а
+     */
+    @Scheduled(fixedRateString = "${app.heavy-hitters.window-ms:60000}")
+    public void rotate() {
+        final long now = System.currentTimeMillis();
+        trackers.forEach((dimension, tracker) -> {
+            final HeavyHitterTracker.Window window = tracker.rotate(now);
+            synchronized (lastWindows) {
+                lastWindows.put(dimension, window);
+            }
+            if (!window.top().isEmpty()) {
+                log.debug("Heavy hitters ({}): {} of {} events", dimension, window.top().getFirst(), window.totalEvents());
+            }
+        });
+    }
+
+    /**
+     * @return трекер измерения или null, если такого измерения нет
+     */
+    public HeavyHitterTracker tracker(String dimension) {
+        return trackers.get(dimension);
+    }
+
+    public HeavyHitterTracker.Window lastWindow(String dimension) {
+        synchronized (lastWindows) {
+            return lastWindows.get(dimension);
+        }
+    }
+
+    private double countAt(String dimension, int position) {
+        final List<HeavyHitterTracker.HeavyHitter> top = lastWindow(dimension).top();
+        return position < top.size() ? top.get(position).count() : 0;
+    }
+
+    private static Map<String, Integer> countBy(List<DeviceEvent> events, Function<DeviceEvent, String> key) {
+        final Map<String, Integer> counts = new HashMap<>();
+        for (DeviceEvent event : events) {
+            final String value = key.apply(event);
+            if (value != null) {
+                counts.merge(value, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+}
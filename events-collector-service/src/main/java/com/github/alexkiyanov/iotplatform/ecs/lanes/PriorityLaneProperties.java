@@ -0,0 +1,39 @@
+package com.github.alexkiyanov.iotplatform.ecs.lanes;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Приоритетные полосы обработки событий (app.lanes).
+ * <p>
+ * Каждая полоса - отдельный топик со своим контейнером листенера и concurrency.
+ * Полоса, чей топик совпадает с app.topics.input, обслуживается основным листенером.
+ */
+@ConfigurationProperties("app.lanes")
+public record PriorityLaneProperties(boolean enabled, List<Lane> definitions) {
+
+    public PriorityLaneProperties {
+        definitions = definitions == null ? List.of() : List.copyOf(definitions);
+    }
+
+    /**
+     * @param name        имя полосы, используется в метриках
+     * @param topic       топик полосы
+     * @param concurrency число потоков листенера полосы
+     * @param lagSlo      целевая задержка от createdAt события до обработки
+     * @param shedLag     события старше этого порога отбрасываются, 0 - не отбрасывать
+     */
+    public record Lane(String name,
+                       String topic,
+                       @DefaultValue("1") int concurrency,
+                       @DefaultValue("60s") Duration lagSlo,
+                       @DefaultValue("0s") Duration shedLag) {
+
+        public boolean sheddable() {
+            return !shedLag.isZero() && !shedLag.isNegative();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.alexkiyanov.iotplatform.ecs.lanes;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.IngestStage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Замеряет задержку событий по приоритетным полосам относительно lag SLO
+ * и сбрасывает устаревшие события в полосах с включенным shed-lag.
+ */
+@Component
+@Order(0)
+@ConditionalOnProperty(name = "app.lanes.enabled", havingValue = "true")
+public class PriorityLaneStage implements IngestStage {
+    private static final Logger log = LoggerFactory.getLogger(PriorityLaneStage.class);
+
+    private final Map<String, LaneMeters> lanesByTopic = new HashMap<>();
+
+    public PriorityLaneStage(PriorityLaneProperties properties, MeterRegistry meterRegistry) {
+        for (PriorityLaneProperties.Lane lane : properties.definitions()) {
+            lanesByTopic.put(lane.topic(), new LaneMeters(lane, meterRegistry));
+        }
+    }
+
+    @Override
+    public List<DeviceEvent> beforeSave(String topic, List<DeviceEvent> events) {
+        final LaneMeters lane = lanesByTopic.get(topic);
+        if (lane == null) {
+            return events;
+        }
+
+        final long now = System.currentTimeMillis();
+        final List<DeviceEvent> admitted = lane.sheddable ? new ArrayList<>(events.size()) : events;
+        for (DeviceEvent event : events) {
+            final long lagMs = Math.max(0, now - event.getCreatedAt());
+            lane.lag.record(lagMs, TimeUnit.MILLISECONDS);
+            if (lagMs > lane.lagSloMs) {
+                lane.sloViolations.increment();
+            }
+            if (lane.sheddable) {
+                if (lagMs > lane.shedLagMs) {
+                    lane.shed.increment();
+                } else {
+                    admitted.add(event);
+                }
+            }
+        }
+        if (admitted.size() < events.size()) {
+            log.warn("Lane {} overloaded: shed {} of {} events older than {} ms",
+                    lane.name, events.size() - admitted.size(), events.size(), lane.shedLagMs);
+        }
+        return admitted;
+    }
+
+    private static final class LaneMeters {
+        private final String name;
+        private final long lagSloMs;
+        private final boolean sheddable;
+        private final long shedLagMs;
+        private final Timer lag;
+        private final Counter sloViolations;
+        private final Counter shed;
+
+        LaneMeters(PriorityLaneProperties.Lane lane, MeterRegistry meterRegistry) {
+            this.name = lane.name();
+            this.lagSloMs = lane.lagSlo().toMillis();
+            this.sheddable = lane.sheddable();
+            this.shedLagMs = lane.shedLag().toMillis();
+            this.lag = Timer.builder("ecs.lane.lag")
+                    .description("Delay between event createdAt and processing, per priority lane")
+                    .tag("lane", name)
+                    .serviceLevelObjectives(lane.lagSlo())
+                    .register(meterRegistry);
+            this.sloViolations = Counter.builder("ecs.lane.slo.violations.total")
+                    .description("Events processed later than the lane lag SLO")
+                    .tag("lane", name)
+                    .register(meterRegistry);
+            this.shed = Counter.builder("ecs.lane.shed.total")
+                    .description("Events dropped by lane load shedding")
+                    .tag("lane", name)
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.github.alexkiyanov.iotplatform.ecs.latest;
+
+import java.util.List;
+
+/**
+ * Последние события устройства, от новых к старым. error заполнен, если чтение не удалось.
+ */
+public record DeviceLatestEvents(String deviceId, List<Event> events, String error) {
+
+    public record Event(String eventId, Long timestamp, String type, String payload) {
+    }
+}
@@ -0,0 +1,161 @@
+package com.github.alexkiyanov.iotplatform.ecs.latest;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Последние события многих устройств за один запрос: по асинхронному запросу на устройство
+ * в device_events_by_device, не больше concurrency одновременно.
+ * <p>
+ * Запрос подготовлен и связан по device_id, поэтому драйвер знает ключ маршрутизации и отправляет
+ * его сразу на реплику партиции (token-aware). Результаты отдаются вызывающему по мере готовности,
+ * в порядке завершения запросов, а не в порядке deviceIds.
+ * <p>
+ * Ограничение: кластеризация таблицы - текстовый event_id (deviceId-createdAt-суффикс), он хронологичен,
+ * только пока у всех createdAt одинаковое число цифр (13 - миллисекунды). Читается limit * scanFactor
+ * строк в порядке event_id DESC, и только они сортируются по колонке timestamp. Если у устройства больше
+ * таких строк с createdAt другой длины (секунды, 12 цифр, сбитые часы), они занимают окно чтения
+ * и настоящие последние события в ответ не попадают. Гарантия "последние по времени" есть только
+ * для устройств с 13-значным createdAt.
+ */
+@Service
+@ConditionalOnProperty(name = "app.latest-events.enabled", havingValue = "true", matchIfMissing = true)
+public class LatestEventsService {
+    private static final Logger log = LoggerFactory.getLogger(LatestEventsService.class);
+    private static final Comparator<DeviceLatestEvents.Event> LATEST_FIRST = Comparator.comparing(
+            DeviceLatestEvents.Event::timestamp, Comparator.nullsLast(Comparator.reverseOrder()));
+
+    private final CqlSession session;
+    private final PreparedStatement select;
+    private final int concurrency;
+    private final int maxDevices;
+    private final int maxLimit;
+    private final int scanFactor;
+    private final long timeoutMs;
+    private final Timer lookupTimer;
+    private final Counter failuresCounter;
+
+    public LatestEventsService(CqlSession session,
+                               @Value("${app.latest-events.concurrency:64}") int concurrency,
+                               @Value("${app.latest-events.max-devices:5000}") int maxDevices,
+                               @Value("${app.latest-events.max-limit:100}") int maxLimit,
+                               @Value("${app.latest-events.scan-factor:4}") int scanFactor,
+                               @Value("${app.latest-events.timeout:30s}") Duration timeout,
+                               MeterRegistry meterRegistry) {
+        this.session = session;
+        this.select = session.prepare("SELECT event_id, timestamp, type, payload FROM device_events_by_device"
+                + " WHERE device_id = ? ORDER BY event_id DESC LIMIT ?");
+        this.concurrency = Math.max(1, concurrency);
+        this.maxDevices = maxDevices;
+        this.maxLimit = maxLimit;
+        this.scanFactor = Math.max(1, scanFactor);
+        this.timeoutMs = timeout.toMillis();
+        this.lookupTimer = Timer.builder("ecs.latest.events.lookup")
+                .description("Bulk latest-event lookups")
+                .register(meterRegistry);
+        this.failuresCounter = Counter.builder("ecs.latest.events.failures.total")
+                .description("Devices whose latest events could not be read")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Проверяет запрос до начала ответа, чтобы ошибку можно было вернуть статусом
+     */
+    public void validate(List<String> deviceIds, int limit) {
+        if (deviceIds == null || deviceIds.isEmpty() || deviceIds.size() > maxDevices) {
+            throw new IllegalArgumentException("deviceIds must contain 1.." + maxDevices + " devices");
+        }
+        if (limit <= 0 || limit > maxLimit) {
+            throw new IllegalArgumentException("limit must be in [1, " + maxLimit + "]: " + limit);
+        }
+    }
+
+    /**
+     * Читает последние limit событий каждого устройства и передает результаты в sink по мере готовности.
+     * sink вызывается из вызывающего потока.
+     */
+    public void lookup(List<String> deviceIds, int limit, Consumer<DeviceLatestEvents> sink)
+            throws InterruptedException, TimeoutException {
+        validate(deviceIds, limit);
+        final long started = System.nanoTime();
+        final Set<String> unique = new LinkedHashSet<>(deviceIds);
+        final BlockingQueue<DeviceLatestEvents> completed = new LinkedBlockingQueue<>();
+        final Semaphore permits = new Semaphore(concurrency);
+        int delivered = 0;
+        try {
+            for (String deviceId : unique) {
+                // Пока все разрешения заняты, отдаем готовые результаты вместо простого ожидания
+                while (!permits.tryAcquire()) {
+                    sink.accept(next(completed));
+                    delivered++;
+                }
+                final int scan = limit * scanFactor;
+                session.executeAsync(select.bind(deviceId, scan).setPageSize(scan))
+                        .whenComplete((resultSet, error) -> {
+                            final DeviceLatestEvents result = error == null
+                                    ? new DeviceLatestEvents(deviceId, latest(resultSet, limit), null)
+                                    : failed(deviceId, error);
+                            // Разрешение освобождается раньше, чем результат виден вызывающему, иначе он
+                            // может забрать результат, не получить разрешение и ждать следующего
+                            permits.release();
+                            completed.add(result);
+                        });
+            }
+            while (delivered < unique.size()) {
+                sink.accept(next(completed));
+                delivered++;
+            }
+        } finally {
+            lookupTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private DeviceLatestEvents next(BlockingQueue<DeviceLatestEvents> completed)
+            throws InterruptedException, TimeoutException {
+        final DeviceLatestEvents result = completed.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        if (result == null) {
+            throw new TimeoutException("No lookup completed within " + timeoutMs + " ms");
+        }
+        return result;
+    }
+
+    private DeviceLatestEvents failed(String deviceId, Throwable error) {
+        failuresCounter.increment();
+        log.warn("Failed to read latest events of device {}: {}", deviceId, error.getMessage());
+        return new DeviceLatestEvents(deviceId, List.of(), error.getMessage());
+    }
+
+    static List<DeviceLatestEvents.Event> latest(AsyncResultSet resultSet, int limit) {
+        final List<DeviceLatestEvents.Event> events = new ArrayList<>(resultSet.remaining());
+        for (Row row : resultSet.currentPage()) {
+            events.add(new DeviceLatestEvents.Event(row.getString("event_id"),
+                    row.isNull("timestamp") ? null : row.getLong("timestamp"),
+                    row.getString("type"), row.getString("payload")));
+        }
+        events.sort(LATEST_FIRST);
+        return events.size() > limit ? List.copyOf(events.subList(0, limit)) : events;
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.alexkiyanov.iotplatform.ecs.model.cassandra;
+
+import org.springframework.data.cassandra.core.mapping.PrimaryKey;
+import org.springframework.data.cassandra.core.mapping.Table;
+
+import java.nio.ByteBuffer;
+
+/**
+ * HyperLogLog-скетч устройств, активных в минуту minute_start, от одного инстанса ECS.
+ * device_type = '*' - скетч по всем типам.
+ */
+@Table("device_activity_sketches")
+public class DeviceActivitySketchEntity {
+    @PrimaryKey
+    private DeviceActivitySketchKey key;
+
+    private ByteBuffer registers;
+
+    public DeviceActivitySketchEntity() {
+    }
+
+    public DeviceActivitySketchEntity(DeviceActivitySketchKey key, ByteBuffer registers) {
+        this.key = key;
+        this.registers = registers;
+    }
+
+    public DeviceActivitySketchKey getKey() {
+        return key;
+    }
+
+    public void setKey(DeviceActivitySketchKey key) {
+        this.key = key;
+    }
+
+    public ByteBuffer getRegisters() {
+        return registers;
+    }
+
+    public void setRegisters(ByteBuffer registers) {
+        this.registers = registers;
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.alexkiyanov.iotplatform.ecs.model.cassandra;
+
+import org.springframework.data.cassandra.core.cql.PrimaryKeyType;
+import org.springframework.data.cassandra.core.mapping.PrimaryKeyClass;
+import org.springframework.data.cassandra.core.mapping.PrimaryKeyColumn;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+@PrimaryKeyClass
+public class DeviceActivitySketchKey implements Serializable {
+    @PrimaryKeyColumn(name = "hour_start", type = PrimaryKeyType.PARTITIONED)
+    private long hourStart;
+
+    @PrimaryKeyColumn(name = "minute_start", ordinal = 0, type = PrimaryKeyType.CLUSTERED)
+    private long minuteStart;
+
+    @PrimaryKeyColumn(name = "device_type", ordinal = 1, type = PrimaryKeyType.CLUSTERED)
+    private String deviceType;
+
+    @PrimaryKeyColumn(name = "instance_id", ordinal = 2, type = PrimaryKeyType.CLUSTERED)
+    private String instanceId;
+
+    public DeviceActivitySketchKey() {}
+
+    public DeviceActivitySketchKey(long hourStart, long minuteStart, String deviceType, String instanceId) {
+        this.hourStart = hourStart;
+        this.minuteStart = minuteStart;
+        this.deviceType = deviceType;
+        this.instanceId = instanceId;
+    }
+
+    public long getHourStart() {
+        return hourStart;
+    }
+
+    public void setHourStart(long hourStart) {
+        this.hourStart = hourStart;
+    }
+
+    public long getMinuteStart() {
+        return minuteStart;
+    }
+
+    public void setMinuteStart(long minuteStart) {
+        this.minuteStart = minuteStart;
+    }
+
+    public String getDeviceType() {
+        return deviceType;
+    }
+
+    public void setDeviceType(String deviceType) {
+        this.deviceType = deviceType;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public void setInstanceId(String instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DeviceActivitySketchKey that = (DeviceActivitySketchKey) o;
+        return hourStart == that.hourStart && minuteStart == that.minuteStart
+                && Objects.equals(deviceType, that.deviceType) && Objects.equals(instanceId, that.instanceId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(hourStart, minuteStart, deviceType, instanceId);
+    }
+}
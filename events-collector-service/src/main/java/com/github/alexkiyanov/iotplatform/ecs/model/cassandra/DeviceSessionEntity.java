@@ -0,0 +1,77 @@
+package com.github.alexkiyanov.iotplatform.ecs.model.cassandra;
+
+import org.springframework.data.cassandra.core.mapping.Column;
+import org.springframework.data.cassandra.core.mapping.PrimaryKey;
+import org.springframework.data.cassandra.core.mapping.Table;
+
+/**
+ * Сессия связи устройства: с session_start до session_end (или last_seen, пока сессия открыта).
+ * session_end и end_reason пусты у открытой сессии.
+ */
+@Table("device_sessions")
+public class DeviceSessionEntity {
+    @PrimaryKey
+    private DeviceSessionKey key;
+
+    @Column("last_seen")
+    private long lastSeen;
+
+    @Column("session_end")
+    private Long sessionEnd;
+
+    @Column("end_reason")
+    private String endReason;
+
+    private long events;
+
+    public DeviceSessionEntity() {
+    }
+
+    public DeviceSessionEntity(DeviceSessionKey key, long lastSeen, Long sessionEnd, String endReason, long events) {
+        this.key = key;
+        this.lastSeen = lastSeen;
+        this.sessionEnd = sessionEnd;
+        this.endReason = endReason;
+        this.events = events;
+    }
+
+    public DeviceSessionKey getKey() {
+        return key;
+    }
+
+    public void setKey(DeviceSessionKey key) {
+        this.key = key;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public void setLastSeen(long lastSeen) {
+        this.lastSeen = lastSeen;
+    }
+
+    public Long getSessionEnd() {
+        return sessionEnd;
+    }
+
+    public void setSessionEnd(Long sessionEnd) {
+        this.sessionEnd = sessionEnd;
+    }
+
+    public String getEndReason() {
+        return endReason;
+    }
+
+    public void setEndReason(String endReason) {
+        this.endReason = endReason;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public void setEvents(long events) {
+        this.events = events;
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.alexkiyanov.iotplatform.ecs.model.cassandra;
+
+import org.springframework.data.cassandra.core.cql.Ordering;
+import org.springframework.data.cassandra.core.cql.PrimaryKeyType;
+import org.springframework.data.cassandra.core.mapping.PrimaryKeyClass;
+import org.springframework.data.cassandra.core.mapping.PrimaryKeyColumn;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+@PrimaryKeyClass
+public class DeviceSessionKey implements Serializable {
+    @PrimaryKeyColumn(name = "device_id", type = PrimaryKeyType.PARTITIONED)
+    private String deviceId;
+
+    @PrimaryKeyColumn(name = "session_start", ordinal = 0, type = PrimaryKeyType.CLUSTERED,
+            ordering = Ordering.DESCENDING)
+    private long sessionStart;
+
+    public DeviceSessionKey() {}
+
+    public DeviceSessionKey(String deviceId, long sessionStart) {
+        this.deviceId = deviceId;
+        this.sessionStart = sessionStart;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public long getSessionStart() {
+        return sessionStart;
+    }
+
+    public void setSessionStart(long sessionStart) {
+        this.sessionStart = sessionStart;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DeviceSessionKey that = (DeviceSessionKey) o;
+        return sessionStart == that.sessionStart && Objects.equals(deviceId, that.deviceId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(deviceId, sessionStart);
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.alexkiyanov.iotplatform.ecs.pipeline;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.state.Hashing;
+
+/**
+ * 64-битный отпечаток содержимого события: (deviceId, createdAt, type, meta).
+ * Повторная доставка одного и того же события дает тот же отпечаток.
+ */
+public final class EventFingerprints {
+
+    private EventFingerprints() {
+    }
+
+    public static long of(DeviceEvent event) {
+        long h = Hashing.mix64(hash(event.getDeviceId()) ^ event.getCreatedAt());
+        h = Hashing.mix64(h * 31 + hash(event.getDeviceType()));
+        return Hashing.mix64(h * 31 + hash(event.getMeta()));
+    }
+
+    private static long hash(String value) {
+        return value == null ? 0 : Hashing.hash64(value);
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.alexkiyanov.iotplatform.ecs.pipeline;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+
+import java.util.List;
+
+/**
+ * Дополнительный этап обработки батча в DeviceEventsListener.
+ * Этапы вызываются в порядке {@link org.springframework.core.annotation.Order}.
+ */
+public interface IngestStage {
+
+    /**
+     * Вызывается до сохранения батча, прочитанного из topic. Возвращает события, которые нужно сохранить.
+     */
+    default List<DeviceEvent> beforeSave(String topic, List<DeviceEvent> events) {
+        return events;
+    }
+
+    /**
+     * Вызывается после сохранения батча в Cassandra, до подтверждения offset-ов
+     */
+    default void afterSave(List<DeviceEvent> events) {
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.alexkiyanov.iotplatform.ecs.ratelimit;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.IngestStage;
+import com.github.alexkiyanov.iotplatform.ecs.state.HashedTokenBuckets;
+import com.github.alexkiyanov.iotplatform.ecs.state.StripedLongMaxMap;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограничивает число событий в секунду на устройство до сохранения в Cassandra.
+ * <p>
+ * Bucket-ы пополняются по createdAt события, а не по времени обработки, чтобы догонка
+ * отставания после простоя не превращалась в массовый троттлинг всех устройств.
+ * createdAt задает устройство, поэтому он зажимается в [now - max-lag-ms, now + max-clock-skew-ms]:
+ * растущие поддельные метки не дают больше токенов, чем прошло реального времени плюс эти допуски,
+ * а метка из далекого будущего не останавливает пополнение bucket-а до тех пор, пока часы ее не догонят.
+ */
+@Component
+@Order(10)
+@ConditionalOnProperty(name = "app.ratelimit.enabled", havingValue = "true")
+public class DeviceRateLimitStage implements IngestStage {
+    private static final Logger log = LoggerFactory.getLogger(DeviceRateLimitStage.class);
+
+    // 2020-01-01T00:00:00Z: 40 бит миллисекунд от этой точки хватает до 2054 года
+    private static final long BUCKET_EPOCH_MS = 1_577_836_800_000L;
+    private static final int THROTTLED_DEVICES_STRIPES = 8;
+    private static final int LOGGED_DEVICES_LIMIT = 10;
+
+    private final HashedTokenBuckets buckets;
+    private final RateLimitAction action;
+    private final long maxLagMs;
+    private final long maxClockSkewMs;
+    private final int sampleEvery;
+    private final KafkaTemplate<String, Object> template;
+    private final String quarantineTopic;
+
+    private final AtomicLong throttledSequence = new AtomicLong();
+    private final StripedLongMaxMap throttledDevices = new StripedLongMaxMap(THROTTLED_DEVICES_STRIPES, 64);
+    private final AtomicInteger lastWindowThrottledDevices = new AtomicInteger();
+    private final Counter throttledCounter;
+    private final Counter passedCounter;
+
+    public DeviceRateLimitStage(@Value("${app.ratelimit.events-per-second:50}") int eventsPerSecond,
+                                @Value("${app.ratelimit.burst:200}") int burst,
+                                @Value("${app.ratelimit.slots:1048576}") int slots,
+                                @Value("${app.ratelimit.action:DROP}") RateLimitAction action,
+                                @Value("${app.ratelimit.sample-every:100}") int sampleEvery,
+                                @Value("${app.ratelimit.max-lag-ms:600000}") long maxLagMs,
+                                @Value("${app.ratelimit.max-clock-skew-ms:5000}") long maxClockSkewMs,
+                                @Qualifier("kafkaTemplate") KafkaTemplate<String, Object> template,
+                                @Value("${app.topics.quarantine}") String quarantineTopic,
+                                MeterRegistry meterRegistry) {
+        this.buckets = new HashedTokenBuckets(slots, eventsPerSecond, burst, BUCKET_EPOCH_MS);
+        this.action = action;
+        this.maxLagMs = Math.max(0, maxLagMs);
+        this.maxClockSkewMs = Math.max(0, maxClockSkewMs);
+        this.sampleEvery = Math.max(1, sampleEvery);
+        this.template = template;
+        this.quarantineTopic = quarantineTopic;
+        this.throttledCounter = Counter.builder("ecs.ratelimit.throttled.total")
+                .description("Events over the per-device rate limit")
+                .tag("action", action.name().toLowerCase())
+                .register(meterRegistry);
+        this.passedCounter = Counter.builder("ecs.ratelimit.sampled.total")
+                .description("Events over the limit let through by sampling")
+                .register(meterRegistry);
+        Gauge.builder("ecs.ratelimit.throttled.devices", lastWindowThrottledDevices, AtomicInteger::get)
+                .description("Distinct devices throttled during the last report window")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public List<DeviceEvent> beforeSave(String topic, List<DeviceEvent> events) {
+        List<DeviceEvent> admitted = null;
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < events.size(); i++) {
+            final DeviceEvent event = events.get(i);
+            final boolean allowed = event.getDeviceId() == null
+                    || buckets.tryAcquire(event.getDeviceId(), refillTime(event.getCreatedAt(), now))
+                    || onThrottled(event);
+            if (!allowed && admitted == null) {
+                // Копию создаем только при первом отброшенном событии
+                admitted = new ArrayList<>(events.subList(0, i));
+            } else if (allowed && admitted != null) {
+                admitted.add(event);
+            }
+        }
+        return admitted == null ? events : admitted;
+    }
+
+    /**
+     * createdAt события, зажатый в допуски относительно времени обработки
+     */
+    private long refillTime(long createdAt, long now) {
+        return Math.min(now + maxClockSkewMs, Math.max(now - maxLagMs, createdAt));
+    }
+
+    /**
+     * Обрабатывает событие сверх лимита. Возвращает true, если событие все же нужно сохранить.
+     */
+    private boolean onThrottled(DeviceEvent event) {
+        throttledCounter.increment();
+        throttledDevices.accumulate(event.getDeviceId(), event.getCreatedAt());
+        switch (action) {
+            case SAMPLE -> {
+                if (throttledSequence.incrementAndGet() % sampleEvery == 0) {
+                    passedCounter.increment();
+                    return true;
+                }
+            }
+            case QUARANTINE -> template.send(quarantineTopic, event.getDeviceId(), event);
+            case DROP -> {
+                // Событие просто не попадает в батч
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Раз в окно обновляет gauge числа затроттленных устройств и логирует примеры
+     */
+    @Scheduled(fixedRateString = "${app.ratelimit.report-interval-ms:60000}")
+    public void report() {
+        final List<String> sample = new ArrayList<>(LOGGED_DEVICES_LIMIT);
+        final int devices = throttledDevices.drain((deviceId, lastThrottledAt) -> {
+            if (sample.size() < LOGGED_DEVICES_LIMIT) {
+                sample.add(deviceId);
+            }
+        });
+        lastWindowThrottledDevices.set(devices);
+        if (devices > 0) {
+            log.warn("Rate limit ({}): {} devices throttled, e.g. {}", action, devices, sample);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.github.alexkiyanov.iotplatform.ecs.ratelimit;
+
+/**
+ * Что делать с событием устройства, превысившего лимит
+ */
+public enum RateLimitAction {
+    /** Отбросить событие */
+    DROP,
+    /** Пропустить каждое N-е событие сверх лимита, остальные отбросить */
+    SAMPLE,
+    /** Отправить событие в карантинный топик вместо Cassandra */
+    QUARANTINE
+}
@@ -0,0 +1,20 @@
+package com.github.alexkiyanov.iotplatform.ecs.repository;
+
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceActivitySketchEntity;
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceActivitySketchKey;
+import org.springframework.data.cassandra.repository.CassandraRepository;
+import org.springframework.data.cassandra.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface DeviceActivitySketchRepository extends CassandraRepository<DeviceActivitySketchEntity, DeviceActivitySketchKey> {
+
+    @Query("SELECT * FROM device_activity_sketches WHERE hour_start = :hourStart"
+            + " AND minute_start >= :fromMinute AND minute_start < :toMinute")
+    List<DeviceActivitySketchEntity> findByHour(@Param("hourStart") long hourStart,
+                                                @Param("fromMinute") long fromMinute,
+                                                @Param("toMinute") long toMinute);
+}
@@ -16,4 +16,10 @@ public interface DeviceEventRepository extends CassandraRepository<DeviceEventEn
 
     @Query("SELECT * FROM device_events_by_device WHERE device_id = :deviceId")
     List<DeviceEventEntity> findByDeviceId(@Param("deviceId") String deviceId);
+
+    /**
+     * Последние по event_id события устройства, от новых к старым
+     */
+    @Query("SELECT * FROM device_events_by_device WHERE device_id = :deviceId ORDER BY event_id DESC LIMIT :limit")
+    List<DeviceEventEntity> findRecent(@Param("deviceId") String deviceId, @Param("limit") int limit);
 }
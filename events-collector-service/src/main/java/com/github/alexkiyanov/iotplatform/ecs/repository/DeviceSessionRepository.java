@@ -0,0 +1,20 @@
+package com.github.alexkiyanov.iotplatform.ecs.repository;
+
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceSessionEntity;
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceSessionKey;
+import org.springframework.data.cassandra.repository.CassandraRepository;
+import org.springframework.data.cassandra.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface DeviceSessionRepository extends CassandraRepository<DeviceSessionEntity, DeviceSessionKey> {
+
+    /**
+     * Последние сессии устройства, от новых к старым
+     */
+    @Query("SELECT * FROM device_sessions WHERE device_id = :deviceId LIMIT :limit")
+    List<DeviceSessionEntity> findRecent(@Param("deviceId") String deviceId, @Param("limit") int limit);
+}
@@ -0,0 +1,137 @@
+package com.github.alexkiyanov.iotplatform.ecs.rules;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoublePredicate;
+
+/**
+ * Правило, скомпилированное в предикат над числом и состояние устройства в массиве long.
+ * <p>
+ * Состояние: [0] - createdAt последнего совпадения (или DEAD после удаления), [1] - счетчик,
+ * для оконных правил дальше кольцо из occurrences меток времени. События одного устройства приходят
+ * из одной партиции, поэтому монитор массива не конкурирует и нужен только для видимости и очистки.
+ */
+final class CompiledRule {
+    private static final long DEAD = Long.MIN_VALUE;
+
+    final String name;
+    final String type;
+    final String field;
+    final String severity;
+    private final DoublePredicate condition;
+    private final int required;
+    private final long withinMs;
+    private final ConcurrentHashMap<String, long[]> states = new ConcurrentHashMap<>();
+
+    private CompiledRule(String name, String type, String field, String severity,
+                         DoublePredicate condition, int required, long withinMs) {
+        this.name = name;
+        this.type = type;
+        this.field = field;
+        this.severity = severity;
+        this.condition = condition;
+        this.required = required;
+        this.withinMs = withinMs;
+    }
+
+    /**
+     * @throws IllegalArgumentException если правило описано некорректно
+     */
+    static CompiledRule compile(RuleProperties.Rule rule) {
+        if (rule.name() == null || rule.name().isBlank() || rule.type() == null || rule.type().isBlank()) {
+            throw new IllegalArgumentException("Rule must have name and type: " + rule);
+        }
+        final int required = rule.windowed() ? rule.occurrences() : rule.consecutive();
+        if (required <= 0) {
+            throw new IllegalArgumentException("Rule " + rule.name() + " needs a positive consecutive/occurrences");
+        }
+        final String field = rule.field() == null || rule.field().isBlank() ? null : rule.field();
+        final double threshold = rule.threshold();
+        final DoublePredicate condition = field == null ? value -> true : switch (rule.operator()) {
+            case GT -> value -> value > threshold;
+            case GTE -> value -> value >= threshold;
+            case LT -> value -> value < threshold;
+            case LTE -> value -> value <= threshold;
+            case EQ -> value -> value == threshold;
+            case NE -> value -> !Double.isNaN(value) && value != threshold;
+        };
+        return new CompiledRule(rule.name(), rule.type(), field, rule.severity(), condition, required,
+                rule.windowed() ? rule.within().toMillis() : 0);
+    }
+
+    boolean matches(double value) {
+        return condition.test(value);
+    }
+
+    /**
+     * Учитывает событие устройства с типом правила.
+     *
+     * @param matched выполнилось ли условие правила
+     * @return true, если правило сработало на этом событии
+     */
+    boolean evaluate(String deviceId, long createdAt, boolean matched) {
+        if (!matched && withinMs > 0) {
+            // Оконные правила считают только совпадения
+            return false;
+        }
+        while (true) {
+            final long[] state = matched ? states.computeIfAbsent(deviceId, id -> newState()) : states.get(deviceId);
+            if (state == null) {
+                return false;
+            }
+            synchronized (state) {
+                if (state[0] == DEAD) {
+                    // Состояние удалено очисткой между get и захватом монитора
+                    continue;
+                }
+                if (!matched) {
+                    state[1] = 0;
+                    return false;
+                }
+                state[0] = Math.max(state[0], createdAt);
+                return withinMs > 0 ? onOccurrence(state, createdAt) : ++state[1] == required;
+            }
+        }
+    }
+
+    /**
+     * Удаляет состояние устройств без совпадений дольше ttlMs (и не меньше окна правила)
+     *
+     * @return число оставшихся устройств
+     */
+    int sweep(long now, long ttlMs) {
+        final long expireBefore = now - Math.max(ttlMs, withinMs);
+        states.forEach((deviceId, state) -> {
+            synchronized (state) {
+                if (state[1] == 0 || state[0] < expireBefore) {
+                    state[0] = DEAD;
+                    states.remove(deviceId, state);
+                }
+            }
+        });
+        return states.size();
+    }
+
+    int devices() {
+        return states.size();
+    }
+
+    private boolean onOccurrence(long[] state, long createdAt) {
+        final long inserted = state[1];
+        state[2 + (int) (inserted % required)] = createdAt;
+        state[1] = inserted + 1;
+        if (state[1] < required) {
+            return false;
+        }
+        // Следующий слот кольца - самое старое из последних required совпадений
+        final long oldest = state[2 + (int) (state[1] % required)];
+        if (createdAt - oldest <= withinMs) {
+            state[1] = 0;
+            return true;
+        }
+        return false;
+    }
+
+    private long[] newState() {
+        return new long[withinMs > 0 ? 2 + required : 2];
+    }
+}
@@ -0,0 +1,10 @@
+package com.github.alexkiyanov.iotplatform.ecs.rules;
+
+/**
+ * Сработавшее правило, публикуется в app.topics.alerts с ключом deviceId.
+ *
+ * @param value значение поля условия или null, если правило проверяет только тип
+ */
+public record RuleAlert(String rule, String severity, String deviceId, String type, long createdAt,
+                        Double value, String meta) {
+}
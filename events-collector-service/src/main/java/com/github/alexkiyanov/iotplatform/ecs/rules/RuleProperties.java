@@ -0,0 +1,52 @@
+package com.github.alexkiyanov.iotplatform.ecs.rules;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Декларативные правила алертов (app.rules).
+ * <p>
+ * Условие правила - событие типа type и, если задано field, сравнение числового поля meta с threshold.
+ * Правило срабатывает на consecutive подряд идущих совпадениях одного устройства либо, если задано
+ * within, на occurrences совпадениях за окно within (по createdAt).
+ */
+@ConfigurationProperties("app.rules")
+public record RuleProperties(boolean enabled, List<Rule> definitions) {
+
+    public RuleProperties {
+        definitions = definitions == null ? List.of() : List.copyOf(definitions);
+    }
+
+    public enum Operator {
+        GT, GTE, LT, LTE, EQ, NE
+    }
+
+    /**
+     * @param name        имя правила, попадает в алерт и в метрики
+     * @param type        тип события
+     * @param field       числовое поле верхнего уровня в meta, пусто - проверяется только тип
+     * @param operator    сравнение поля с threshold
+     * @param threshold   порог
+     * @param consecutive сколько совпадений подряд нужно для срабатывания
+     * @param occurrences сколько совпадений за окно within нужно для срабатывания
+     * @param within      окно для occurrences, 0 - правило по совпадениям подряд
+     * @param severity    уровень алерта
+     */
+    public record Rule(String name,
+                       String type,
+                       String field,
+                       @DefaultValue("GT") Operator operator,
+                       @DefaultValue("0") double threshold,
+                       @DefaultValue("1") int consecutive,
+                       @DefaultValue("1") int occurrences,
+                       @DefaultValue("0s") Duration within,
+                       @DefaultValue("WARNING") String severity) {
+
+        public boolean windowed() {
+            return !within.isZero() && !within.isNegative();
+        }
+    }
+}
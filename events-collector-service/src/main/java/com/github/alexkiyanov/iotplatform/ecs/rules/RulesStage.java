@@ -0,0 +1,128 @@
+package com.github.alexkiyanov.iotplatform.ecs.rules;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.IngestStage;
+import com.github.alexkiyanov.iotplatform.ecs.serialization.MetaFields;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.core.annotation.Order;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Проверяет правила алертов на каждом сохраненном батче и публикует срабатывания в топик алертов.
+ * <p>
+ * Стоит до ограничения частоты, чтобы троттлинг не скрывал алерты: в beforeSave запоминаются события
+ * после дедупликации, но до троттлинга, а счетчики правил продвигаются по ним только в afterSave, после
+ * успешной записи. Если сохранение упадет, перечитанный батч не посчитается дважды и правило
+ * "3 подряд" не сработает на двух реальных показаниях. beforeSave и afterSave одного батча вызываются
+ * в потоке листенера, поэтому события батча хранятся в ThreadLocal.
+ */
+@Component
+@Order(7)
+@ConditionalOnProperty(name = "app.rules.enabled", havingValue = "true")
+@EnableConfigurationProperties(RuleProperties.class)
+public class RulesStage implements IngestStage {
+    private static final Logger log = LoggerFactory.getLogger(RulesStage.class);
+
+    private final Map<String, List<CompiledRule>> rulesByType = new HashMap<>();
+    private final Map<String, Counter> alertCounters = new HashMap<>();
+    private final KafkaTemplate<String, String> template;
+    private final String alertsTopic;
+    private final ObjectMapper objectMapper;
+    private final long stateTtlMs;
+    private final ThreadLocal<List<DeviceEvent>> pending = new ThreadLocal<>();
+
+    public RulesStage(RuleProperties properties,
+                      @Qualifier("stringKafkaTemplate") KafkaTemplate<String, String> template,
+                      @Value("${app.topics.alerts}") String alertsTopic,
+                      @Value("${app.rules.state-ttl:1h}") Duration stateTtl,
+                      ObjectMapper objectMapper,
+                      MeterRegistry meterRegistry) {
+        this.template = template;
+        this.alertsTopic = alertsTopic;
+        this.objectMapper = objectMapper;
+        this.stateTtlMs = stateTtl.toMillis();
+        final List<CompiledRule> all = new ArrayList<>();
+        for (RuleProperties.Rule definition : properties.definitions()) {
+            final CompiledRule rule = CompiledRule.compile(definition);
+            all.add(rule);
+            rulesByType.computeIfAbsent(rule.type, t -> new ArrayList<>()).add(rule);
+            alertCounters.put(rule.name, Counter.builder("ecs.rules.alerts.total")
+                    .description("Alerts raised by ingest rules")
+                    .tag("rule", rule.name)
+                    .register(meterRegistry));
+        }
+        Gauge.builder("ecs.rules.state.devices", all, rules -> rules.stream().mapToInt(CompiledRule::devices).sum())
+                .description("Device states held by ingest rules")
+                .register(meterRegistry);
+        log.info("Loaded {} ingest rules for types {}", all.size(), rulesByType.keySet());
+    }
+
+    @Override
+    public List<DeviceEvent> beforeSave(String topic, List<DeviceEvent> events) {
+        // Перезаписывает события батча, сохранение которого упало
+        pending.set(events);
+        return events;
+    }
+
+    @Override
+    public void afterSave(List<DeviceEvent> saved) {
+        final List<DeviceEvent> events = pending.get();
+        pending.remove();
+        evaluate(events != null ? events : saved);
+    }
+
+    private void evaluate(List<DeviceEvent> events) {
+        for (DeviceEvent event : events) {
+            final List<CompiledRule> rules = rulesByType.get(event.getDeviceType());
+            if (rules == null || event.getDeviceId() == null) {
+                continue;
+            }
+            for (CompiledRule rule : rules) {
+                final double value = rule.field == null ? Double.NaN : MetaFields.number(event.getMeta(), rule.field);
+                if (rule.evaluate(event.getDeviceId(), event.getCreatedAt(), rule.matches(value))) {
+                    raise(rule, event, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Освобождает состояние устройств, давно не совпадавших с правилами
+     */
+    @Scheduled(fixedDelayString = "${app.rules.sweep-interval-ms:60000}")
+    public void sweep() {
+        final long now = System.currentTimeMillis();
+        rulesByType.values().forEach(rules -> rules.forEach(rule -> rule.sweep(now, stateTtlMs)));
+    }
+
+    private void raise(CompiledRule rule, DeviceEvent event, double value) {
+        final RuleAlert alert = new RuleAlert(rule.name, rule.severity, event.getDeviceId(), event.getDeviceType(),
+                event.getCreatedAt(), Double.isNaN(value) ? null : value, event.getMeta());
+        try {
+            template.send(alertsTopic, event.getDeviceId(), objectMapper.writeValueAsString(alert));
+            alertCounters.get(rule.name).increment();
+            log.debug("Rule {} fired for device {}", rule.name, event.getDeviceId());
+        } catch (JsonProcessingException e) {
+            log.error("Failed to serialize alert of rule {} for device {}: {}", rule.name, event.getDeviceId(),
+                    e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.alexkiyanov.iotplatform.ecs.serialization;
+
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Проекция DeviceEvent, которая читает из Avro-значения только deviceId.
+ * <p>
+ * Значение приходит в wire-формате Confluent: магический байт, 4 байта id схемы и Avro binary.
+ * deviceId - первое поле DeviceEvent, поэтому достаточно прочитать одну строку,
+ * не трогая deviceType, createdAt и тяжелое поле meta. Новые поля в DeviceEvent.avsc
+ * должны добавляться только после deviceId.
+ */
+public class DeviceIdProjectionDeserializer implements Deserializer<String> {
+    static final byte MAGIC_BYTE = 0x0;
+    static final int HEADER_SIZE = 1 + Integer.BYTES;
+
+    @Override
+    public String deserialize(String topic, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        return deserialize(topic, null, ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public String deserialize(String topic, Headers headers, ByteBuffer data) {
+        if (data == null) {
+            return null;
+        }
+        if (data.remaining() < HEADER_SIZE || data.get(data.position()) != MAGIC_BYTE) {
+            throw new SerializationException("Unknown magic byte in record from topic " + topic);
+        }
+        try {
+            return readDeviceId(data);
+        } catch (IOException | RuntimeException e) {
+            throw new SerializationException("Failed to project deviceId from record in topic " + topic, e);
+        }
+    }
+
+    private static String readDeviceId(ByteBuffer data) throws IOException {
+        final int offset = data.position() + HEADER_SIZE;
+        final int length = data.limit() - offset;
+        final BinaryDecoder decoder;
+        if (data.hasArray()) {
+            decoder = DecoderFactory.get().binaryDecoder(data.array(), data.arrayOffset() + offset, length, null);
+        } else {
+            final byte[] copy = new byte[length];
+            data.duplicate().position(offset).get(copy);
+            decoder = DecoderFactory.get().binaryDecoder(copy, null);
+        }
+        return decoder.readString();
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.alexkiyanov.iotplatform.ecs.serialization;
+
+import java.util.function.ObjDoubleConsumer;
+
+/**
+ * Чтение числовых полей верхнего уровня из JSON meta события без построения дерева.
+ * <p>
+ * Разбор однопроходный: строки (в том числе с экранированием), вложенные объекты и массивы
+ * пропускаются, числа верхнего уровня отдаются вызывающему. На некорректном JSON разбор
+ * останавливается без исключения - meta приходит от устройств и не валидируется.
+ */
+public final class MetaFields {
+
+    private MetaFields() {
+    }
+
+    /**
+     * @return значение поля или NaN, если поля нет или оно не число
+     */
+    public static double number(String meta, String field) {
+        final double[] found = {Double.NaN};
+        forEachNumber(meta, (name, value) -> {
+            if (Double.isNaN(found[0]) && name.equals(field)) {
+                found[0] = value;
+            }
+        });
+        return found[0];
+    }
+
+    /**
+     * Передает consumer каждое числовое поле верхнего уровня
+     */
+    public static void forEachNumber(String meta, ObjDoubleConsumer<String> consumer) {
+        if (meta == null) {
+            return;
+        }
+        int i = skipWhitespace(meta, 0);
+        if (i >= meta.length() || meta.charAt(i) != '{') {
+            return;
+        }
+        i++;
+        while (true) {
+            i = skipWhitespace(meta, i);
+            if (i >= meta.length() || meta.charAt(i) != '"') {
+                return;
+            }
+            final int keyEnd = skipString(meta, i);
+            if (keyEnd < 0) {
+                return;
+            }
+            final String key = meta.substring(i + 1, keyEnd - 1);
+            i = skipWhitespace(meta, keyEnd);
+            if (i >= meta.length() || meta.charAt(i) != ':') {
+                return;
+            }
+            i = skipWhitespace(meta, i + 1);
+            if (i >= meta.length()) {
+                return;
+            }
+            final char c = meta.charAt(i);
+            final int valueEnd;
+            if (c == '"') {
+                valueEnd = skipString(meta, i);
+            } else if (c == '{' || c == '[') {
+                valueEnd = skipNested(meta, i);
+            } else {
+                valueEnd = skipLiteral(meta, i);
+                if (isNumberStart(c)) {
+                    try {
+                        consumer.accept(key, Double.parseDouble(meta.substring(i, valueEnd)));
+                    } catch (NumberFormatException e) {
+                        // Не число - пропускаем поле
+                    }
+                }
+            }
+            if (valueEnd < 0) {
+                return;
+            }
+            i = skipWhitespace(meta, valueEnd);
+            if (i >= meta.length() || meta.charAt(i) != ',') {
+                return;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * @return позиция после закрывающей кавычки или -1
+     */
+    private static int skipString(String s, int quote) {
+        for (int i = quote + 1; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipNested(String s, int open) {
+        int depth = 0;
+        for (int i = open; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"') {
+                i = skipString(s, i);
+                if (i < 0) {
+                    return -1;
+                }
+                i--;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if ((c == '}' || c == ']') && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipLiteral(String s, int start) {
+        int i = start;
+        while (i < s.length() && s.charAt(i) != ',' && s.charAt(i) != '}' && !Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipWhitespace(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isNumberStart(char c) {
+        return (c >= '0' && c <= '9') || c == '-';
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.alexkiyanov.iotplatform.ecs.serialization;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Десериализатор, который не читает значение записи вовсе.
+ * Используется, когда все нужные данные уже есть в ключе Kafka (deviceId).
+ */
+public class SkipValueDeserializer implements Deserializer<Void> {
+
+    @Override
+    public Void deserialize(String topic, byte[] data) {
+        return null;
+    }
+
+    @Override
+    public Void deserialize(String topic, Headers headers, ByteBuffer data) {
+        // Перегрузка с ByteBuffer избавляет от копирования значения в byte[]
+        return null;
+    }
+}
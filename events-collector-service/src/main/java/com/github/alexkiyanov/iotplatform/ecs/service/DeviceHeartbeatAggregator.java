@@ -0,0 +1,78 @@
+package com.github.alexkiyanov.iotplatform.ecs.service;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.IngestStage;
+import com.github.alexkiyanov.iotplatform.ecs.state.StripedLongMaxMap;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Агрегирует максимальный createdAt по устройству и раз в интервал публикует
+ * heartbeat "device seen": ключ - deviceId, значение - lastSeen в epoch millis.
+ * <p>
+ * Вместо публикации на каждое событие в топик уходит не больше одной записи
+ * на устройство за интервал. DCS читает топик в DeviceHeartbeatListener и обновляет device_presence,
+ * так lastSeen в registry остается свежим без записи карточки устройства.
+ */
+@Service
+@Order(100)
+@ConditionalOnProperty(name = "app.heartbeat.enabled", havingValue = "true")
+public class DeviceHeartbeatAggregator implements IngestStage {
+    private static final Logger log = LoggerFactory.getLogger(DeviceHeartbeatAggregator.class);
+
+    private static final int STRIPES = 16;
+
+    private final KafkaTemplate<String, String> template;
+    private final String heartbeatTopic;
+    private final StripedLongMaxMap lastSeen;
+    private final Counter heartbeatsCounter;
+
+    public DeviceHeartbeatAggregator(@Qualifier("stringKafkaTemplate") KafkaTemplate<String, String> template,
+                                     @Value("${app.topics.heartbeat}") String heartbeatTopic,
+                                     @Value("${app.heartbeat.expected-devices:100000}") int expectedDevices,
+                                     MeterRegistry meterRegistry) {
+        this.template = template;
+        this.heartbeatTopic = heartbeatTopic;
+        this.lastSeen = new StripedLongMaxMap(STRIPES, expectedDevices);
+        this.heartbeatsCounter = Counter.builder("ecs.heartbeat.sent.total")
+                .description("Total number of device heartbeats published")
+                .register(meterRegistry);
+        Gauge.builder("ecs.heartbeat.pending.devices", lastSeen, StripedLongMaxMap::size)
+                .description("Devices seen since the last heartbeat flush")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void afterSave(List<DeviceEvent> events) {
+        for (DeviceEvent event : events) {
+            if (event.getDeviceId() != null) {
+                lastSeen.accumulate(event.getDeviceId(), event.getCreatedAt());
+            }
+        }
+    }
+
+    /**
+     * Публикует по одному heartbeat на каждое устройство, замеченное с прошлого вызова
+     */
+    @Scheduled(fixedRateString = "${app.heartbeat.interval-ms:30000}")
+    public void flush() {
+        final int published = lastSeen.drain((deviceId, seenAt) ->
+                template.send(heartbeatTopic, deviceId, Long.toString(seenAt)));
+        if (published > 0) {
+            heartbeatsCounter.increment(published);
+            log.debug("Published {} device heartbeats to {}", published, heartbeatTopic);
+        }
+    }
+}
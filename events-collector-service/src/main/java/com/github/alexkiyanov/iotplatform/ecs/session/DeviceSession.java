@@ -0,0 +1,32 @@
+package com.github.alexkiyanov.iotplatform.ecs.session;
+
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceSessionEntity;
+
+/**
+ * Сессия связи устройства для API.
+ *
+ * @param online     сессия открыта и устройство присылало события в пределах inactivity-gap
+ * @param since      начало сессии для онлайн-устройства, иначе момент ухода в офлайн
+ * @param sessionEnd null, пока сессия открыта
+ * @param endReason  CONNECTION_LOST, GAP или TIMEOUT; INACTIVE - открытая сессия без событий дольше gap
+ */
+public record DeviceSession(String deviceId, boolean online, long since, long sessionStart, long lastSeen,
+                            Long sessionEnd, String endReason, long events, long durationMs) {
+
+    static DeviceSession of(String deviceId, long start, long lastSeen, Long end, String reason, long events,
+                            long now, long gapMs) {
+        if (end == null && lastSeen < now - gapMs) {
+            // Инстанс, закрывавший сессию, мог не успеть ее записать: закрываем по последнему событию
+            end = lastSeen;
+            reason = DeviceSessionStage.INACTIVE;
+        }
+        final boolean online = end == null;
+        return new DeviceSession(deviceId, online, online ? start : end, start, lastSeen, end, reason, events,
+                (online ? lastSeen : end) - start);
+    }
+
+    static DeviceSession of(DeviceSessionEntity entity, long now, long gapMs) {
+        return of(entity.getKey().getDeviceId(), entity.getKey().getSessionStart(), entity.getLastSeen(),
+                entity.getSessionEnd(), entity.getEndReason(), entity.getEvents(), now, gapMs);
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.alexkiyanov.iotplatform.ecs.session;
+
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceSessionEntity;
+import com.github.alexkiyanov.iotplatform.ecs.repository.DeviceSessionRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Сессии устройства для API: открытая сессия берется из памяти, если устройство обрабатывает
+ * этот инстанс, иначе из device_sessions (с задержкой до flush-interval).
+ */
+@Service
+@ConditionalOnProperty(name = "app.sessions.enabled", havingValue = "true", matchIfMissing = true)
+public class DeviceSessionService {
+
+    private final DeviceSessionStage stage;
+    private final DeviceSessionRepository repository;
+    private final int maxLimit;
+
+    public DeviceSessionService(DeviceSessionStage stage,
+                                DeviceSessionRepository repository,
+                                @Value("${app.sessions.max-query-limit:1000}") int maxLimit) {
+        this.stage = stage;
+        this.repository = repository;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Текущая или последняя сессия устройства, null если сессий нет
+     */
+    public DeviceSession current(String deviceId) {
+        final DeviceSession session = stage.current(deviceId);
+        if (session != null) {
+            return session;
+        }
+        final List<DeviceSessionEntity> latest = repository.findRecent(deviceId, 1);
+        return latest.isEmpty() ? null : DeviceSession.of(latest.getFirst(), System.currentTimeMillis(), stage.gapMs());
+    }
+
+    /**
+     * Последние limit сессий устройства, от новых к старым
+     */
+    public List<DeviceSession> recent(String deviceId, int limit) {
+        if (limit <= 0 || limit > maxLimit) {
+            throw new IllegalArgumentException("limit must be in [1, " + maxLimit + "]: " + limit);
+        }
+        final long now = System.currentTimeMillis();
+        final DeviceSession open = stage.current(deviceId);
+        final List<DeviceSession> sessions = new ArrayList<>(limit);
+        if (open != null) {
+            sessions.add(open);
+        }
+        for (DeviceSessionEntity entity : repository.findRecent(deviceId, limit)) {
+            if (sessions.size() == limit) {
+                break;
+            }
+            if (open == null || entity.getKey().getSessionStart() != open.sessionStart()) {
+                sessions.add(DeviceSession.of(entity, now, stage.gapMs()));
+            }
+        }
+        return sessions;
+    }
+}
@@ -0,0 +1,269 @@
+package com.github.alexkiyanov.iotplatform.ecs.session;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceSessionEntity;
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceSessionKey;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.IngestStage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.cassandra.core.CassandraOperations;
+import org.springframework.data.cassandra.core.InsertOptions;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Инкрементально ведет сессии связи устройств по потоку событий и сохраняет их в device_sessions.
+ * <p>
+ * Сессия открывается первым событием устройства и закрывается событием из offline-types
+ * (CONNECTION_LOST), разрывом по createdAt больше inactivity-gap (GAP) или отсутствием событий дольше gap
+ * относительно watermark (TIMEOUT). Событие из offline-types без открытой сессии новую не открывает.
+ * В памяти держатся только открытые сессии; измененные сессии записываются пачкой раз в flush-interval,
+ * строка сессии перезаписывается целиком, поэтому повторная запись идемпотентна.
+ * События одного устройства приходят из одной партиции Kafka, то есть в один инстанс.
+ * <p>
+ * Watermark - время событий, а не часы инстанса: максимальный createdAt (не больше часов инстанса) минус
+ * allowed-lateness. Иначе при отставании консьюмера или повторе больше gap каждый flush закрывал бы все
+ * открытые сессии. Пока событий нет вовсе, watermark сдвигается по часам инстанса от последнего батча,
+ * чтобы простаивающий поток тоже закрывал сессии.
+ */
+@Component
+@Order(150)
+@ConditionalOnProperty(name = "app.sessions.enabled", havingValue = "true", matchIfMissing = true)
+public class DeviceSessionStage implements IngestStage {
+    private static final Logger log = LoggerFactory.getLogger(DeviceSessionStage.class);
+
+    static final String CONNECTION_LOST = "CONNECTION_LOST";
+    static final String GAP = "GAP";
+    static final String TIMEOUT = "TIMEOUT";
+    static final String INACTIVE = "INACTIVE";
+
+    private static final class Session {
+        private final String deviceId;
+        private final long start;
+        private long lastSeen;
+        private long events;
+        private Long end;
+        private String reason;
+        private boolean dirty = true;
+
+        private Session(String deviceId, long start) {
+            this.deviceId = deviceId;
+            this.start = start;
+            this.lastSeen = start;
+            this.events = 1;
+        }
+
+        private void close(long at, String why) {
+            end = at;
+            reason = why;
+            dirty = true;
+        }
+
+        private DeviceSessionEntity toEntity() {
+            return new DeviceSessionEntity(new DeviceSessionKey(deviceId, start), lastSeen, end, reason, events);
+        }
+    }
+
+    private final CassandraOperations cassandraOperations;
+    private final long gapMs;
+    private final long latenessMs;
+    private final Set<String> offlineTypes;
+    private final InsertOptions insertOptions;
+    private final Map<String, Session> open;
+    private final List<Session> closed = new ArrayList<>();
+    private long maxEventTime;
+    private long lastBatchAt;
+    private final Counter openedCounter;
+    private final Counter closedCounter;
+    private final Counter lateCounter;
+    private final Counter flushFailuresCounter;
+
+    public DeviceSessionStage(CassandraOperations cassandraOperations,
+                              @Value("${app.sessions.inactivity-gap:5m}") Duration inactivityGap,
+                              @Value("${app.sessions.allowed-lateness:1m}") Duration allowedLateness,
+                              @Value("${app.sessions.offline-types:CONNECTION_LOST}") Set<String> offlineTypes,
+                              @Value("${app.sessions.expected-devices:100000}") int expectedDevices,
+                              @Value("${app.sessions.ttl:90d}") Duration ttl,
+                              MeterRegistry meterRegistry) {
+        this.cassandraOperations = cassandraOperations;
+        this.gapMs = inactivityGap.toMillis();
+        this.latenessMs = allowedLateness.toMillis();
+        this.offlineTypes = offlineTypes;
+        this.insertOptions = InsertOptions.builder().ttl(ttl).build();
+        this.open = HashMap.newHashMap(expectedDevices);
+        this.openedCounter = Counter.builder("ecs.sessions.opened.total")
+                .description("Device sessions opened")
+                .register(meterRegistry);
+        this.closedCounter = Counter.builder("ecs.sessions.closed.total")
+                .description("Device sessions closed")
+                .register(meterRegistry);
+        this.lateCounter = Counter.builder("ecs.sessions.late.events.total")
+                .description("Events older than the start of the open session, not counted")
+                .register(meterRegistry);
+        this.flushFailuresCounter = Counter.builder("ecs.sessions.flush.failures.total")
+                .description("Failed device session writes")
+                .register(meterRegistry);
+        Gauge.builder("ecs.sessions.open", this, DeviceSessionStage::openSessions)
+                .description("Open device sessions held by this instance")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void afterSave(List<DeviceEvent> events) {
+        int late = 0;
+        final long now = System.currentTimeMillis();
+        synchronized (open) {
+            for (DeviceEvent event : events) {
+                final String deviceId = event.getDeviceId();
+                if (deviceId == null) {
+                    continue;
+                }
+                final long at = event.getCreatedAt();
+                // Метка из будущего не должна сдвигать watermark дальше часов инстанса
+                maxEventTime = Math.max(maxEventTime, Math.min(at, now));
+                final boolean offline = event.getDeviceType() != null && offlineTypes.contains(event.getDeviceType());
+                Session session = open.get(deviceId);
+                if (session != null && at > session.lastSeen + gapMs) {
+                    close(session, session.lastSeen, GAP);
+                    session = null;
+                }
+                if (session == null) {
+                    if (offline) {
+                        // Устройство уже офлайн: сессия нулевой длины не нужна
+                        continue;
+                    }
+                    session = new Session(deviceId, at);
+                    open.put(deviceId, session);
+                    openedCounter.increment();
+                } else if (at < session.start) {
+                    late++;
+                    continue;
+                } else {
+                    session.lastSeen = Math.max(session.lastSeen, at);
+                    session.events++;
+                    session.dirty = true;
+                }
+                if (offline) {
+                    close(session, at, CONNECTION_LOST);
+                }
+            }
+            lastBatchAt = now;
+        }
+        if (late > 0) {
+            lateCounter.increment(late);
+        }
+    }
+
+    /**
+     * Текущая открытая сессия устройства на этом инстансе или null
+     */
+    public DeviceSession current(String deviceId) {
+        synchronized (open) {
+            final Session session = open.get(deviceId);
+            return session == null ? null : DeviceSession.of(deviceId, session.start, session.lastSeen, null, null,
+                    session.events, System.currentTimeMillis(), gapMs);
+        }
+    }
+
+    public long gapMs() {
+        return gapMs;
+    }
+
+    /**
+     * Закрывает сессии без событий дольше inactivity-gap и сохраняет измененные сессии
+     */
+    @Scheduled(fixedRateString = "${app.sessions.flush-interval-ms:10000}")
+    public void flush() {
+        flush(System.currentTimeMillis());
+    }
+
+    void flush(long now) {
+        final List<Session> pending;
+        synchronized (open) {
+            final long expireBefore = watermark(now) - gapMs;
+            final Iterator<Session> it = open.values().iterator();
+            while (it.hasNext()) {
+                final Session session = it.next();
+                if (session.lastSeen < expireBefore) {
+                    it.remove();
+                    session.close(session.lastSeen, TIMEOUT);
+                    closed.add(session);
+                    closedCounter.increment();
+                }
+            }
+            pending = new ArrayList<>(closed);
+            closed.clear();
+            for (Session session : open.values()) {
+                if (session.dirty) {
+                    session.dirty = false;
+                    pending.add(session);
+                }
+            }
+        }
+
+        final List<Session> failed = new ArrayList<>();
+        for (Session session : pending) {
+            final DeviceSessionEntity entity;
+            synchronized (open) {
+                entity = session.toEntity();
+            }
+            try {
+                cassandraOperations.insert(entity, insertOptions);
+            } catch (RuntimeException e) {
+                failed.add(session);
+                log.warn("Failed to store session of device {} started at {}: {}",
+                        session.deviceId, session.start, e.getMessage());
+            }
+        }
+        if (!failed.isEmpty()) {
+            flushFailuresCounter.increment(failed.size());
+            requeue(failed);
+        }
+    }
+
+    /**
+     * Время событий, до которого все события считаются пришедшими; вызывается под монитором open
+     */
+    private long watermark(long now) {
+        return maxEventTime + Math.max(0, now - lastBatchAt) - latenessMs;
+    }
+
+    private void requeue(List<Session> failed) {
+        synchronized (open) {
+            for (Session session : failed) {
+                if (session.end != null) {
+                    closed.add(session);
+                } else {
+                    session.dirty = true;
+                }
+            }
+        }
+    }
+
+    private void close(Session session, long at, String reason) {
+        open.remove(session.deviceId);
+        session.close(at, reason);
+        closed.add(session);
+        closedCounter.increment();
+    }
+
+    private int openSessions() {
+        synchronized (open) {
+            return open.size();
+        }
+    }
+}
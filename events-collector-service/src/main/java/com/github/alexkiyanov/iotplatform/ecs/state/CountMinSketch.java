@@ -0,0 +1,75 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+import java.util.Arrays;
+
+/**
+ * Count-Min Sketch: оценка частоты ключа в фиксированной памяти (depth * width счетчиков).
+ * <p>
+ * Оценка никогда не меньше истинной частоты и превышает ее не больше чем на e/width от общего
+ * числа событий с вероятностью 1 - e^-depth. Класс не потокобезопасен, синхронизацию обеспечивает владелец.
+ */
+public final class CountMinSketch {
+    private final long[] counters;
+    private final int depth;
+    private final int width;
+    private final int mask;
+    private long total;
+
+    /**
+     * @param depth число строк (независимых хэшей)
+     * @param width число счетчиков в строке, степень двойки
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth <= 0 || width <= 0 || Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("depth must be positive and width a power of two: "
+                    + depth + "x" + width);
+        }
+        this.counters = new long[depth * width];
+        this.depth = depth;
+        this.width = width;
+        this.mask = width - 1;
+    }
+
+    /**
+     * Добавляет count к частоте ключа и возвращает новую оценку
+     */
+    public long add(String key, long count) {
+        final int h1 = mix(key.hashCode());
+        final int h2 = mix(h1) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            final int index = row * width + ((h1 + row * h2) & mask);
+            counters[index] += count;
+            estimate = Math.min(estimate, counters[index]);
+        }
+        total += count;
+        return estimate;
+    }
+
+    public long estimate(String key) {
+        final int h1 = mix(key.hashCode());
+        final int h2 = mix(h1) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[row * width + ((h1 + row * h2) & mask)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Сумма всех добавленных частот
+     */
+    public long total() {
+        return total;
+    }
+
+    public void clear() {
+        Arrays.fill(counters, 0);
+        total = 0;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
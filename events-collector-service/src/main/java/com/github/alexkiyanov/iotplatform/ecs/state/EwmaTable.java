@@ -0,0 +1,145 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+/**
+ * Экспоненциально взвешенные среднее и дисперсия по 64-битному ключу ряда в примитивных массивах.
+ * <p>
+ * Ключи не хранятся: слот занимает 28 байт (хэш, среднее, дисперсия, число наблюдений). Таблица
+ * фиксированного размера разбита на сегменты со своими мониторами; при заполнении окна пробирования
+ * вытесняется ряд с наименьшим числом наблюдений, поэтому память не растет с числом устройств.
+ */
+public final class EwmaTable {
+    private static final int MAX_PROBE = 8;
+    private static final long EMPTY = 0;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final double alpha;
+    private final int minSamples;
+
+    private static final class Stripe {
+        private final long[] keys;
+        private final double[] means;
+        private final double[] variances;
+        private final int[] counts;
+        private final int mask;
+        private int size;
+        private long evictions;
+
+        private Stripe(int capacity) {
+            this.keys = new long[capacity];
+            this.means = new double[capacity];
+            this.variances = new double[capacity];
+            this.counts = new int[capacity];
+            this.mask = capacity - 1;
+        }
+    }
+
+    /**
+     * @param capacity   общее число рядов, степень двойки
+     * @param stripes    число сегментов, степень двойки
+     * @param alpha      вес нового наблюдения, (0, 1)
+     * @param minSamples наблюдений до начала оценки
+     */
+    public EwmaTable(int capacity, int stripes, double alpha, int minSamples) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1 || stripes <= 0 || Integer.bitCount(stripes) != 1
+                || stripes > capacity) {
+            throw new IllegalArgumentException("capacity and stripes must be powers of two, stripes <= capacity: "
+                    + capacity + "/" + stripes);
+        }
+        if (alpha <= 0 || alpha >= 1) {
+            throw new IllegalArgumentException("alpha must be in (0, 1): " + alpha);
+        }
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe(capacity / stripes);
+        }
+        this.stripeShift = Long.SIZE - Integer.numberOfTrailingZeros(stripes);
+        this.alpha = alpha;
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * Оценивает наблюдение относительно накопленной статистики ряда и затем учитывает его.
+     *
+     * @param before если не null, получает среднее и стандартное отклонение до обновления
+     * @return |x - mean| / stddev или NaN, пока ряд прогревается или не имеет разброса
+     */
+    public double scoreAndUpdate(long key, double value, double[] before) {
+        if (key == EMPTY) {
+            key = 1;
+        }
+        final Stripe stripe = stripes.length == 1 ? stripes[0] : stripes[(int) (key >>> stripeShift)];
+        synchronized (stripe) {
+            final int slot = slot(stripe, key);
+            if (stripe.keys[slot] != key) {
+                if (stripe.keys[slot] == EMPTY) {
+                    stripe.size++;
+                } else {
+                    stripe.evictions++;
+                }
+                stripe.keys[slot] = key;
+                stripe.means[slot] = value;
+                stripe.variances[slot] = 0;
+                stripe.counts[slot] = 1;
+                return Double.NaN;
+            }
+
+            final double mean = stripe.means[slot];
+            final double variance = stripe.variances[slot];
+            final double stddev = Math.sqrt(variance);
+            final int count = stripe.counts[slot];
+            final double score = count >= minSamples && stddev > 1e-9 ? Math.abs(value - mean) / stddev : Double.NaN;
+            if (before != null) {
+                before[0] = mean;
+                before[1] = stddev;
+            }
+
+            final double diff = value - mean;
+            final double increment = alpha * diff;
+            stripe.means[slot] = mean + increment;
+            stripe.variances[slot] = (1 - alpha) * (variance + diff * increment);
+            if (count < Integer.MAX_VALUE) {
+                stripe.counts[slot] = count + 1;
+            }
+            return score;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    public long evictions() {
+        long evictions = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                evictions += stripe.evictions;
+            }
+        }
+        return evictions;
+    }
+
+    /**
+     * Слот ключа, свободный слот или слот с наименьшим числом наблюдений в окне пробирования
+     */
+    private static int slot(Stripe stripe, long key) {
+        int victim = -1;
+        for (int probe = 0; probe < MAX_PROBE && probe <= stripe.mask; probe++) {
+            final int slot = (int) (key + probe) & stripe.mask;
+            final long current = stripe.keys[slot];
+            if (current == key || current == EMPTY) {
+                return slot;
+            }
+            if (victim < 0 || stripe.counts[slot] < stripe.counts[victim]) {
+                victim = slot;
+            }
+        }
+        return victim;
+    }
+}
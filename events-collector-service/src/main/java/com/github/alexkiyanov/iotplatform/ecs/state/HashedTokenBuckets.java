@@ -0,0 +1,80 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free набор token bucket-ов фиксированного размера, адресуемых хэшом ключа.
+ * <p>
+ * Каждый bucket упакован в один long: старшие 40 бит - время последнего пополнения (мс от base + 1),
+ * младшие 24 бита - токены в тысячных долях. Память не зависит от числа устройств: ключи, попавшие
+ * в один слот, делят bucket, поэтому число слотов выбирается заметно больше числа активных устройств.
+ */
+public final class HashedTokenBuckets {
+    private static final int TOKEN_BITS = 24;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    private static final long MAX_TIME = (1L << (Long.SIZE - TOKEN_BITS)) - 1;
+    private static final long SCALE = 1000;
+
+    private final AtomicLongArray buckets;
+    private final int mask;
+    private final long capacity;
+    private final long refillPerMs;
+    private final long baseMs;
+
+    /**
+     * @param slots         число bucket-ов, степень двойки
+     * @param ratePerSecond скорость пополнения, токенов в секунду
+     * @param burst         емкость bucket-а, токенов
+     * @param baseMs        начало отсчета времени, мс
+     */
+    public HashedTokenBuckets(int slots, int ratePerSecond, int burst, long baseMs) {
+        if (slots <= 0 || Integer.bitCount(slots) != 1) {
+            throw new IllegalArgumentException("slots must be a positive power of two: " + slots);
+        }
+        if (ratePerSecond <= 0 || burst <= 0 || burst * SCALE > TOKEN_MASK) {
+            throw new IllegalArgumentException("rate must be positive and burst in (0, " + TOKEN_MASK / SCALE + "]");
+        }
+        this.buckets = new AtomicLongArray(slots);
+        this.mask = slots - 1;
+        this.capacity = burst * SCALE;
+        // ratePerSecond токенов/с = ratePerSecond тысячных долей токена в мс
+        this.refillPerMs = ratePerSecond;
+        this.baseMs = baseMs;
+    }
+
+    /**
+     * Забирает один токен из bucket-а ключа.
+     *
+     * @return false, если токенов не осталось
+     */
+    public boolean tryAcquire(String key, long nowMs) {
+        final int slot = index(key);
+        final long now = Math.min(MAX_TIME, Math.max(1, nowMs - baseMs + 1));
+        while (true) {
+            final long current = buckets.get(slot);
+            final long last = current >>> TOKEN_BITS;
+            long tokens = current == 0 ? capacity : current & TOKEN_MASK;
+            // Время не откатываем: события одного устройства могут прийти не по порядку
+            final long time = Math.max(now, last);
+            if (current != 0 && time > last) {
+                tokens = Math.min(capacity, tokens + (time - last) * refillPerMs);
+            }
+            final boolean allowed = tokens >= SCALE;
+            if (allowed) {
+                tokens -= SCALE;
+            }
+            if (buckets.compareAndSet(slot, current, (time << TOKEN_BITS) | tokens)) {
+                return allowed;
+            }
+        }
+    }
+
+    public int slots() {
+        return buckets.length();
+    }
+
+    private int index(String key) {
+        final int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
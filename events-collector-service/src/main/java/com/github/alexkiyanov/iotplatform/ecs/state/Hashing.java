@@ -0,0 +1,32 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+/**
+ * 64-битные хэши строк для вероятностных структур и таблиц без хранения ключей
+ */
+public final class Hashing {
+
+    private Hashing() {
+    }
+
+    public static long hash64(String key) {
+        // FNV-1a по символам и финализатор MurmurHash3 для лавинного эффекта в старших битах
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix64(h);
+    }
+
+    /**
+     * Финализатор MurmurHash3
+     */
+    public static long mix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
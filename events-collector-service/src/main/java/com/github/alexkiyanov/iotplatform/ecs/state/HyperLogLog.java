@@ -0,0 +1,115 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog: оценка числа различных ключей в 2^precision байт с относительной ошибкой ~1.04/sqrt(2^precision).
+ * <p>
+ * Скетчи с одинаковой точностью объединяются поразрядным максимумом регистров, поэтому
+ * скетчи разных инстансов и разных минут складываются без потерь точности.
+ * Класс не потокобезопасен, синхронизацию обеспечивает владелец.
+ */
+public final class HyperLogLog {
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be in [" + MIN_PRECISION + ", "
+                    + MAX_PRECISION + "]: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Восстанавливает скетч из регистров, полученных через {@link #toByteArray()}
+     */
+    public static HyperLogLog fromByteArray(byte[] registers) {
+        final int precision = Integer.numberOfTrailingZeros(registers.length);
+        if (registers.length != 1 << precision) {
+            throw new IllegalArgumentException("register count must be a power of two: " + registers.length);
+        }
+        final HyperLogLog sketch = new HyperLogLog(precision);
+        System.arraycopy(registers, 0, sketch.registers, 0, registers.length);
+        return sketch;
+    }
+
+    /**
+     * 64-битный хэш ключа, его можно посчитать один раз и добавить в несколько скетчей
+     */
+    public static long hash(String key) {
+        return Hashing.hash64(key);
+    }
+
+    public void add(String key) {
+        addHash(hash(key));
+    }
+
+    public void addHash(long hash) {
+        final int index = (int) (hash >>> (Long.SIZE - precision));
+        final int rank = Math.min(Long.SIZE - precision, Long.numberOfLeadingZeros(hash << precision)) + 1;
+        if (registers[index] < rank) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("cannot merge sketches with precision " + precision
+                    + " and " + other.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] < other.registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public long estimate() {
+        final int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        final double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // Linear counting для малых кардинальностей
+            return Math.round(m * Math.log((double) m / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    public boolean isEmpty() {
+        for (byte register : registers) {
+            if (register != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int precision() {
+        return precision;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(registers, registers.length);
+    }
+
+    private static double alpha(int m) {
+        return switch (m) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / m);
+        };
+    }
+}
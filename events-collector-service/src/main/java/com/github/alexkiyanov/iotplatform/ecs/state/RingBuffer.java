@@ -0,0 +1,68 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free кольцевой буфер с несколькими писателями и читателями по номеру последовательности.
+ * <p>
+ * Писатель захватывает номер через getAndIncrement и публикует слот вместе с номером, поэтому
+ * читатель отличает еще не записанный слот от уже перезаписанного. Медленный читатель не тормозит
+ * писателей: отставание больше емкости означает потерю событий, а не блокировку.
+ */
+public final class RingBuffer<T> {
+
+    private record Slot<T>(long sequence, T value) {
+    }
+
+    private final AtomicReferenceArray<Slot<T>> slots;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * @param capacity емкость, степень двойки
+     */
+    public RingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a positive power of two: " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Публикует значение и возвращает его номер
+     */
+    public long publish(T value) {
+        final long sequence = next.getAndIncrement();
+        slots.set((int) (sequence & mask), new Slot<>(sequence, value));
+        return sequence;
+    }
+
+    /**
+     * Номер, который получит следующее значение
+     */
+    public long claimed() {
+        return next.get();
+    }
+
+    /**
+     * @return значение с номером sequence или null, если оно еще не записано или уже перезаписано
+     */
+    public T get(long sequence) {
+        final Slot<T> slot = slots.get((int) (sequence & mask));
+        return slot != null && slot.sequence() == sequence ? slot.value() : null;
+    }
+
+    /**
+     * true, если слот sequence уже занят более новым значением
+     */
+    public boolean overwritten(long sequence) {
+        final Slot<T> slot = slots.get((int) (sequence & mask));
+        return slot != null && slot.sequence() > sequence;
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving: отслеживает не больше capacity самых частых ключей потока.
+ * <p>
+ * Новый ключ при заполненной таблице вытесняет ключ с минимальным счетчиком и наследует его значение
+ * как погрешность. Любой ключ с частотой больше total/capacity гарантированно остается в таблице.
+ * Минимум ищется через индексированную min-кучу, поэтому обновление стоит O(log capacity).
+ * Класс не потокобезопасен, синхронизацию обеспечивает владелец.
+ */
+public final class SpaceSavingTopK {
+
+    /**
+     * Отслеживаемый ключ: count - оценка сверху, count - error - гарантированная частота
+     */
+    public record Entry(String key, long count, long error) {
+    }
+
+    private static final class Slot {
+        private String key;
+        private long count;
+        private long error;
+        private int position;
+    }
+
+    private final Slot[] heap;
+    private final Map<String, Slot> index;
+    private int size;
+
+    public SpaceSavingTopK(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.heap = new Slot[capacity];
+        this.index = new HashMap<>(capacity * 2);
+    }
+
+    public void add(String key, long count) {
+        Slot slot = index.get(key);
+        if (slot != null) {
+            slot.count += count;
+            siftDown(slot.position);
+            return;
+        }
+        if (size < heap.length) {
+            slot = new Slot();
+            slot.key = key;
+            slot.count = count;
+            slot.position = size;
+            heap[size++] = slot;
+            index.put(key, slot);
+            siftUp(slot.position);
+            return;
+        }
+        // Вытесняем минимальный ключ, его счетчик становится погрешностью нового
+        slot = heap[0];
+        index.remove(slot.key);
+        slot.key = key;
+        slot.error = slot.count;
+        slot.count += count;
+        index.put(key, slot);
+        siftDown(0);
+    }
+
+    /**
+     * Возвращает до limit ключей по убыванию счетчика
+     */
+    public List<Entry> top(int limit) {
+        final List<Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new Entry(heap[i].key, heap[i].count, heap[i].error));
+        }
+        entries.sort(Comparator.comparingLong(Entry::count).reversed());
+        return entries.size() > limit ? new ArrayList<>(entries.subList(0, limit)) : entries;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            heap[i] = null;
+        }
+        index.clear();
+        size = 0;
+    }
+
+    private void siftUp(int position) {
+        final Slot slot = heap[position];
+        while (position > 0) {
+            final int parent = (position - 1) >>> 1;
+            if (heap[parent].count <= slot.count) {
+                break;
+            }
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(slot, position);
+    }
+
+    private void siftDown(int position) {
+        final Slot slot = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (slot.count <= heap[child].count) {
+                break;
+            }
+            place(heap[child], position);
+            position = child;
+        }
+        place(slot, position);
+    }
+
+    private void place(Slot slot, int position) {
+        heap[position] = slot;
+        slot.position = position;
+    }
+}
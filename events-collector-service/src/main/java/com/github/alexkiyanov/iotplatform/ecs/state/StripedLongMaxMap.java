@@ -0,0 +1,145 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Компактная потокобезопасная map String -> long, хранящая максимум значений по ключу.
+ * <p>
+ * Open addressing на массивах без боксинга значений, разбита на сегменты со своими мониторами,
+ * чтобы потоки листенера не конкурировали за одну блокировку. {@link #drain} забирает
+ * накопленные пары и очищает map.
+ */
+public final class StripedLongMaxMap {
+    private static final int MIN_STRIPE_CAPACITY = 16;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int initialStripeCapacity;
+
+    public StripedLongMaxMap(int stripes, int expectedSize) {
+        if (stripes <= 0 || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("stripes must be a positive power of two: " + stripes);
+        }
+        this.stripes = new Stripe[stripes];
+        this.stripeMask = stripes - 1;
+        this.initialStripeCapacity = tableSizeFor(Math.max(MIN_STRIPE_CAPACITY, 2 * expectedSize / stripes));
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe(initialStripeCapacity);
+        }
+    }
+
+    /**
+     * Запоминает value, если оно больше уже сохраненного для key
+     */
+    public void accumulate(String key, long value) {
+        final int hash = spread(key.hashCode());
+        final Stripe stripe = stripes[hash & stripeMask];
+        synchronized (stripe) {
+            stripe.accumulate(key, hash, value);
+        }
+    }
+
+    /**
+     * Передает все пары в consumer и очищает map. Consumer вызывается вне блокировок.
+     *
+     * @return количество переданных пар
+     */
+    public int drain(ObjLongConsumer<String> consumer) {
+        int drained = 0;
+        for (Stripe stripe : stripes) {
+            final String[] keys;
+            final long[] values;
+            synchronized (stripe) {
+                if (stripe.size == 0) {
+                    continue;
+                }
+                keys = stripe.keys;
+                values = stripe.values;
+                stripe.reset(initialStripeCapacity);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    consumer.accept(keys[i], values[i]);
+                    drained++;
+                }
+            }
+        }
+        return drained;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        return Integer.highestOneBit(capacity - 1) << 1;
+    }
+
+    private static final class Stripe {
+        private String[] keys;
+        private long[] values;
+        private int size;
+
+        Stripe(int capacity) {
+            reset(capacity);
+        }
+
+        void reset(int capacity) {
+            this.keys = new String[capacity];
+            this.values = new long[capacity];
+            this.size = 0;
+        }
+
+        void accumulate(String key, int hash, long value) {
+            final int mask = keys.length - 1;
+            // Старшие биты хэша: младшие уже использованы для выбора сегмента
+            int index = (hash >>> 8) & mask;
+            while (true) {
+                final String existing = keys[index];
+                if (existing == null) {
+                    keys[index] = key;
+                    values[index] = value;
+                    if (++size * 2 > keys.length) {
+                        resize();
+                    }
+                    return;
+                }
+                if (existing.equals(key)) {
+                    if (value > values[index]) {
+                        values[index] = value;
+                    }
+                    return;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        private void resize() {
+            final String[] oldKeys = keys;
+            final long[] oldValues = values;
+            keys = new String[oldKeys.length * 2];
+            values = new long[oldKeys.length * 2];
+            final int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int index = (spread(oldKeys[i].hashCode()) >>> 8) & mask;
+                    while (keys[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+import java.util.Arrays;
+
+/**
+ * Множество 64-битных отпечатков за скользящее окно времени с ограниченной памятью.
+ * <p>
+ * Окно разбито на buckets интервалов, каждому соответствует своя таблица с открытой адресацией
+ * на long[]. Новые ключи пишутся в текущую таблицу, поиск идет по всем; по истечении интервала
+ * самая старая таблица очищается и становится текущей. Если текущая таблица заполнилась раньше,
+ * ротация происходит досрочно: память не растет, но окно для старых ключей сокращается.
+ * Таблицы разбиты на сегменты со своими мониторами по старшим битам ключа.
+ */
+public final class TimeBucketedLongSet {
+    private static final long EMPTY = 0;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final int buckets;
+    private final long bucketMs;
+
+    private static final class Stripe {
+        private final long[][] tables;
+        private final int[] sizes;
+        private final int mask;
+        private final int maxSize;
+        private int current;
+        private long bucketStart = Long.MIN_VALUE;
+        private long earlyRotations;
+
+        private Stripe(int buckets, int capacity) {
+            this.tables = new long[buckets][capacity];
+            this.sizes = new int[buckets];
+            this.mask = capacity - 1;
+            // Держим заполнение не выше 3/4, чтобы цепочки пробирования оставались короткими
+            this.maxSize = capacity - capacity / 4;
+        }
+    }
+
+    /**
+     * @param capacity емкость одного интервала по всем сегментам, степень двойки
+     * @param buckets  число интервалов в окне
+     * @param window   длина окна, мс
+     * @param stripes  число сегментов, степень двойки
+     */
+    public TimeBucketedLongSet(int capacity, int buckets, long window, int stripes) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1 || stripes <= 0 || Integer.bitCount(stripes) != 1
+                || capacity / stripes < 4) {
+            throw new IllegalArgumentException("capacity and stripes must be powers of two, capacity >= 4 * stripes: "
+                    + capacity + "/" + stripes);
+        }
+        if (buckets < 2 || window < buckets) {
+            throw new IllegalArgumentException("need at least 2 buckets of at least 1 ms: " + buckets + "/" + window);
+        }
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe(buckets, capacity / stripes);
+        }
+        this.stripeShift = Long.SIZE - Integer.numberOfTrailingZeros(stripes);
+        this.buckets = buckets;
+        this.bucketMs = window / buckets;
+    }
+
+    /**
+     * @return true, если ключ встречался в пределах окна
+     */
+    public boolean contains(long key, long nowMs) {
+        key = normalize(key);
+        final Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            rotate(stripe, nowMs);
+            for (long[] table : stripe.tables) {
+                if (find(table, stripe.mask, key) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Добавляет ключ в текущий интервал.
+     *
+     * @return false, если ключ уже был в окне
+     */
+    public boolean add(long key, long nowMs) {
+        key = normalize(key);
+        final Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            rotate(stripe, nowMs);
+            for (long[] table : stripe.tables) {
+                if (find(table, stripe.mask, key) >= 0) {
+                    return false;
+                }
+            }
+            if (stripe.sizes[stripe.current] >= stripe.maxSize) {
+                advance(stripe);
+                stripe.bucketStart = nowMs;
+                stripe.earlyRotations++;
+            }
+            final long[] table = stripe.tables[stripe.current];
+            table[-find(table, stripe.mask, key) - 1] = key;
+            stripe.sizes[stripe.current]++;
+            return true;
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (int bucketSize : stripe.sizes) {
+                    size += bucketSize;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Число досрочных ротаций из-за переполнения интервала
+     */
+    public long earlyRotations() {
+        long rotations = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                rotations += stripe.earlyRotations;
+            }
+        }
+        return rotations;
+    }
+
+    private void rotate(Stripe stripe, long nowMs) {
+        if (stripe.bucketStart == Long.MIN_VALUE) {
+            stripe.bucketStart = nowMs;
+            return;
+        }
+        final long elapsed = (nowMs - stripe.bucketStart) / bucketMs;
+        if (elapsed <= 0) {
+            return;
+        }
+        for (long i = 0; i < Math.min(elapsed, buckets); i++) {
+            advance(stripe);
+        }
+        stripe.bucketStart += elapsed * bucketMs;
+    }
+
+    private static void advance(Stripe stripe) {
+        stripe.current = (stripe.current + 1) % stripe.tables.length;
+        if (stripe.sizes[stripe.current] > 0) {
+            Arrays.fill(stripe.tables[stripe.current], EMPTY);
+            stripe.sizes[stripe.current] = 0;
+        }
+    }
+
+    /**
+     * @return индекс ключа или -(индекс свободного слота) - 1
+     */
+    private static int find(long[] table, int mask, long key) {
+        int slot = (int) Hashing.mix64(key) & mask;
+        while (true) {
+            final long current = table[slot];
+            if (current == key) {
+                return slot;
+            }
+            if (current == EMPTY) {
+                return -slot - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private Stripe stripe(long key) {
+        return stripes.length == 1 ? stripes[0] : stripes[(int) (key >>> stripeShift)];
+    }
+
+    private static long normalize(long key) {
+        return key == EMPTY ? 1 : key;
+    }
+}
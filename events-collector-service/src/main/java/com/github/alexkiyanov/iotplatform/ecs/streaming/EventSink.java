@@ -0,0 +1,20 @@
+package com.github.alexkiyanov.iotplatform.ecs.streaming;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+
+import java.io.IOException;
+
+/**
+ * Канал доставки событий одному подписчику. Ошибка отправки закрывает подписку.
+ */
+public interface EventSink {
+
+    void send(DeviceEvent event) throws IOException;
+
+    /**
+     * Сообщает подписчику, что count событий отброшено из-за переполнения его очереди
+     */
+    void dropped(long count) throws IOException;
+
+    void close();
+}
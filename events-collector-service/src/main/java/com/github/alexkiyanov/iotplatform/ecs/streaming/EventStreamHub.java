@@ -0,0 +1,206 @@
+package com.github.alexkiyanov.iotplatform.ecs.streaming;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.IngestStage;
+import com.github.alexkiyanov.iotplatform.ecs.state.RingBuffer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Раздает сохраненные события подключенным подписчикам.
+ * <p>
+ * Потоки листенера только публикуют события в lock-free {@link RingBuffer} и будят диспетчер.
+ * Один поток-диспетчер читает кольцо и раскладывает события по очередям подходящих подписчиков,
+ * а общий небольшой пул отправителей опустошает очереди. Отдельных потоков на подписчика нет;
+ * медленный клиент теряет события своей очереди, не задерживая листенер и других подписчиков.
+ */
+@Component
+@Order(130)
+@ConditionalOnProperty(name = "app.streaming.enabled", havingValue = "true", matchIfMissing = true)
+public class EventStreamHub implements IngestStage {
+    private static final Logger log = LoggerFactory.getLogger(EventStreamHub.class);
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final int SEND_BATCH = 256;
+
+    private final RingBuffer<DeviceEvent> ring;
+    private final int queueSize;
+    private final int maxSubscribers;
+    private final int senderThreads;
+    private final List<StreamSubscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final Counter sentCounter;
+    private final Counter droppedCounter;
+    private final Counter lostCounter;
+
+    private ExecutorService senders;
+    private Thread dispatcher;
+    private volatile boolean running;
+
+    public EventStreamHub(@Value("${app.streaming.ring-size:65536}") int ringSize,
+                          @Value("${app.streaming.queue-size:1024}") int queueSize,
+                          @Value("${app.streaming.max-subscribers:100}") int maxSubscribers,
+                          @Value("${app.streaming.sender-threads:4}") int senderThreads,
+                          MeterRegistry meterRegistry) {
+        this.ring = new RingBuffer<>(ringSize);
+        this.queueSize = queueSize;
+        this.maxSubscribers = maxSubscribers;
+        this.senderThreads = senderThreads;
+        this.sentCounter = Counter.builder("ecs.stream.events.sent.total")
+                .description("Events pushed to stream subscribers")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("ecs.stream.events.dropped.total")
+                .description("Events dropped because a subscriber queue was full")
+                .register(meterRegistry);
+        this.lostCounter = Counter.builder("ecs.stream.events.lost.total")
+                .description("Events overwritten in the ring before the dispatcher read them")
+                .register(meterRegistry);
+        Gauge.builder("ecs.stream.subscribers", subscribers, List::size)
+                .description("Connected stream subscribers")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        final AtomicInteger senderIndex = new AtomicInteger();
+        senders = Executors.newFixedThreadPool(senderThreads,
+                Thread.ofPlatform().daemon().name("ecs-stream-sender-", senderIndex.getAndIncrement()).factory());
+        running = true;
+        // Позицию фиксируем до старта потока, иначе события, опубликованные до его запуска, пропадут
+        final long from = ring.claimed();
+        dispatcher = Thread.ofPlatform().daemon().name("ecs-stream-dispatcher").start(() -> dispatch(from));
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (dispatcher != null) {
+            LockSupport.unpark(dispatcher);
+        }
+        if (senders != null) {
+            senders.shutdownNow();
+        }
+        subscribers.forEach(StreamSubscriber::close);
+        subscribers.clear();
+    }
+
+    /**
+     * @return подписчик или null, если достигнут лимит подписчиков
+     */
+    public StreamSubscriber subscribe(Set<String> deviceIds, Set<String> types, EventSink sink) {
+        synchronized (subscribers) {
+            if (subscribers.size() >= maxSubscribers) {
+                return null;
+            }
+            final StreamSubscriber subscriber = new StreamSubscriber(UUID.randomUUID().toString(),
+                    deviceIds, types, queueSize, sink);
+            subscribers.add(subscriber);
+            log.debug("Stream subscriber {} connected: devices={}, types={}", subscriber.id(), deviceIds, types);
+            return subscriber;
+        }
+    }
+
+    public void unsubscribe(StreamSubscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            log.debug("Stream subscriber {} disconnected", subscriber.id());
+        }
+    }
+
+    @Override
+    public void afterSave(List<DeviceEvent> events) {
+        // Без подписчиков стадия ничего не стоит
+        if (subscribers.isEmpty() || events.isEmpty()) {
+            return;
+        }
+        for (DeviceEvent event : events) {
+            ring.publish(event);
+        }
+        LockSupport.unpark(dispatcher);
+    }
+
+    private void dispatch(long from) {
+        long next = from;
+        while (running) {
+            final long claimed = ring.claimed();
+            if (next == claimed) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            if (claimed - next > ring.capacity()) {
+                lostCounter.increment(claimed - next - ring.capacity());
+                next = claimed - ring.capacity();
+            }
+            while (next < claimed) {
+                final DeviceEvent event = ring.get(next);
+                if (event == null) {
+                    if (!ring.overwritten(next)) {
+                        // Писатель захватил номер, но еще не записал слот
+                        Thread.onSpinWait();
+                        break;
+                    }
+                    lostCounter.increment();
+                } else {
+                    fanOut(event);
+                }
+                next++;
+            }
+        }
+    }
+
+    private void fanOut(DeviceEvent event) {
+        for (StreamSubscriber subscriber : subscribers) {
+            if (subscriber.matches(event)) {
+                if (!subscriber.offer(event)) {
+                    droppedCounter.increment();
+                }
+                schedule(subscriber);
+            }
+        }
+    }
+
+    private void schedule(StreamSubscriber subscriber) {
+        if (subscriber.scheduled.compareAndSet(false, true)) {
+            try {
+                senders.execute(() -> send(subscriber));
+            } catch (RejectedExecutionException e) {
+                subscriber.scheduled.set(false);
+            }
+        }
+    }
+
+    private void send(StreamSubscriber subscriber) {
+        try {
+            sentCounter.increment(subscriber.drain(SEND_BATCH));
+        } catch (IOException | RuntimeException e) {
+            log.debug("Stream subscriber {} failed, closing: {}", subscriber.id(), e.getMessage());
+            unsubscribe(subscriber);
+            subscriber.close();
+            return;
+        } finally {
+            subscriber.scheduled.set(false);
+        }
+        if (running && subscriber.hasPending() && subscribers.contains(subscriber)) {
+            schedule(subscriber);
+        }
+    }
+}
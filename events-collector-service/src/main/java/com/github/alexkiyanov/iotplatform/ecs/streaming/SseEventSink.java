@@ -0,0 +1,46 @@
+package com.github.alexkiyanov.iotplatform.ecs.streaming;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Доставка через Server-Sent Events: событие "event" с JSON события и "dropped" с числом потерянных
+ */
+public class SseEventSink implements EventSink {
+
+    /**
+     * Представление события для клиента: Avro-класс не сериализуется Jackson-ом напрямую
+     */
+    public record StreamedEvent(String deviceId, String type, long createdAt, String meta) {
+    }
+
+    private final SseEmitter emitter;
+
+    public SseEventSink(SseEmitter emitter) {
+        this.emitter = emitter;
+    }
+
+    @Override
+    public void send(DeviceEvent event) throws IOException {
+        emitter.send(SseEmitter.event()
+                .name("event")
+                .data(new StreamedEvent(event.getDeviceId(), event.getDeviceType(), event.getCreatedAt(),
+                        event.getMeta()), MediaType.APPLICATION_JSON));
+    }
+
+    @Override
+    public void dropped(long count) throws IOException {
+        emitter.send(SseEmitter.event()
+                .name("dropped")
+                .data(Map.of("count", count), MediaType.APPLICATION_JSON));
+    }
+
+    @Override
+    public void close() {
+        emitter.complete();
+    }
+}
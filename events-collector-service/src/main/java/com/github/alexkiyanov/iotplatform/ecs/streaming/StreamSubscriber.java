@@ -0,0 +1,101 @@
+package com.github.alexkiyanov.iotplatform.ecs.streaming;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Подписчик потока событий с фильтром по устройствам и типам и ограниченной очередью.
+ * <p>
+ * Очередь - single-producer/single-consumer кольцо: пишет только поток-диспетчер, читает только
+ * задача отправки, которая для подписчика выполняется не больше чем в одном потоке одновременно
+ * (флаг {@link #scheduled}). При переполнении новые события отбрасываются и считаются.
+ */
+public final class StreamSubscriber {
+    private final String id;
+    private final Set<String> deviceIds;
+    private final Set<String> types;
+    private final EventSink sink;
+    private final DeviceEvent[] queue;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * @param deviceIds  устройства или пустое множество для всех
+     * @param types      типы событий или пустое множество для всех
+     * @param queueSize  емкость очереди, степень двойки
+     */
+    public StreamSubscriber(String id, Set<String> deviceIds, Set<String> types, int queueSize, EventSink sink) {
+        if (queueSize <= 0 || Integer.bitCount(queueSize) != 1) {
+            throw new IllegalArgumentException("queueSize must be a positive power of two: " + queueSize);
+        }
+        this.id = id;
+        this.deviceIds = Set.copyOf(deviceIds);
+        this.types = Set.copyOf(types);
+        this.sink = sink;
+        this.queue = new DeviceEvent[queueSize];
+        this.mask = queueSize - 1;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public boolean matches(DeviceEvent event) {
+        return (deviceIds.isEmpty() || deviceIds.contains(event.getDeviceId()))
+                && (types.isEmpty() || types.contains(event.getDeviceType()));
+    }
+
+    /**
+     * Вызывается только потоком-диспетчером
+     *
+     * @return false, если очередь переполнена и событие отброшено
+     */
+    boolean offer(DeviceEvent event) {
+        final long t = tail.get();
+        if (t - head.get() == queue.length) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        queue[(int) (t & mask)] = event;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Отправляет до max событий из очереди. Вызывается только задачей отправки.
+     *
+     * @return число отправленных событий
+     */
+    int drain(int max) throws IOException {
+        final long droppedCount = dropped.getAndSet(0);
+        if (droppedCount > 0) {
+            sink.dropped(droppedCount);
+        }
+        int sent = 0;
+        long h = head.get();
+        while (sent < max && h != tail.get()) {
+            final int index = (int) (h & mask);
+            final DeviceEvent event = queue[index];
+            queue[index] = null;
+            head.lazySet(++h);
+            sink.send(event);
+            sent++;
+        }
+        return sent;
+    }
+
+    boolean hasPending() {
+        return head.get() != tail.get() || dropped.get() > 0;
+    }
+
+    void close() {
+        sink.close();
+    }
+}
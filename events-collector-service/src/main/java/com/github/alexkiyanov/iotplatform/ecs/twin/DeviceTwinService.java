@@ -0,0 +1,88 @@
+package com.github.alexkiyanov.iotplatform.ecs.twin;
+
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceEventEntity;
+import com.github.alexkiyanov.iotplatform.ecs.repository.DeviceEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Состояние устройства для API. Twin содержит только устройства партиций этого инстанса: если устройство
+ * не обновлялось здесь за live-ms (другой инстанс, восстановлено из снапшота, партиция ушла при ребалансе),
+ * состояние дополняется последними fallback-scan-limit событиями из device_events_by_device.
+ */
+@Service
+@ConditionalOnProperty(name = "app.twin.enabled", havingValue = "true", matchIfMissing = true)
+public class DeviceTwinService {
+    private static final Logger log = LoggerFactory.getLogger(DeviceTwinService.class);
+
+    private final DeviceTwinStore store;
+    private final DeviceEventRepository repository;
+    private final long liveMs;
+    private final int scanLimit;
+    private final Counter fallbackCounter;
+
+    public DeviceTwinService(DeviceTwinStage stage,
+                             DeviceEventRepository repository,
+                             @Value("${app.twin.live-ms:300000}") long liveMs,
+                             @Value("${app.twin.fallback-scan-limit:200}") int scanLimit,
+                             MeterRegistry meterRegistry) {
+        this.store = stage.store();
+        this.repository = repository;
+        this.liveMs = liveMs;
+        this.scanLimit = Math.max(1, scanLimit);
+        this.fallbackCounter = Counter.builder("ecs.twin.fallback.reads.total")
+                .description("Device state requests served from Cassandra because the twin is not live")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return последние события устройства по типам или пустой список, если событий нет
+     */
+    public List<DeviceTwinStore.State> state(String deviceId) {
+        final List<DeviceTwinStore.State> states = store.get(deviceId);
+        if (store.liveAt(deviceId) >= System.currentTimeMillis() - liveMs) {
+            return states;
+        }
+        fallbackCounter.increment();
+        final List<DeviceEventEntity> recent;
+        try {
+            recent = repository.findRecent(deviceId, scanLimit);
+        } catch (RuntimeException e) {
+            if (states.isEmpty()) {
+                throw e;
+            }
+            log.warn("Falling back to twin state of device {}, Cassandra read failed: {}", deviceId, e.getMessage());
+            return states;
+        }
+        final Map<String, DeviceTwinStore.State> latest = new LinkedHashMap<>();
+        states.forEach(state -> latest.put(state.type(), state));
+        for (DeviceEventEntity entity : recent) {
+            if (entity.getType() == null || entity.getTimestamp() == null) {
+                continue;
+            }
+            latest.merge(entity.getType(),
+                    new DeviceTwinStore.State(entity.getType(), entity.getTimestamp(), entity.getPayload()),
+                    (current, stored) -> stored.createdAt() > current.createdAt() ? stored : current);
+        }
+        return new ArrayList<>(latest.values());
+    }
+
+    public DeviceTwinStore.State state(String deviceId, String type) {
+        for (DeviceTwinStore.State state : state(deviceId)) {
+            if (state.type().equals(type)) {
+                return state;
+            }
+        }
+        return null;
+    }
+}
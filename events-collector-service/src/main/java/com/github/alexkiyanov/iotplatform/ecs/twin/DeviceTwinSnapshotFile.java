@@ -0,0 +1,292 @@
+package com.github.alexkiyanov.iotplatform.ecs.twin;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Снапшот {@link DeviceTwinStore} в локальном файле, отображенном в память.
+ * <p>
+ * Формат: заголовок (magic, версия, время снапшота), справочник типов, записи устройств с префиксом
+ * длины и CRC32 всего содержимого в конце. Файл пишется во временный и атомарно переименовывается,
+ * поэтому падение во время записи оставляет предыдущий снапшот целым. Отображение идет окнами
+ * (по умолчанию {@link #REGION_SIZE}), так что размер снапшота не ограничен 2 ГБ одного MappedByteBuffer.
+ */
+public final class DeviceTwinSnapshotFile {
+    static final int MAGIC = 0x54574E31;
+    static final int VERSION = 1;
+    static final int REGION_SIZE = 64 * 1024 * 1024;
+
+    private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES;
+
+    private final Path path;
+    private final int regionSize;
+
+    public DeviceTwinSnapshotFile(Path path) {
+        this(path, REGION_SIZE);
+    }
+
+    DeviceTwinSnapshotFile(Path path, int regionSize) {
+        this.path = path;
+        this.regionSize = regionSize;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * Записывает снапшот и возвращает его размер в байтах
+     */
+    public long write(List<DeviceTwinStore.DeviceStates> devices, long takenAt) throws IOException {
+        final Map<String, Short> typeIds = new HashMap<>();
+        final List<String> types = new ArrayList<>();
+        for (DeviceTwinStore.DeviceStates device : devices) {
+            for (DeviceTwinStore.State state : device.states()) {
+                if (!typeIds.containsKey(state.type())) {
+                    typeIds.put(state.type(), (short) types.size());
+                    types.add(state.type());
+                }
+            }
+        }
+
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        final CRC32 crc = new CRC32();
+        final long size;
+        try (MappedWriter writer = new MappedWriter(regionSize, FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE))) {
+            ByteBuffer scratch = ByteBuffer.allocate(4096);
+            scratch.putInt(MAGIC).putInt(VERSION).putLong(takenAt).putInt(types.size());
+            for (String type : types) {
+                scratch = putString(scratch, type);
+            }
+            scratch = ensure(scratch, Integer.BYTES);
+            scratch.putInt(devices.size());
+            writer.put(scratch, crc);
+
+            for (DeviceTwinStore.DeviceStates device : devices) {
+                scratch.clear();
+                scratch.putInt(0);
+                scratch = putString(scratch, device.deviceId());
+                scratch = ensure(scratch, Short.BYTES);
+                scratch.putShort((short) device.states().size());
+                for (DeviceTwinStore.State state : device.states()) {
+                    final byte[] meta = state.meta() == null ? null : state.meta().getBytes(StandardCharsets.UTF_8);
+                    scratch = ensure(scratch, Short.BYTES + Long.BYTES + Integer.BYTES + (meta == null ? 0 : meta.length));
+                    scratch.putShort(typeIds.get(state.type())).putLong(state.createdAt());
+                    if (meta == null) {
+                        scratch.putInt(-1);
+                    } else {
+                        scratch.putInt(meta.length).put(meta);
+                    }
+                }
+                scratch.putInt(0, scratch.position() - Integer.BYTES);
+                writer.put(scratch, crc);
+            }
+            writer.putLong(crc.getValue());
+            size = writer.position();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    /**
+     * Загружает снапшот в store.
+     *
+     * @return число восстановленных устройств или -1, если снапшота нет
+     * @throws IOException если файл поврежден или записан другой версией
+     */
+    public int read(DeviceTwinStore store) throws IOException {
+        if (!Files.exists(path)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            verifyChecksum(channel, regionSize);
+            final MappedReader reader = new MappedReader(regionSize, channel, channel.size() - Long.BYTES);
+            final ByteBuffer header = reader.read(HEADER_SIZE + Integer.BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Unsupported device twin snapshot format: " + path);
+            }
+            header.getLong();
+            final String[] types = new String[header.getInt()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = readString(reader);
+            }
+            final int deviceCount = reader.read(Integer.BYTES).getInt();
+            for (int d = 0; d < deviceCount; d++) {
+                final ByteBuffer record = reader.read(reader.read(Integer.BYTES).getInt());
+                final String deviceId = getString(record);
+                final int states = record.getShort();
+                for (int s = 0; s < states; s++) {
+                    final String type = types[record.getShort()];
+                    final long createdAt = record.getLong();
+                    final int metaLength = record.getInt();
+                    String meta = null;
+                    if (metaLength >= 0) {
+                        meta = new String(record.array(), record.arrayOffset() + record.position(), metaLength,
+                                StandardCharsets.UTF_8);
+                        record.position(record.position() + metaLength);
+                    }
+                    store.update(deviceId, type, createdAt, meta);
+                }
+            }
+            return deviceCount;
+        }
+    }
+
+    private static void verifyChecksum(FileChannel channel, int regionSize) throws IOException {
+        final long payloadSize = channel.size() - Long.BYTES;
+        if (payloadSize < HEADER_SIZE) {
+            throw new IOException("Device twin snapshot is truncated");
+        }
+        final CRC32 crc = new CRC32();
+        for (long position = 0; position < payloadSize; position += regionSize) {
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(regionSize, payloadSize - position)));
+        }
+        final long expected = channel.map(FileChannel.MapMode.READ_ONLY, payloadSize, Long.BYTES).getLong();
+        if (crc.getValue() != expected) {
+            throw new IOException("Device twin snapshot checksum mismatch");
+        }
+    }
+
+    private static ByteBuffer putString(ByteBuffer buffer, String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer target = ensure(buffer, Short.BYTES + bytes.length);
+        target.putShort((short) bytes.length).put(bytes);
+        return target;
+    }
+
+    private static String readString(MappedReader reader) throws IOException {
+        final int length = Short.toUnsignedInt(reader.read(Short.BYTES).getShort());
+        final ByteBuffer bytes = reader.read(length);
+        return new String(bytes.array(), 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        final int length = Short.toUnsignedInt(buffer.getShort());
+        final String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        final ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        return grown.put(buffer);
+    }
+
+    /**
+     * Последовательная запись через окна отображения, файл дорастает по мере записи
+     */
+    private static final class MappedWriter implements Closeable {
+        private final int regionSize;
+        private final FileChannel channel;
+        private MappedByteBuffer region;
+        private long regionStart;
+
+        private MappedWriter(int regionSize, FileChannel channel) {
+            this.regionSize = regionSize;
+            this.channel = channel;
+        }
+
+        void put(ByteBuffer scratch, CRC32 crc) throws IOException {
+            scratch.flip();
+            crc.update(scratch.array(), 0, scratch.limit());
+            ensure(scratch.limit());
+            region.put(scratch);
+            scratch.clear();
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            region.putLong(value);
+        }
+
+        long position() {
+            return region == null ? 0 : regionStart + region.position();
+        }
+
+        private void ensure(int needed) throws IOException {
+            if (region != null && region.remaining() >= needed) {
+                return;
+            }
+            final long start = position();
+            if (region != null) {
+                region.force();
+            }
+            region = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.max(needed, regionSize));
+            regionStart = start;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (region != null) {
+                    region.force();
+                }
+                channel.truncate(position());
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Последовательное чтение через окна отображения до границы limit
+     */
+    private static final class MappedReader {
+        private final int regionSize;
+        private final FileChannel channel;
+        private final long limit;
+        private MappedByteBuffer region;
+        private long regionStart;
+
+        private MappedReader(int regionSize, FileChannel channel, long limit) {
+            this.regionSize = regionSize;
+            this.channel = channel;
+            this.limit = limit;
+        }
+
+        /**
+         * Копирует length байт в heap-буфер, готовый к чтению
+         */
+        ByteBuffer read(int length) throws IOException {
+            if (length < 0) {
+                throw new IOException("Negative record length in device twin snapshot");
+            }
+            if (region == null || region.remaining() < length) {
+                final long start = region == null ? 0 : regionStart + region.position();
+                if (start + length > limit) {
+                    throw new EOFException("Device twin snapshot is truncated");
+                }
+                region = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(limit - start, Math.max(length, regionSize)));
+                regionStart = start;
+            }
+            final byte[] bytes = new byte[length];
+            region.get(bytes);
+            return ByteBuffer.wrap(bytes);
+        }
+    }
+}
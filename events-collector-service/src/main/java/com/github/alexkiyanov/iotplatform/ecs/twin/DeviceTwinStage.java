@@ -0,0 +1,120 @@
+package com.github.alexkiyanov.iotplatform.ecs.twin;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.IngestStage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Поддерживает device twin - последнее событие каждого типа по устройству - для чтения без Cassandra.
+ * <p>
+ * Состояние восстанавливается из локального снапшота до старта листенеров и сохраняется периодически
+ * и при остановке. После аварийного завершения теряются обновления с последнего снапшота: устройство
+ * вернется в актуальное состояние со следующим событием.
+ */
+@Component
+@Order(120)
+@ConditionalOnProperty(name = "app.twin.enabled", havingValue = "true", matchIfMissing = true)
+public class DeviceTwinStage implements IngestStage {
+    private static final Logger log = LoggerFactory.getLogger(DeviceTwinStage.class);
+
+    private final DeviceTwinStore store;
+    private final DeviceTwinSnapshotFile snapshotFile;
+    private final AtomicLong updates = new AtomicLong();
+    private final Timer snapshotTimer;
+    private final Counter snapshotFailuresCounter;
+    private long snapshotUpdates;
+
+    public DeviceTwinStage(@Value("${app.twin.expected-devices:100000}") int expectedDevices,
+                           @Value("${app.twin.snapshot-path}") String snapshotPath,
+                           MeterRegistry meterRegistry) {
+        this.store = new DeviceTwinStore(expectedDevices);
+        this.snapshotFile = new DeviceTwinSnapshotFile(Path.of(snapshotPath));
+        this.snapshotTimer = Timer.builder("ecs.twin.snapshot.duration")
+                .description("Time to write the device twin snapshot")
+                .register(meterRegistry);
+        this.snapshotFailuresCounter = Counter.builder("ecs.twin.snapshot.failures.total")
+                .description("Failed device twin snapshot writes")
+                .register(meterRegistry);
+        Gauge.builder("ecs.twin.devices", store, DeviceTwinStore::size)
+                .description("Devices in the device twin")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void restore() {
+        final long started = System.nanoTime();
+        try {
+            final int devices = snapshotFile.read(store);
+            if (devices >= 0) {
+                log.info("Restored device twin for {} devices from {} in {} ms", devices, snapshotFile.path(),
+                        (System.nanoTime() - started) / 1_000_000);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Device twin snapshot {} is not usable, starting empty: {}", snapshotFile.path(), e.getMessage());
+        }
+    }
+
+    @Override
+    public void afterSave(List<DeviceEvent> events) {
+        int updated = 0;
+        final long now = System.currentTimeMillis();
+        for (DeviceEvent event : events) {
+            if (event.getDeviceId() != null && event.getDeviceType() != null
+                    && store.update(event.getDeviceId(), event.getDeviceType(), event.getCreatedAt(), event.getMeta(), now)) {
+                updated++;
+            }
+        }
+        if (updated > 0) {
+            updates.addAndGet(updated);
+        }
+    }
+
+    /**
+     * Пишет снапшот, если с прошлого были изменения
+     */
+    @Scheduled(fixedDelayString = "${app.twin.snapshot-interval-ms:60000}",
+            initialDelayString = "${app.twin.snapshot-interval-ms:60000}")
+    public synchronized void snapshot() {
+        final long current = updates.get();
+        if (current == snapshotUpdates) {
+            return;
+        }
+        final Timer.Sample sample = Timer.start();
+        try {
+            final List<DeviceTwinStore.DeviceStates> devices = store.copy();
+            final long bytes = snapshotFile.write(devices, System.currentTimeMillis());
+            snapshotUpdates = current;
+            final long nanos = sample.stop(snapshotTimer);
+            log.debug("Device twin snapshot: {} devices, {} bytes in {} ms", devices.size(), bytes, nanos / 1_000_000);
+        } catch (IOException | RuntimeException e) {
+            snapshotFailuresCounter.increment();
+            log.error("Failed to write device twin snapshot {}: {}", snapshotFile.path(), e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        snapshot();
+    }
+
+    public DeviceTwinStore store() {
+        return store;
+    }
+}
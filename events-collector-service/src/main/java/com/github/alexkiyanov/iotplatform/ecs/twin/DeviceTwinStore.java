@@ -0,0 +1,162 @@
+package com.github.alexkiyanov.iotplatform.ecs.twin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Последнее событие каждого типа по каждому устройству.
+ * <p>
+ * Типы событий кодируются номером в общем справочнике, а состояние устройства хранится в параллельных
+ * массивах без объекта на событие: на пару (устройство, тип) приходятся short, long и ссылка на meta.
+ * Обновление применяется, только если событие не старше сохраненного, поэтому порядок прихода не важен.
+ * Для каждого устройства хранится время последнего живого обновления (по времени обработки): состояние,
+ * восстановленное из снапшота или давно не обновлявшееся, может принадлежать партиции другого инстанса.
+ */
+public final class DeviceTwinStore {
+
+    /**
+     * Последнее событие типа type
+     */
+    public record State(String type, long createdAt, String meta) {
+    }
+
+    /**
+     * Копия состояния одного устройства для снапшота
+     */
+    public record DeviceStates(String deviceId, List<State> states) {
+    }
+
+    private static final class Twin {
+        private short[] typeIds = new short[2];
+        private long[] createdAt = new long[2];
+        private String[] meta = new String[2];
+        private int size;
+        private long liveAt;
+
+        synchronized boolean update(short typeId, long eventCreatedAt, String eventMeta, long updatedAt) {
+            liveAt = Math.max(liveAt, updatedAt);
+            for (int i = 0; i < size; i++) {
+                if (typeIds[i] == typeId) {
+                    if (eventCreatedAt < createdAt[i]) {
+                        return false;
+                    }
+                    createdAt[i] = eventCreatedAt;
+                    meta[i] = eventMeta;
+                    return true;
+                }
+            }
+            if (size == typeIds.length) {
+                typeIds = Arrays.copyOf(typeIds, size * 2);
+                createdAt = Arrays.copyOf(createdAt, size * 2);
+                meta = Arrays.copyOf(meta, size * 2);
+            }
+            typeIds[size] = typeId;
+            createdAt[size] = eventCreatedAt;
+            meta[size] = eventMeta;
+            size++;
+            return true;
+        }
+
+        synchronized List<State> states(List<String> types) {
+            final List<State> states = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                states.add(new State(types.get(typeIds[i]), createdAt[i], meta[i]));
+            }
+            return states;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Twin> twins;
+    private final Map<String, Short> typeIds = new ConcurrentHashMap<>();
+    private final List<String> types = new CopyOnWriteArrayList<>();
+
+    public DeviceTwinStore(int expectedDevices) {
+        this.twins = new ConcurrentHashMap<>(expectedDevices);
+    }
+
+    /**
+     * Обновление без отметки живого состояния - для восстановления из снапшота
+     */
+    public boolean update(String deviceId, String type, long createdAt, String meta) {
+        return update(deviceId, type, createdAt, meta, 0);
+    }
+
+    /**
+     * @param updatedAt время обработки события, мс
+     * @return false, если событие старше сохраненного или справочник типов переполнен
+     */
+    public boolean update(String deviceId, String type, long createdAt, String meta, long updatedAt) {
+        final Short typeId = typeId(type);
+        if (typeId == null) {
+            return false;
+        }
+        return twins.computeIfAbsent(deviceId, id -> new Twin()).update(typeId, createdAt, meta, updatedAt);
+    }
+
+    /**
+     * @return время последнего живого обновления устройства, 0 - только из снапшота или не встречалось
+     */
+    public long liveAt(String deviceId) {
+        final Twin twin = twins.get(deviceId);
+        if (twin == null) {
+            return 0;
+        }
+        synchronized (twin) {
+            return twin.liveAt;
+        }
+    }
+
+    /**
+     * @return последние события устройства по типам или пустой список, если устройство не встречалось
+     */
+    public List<State> get(String deviceId) {
+        final Twin twin = twins.get(deviceId);
+        return twin == null ? List.of() : twin.states(types);
+    }
+
+    public State get(String deviceId, String type) {
+        for (State state : get(deviceId)) {
+            if (state.type().equals(type)) {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return twins.size();
+    }
+
+    /**
+     * Копирует состояние всех устройств. Каждое устройство копируется атомарно, весь набор - нет.
+     */
+    public List<DeviceStates> copy() {
+        final List<DeviceStates> copy = new ArrayList<>(twins.size());
+        twins.forEach((deviceId, twin) -> copy.add(new DeviceStates(deviceId, twin.states(types))));
+        return copy;
+    }
+
+    private Short typeId(String type) {
+        final Short existing = typeIds.get(type);
+        if (existing != null) {
+            return existing;
+        }
+        synchronized (types) {
+            final Short raced = typeIds.get(type);
+            if (raced != null) {
+                return raced;
+            }
+            if (types.size() > Short.MAX_VALUE) {
+                return null;
+            }
+            final short id = (short) types.size();
+            types.add(type);
+            typeIds.put(type, id);
+            return id;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.alexkiyanov.iotplatform.ecs.typeindex;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Читает события типа за окно из device_events_by_type, параллельно опрашивая партиции
+ * (интервал, шард) асинхронным драйвером.
+ * <p>
+ * Интервалы обходятся от новых к старым волнами по parallelism запросов; как только набран limit,
+ * более старые интервалы не читаются - их события заведомо старше уже найденных.
+ */
+@Service
+@ConditionalOnProperty(name = "app.type-index.enabled", havingValue = "true")
+public class EventTypeIndexService {
+
+    private static final Comparator<EventsByType.IndexedEvent> NEWEST_FIRST =
+            Comparator.comparingLong(EventsByType.IndexedEvent::createdAt).reversed()
+                    .thenComparing(EventsByType.IndexedEvent::deviceId);
+
+    private final CqlSession session;
+    private final PreparedStatement select;
+    private final long bucketMs;
+    private final int shards;
+    private final int parallelism;
+    private final Duration maxWindow;
+    private final int maxLimit;
+    private final Timer queryTimer;
+
+    public EventTypeIndexService(CqlSession session,
+                                 EventTypeIndexStage stage,
+                                 @Value("${app.type-index.query-parallelism:32}") int parallelism,
+                                 @Value("${app.type-index.max-query-window:1h}") Duration maxWindow,
+                                 @Value("${app.type-index.max-query-limit:5000}") int maxLimit,
+                                 MeterRegistry meterRegistry) {
+        this.session = session;
+        this.select = session.prepare("SELECT created_at, device_id, payload FROM device_events_by_type"
+                + " WHERE event_type = ? AND bucket_start = ? AND shard = ?"
+                + " AND created_at >= ? AND created_at < ? LIMIT ?");
+        this.bucketMs = stage.bucketMs();
+        this.shards = stage.shards();
+        this.parallelism = Math.max(1, parallelism);
+        this.maxWindow = maxWindow;
+        this.maxLimit = maxLimit;
+        this.queryTimer = Timer.builder("ecs.type.index.query")
+                .description("Event type index queries")
+                .register(meterRegistry);
+    }
+
+    public EventsByType query(String type, Duration window, int limit) {
+        final long now = System.currentTimeMillis();
+        return query(type, now - window.toMillis(), now, limit);
+    }
+
+    /**
+     * Последние limit событий типа с createdAt в [from, to)
+     */
+    public EventsByType query(String type, long from, long to, int limit) {
+        if (to <= from || to - from > maxWindow.toMillis()) {
+            throw new IllegalArgumentException("window must be positive and at most " + maxWindow);
+        }
+        if (limit <= 0 || limit > maxLimit) {
+            throw new IllegalArgumentException("limit must be in [1, " + maxLimit + "]: " + limit);
+        }
+        return queryTimer.record(() -> fanOut(type, from, to, limit));
+    }
+
+    private EventsByType fanOut(String type, long from, long to, int limit) {
+        final long firstBucket = Math.floorDiv(from, bucketMs) * bucketMs;
+        // Волна - целые интервалы, иначе незапрошенный шард интервала мог бы содержать более новые события
+        final int bucketsPerWave = Math.max(1, parallelism / shards);
+        final List<EventsByType.IndexedEvent> found = new ArrayList<>();
+        int partitions = 0;
+        long bucket = Math.floorDiv(to - 1, bucketMs) * bucketMs;
+        while (bucket >= firstBucket && found.size() < limit) {
+            final List<CompletableFuture<List<EventsByType.IndexedEvent>>> wave = new ArrayList<>();
+            for (int i = 0; i < bucketsPerWave && bucket >= firstBucket; i++, bucket -= bucketMs) {
+                for (int shard = 0; shard < shards; shard++) {
+                    wave.add(readPartition(type, bucket, shard, from, to, limit).toCompletableFuture());
+                }
+            }
+            CompletableFuture.allOf(wave.toArray(CompletableFuture[]::new)).join();
+            for (CompletableFuture<List<EventsByType.IndexedEvent>> partition : wave) {
+                found.addAll(partition.join());
+            }
+            partitions += wave.size();
+        }
+        found.sort(NEWEST_FIRST);
+        return new EventsByType(type, from, to, partitions,
+                found.size() > limit ? List.copyOf(found.subList(0, limit)) : found);
+    }
+
+    private CompletionStage<List<EventsByType.IndexedEvent>> readPartition(String type, long bucket, int shard,
+                                                                           long from, long to, int limit) {
+        return session.executeAsync(select.bind(type, bucket, shard, from, to, limit).setPageSize(limit))
+                .thenApply(EventTypeIndexService::rows);
+    }
+
+    private static List<EventsByType.IndexedEvent> rows(AsyncResultSet resultSet) {
+        final List<EventsByType.IndexedEvent> events = new ArrayList<>(resultSet.remaining());
+        for (Row row : resultSet.currentPage()) {
+            events.add(new EventsByType.IndexedEvent(row.getString("device_id"), row.getLong("created_at"),
+                    row.getString("payload")));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.alexkiyanov.iotplatform.ecs.typeindex;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.EventFingerprints;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.IngestStage;
+import com.github.alexkiyanov.iotplatform.ecs.state.Hashing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Дублирует сохраненные события в device_events_by_type: партиция (тип, интервал времени, шард).
+ * <p>
+ * Шард - хэш deviceId по модулю shards, поэтому поток одного частого типа распределяется по нескольким
+ * партициям, а не пишет в одну горячую. Записи идут асинхронно пачкой; не записанные за write-timeout
+ * строки повторяются до write-attempts раз (ключ - createdAt, deviceId и отпечаток события, повтор
+ * идемпотентен). Индекс вторичен: основная таблица к этому моменту уже сохранена, поэтому после
+ * последней попытки строки теряются только в индексе, ошибка считается и логируется, а не
+ * пробрасывается - иначе перечитанный батч заново попал бы в device_events_by_device.
+ * Индекс удваивает записи в Cassandra и держит поток listener-а до подтверждения батча, поэтому
+ * включается только явно (app.type-index.enabled).
+ */
+@Component
+@Order(2)
+@ConditionalOnProperty(name = "app.type-index.enabled", havingValue = "true")
+public class EventTypeIndexStage implements IngestStage {
+    private static final Logger log = LoggerFactory.getLogger(EventTypeIndexStage.class);
+
+    private final CqlSession session;
+    private final PreparedStatement insert;
+    private final long bucketMs;
+    private final int shards;
+    private final int ttlSeconds;
+    private final long writeTimeoutMs;
+    private final int writeAttempts;
+    private final Counter writesCounter;
+    private final Counter failuresCounter;
+
+    public EventTypeIndexStage(CqlSession session,
+                               @Value("${app.type-index.bucket-size:1m}") Duration bucketSize,
+                               @Value("${app.type-index.shards:8}") int shards,
+                               @Value("${app.type-index.ttl:7d}") Duration ttl,
+                               @Value("${app.type-index.write-timeout:10s}") Duration writeTimeout,
+                               @Value("${app.type-index.write-attempts:2}") int writeAttempts,
+                               MeterRegistry meterRegistry) {
+        if (bucketSize.toMillis() <= 0 || shards <= 0 || writeAttempts <= 0) {
+            throw new IllegalArgumentException("bucket-size, shards and write-attempts must be positive");
+        }
+        this.session = session;
+        this.insert = session.prepare("INSERT INTO device_events_by_type"
+                + " (event_type, bucket_start, shard, created_at, device_id, event_hash, payload)"
+                + " VALUES (?, ?, ?, ?, ?, ?, ?) USING TTL ?");
+        this.bucketMs = bucketSize.toMillis();
+        this.shards = shards;
+        this.ttlSeconds = (int) ttl.toSeconds();
+        this.writeTimeoutMs = writeTimeout.toMillis();
+        this.writeAttempts = writeAttempts;
+        this.writesCounter = Counter.builder("ecs.type.index.writes.total")
+                .description("Rows written to the event type index")
+                .register(meterRegistry);
+        this.failuresCounter = Counter.builder("ecs.type.index.write.failures.total")
+                .description("Index rows dropped after all write attempts")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void afterSave(List<DeviceEvent> events) {
+        List<DeviceEvent> pending = new ArrayList<>(events.size());
+        for (DeviceEvent event : events) {
+            if (event.getDeviceId() != null && event.getDeviceType() != null) {
+                pending.add(event);
+            }
+        }
+        Throwable lastError = null;
+        for (int attempt = 1; attempt <= writeAttempts && !pending.isEmpty(); attempt++) {
+            final List<CompletableFuture<?>> writes = new ArrayList<>(pending.size());
+            for (DeviceEvent event : pending) {
+                writes.add(write(event));
+            }
+            try {
+                CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new))
+                        .get(writeTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lastError = e;
+                break;
+            } catch (ExecutionException e) {
+                lastError = e.getCause();
+            } catch (TimeoutException e) {
+                lastError = e;
+            }
+            final List<DeviceEvent> failed = new ArrayList<>();
+            for (int i = 0; i < writes.size(); i++) {
+                final CompletableFuture<?> write = writes.get(i);
+                if (write.isDone() && !write.isCompletedExceptionally()) {
+                    writesCounter.increment();
+                } else {
+                    failed.add(pending.get(i));
+                }
+            }
+            pending = failed;
+        }
+        if (!pending.isEmpty()) {
+            failuresCounter.increment(pending.size());
+            log.warn("Dropped {} event type index rows after {} attempts: {}", pending.size(), writeAttempts,
+                    lastError == null ? "unknown" : lastError.toString());
+        }
+    }
+
+    long bucketStart(long createdAt) {
+        return Math.floorDiv(createdAt, bucketMs) * bucketMs;
+    }
+
+    int shard(String deviceId) {
+        return (int) Math.floorMod(Hashing.hash64(deviceId), (long) shards);
+    }
+
+    long bucketMs() {
+        return bucketMs;
+    }
+
+    int shards() {
+        return shards;
+    }
+
+    private CompletableFuture<?> write(DeviceEvent event) {
+        return session.executeAsync(insert.bind(
+                event.getDeviceType(),
+                bucketStart(event.getCreatedAt()),
+                shard(event.getDeviceId()),
+                event.getCreatedAt(),
+                event.getDeviceId(),
+                EventFingerprints.of(event),
+                event.getMeta(),
+                ttlSeconds)).toCompletableFuture();
+    }
+}
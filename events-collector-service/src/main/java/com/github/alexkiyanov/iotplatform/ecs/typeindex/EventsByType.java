@@ -0,0 +1,14 @@
+package com.github.alexkiyanov.iotplatform.ecs.typeindex;
+
+import java.util.List;
+
+/**
+ * События типа за [from, to), от новых к старым
+ *
+ * @param partitions сколько партиций индекса было прочитано
+ */
+public record EventsByType(String type, long from, long to, int partitions, List<IndexedEvent> events) {
+
+    public record IndexedEvent(String deviceId, long createdAt, String payload) {
+    }
+}
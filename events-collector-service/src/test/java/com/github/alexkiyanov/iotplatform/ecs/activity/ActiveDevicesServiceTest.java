@@ -0,0 +1,108 @@
+package com.github.alexkiyanov.iotplatform.ecs.activity;
+
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceActivitySketchEntity;
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceActivitySketchKey;
+import com.github.alexkiyanov.iotplatform.ecs.repository.DeviceActivitySketchRepository;
+import com.github.alexkiyanov.iotplatform.ecs.state.HyperLogLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ActiveDevicesServiceTest {
+
+    private static final long HOUR = 10 * ActiveDevicesStage.HOUR_MS;
+    private static final long MINUTE = ActiveDevicesStage.MINUTE_MS;
+
+    @Mock
+    private DeviceActivitySketchRepository repository;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ActiveDevicesService service;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        service = new ActiveDevicesService(repository, 12, Duration.ofHours(24), meterRegistry);
+    }
+
+    @Test
+    void count_ShouldMergeSketchesAcrossInstancesAndMinutes() {
+        // Given: два инстанса и две минуты с пересечением устройств
+        when(repository.findByHour(HOUR, HOUR, HOUR + 2 * MINUTE)).thenReturn(List.of(
+                row(HOUR, "*", "ecs-1", 0, 50),
+                row(HOUR, "*", "ecs-2", 30, 80),
+                row(HOUR + MINUTE, "*", "ecs-1", 70, 100),
+                row(HOUR, "LIGHT_ON", "ecs-1", 0, 10)));
+
+        // When
+        ActiveDevicesService.ActiveDevices all = service.count(HOUR, HOUR + 2 * MINUTE, null);
+        ActiveDevicesService.ActiveDevices lights = service.count(HOUR, HOUR + 2 * MINUTE, "LIGHT_ON");
+
+        // Then
+        assertThat(all.devices()).isBetween(98L, 102L);
+        assertThat(lights.devices()).isEqualTo(10);
+        assertThat(lights.deviceType()).isEqualTo("LIGHT_ON");
+    }
+
+    @Test
+    void count_ShouldQueryEveryHourPartitionOfWindow() {
+        // Given
+        when(repository.findByHour(anyLong(), anyLong(), anyLong())).thenReturn(List.of());
+
+        // When
+        ActiveDevicesService.ActiveDevices result = service.count(HOUR - 30 * MINUTE, HOUR + 30 * MINUTE, null);
+
+        // Then
+        verify(repository).findByHour(eq(HOUR - ActiveDevicesStage.HOUR_MS), eq(HOUR - 30 * MINUTE), eq(HOUR + 30 * MINUTE));
+        verify(repository).findByHour(eq(HOUR), eq(HOUR - 30 * MINUTE), eq(HOUR + 30 * MINUTE));
+        verify(repository, times(2)).findByHour(anyLong(), anyLong(), anyLong());
+        assertThat(result.devices()).isZero();
+    }
+
+    @Test
+    void count_WhenWindowTooLarge_ShouldThrow() {
+        assertThatThrownBy(() -> service.count(Duration.ofDays(2), null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.count(Duration.ZERO, null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void count_WhenSketchHasOtherPrecision_ShouldSkipIt() {
+        // Given
+        HyperLogLog other = new HyperLogLog(10);
+        other.add("device-1");
+        when(repository.findByHour(HOUR, HOUR, HOUR + MINUTE)).thenReturn(List.of(
+                new DeviceActivitySketchEntity(new DeviceActivitySketchKey(HOUR, HOUR, "*", "ecs-old"),
+                        ByteBuffer.wrap(other.toByteArray())),
+                row(HOUR, "*", "ecs-1", 0, 5)));
+
+        // When / Then
+        assertThat(service.count(HOUR, HOUR + MINUTE, null).devices()).isEqualTo(5);
+    }
+
+    private DeviceActivitySketchEntity row(long minute, String type, String instanceId, int fromDevice, int toDevice) {
+        HyperLogLog sketch = new HyperLogLog(12);
+        for (int i = fromDevice; i < toDevice; i++) {
+            sketch.add("device-" + i);
+        }
+        return new DeviceActivitySketchEntity(new DeviceActivitySketchKey(HOUR, minute, type, instanceId),
+                ByteBuffer.wrap(sketch.toByteArray()));
+    }
+}
@@ -0,0 +1,130 @@
+package com.github.alexkiyanov.iotplatform.ecs.activity;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceActivitySketchEntity;
+import com.github.alexkiyanov.iotplatform.ecs.state.HyperLogLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.cassandra.core.CassandraOperations;
+import org.springframework.data.cassandra.core.InsertOptions;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class ActiveDevicesStageTest {
+
+    @Mock
+    private CassandraOperations cassandraOperations;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ActiveDevicesStage stage;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        stage = new ActiveDevicesStage(cassandraOperations, 10, true, "ecs-1",
+                Duration.ofMinutes(10), Duration.ofDays(7), meterRegistry);
+    }
+
+    @Test
+    void flush_ShouldStoreSketchPerMinuteAndType() {
+        // Given
+        long now = System.currentTimeMillis();
+        stage.afterSave(List.of(
+                createDeviceEvent("device-1", "LIGHT_ON", now),
+                createDeviceEvent("device-2", "LIGHT_ON", now),
+                createDeviceEvent("device-2", "DOOR_OPENED", now),
+                createDeviceEvent("device-3", "DOOR_OPENED", now)));
+
+        // When
+        stage.flush();
+
+        // Then
+        ArgumentCaptor<DeviceActivitySketchEntity> captor = ArgumentCaptor.forClass(DeviceActivitySketchEntity.class);
+        verify(cassandraOperations, times(3)).insert(captor.capture(), any(InsertOptions.class));
+        Map<String, Long> estimates = captor.getAllValues().stream().collect(Collectors.toMap(
+                entity -> entity.getKey().getDeviceType(), entity -> estimate(entity.getRegisters())));
+        assertThat(estimates).containsExactlyInAnyOrderEntriesOf(Map.of("*", 3L, "LIGHT_ON", 2L, "DOOR_OPENED", 2L));
+        DeviceActivitySketchEntity entity = captor.getValue();
+        assertThat(entity.getKey().getInstanceId()).isEqualTo("ecs-1");
+        assertThat(entity.getKey().getMinuteStart()).isEqualTo(ActiveDevicesStage.floorMinute(now));
+        assertThat(entity.getKey().getHourStart()).isEqualTo(ActiveDevicesStage.floorHour(now));
+    }
+
+    @Test
+    void flush_WhenNothingChanged_ShouldNotWrite() {
+        // Given
+        stage.afterSave(List.of(createDeviceEvent("device-1", "LIGHT_ON", System.currentTimeMillis())));
+        stage.flush();
+
+        // When
+        stage.flush();
+
+        // Then
+        verify(cassandraOperations, times(2)).insert(any(DeviceActivitySketchEntity.class), any(InsertOptions.class));
+    }
+
+    @Test
+    void flush_WhenWriteFails_ShouldRetryOnNextFlush() {
+        // Given
+        stage.afterSave(List.of(createDeviceEvent("device-1", "LIGHT_ON", System.currentTimeMillis())));
+        doThrow(new RuntimeException("Cassandra unavailable"))
+                .doReturn(null)
+                .when(cassandraOperations).insert(any(DeviceActivitySketchEntity.class), any(InsertOptions.class));
+
+        // When
+        stage.flush();
+        stage.flush();
+
+        // Then: два скетча ("*" и LIGHT_ON) и повтор упавшего
+        verify(cassandraOperations, times(3)).insert(any(DeviceActivitySketchEntity.class), any(InsertOptions.class));
+        assertThat(meterRegistry.get("ecs.active.devices.flush.failures.total").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void afterSave_WhenEventOutsideOpenWindow_ShouldSkipIt() {
+        // Given
+        long now = System.currentTimeMillis();
+
+        // When
+        stage.afterSave(List.of(
+                createDeviceEvent("device-old", "LIGHT_ON", now - Duration.ofHours(1).toMillis()),
+                createDeviceEvent("device-future", "LIGHT_ON", now + Duration.ofHours(1).toMillis())));
+        stage.flush();
+
+        // Then
+        verify(cassandraOperations, never()).insert(any(DeviceActivitySketchEntity.class), any(InsertOptions.class));
+        assertThat(meterRegistry.get("ecs.active.devices.skipped.total").counter().count()).isEqualTo(2.0);
+    }
+
+    private long estimate(ByteBuffer registers) {
+        byte[] bytes = new byte[registers.remaining()];
+        registers.duplicate().get(bytes);
+        return HyperLogLog.fromByteArray(bytes).estimate();
+    }
+
+    private DeviceEvent createDeviceEvent(String deviceId, String type, long createdAt) {
+        DeviceEvent event = new DeviceEvent();
+        event.setDeviceId(deviceId);
+        event.setDeviceType(type);
+        event.setCreatedAt(createdAt);
+        event.setMeta("{}");
+        return event;
+    }
+}
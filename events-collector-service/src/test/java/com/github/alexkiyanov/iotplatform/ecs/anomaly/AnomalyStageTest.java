@@ -0,0 +1,109 @@
+package com.github.alexkiyanov.iotplatform.ecs.anomaly;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class AnomalyStageTest {
+
+    private static final String ANOMALIES_TOPIC = "device-anomalies";
+
+    @Mock
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private SimpleMeterRegistry meterRegistry;
+    private AnomalyStage stage;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        stage = new AnomalyStage(kafkaTemplate, ANOMALIES_TOPIC, 0.1, 4.0, 10, 1024, 4, objectMapper, meterRegistry);
+    }
+
+    @Test
+    void afterSave_WhenReadingDeviatesFromBaseline_ShouldPublishAnomaly() throws Exception {
+        // Given
+        stage.afterSave(baseline("device-1", 30));
+
+        // When
+        stage.afterSave(List.of(createDeviceEvent("device-1", "TEMPERATURE_READING", 99_000,
+                "{\"value\": 35.0, \"unit\": \"celsius\"}")));
+
+        // Then
+        ArgumentCaptor<String> payload = ArgumentCaptor.forClass(String.class);
+        verify(kafkaTemplate).send(eq(ANOMALIES_TOPIC), eq("device-1"), payload.capture());
+        AnomalyScore anomaly = objectMapper.readValue(payload.getValue(), AnomalyScore.class);
+        assertThat(anomaly.deviceId()).isEqualTo("device-1");
+        assertThat(anomaly.type()).isEqualTo("TEMPERATURE_READING");
+        assertThat(anomaly.metric()).isEqualTo("value");
+        assertThat(anomaly.value()).isEqualTo(35.0);
+        assertThat(anomaly.score()).isGreaterThanOrEqualTo(4.0);
+        assertThat(anomaly.createdAt()).isEqualTo(99_000);
+        assertThat(meterRegistry.get("ecs.anomaly.outliers.total").counter().count()).isEqualTo(1.0);
+        assertThat(meterRegistry.get("ecs.anomaly.tracked.series").gauge().value()).isEqualTo(1.0);
+    }
+
+    @Test
+    void afterSave_WhenReadingsWithinBaseline_ShouldNotPublish() {
+        // When
+        stage.afterSave(baseline("device-1", 30));
+        stage.afterSave(List.of(createDeviceEvent("device-1", "TEMPERATURE_READING", 99_000, "{\"value\": 20.8}")));
+
+        // Then
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), anyString());
+        assertThat(meterRegistry.get("ecs.anomaly.scored.total").counter().count()).isEqualTo(21.0);
+    }
+
+    @Test
+    void afterSave_ShouldKeepSeriesPerDevice() {
+        // Given: у device-2 свой уровень, чужой baseline его не задевает
+        stage.afterSave(baseline("device-1", 30));
+        List<DeviceEvent> other = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            other.add(createDeviceEvent("device-2", "TEMPERATURE_READING", i, "{\"value\": " + (i % 2 == 0 ? 34 : 36) + "}"));
+        }
+
+        // When
+        stage.afterSave(other);
+
+        // Then
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), anyString());
+        assertThat(meterRegistry.get("ecs.anomaly.tracked.series").gauge().value()).isEqualTo(2.0);
+    }
+
+    private List<DeviceEvent> baseline(String deviceId, int count) {
+        List<DeviceEvent> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            events.add(createDeviceEvent(deviceId, "TEMPERATURE_READING", i * 1_000L,
+                    "{\"value\": " + (i % 2 == 0 ? 19.5 : 20.5) + ", \"unit\": \"celsius\"}"));
+        }
+        return events;
+    }
+
+    private DeviceEvent createDeviceEvent(String deviceId, String type, long createdAt, String meta) {
+        return DeviceEvent.newBuilder()
+                .setDeviceId(deviceId)
+                .setDeviceType(type)
+                .setCreatedAt(createdAt)
+                .setMeta(meta)
+                .build();
+    }
+}
@@ -0,0 +1,167 @@
+package com.github.alexkiyanov.iotplatform.ecs.benchmark;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope;
+import com.github.alexkiyanov.iotplatform.ecs.consumer.DeviceEventsListener;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.common.compress.Compression;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Сравнение одиночных DeviceEvent и конвертов DeviceEventEnvelope:
+ * байты на событие в Kafka-батче и скорость разбора записей consumer-ом.
+ * Запуск: ./gradlew benchmark
+ */
+class DeviceEventEnvelopeBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(DeviceEventEnvelopeBenchmark.class);
+
+    private static final int EVENTS = 100_000;
+    private static final int DEVICES = 1_000;
+    private static final int ROUNDS = 10;
+    // Confluent wire format: магический байт + id схемы
+    private static final int SCHEMA_HEADER_SIZE = 5;
+
+    @Test
+    void compareSingleEventsWithEnvelopes() throws IOException {
+        final List<DeviceEvent> events = generateEvents();
+
+        final Result single = measure("single", toSingleRecords(events), EVENTS);
+        final Result envelope10 = measure("envelope/10", toEnvelopeRecords(events, 10), EVENTS);
+        final Result envelope100 = measure("envelope/100", toEnvelopeRecords(events, 100), EVENTS);
+
+        assertThat(envelope10.bytesPerEvent()).isLessThan(single.bytesPerEvent());
+        assertThat(envelope100.bytesPerEvent()).isLessThan(envelope10.bytesPerEvent());
+    }
+
+    private Result measure(String name, List<KeyValue> records, int eventCount) throws IOException {
+        final MemoryRecords batch = toKafkaBatch(records);
+        final double bytesPerEvent = (double) batch.sizeInBytes() / eventCount;
+
+        final SpecificDatumReader<SpecificRecordBase> reader = new SpecificDatumReader<>(
+                name.equals("single") ? DeviceEvent.getClassSchema() : DeviceEventEnvelope.getClassSchema());
+        long bestNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long start = System.nanoTime();
+            int decoded = 0;
+            for (Record record : batch.records()) {
+                decoded += decode(reader, record.value()).size();
+            }
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            assertThat(decoded).isEqualTo(eventCount);
+        }
+
+        final double seconds = bestNanos / 1e9;
+        final Result result = new Result(bytesPerEvent, records.size() / seconds, eventCount / seconds);
+        log.info("{}: records={}, bytes/event={}, records/s={}, events/s={}", name, records.size(),
+                String.format("%.1f", result.bytesPerEvent()),
+                String.format("%.0f", result.recordsPerSecond()),
+                String.format("%.0f", result.eventsPerSecond()));
+        return result;
+    }
+
+    private static List<DeviceEvent> decode(SpecificDatumReader<SpecificRecordBase> reader, ByteBuffer value)
+            throws IOException {
+        final byte[] bytes = new byte[value.remaining()];
+        value.get(bytes);
+        final BinaryDecoder decoder = DecoderFactory.get()
+                .binaryDecoder(bytes, SCHEMA_HEADER_SIZE, bytes.length - SCHEMA_HEADER_SIZE, null);
+        return DeviceEventsListener.unpack(List.of(reader.read(null, decoder)));
+    }
+
+    private static MemoryRecords toKafkaBatch(List<KeyValue> records) {
+        final int capacity = records.stream().mapToInt(r -> r.key().length + r.value().length + 64).sum() + 1024;
+        final MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(capacity),
+                Compression.NONE, TimestampType.CREATE_TIME, 0L);
+        final long now = System.currentTimeMillis();
+        for (KeyValue record : records) {
+            builder.append(now, record.key(), record.value());
+        }
+        return builder.build();
+    }
+
+    private static List<KeyValue> toSingleRecords(List<DeviceEvent> events) throws IOException {
+        final List<KeyValue> records = new ArrayList<>(events.size());
+        for (DeviceEvent event : events) {
+            records.add(new KeyValue(event.getDeviceId().getBytes(StandardCharsets.UTF_8), encode(event)));
+        }
+        return records;
+    }
+
+    private static List<KeyValue> toEnvelopeRecords(List<DeviceEvent> events, int envelopeSize) throws IOException {
+        // Как в event-producer: конверты собираются по устройству
+        final Map<String, List<DeviceEvent>> byDevice = new LinkedHashMap<>();
+        final List<KeyValue> records = new ArrayList<>();
+        for (DeviceEvent event : events) {
+            final List<DeviceEvent> pending = byDevice.computeIfAbsent(event.getDeviceId(), id -> new ArrayList<>());
+            pending.add(event);
+            if (pending.size() == envelopeSize) {
+                records.add(envelopeRecord(event.getDeviceId(), byDevice.remove(event.getDeviceId())));
+            }
+        }
+        for (Map.Entry<String, List<DeviceEvent>> rest : byDevice.entrySet()) {
+            records.add(envelopeRecord(rest.getKey(), rest.getValue()));
+        }
+        return records;
+    }
+
+    private static KeyValue envelopeRecord(String deviceId, List<DeviceEvent> events) throws IOException {
+        final DeviceEventEnvelope envelope = DeviceEventEnvelope.newBuilder()
+                .setSourceId(deviceId)
+                .setEvents(events)
+                .build();
+        return new KeyValue(deviceId.getBytes(StandardCharsets.UTF_8), encode(envelope));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends SpecificRecordBase> byte[] encode(T record) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[SCHEMA_HEADER_SIZE]);
+        final BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        new SpecificDatumWriter<>((Class<T>) record.getClass()).write(record, encoder);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    private static List<DeviceEvent> generateEvents() {
+        final List<DeviceEvent> events = new ArrayList<>(EVENTS);
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < EVENTS; i++) {
+            events.add(DeviceEvent.newBuilder()
+                    .setDeviceId("device-" + (i % DEVICES))
+                    .setDeviceType("TEMPERATURE_READING")
+                    .setCreatedAt(now + i)
+                    .setMeta("{\"value\": " + (20 + i % 10) + ".5, \"unit\": \"celsius\"}")
+                    .build());
+        }
+        return events;
+    }
+
+    private record KeyValue(byte[] key, byte[] value) {
+    }
+
+    private record Result(double bytesPerEvent, double recordsPerSecond, double eventsPerSecond) {
+    }
+}
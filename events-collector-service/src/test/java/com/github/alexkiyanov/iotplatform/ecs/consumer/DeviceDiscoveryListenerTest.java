@@ -0,0 +1,102 @@
+package com.github.alexkiyanov.iotplatform.ecs.consumer;
+
+import com.github.alexkiyanov.iotplatform.ecs.service.DeviceIdPublisher;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceDiscoveryListenerTest {
+
+    private static final String TOPIC = "events";
+
+    @Mock
+    private DeviceIdPublisher deviceIdPublisher;
+
+    @Mock
+    private Acknowledgment acknowledgment;
+
+    private DeviceDiscoveryListener listener;
+
+    @BeforeEach
+    void setUp() {
+        listener = new DeviceDiscoveryListener(deviceIdPublisher, true);
+    }
+
+    @Test
+    void onBatch_WhenRecordsListIsEmpty_ShouldNotProcess() {
+        // When
+        listener.onBatch(Collections.emptyList(), acknowledgment);
+
+        // Then
+        verifyNoInteractions(deviceIdPublisher);
+        verifyNoInteractions(acknowledgment);
+    }
+
+    @Test
+    void onBatch_WhenKeyIsDeviceId_ShouldPublishDistinctKeys() {
+        // Given
+        List<ConsumerRecord<String, ?>> records = List.of(
+                record("device-1", null),
+                record("device-2", null),
+                record("device-1", null));
+
+        // When
+        listener.onBatch(records, acknowledgment);
+
+        // Then
+        verify(deviceIdPublisher).publishIfNew("device-1");
+        verify(deviceIdPublisher).publishIfNew("device-2");
+        verify(deviceIdPublisher, times(2)).publishIfNew(anyString());
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    void onBatch_WhenKeyIsMissing_ShouldFallBackToProjectedValue() {
+        // Given
+        List<ConsumerRecord<String, ?>> records = List.of(
+                record(null, "device-3"),
+                record(null, null));
+
+        // When
+        listener.onBatch(records, acknowledgment);
+
+        // Then
+        verify(deviceIdPublisher).publishIfNew("device-3");
+        verify(deviceIdPublisher, times(1)).publishIfNew(anyString());
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    void onBatch_WhenKeyIsNotDeviceId_ShouldUseOnlyProjectedValue() {
+        // Given
+        listener = new DeviceDiscoveryListener(deviceIdPublisher, false);
+        List<ConsumerRecord<String, ?>> records = List.of(
+                record("tenant-1", "device-4"),
+                record("tenant-1", null));
+
+        // When
+        listener.onBatch(records, acknowledgment);
+
+        // Then - ключ не deviceId и не публикуется как новое устройство
+        verify(deviceIdPublisher).publishIfNew("device-4");
+        verify(deviceIdPublisher, times(1)).publishIfNew(anyString());
+        verify(acknowledgment).acknowledge();
+    }
+
+    private static ConsumerRecord<String, ?> record(String key, String value) {
+        return new ConsumerRecord<>(TOPIC, 0, 0L, key, value);
+    }
+}
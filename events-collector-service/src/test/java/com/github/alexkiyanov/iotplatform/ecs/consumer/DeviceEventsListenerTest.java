@@ -1,7 +1,9 @@
 package com.github.alexkiyanov.iotplatform.ecs.consumer;
 
 import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.avro.DeviceEventEnvelope;
 import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceEventEntity;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.IngestStage;
 import com.github.alexkiyanov.iotplatform.ecs.repository.DeviceEventRepository;
 import com.github.alexkiyanov.iotplatform.ecs.service.DeviceIdPublisher;
 import org.junit.jupiter.api.BeforeEach;
@@ -9,6 +11,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.kafka.support.Acknowledgment;
@@ -19,10 +22,14 @@ import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class DeviceEventsListenerTest {
@@ -244,6 +251,121 @@ class DeviceEventsListenerTest {
         assertThat(savedEntity.getTimestamp()).isZero();
     }
 
+    @Test
+    void onBatch_WhenDiscoveryRunsInOwnConsumerGroup_ShouldNotPublishInline() {
+        // Given
+        deviceEventsListener = new DeviceEventsListener(deviceEventRepository, deviceIdPublisher, INPUT_TOPIC,
+                DeviceEventsListener.DISCOVERY_MODE_CONSUMER_GROUP, List.of());
+        List<DeviceEvent> events = Collections.singletonList(createDeviceEvent("device-1", "SENSOR", 1000L, "25.5"));
+
+        // When
+        deviceEventsListener.onBatch(events, acknowledgment);
+
+        // Then
+        verify(deviceEventRepository).saveAll(anyList());
+        verifyNoInteractions(deviceIdPublisher);
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    void onBatch_WhenEnvelopesMixedWithSingleEvents_ShouldUnpackTransparently() {
+        // Given
+        DeviceEventEnvelope envelope = DeviceEventEnvelope.newBuilder()
+                .setSourceId("device-1")
+                .setEvents(Arrays.asList(
+                        createDeviceEvent("device-1", "SENSOR", 1000L, "25.5"),
+                        createDeviceEvent("device-1", "SENSOR", 1001L, "25.6")))
+                .build();
+        DeviceEvent single = createDeviceEvent("device-2", "SENSOR", 1002L, "26.0");
+
+        // When
+        deviceEventsListener.onBatch(Arrays.asList(envelope, single), acknowledgment);
+
+        // Then
+        verify(deviceEventRepository).saveAll(entitiesCaptor.capture());
+        verify(deviceIdPublisher).publishIfNew("device-1");
+        verify(deviceIdPublisher).publishIfNew("device-2");
+        verify(acknowledgment).acknowledge();
+
+        List<DeviceEventEntity> savedEntities = entitiesCaptor.getValue();
+        assertThat(savedEntities).extracting(DeviceEventEntity::getTimestamp)
+                .containsExactly(1000L, 1001L, 1002L);
+    }
+
+    @Test
+    void onBatch_WhenOnlyEmptyEnvelopes_ShouldAcknowledgeWithoutSaving() {
+        // Given
+        DeviceEventEnvelope envelope = DeviceEventEnvelope.newBuilder()
+                .setSourceId("device-1")
+                .setEvents(Collections.emptyList())
+                .build();
+
+        // When
+        deviceEventsListener.onBatch(Collections.singletonList(envelope), acknowledgment);
+
+        // Then
+        verifyNoInteractions(deviceEventRepository);
+        verifyNoInteractions(deviceIdPublisher);
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    void onBatch_WhenStagesConfigured_ShouldInvokeThemAfterSaveAndBeforeAck() {
+        // Given
+        IngestStage stage = mock(IngestStage.class, CALLS_REAL_METHODS);
+        deviceEventsListener = new DeviceEventsListener(deviceEventRepository, deviceIdPublisher, INPUT_TOPIC,
+                DeviceEventsListener.DISCOVERY_MODE_INLINE, List.of(stage));
+        List<DeviceEvent> events = Collections.singletonList(createDeviceEvent("device-1", "SENSOR", 1000L, "25.5"));
+
+        // When
+        deviceEventsListener.onBatch(events, acknowledgment);
+
+        // Then
+        InOrder order = inOrder(deviceEventRepository, stage, acknowledgment);
+        order.verify(deviceEventRepository).saveAll(anyList());
+        order.verify(stage).afterSave(events);
+        order.verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    void onBatch_WhenStageFiltersWholeBatch_ShouldAcknowledgeWithoutSaving() {
+        // Given
+        IngestStage shedAll = new IngestStage() {
+            @Override
+            public List<DeviceEvent> beforeSave(String topic, List<DeviceEvent> events) {
+                return "events-alerts".equals(topic) ? events : List.of();
+            }
+        };
+        deviceEventsListener = new DeviceEventsListener(deviceEventRepository, deviceIdPublisher, INPUT_TOPIC,
+                DeviceEventsListener.DISCOVERY_MODE_INLINE, List.of(shedAll));
+        List<DeviceEvent> events = Collections.singletonList(createDeviceEvent("device-1", "SENSOR", 1000L, "25.5"));
+
+        // When
+        deviceEventsListener.onBatch(events, List.of(INPUT_TOPIC), acknowledgment);
+
+        // Then
+        verifyNoInteractions(deviceEventRepository);
+        verifyNoInteractions(deviceIdPublisher);
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    void onBatch_WhenBatchFromPriorityLane_ShouldPassLaneTopicToStages() {
+        // Given
+        IngestStage stage = mock(IngestStage.class);
+        List<DeviceEvent> events = Collections.singletonList(createDeviceEvent("device-1", "BATTERY_LOW", 1000L, "{}"));
+        when(stage.beforeSave("events-alerts", events)).thenReturn(events);
+        deviceEventsListener = new DeviceEventsListener(deviceEventRepository, deviceIdPublisher, INPUT_TOPIC,
+                DeviceEventsListener.DISCOVERY_MODE_INLINE, List.of(stage));
+
+        // When
+        deviceEventsListener.onBatch(events, List.of("events-alerts"), acknowledgment);
+
+        // Then
+        verify(deviceEventRepository).saveAll(anyList());
+        verify(acknowledgment).acknowledge();
+    }
+
     private DeviceEvent createDeviceEvent(String deviceId, String deviceType, Long createdAt, String meta) {
         DeviceEvent event = new DeviceEvent();
         event.setDeviceId(deviceId);
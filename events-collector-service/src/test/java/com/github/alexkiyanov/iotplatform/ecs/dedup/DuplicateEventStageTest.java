@@ -0,0 +1,78 @@
+package com.github.alexkiyanov.iotplatform.ecs.dedup;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DuplicateEventStageTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private DuplicateEventStage stage;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        stage = new DuplicateEventStage(Duration.ofMinutes(10), 5, 1024, 4, meterRegistry);
+    }
+
+    @Test
+    void beforeSave_WhenEventAlreadySaved_ShouldDropIt() {
+        // Given
+        DeviceEvent event = createDeviceEvent("device-1", 1_000, "{\"value\": 23.5}");
+        stage.afterSave(List.of(event));
+        DeviceEvent redelivered = createDeviceEvent("device-1", 1_000, "{\"value\": 23.5}");
+        DeviceEvent next = createDeviceEvent("device-1", 2_000, "{\"value\": 23.5}");
+
+        // When
+        List<DeviceEvent> admitted = stage.beforeSave("events", List.of(redelivered, next));
+
+        // Then
+        assertThat(admitted).containsExactly(next);
+        assertThat(meterRegistry.get("ecs.dedup.duplicates.total").counter().count()).isEqualTo(1.0);
+        assertThat(meterRegistry.get("ecs.dedup.checked.total").counter().count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void beforeSave_WhenDuplicateWithinBatch_ShouldKeepFirstOccurrence() {
+        // Given
+        DeviceEvent first = createDeviceEvent("device-1", 1_000, "{\"value\": 1}");
+        DeviceEvent other = createDeviceEvent("device-2", 1_000, "{\"value\": 1}");
+        DeviceEvent changed = createDeviceEvent("device-1", 1_000, "{\"value\": 2}");
+        DeviceEvent retry = createDeviceEvent("device-1", 1_000, "{\"value\": 1}");
+
+        // When
+        List<DeviceEvent> admitted = stage.beforeSave("events", List.of(first, other, changed, retry));
+
+        // Then
+        assertThat(admitted).containsExactly(first, other, changed);
+    }
+
+    @Test
+    void beforeSave_WhenSaveFailedBeforeAfterSave_ShouldAdmitRedeliveredBatch() {
+        // Given: первый проход не дошел до afterSave
+        List<DeviceEvent> events = List.of(createDeviceEvent("device-1", 1_000, "{}"));
+        stage.beforeSave("events", events);
+
+        // When
+        List<DeviceEvent> admitted = stage.beforeSave("events", events);
+
+        // Then
+        assertThat(admitted).isSameAs(events);
+        assertThat(meterRegistry.get("ecs.dedup.tracked.fingerprints").gauge().value()).isZero();
+    }
+
+    private DeviceEvent createDeviceEvent(String deviceId, long createdAt, String meta) {
+        return DeviceEvent.newBuilder()
+                .setDeviceId(deviceId)
+                .setDeviceType("TEMPERATURE_READING")
+                .setCreatedAt(createdAt)
+                .setMeta(meta)
+                .build();
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.alexkiyanov.iotplatform.ecs.heavyhitters;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HeavyHittersStageTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private HeavyHittersStage stage;
+    private HeavyHittersEndpoint endpoint;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        stage = new HeavyHittersStage(16, 3, 4, 1024, 2, meterRegistry);
+        endpoint = new HeavyHittersEndpoint(stage);
+    }
+
+    @Test
+    void beforeSave_ShouldPassBatchThroughUnchanged() {
+        // Given
+        List<DeviceEvent> events = List.of(createDeviceEvent("device-1", "LIGHT_ON"));
+
+        // When / Then
+        assertThat(stage.beforeSave("events", events)).isSameAs(events);
+    }
+
+    @Test
+    void heavyHitters_ShouldReportTopDevicesAndTypesOfCurrentWindow() {
+        // Given
+        stage.beforeSave("events", createBatch());
+
+        // When
+        Map<String, HeavyHittersEndpoint.Report> reports = endpoint.heavyHitters();
+
+        // Then
+        HeavyHitterTracker.Window devices = reports.get(HeavyHittersStage.DEVICES).current();
+        assertThat(devices.totalEvents()).isEqualTo(16);
+        assertThat(devices.top()).hasSize(3);
+        assertThat(devices.top().getFirst()).isEqualTo(new HeavyHitterTracker.HeavyHitter("device-hot", 10, 10));
+        HeavyHitterTracker.Window types = reports.get(HeavyHittersStage.TYPES).current();
+        assertThat(types.top()).extracting(HeavyHitterTracker.HeavyHitter::key)
+                .containsExactly("TEMPERATURE_READING", "LIGHT_ON");
+        assertThat(reports.get(HeavyHittersStage.DEVICES).lastWindow().top()).isEmpty();
+    }
+
+    @Test
+    void rotate_ShouldPublishRankGaugesAndStartNewWindow() {
+        // Given
+        stage.beforeSave("events", createBatch());
+
+        // When
+        stage.rotate();
+
+        // Then
+        assertThat(meterRegistry.get("ecs.heavyhitters.events")
+                .tags("dimension", "devices", "rank", "1").gauge().value()).isEqualTo(10.0);
+        assertThat(meterRegistry.get("ecs.heavyhitters.events")
+                .tags("dimension", "devices", "rank", "2").gauge().value()).isEqualTo(3.0);
+        assertThat(meterRegistry.get("ecs.heavyhitters.events").gauges()).hasSize(4);
+        assertThat(meterRegistry.get("ecs.heavyhitters.window.events")
+                .tag("dimension", "types").gauge().value()).isEqualTo(16.0);
+        assertThat(endpoint.heavyHitters().get(HeavyHittersStage.DEVICES).current().totalEvents()).isZero();
+    }
+
+    @Test
+    void estimate_ShouldReturnFrequencyOfAnyKey() {
+        // Given
+        stage.beforeSave("events", createBatch());
+
+        // When / Then
+        assertThat(endpoint.estimate("devices", "device-hot").count()).isGreaterThanOrEqualTo(10);
+        assertThat(endpoint.estimate("unknown", "device-hot")).isNull();
+    }
+
+    private List<DeviceEvent> createBatch() {
+        List<DeviceEvent> events = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            events.add(createDeviceEvent("device-hot", "TEMPERATURE_READING"));
+        }
+        for (int i = 0; i < 3; i++) {
+            events.add(createDeviceEvent("device-warm", "LIGHT_ON"));
+        }
+        events.add(createDeviceEvent("device-1", "LIGHT_ON"));
+        events.add(createDeviceEvent("device-2", "LIGHT_ON"));
+        events.add(createDeviceEvent("device-3", "LIGHT_ON"));
+        return events;
+    }
+
+    private DeviceEvent createDeviceEvent(String deviceId, String type) {
+        DeviceEvent event = new DeviceEvent();
+        event.setDeviceId(deviceId);
+        event.setDeviceType(type);
+        event.setCreatedAt(System.currentTimeMillis());
+        event.setMeta("{}");
+        return event;
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.alexkiyanov.iotplatform.ecs.lanes;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PriorityLaneStageTest {
+
+    private static final String ALERTS_TOPIC = "events-alerts";
+    private static final String TELEMETRY_TOPIC = "events";
+
+    private SimpleMeterRegistry meterRegistry;
+    private PriorityLaneStage stage;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        PriorityLaneProperties properties = new PriorityLaneProperties(true, List.of(
+                new PriorityLaneProperties.Lane("alerts", ALERTS_TOPIC, 2, Duration.ofSeconds(1), Duration.ZERO),
+                new PriorityLaneProperties.Lane("telemetry", TELEMETRY_TOPIC, 1, Duration.ofSeconds(60), Duration.ofMinutes(10))));
+        stage = new PriorityLaneStage(properties, meterRegistry);
+    }
+
+    @Test
+    void beforeSave_WhenLaneWithinSlo_ShouldAdmitAllAndRecordLag() {
+        // Given
+        long now = System.currentTimeMillis();
+        List<DeviceEvent> events = List.of(createDeviceEvent("device-1", now), createDeviceEvent("device-2", now));
+
+        // When
+        List<DeviceEvent> admitted = stage.beforeSave(ALERTS_TOPIC, events);
+
+        // Then
+        assertThat(admitted).isSameAs(events);
+        assertThat(meterRegistry.get("ecs.lane.lag").tag("lane", "alerts").timer().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("ecs.lane.slo.violations.total").tag("lane", "alerts").counter().count()).isZero();
+    }
+
+    @Test
+    void beforeSave_WhenEventsLateOnNonSheddableLane_ShouldCountViolationsButKeepEvents() {
+        // Given
+        long old = System.currentTimeMillis() - Duration.ofMinutes(30).toMillis();
+        List<DeviceEvent> events = List.of(createDeviceEvent("device-1", old));
+
+        // When
+        List<DeviceEvent> admitted = stage.beforeSave(ALERTS_TOPIC, events);
+
+        // Then
+        assertThat(admitted).hasSize(1);
+        assertThat(meterRegistry.get("ecs.lane.slo.violations.total").tag("lane", "alerts").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void beforeSave_WhenSheddableLaneOverloaded_ShouldDropStaleEvents() {
+        // Given
+        long now = System.currentTimeMillis();
+        DeviceEvent stale = createDeviceEvent("device-1", now - Duration.ofMinutes(30).toMillis());
+        DeviceEvent late = createDeviceEvent("device-2", now - Duration.ofMinutes(2).toMillis());
+        DeviceEvent fresh = createDeviceEvent("device-3", now);
+
+        // When
+        List<DeviceEvent> admitted = stage.beforeSave(TELEMETRY_TOPIC, List.of(stale, late, fresh));
+
+        // Then
+        assertThat(admitted).containsExactly(late, fresh);
+        assertThat(meterRegistry.get("ecs.lane.shed.total").tag("lane", "telemetry").counter().count()).isEqualTo(1.0);
+        assertThat(meterRegistry.get("ecs.lane.slo.violations.total").tag("lane", "telemetry").counter().count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void beforeSave_WhenTopicIsNotALane_ShouldPassThrough() {
+        // Given
+        List<DeviceEvent> events = List.of(createDeviceEvent("device-1", 0L));
+
+        // When
+        List<DeviceEvent> admitted = stage.beforeSave("unknown-topic", events);
+
+        // Then
+        assertThat(admitted).isSameAs(events);
+    }
+
+    private DeviceEvent createDeviceEvent(String deviceId, long createdAt) {
+        DeviceEvent event = new DeviceEvent();
+        event.setDeviceId(deviceId);
+        event.setDeviceType("CONNECTION_LOST");
+        event.setCreatedAt(createdAt);
+        event.setMeta("{}");
+        return event;
+    }
+}
@@ -0,0 +1,161 @@
+package com.github.alexkiyanov.iotplatform.ecs.latest;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class LatestEventsServiceTest {
+
+    @Mock
+    private CqlSession session;
+
+    @Mock
+    private PreparedStatement select;
+
+    private final Map<BoundStatement, String> boundDevices = new IdentityHashMap<>();
+    private final Queue<Map.Entry<String, CompletableFuture<AsyncResultSet>>> inFlight = new ConcurrentLinkedQueue<>();
+    private SimpleMeterRegistry meterRegistry;
+    private LatestEventsService service;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        when(session.prepare(anyString())).thenReturn(select);
+        service = new LatestEventsService(session, 2, 10, 5, 4, Duration.ofSeconds(30), meterRegistry);
+        lenient().when(select.bind(any(Object[].class))).thenAnswer(invocation -> {
+            BoundStatement bound = mock(BoundStatement.class, RETURNS_SELF);
+            synchronized (boundDevices) {
+                boundDevices.put(bound, invocation.getArgument(0));
+            }
+            return bound;
+        });
+        lenient().when(session.executeAsync(any(Statement.class))).thenAnswer(invocation -> {
+            String deviceId;
+            synchronized (boundDevices) {
+                deviceId = boundDevices.get(invocation.getArgument(0));
+            }
+            CompletableFuture<AsyncResultSet> future = new CompletableFuture<>();
+            inFlight.add(Map.entry(deviceId, future));
+            return future;
+        });
+    }
+
+    @Test
+    void lookup_ShouldLimitConcurrencyAndStreamResultsAsTheyComplete() throws Exception {
+        // Given
+        List<DeviceLatestEvents> results = new CopyOnWriteArrayList<>();
+        Thread caller = new Thread(() -> {
+            try {
+                service.lookup(List.of("device-1", "device-2", "device-3", "device-2"), 1, results::add);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        // When
+        caller.start();
+
+        // Then: третий запрос ждет, пока не завершится один из двух первых
+        await().until(() -> inFlight.size() == 2);
+        Thread.sleep(100);
+        assertThat(inFlight).hasSize(2);
+        complete(inFlight.poll(), 42L);
+        await().until(() -> results.size() == 1 && inFlight.size() == 2);
+        assertThat(results.getFirst().deviceId()).isEqualTo("device-1");
+        assertThat(results.getFirst().events()).extracting(DeviceLatestEvents.Event::timestamp).containsExactly(42L);
+        complete(inFlight.poll(), 43L);
+        inFlight.poll().getValue().completeExceptionally(new IllegalStateException("read timeout"));
+        caller.join(5_000);
+        assertThat(results).extracting(DeviceLatestEvents::deviceId)
+                .containsExactly("device-1", "device-2", "device-3");
+        assertThat(results.get(2).error()).isEqualTo("read timeout");
+        assertThat(meterRegistry.get("ecs.latest.events.failures.total").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void lookup_WhenNothingCompletes_ShouldTimeOut() {
+        // Given
+        LatestEventsService impatient = new LatestEventsService(session, 2, 10, 5, 4, Duration.ofMillis(50),
+                meterRegistry);
+
+        // When / Then
+        assertThatThrownBy(() -> impatient.lookup(List.of("device-1"), 1, result -> { }))
+                .isInstanceOf(TimeoutException.class);
+    }
+
+    @Test
+    void latest_ShouldOrderByTimestampNotByEventIdText() {
+        // Given: event_id с createdAt в секундах стоит в кластеризации выше миллисекундных
+        AsyncResultSet resultSet = resultSet(
+                row("device-1-1735732800-abcdef12", 1_735_732_800L),
+                row("device-1-1735732860000-abcdef13", 1_735_732_860_000L),
+                row("device-1-1735732800000-abcdef14", 1_735_732_800_000L));
+
+        // When
+        List<DeviceLatestEvents.Event> latest = LatestEventsService.latest(resultSet, 2);
+
+        // Then
+        assertThat(latest).extracting(DeviceLatestEvents.Event::timestamp)
+                .containsExactly(1_735_732_860_000L, 1_735_732_800_000L);
+    }
+
+    @Test
+    void validate_WhenRequestOutOfRange_ShouldThrow() {
+        assertThatThrownBy(() -> service.validate(List.of(), 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.validate(List.of("device-1"), 6)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.validate(Collections.nCopies(11, "device-1"), 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void complete(Map.Entry<String, CompletableFuture<AsyncResultSet>> request, long timestamp) {
+        request.getValue().complete(resultSet(row(request.getKey() + "-" + timestamp + "-abcdef12", timestamp)));
+    }
+
+    private static Row row(String eventId, long timestamp) {
+        Row row = mock(Row.class);
+        when(row.getString("event_id")).thenReturn(eventId);
+        when(row.isNull("timestamp")).thenReturn(false);
+        when(row.getLong("timestamp")).thenReturn(timestamp);
+        when(row.getString("type")).thenReturn("LIGHT_ON");
+        when(row.getString("payload")).thenReturn("{}");
+        return row;
+    }
+
+    private static AsyncResultSet resultSet(Row... rows) {
+        AsyncResultSet resultSet = mock(AsyncResultSet.class);
+        when(resultSet.remaining()).thenReturn(rows.length);
+        when(resultSet.currentPage()).thenReturn(List.of(rows));
+        return resultSet;
+    }
+}
@@ -0,0 +1,178 @@
+package com.github.alexkiyanov.iotplatform.ecs.ratelimit;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceRateLimitStageTest {
+
+    private static final String QUARANTINE_TOPIC = "events-quarantine";
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Mock
+    private KafkaTemplate<String, Object> kafkaTemplate;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void beforeSave_WhenWithinLimit_ShouldReturnSameBatch() {
+        // Given
+        DeviceRateLimitStage stage = createStage(RateLimitAction.DROP);
+        List<DeviceEvent> events = List.of(createDeviceEvent("device-1", NOW), createDeviceEvent("device-2", NOW));
+
+        // When
+        List<DeviceEvent> admitted = stage.beforeSave("events", events);
+
+        // Then
+        assertThat(admitted).isSameAs(events);
+        verifyNoInteractions(kafkaTemplate);
+    }
+
+    @Test
+    void beforeSave_WhenDeviceIsChatty_ShouldDropOnlyItsExcessEvents() {
+        // Given
+        DeviceRateLimitStage stage = createStage(RateLimitAction.DROP);
+        List<DeviceEvent> events = new ArrayList<>();
+        events.add(createDeviceEvent("device-quiet", NOW));
+        for (int i = 0; i < 10; i++) {
+            events.add(createDeviceEvent("device-chatty", NOW));
+        }
+        events.add(createDeviceEvent("device-quiet-2", NOW));
+
+        // When
+        List<DeviceEvent> admitted = stage.beforeSave("events", events);
+
+        // Then: burst = 3
+        assertThat(admitted).hasSize(5);
+        assertThat(admitted).extracting(DeviceEvent::getDeviceId)
+                .containsExactly("device-quiet", "device-chatty", "device-chatty", "device-chatty", "device-quiet-2");
+        assertThat(meterRegistry.get("ecs.ratelimit.throttled.total").counter().count()).isEqualTo(7.0);
+        verifyNoInteractions(kafkaTemplate);
+    }
+
+    @Test
+    void beforeSave_WhenActionIsQuarantine_ShouldDivertExcessEvents() {
+        // Given
+        DeviceRateLimitStage stage = createStage(RateLimitAction.QUARANTINE);
+        List<DeviceEvent> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            events.add(createDeviceEvent("device-chatty", NOW));
+        }
+
+        // When
+        List<DeviceEvent> admitted = stage.beforeSave("events", events);
+
+        // Then
+        assertThat(admitted).hasSize(3);
+        verify(kafkaTemplate, times(2)).send(eq(QUARANTINE_TOPIC), eq("device-chatty"), any(DeviceEvent.class));
+    }
+
+    @Test
+    void beforeSave_WhenActionIsSample_ShouldLetEveryNthExcessEventThrough() {
+        // Given: sample-every = 2
+        DeviceRateLimitStage stage = createStage(RateLimitAction.SAMPLE);
+        List<DeviceEvent> events = new ArrayList<>();
+        for (int i = 0; i < 13; i++) {
+            events.add(createDeviceEvent("device-chatty", NOW));
+        }
+
+        // When
+        List<DeviceEvent> admitted = stage.beforeSave("events", events);
+
+        // Then: 3 в пределах burst + 5 из 10 сверх лимита
+        assertThat(admitted).hasSize(8);
+        assertThat(meterRegistry.get("ecs.ratelimit.sampled.total").counter().count()).isEqualTo(5.0);
+    }
+
+    @Test
+    void beforeSave_WhenDeviceSendsAdvancingFutureTimestamps_ShouldNotRefillBeyondClockSkew() {
+        // Given: каждое событие на час впереди предыдущего
+        DeviceRateLimitStage stage = createStage(RateLimitAction.DROP);
+        long now = System.currentTimeMillis();
+        List<DeviceEvent> events = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            events.add(createDeviceEvent("device-forger", now + i * 3_600_000L));
+        }
+
+        // When
+        List<DeviceEvent> admitted = stage.beforeSave("events", events);
+
+        // Then: все метки зажаты к now + max-clock-skew, токены только из burst
+        assertThat(admitted).hasSize(3);
+    }
+
+    @Test
+    void beforeSave_WhenDeviceSendsAdvancingPastTimestamps_ShouldNotRefillBeyondMaxLag() {
+        // Given: метки от года назад с шагом в минуту - без зажима каждое событие приносило бы 60 токенов
+        DeviceRateLimitStage stage = createStage(RateLimitAction.DROP);
+        long yearAgo = System.currentTimeMillis() - 365L * 24 * 3_600_000L;
+        List<DeviceEvent> events = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            events.add(createDeviceEvent("device-forger", yearAgo + i * 60_000L));
+        }
+
+        // When
+        List<DeviceEvent> admitted = stage.beforeSave("events", events);
+
+        // Then: все метки зажаты к now - max-lag, токены только из burst
+        assertThat(admitted).hasSize(3);
+    }
+
+    @Test
+    void report_ShouldExposeDistinctThrottledDevicesAndReset() {
+        // Given
+        DeviceRateLimitStage stage = createStage(RateLimitAction.DROP);
+        List<DeviceEvent> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            events.add(createDeviceEvent("device-a", NOW));
+            events.add(createDeviceEvent("device-b", NOW));
+        }
+        stage.beforeSave("events", events);
+
+        // When
+        stage.report();
+
+        // Then
+        assertThat(meterRegistry.get("ecs.ratelimit.throttled.devices").gauge().value()).isEqualTo(2.0);
+
+        // When
+        stage.report();
+
+        // Then
+        assertThat(meterRegistry.get("ecs.ratelimit.throttled.devices").gauge().value()).isZero();
+    }
+
+    private DeviceRateLimitStage createStage(RateLimitAction action) {
+        return new DeviceRateLimitStage(1, 3, 1 << 16, action, 2, 600_000, 5_000, kafkaTemplate, QUARANTINE_TOPIC, meterRegistry);
+    }
+
+    private DeviceEvent createDeviceEvent(String deviceId, long createdAt) {
+        DeviceEvent event = new DeviceEvent();
+        event.setDeviceId(deviceId);
+        event.setDeviceType("SENSOR");
+        event.setCreatedAt(createdAt);
+        event.setMeta("{}");
+        return event;
+    }
+}
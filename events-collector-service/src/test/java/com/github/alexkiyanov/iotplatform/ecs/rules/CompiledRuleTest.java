@@ -0,0 +1,115 @@
+package com.github.alexkiyanov.iotplatform.ecs.rules;
+
+import com.github.alexkiyanov.iotplatform.ecs.serialization.MetaFields;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompiledRuleTest {
+
+    @Test
+    void evaluate_ShouldFireOnceOnNthConsecutiveMatch() {
+        // Given
+        CompiledRule rule = CompiledRule.compile(consecutiveRule(3));
+
+        // When / Then
+        assertThat(rule.evaluate("device-1", 1, true)).isFalse();
+        assertThat(rule.evaluate("device-1", 2, true)).isFalse();
+        assertThat(rule.evaluate("device-1", 3, true)).isTrue();
+        assertThat(rule.evaluate("device-1", 4, true)).isFalse();
+    }
+
+    @Test
+    void evaluate_WhenStreakBroken_ShouldStartOver() {
+        // Given
+        CompiledRule rule = CompiledRule.compile(consecutiveRule(2));
+        rule.evaluate("device-1", 1, true);
+
+        // When
+        rule.evaluate("device-1", 2, false);
+
+        // Then
+        assertThat(rule.evaluate("device-1", 3, true)).isFalse();
+        assertThat(rule.evaluate("device-1", 4, true)).isTrue();
+    }
+
+    @Test
+    void evaluate_ShouldKeepDevicesIndependent() {
+        // Given
+        CompiledRule rule = CompiledRule.compile(consecutiveRule(2));
+        rule.evaluate("device-1", 1, true);
+
+        // When / Then
+        assertThat(rule.evaluate("device-2", 2, true)).isFalse();
+        assertThat(rule.evaluate("device-1", 3, true)).isTrue();
+    }
+
+    @Test
+    void evaluate_ShouldFireWhenOccurrencesFitIntoWindow() {
+        // Given: 2 раза за 10 минут
+        CompiledRule rule = CompiledRule.compile(windowedRule(2, Duration.ofMinutes(10)));
+        long minute = 60_000;
+
+        // When / Then
+        assertThat(rule.evaluate("device-1", 0, true)).isFalse();
+        assertThat(rule.evaluate("device-1", 11 * minute, true)).isFalse();
+        assertThat(rule.evaluate("device-1", 15 * minute, true)).isTrue();
+        // После срабатывания окно начинается заново
+        assertThat(rule.evaluate("device-1", 16 * minute, true)).isFalse();
+    }
+
+    @Test
+    void sweep_ShouldDropIdleAndResetStates() {
+        // Given
+        CompiledRule rule = CompiledRule.compile(consecutiveRule(3));
+        rule.evaluate("device-idle", 1_000, true);
+        rule.evaluate("device-active", 100_000, true);
+        rule.evaluate("device-reset", 100_000, true);
+        rule.evaluate("device-reset", 100_001, false);
+
+        // When
+        int remaining = rule.sweep(100_500, 10_000);
+
+        // Then
+        assertThat(remaining).isEqualTo(1);
+        assertThat(rule.evaluate("device-active", 100_600, true)).isFalse();
+        assertThat(rule.evaluate("device-active", 100_700, true)).isTrue();
+    }
+
+    @Test
+    void matches_ShouldCompareMetaFieldWithThreshold() {
+        // Given
+        CompiledRule rule = CompiledRule.compile(consecutiveRule(1));
+
+        // When / Then
+        assertThat(rule.matches(MetaFields.number("{\"value\": 41.5, \"unit\": \"celsius\"}", "value"))).isTrue();
+        assertThat(rule.matches(MetaFields.number("{\"value\": 23.5}", "value"))).isFalse();
+        assertThat(rule.matches(MetaFields.number("{\"unit\": \"value\", \"value\":50}", "value"))).isTrue();
+        assertThat(rule.matches(MetaFields.number("{\"other\": 50}", "value"))).isFalse();
+        assertThat(rule.matches(MetaFields.number(null, "value"))).isFalse();
+    }
+
+    @Test
+    void compile_WhenRuleInvalid_ShouldThrow() {
+        RuleProperties.Rule noType = new RuleProperties.Rule("bad", null, null, RuleProperties.Operator.GT,
+                0, 1, 1, Duration.ZERO, "WARNING");
+        RuleProperties.Rule zeroCount = new RuleProperties.Rule("bad", "LIGHT_ON", null, RuleProperties.Operator.GT,
+                0, 0, 1, Duration.ZERO, "WARNING");
+
+        assertThatThrownBy(() -> CompiledRule.compile(noType)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> CompiledRule.compile(zeroCount)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private RuleProperties.Rule consecutiveRule(int consecutive) {
+        return new RuleProperties.Rule("high-temperature", "TEMPERATURE_READING", "value",
+                RuleProperties.Operator.GT, 40, consecutive, 1, Duration.ZERO, "CRITICAL");
+    }
+
+    private RuleProperties.Rule windowedRule(int occurrences, Duration within) {
+        return new RuleProperties.Rule("battery-low-repeated", "BATTERY_LOW", null,
+                RuleProperties.Operator.GT, 0, 1, occurrences, within, "WARNING");
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.alexkiyanov.iotplatform.ecs.rules;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class RulesStageTest {
+
+    private static final String ALERTS_TOPIC = "device-alerts";
+
+    @Mock
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private SimpleMeterRegistry meterRegistry;
+    private RulesStage stage;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        RuleProperties properties = new RuleProperties(true, List.of(
+                new RuleProperties.Rule("high-temperature", "TEMPERATURE_READING", "value",
+                        RuleProperties.Operator.GT, 40, 3, 1, Duration.ZERO, "CRITICAL"),
+                new RuleProperties.Rule("battery-low-repeated", "BATTERY_LOW", null,
+                        RuleProperties.Operator.GT, 0, 1, 2, Duration.ofMinutes(10), "WARNING")));
+        stage = new RulesStage(properties, kafkaTemplate, ALERTS_TOPIC, Duration.ofHours(1), objectMapper, meterRegistry);
+    }
+
+    @Test
+    void afterSave_WhenThresholdExceededConsecutively_ShouldPublishAlert() throws Exception {
+        // Given
+        List<DeviceEvent> events = List.of(
+                createDeviceEvent("device-1", "TEMPERATURE_READING", 1_000, "{\"value\": 41.0}"),
+                createDeviceEvent("device-1", "TEMPERATURE_READING", 2_000, "{\"value\": 42.0}"),
+                createDeviceEvent("device-1", "TEMPERATURE_READING", 3_000, "{\"value\": 43.5}"));
+
+        // When
+        List<DeviceEvent> admitted = stage.beforeSave("events", events);
+        stage.afterSave(admitted);
+
+        // Then
+        assertThat(admitted).isSameAs(events);
+        ArgumentCaptor<String> payload = ArgumentCaptor.forClass(String.class);
+        verify(kafkaTemplate).send(eq(ALERTS_TOPIC), eq("device-1"), payload.capture());
+        RuleAlert alert = objectMapper.readValue(payload.getValue(), RuleAlert.class);
+        assertThat(alert).isEqualTo(new RuleAlert("high-temperature", "CRITICAL", "device-1",
+                "TEMPERATURE_READING", 3_000, 43.5, "{\"value\": 43.5}"));
+        assertThat(meterRegistry.get("ecs.rules.alerts.total").tag("rule", "high-temperature").counter().count())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    void afterSave_WhenReadingBelowThresholdInterrupts_ShouldNotAlert() {
+        // When
+        process(List.of(
+                createDeviceEvent("device-1", "TEMPERATURE_READING", 1_000, "{\"value\": 41.0}"),
+                createDeviceEvent("device-1", "TEMPERATURE_READING", 2_000, "{\"value\": 20.0}"),
+                createDeviceEvent("device-1", "TEMPERATURE_READING", 3_000, "{\"value\": 43.5}"),
+                createDeviceEvent("device-1", "LIGHT_ON", 4_000, "{}")));
+
+        // Then
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void afterSave_ShouldCarryWindowedRuleStateAcrossBatches() {
+        // Given
+        process(List.of(createDeviceEvent("device-1", "BATTERY_LOW", 0, "{\"battery\": 15}")));
+
+        // When
+        process(List.of(createDeviceEvent("device-1", "BATTERY_LOW", 300_000, "{\"battery\": 14}")));
+
+        // Then
+        verify(kafkaTemplate).send(eq(ALERTS_TOPIC), eq("device-1"), anyString());
+        assertThat(meterRegistry.get("ecs.rules.alerts.total").tag("rule", "battery-low-repeated").counter().count())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    void beforeSave_WhenSaveFailsAndBatchRedelivered_ShouldNotCountReadingsTwice() {
+        // Given: сохранение первой доставки упало, afterSave не вызывался
+        List<DeviceEvent> events = List.of(
+                createDeviceEvent("device-1", "TEMPERATURE_READING", 1_000, "{\"value\": 41.0}"),
+                createDeviceEvent("device-1", "TEMPERATURE_READING", 2_000, "{\"value\": 42.0}"));
+        stage.beforeSave("events", events);
+
+        // When
+        process(events);
+
+        // Then: два реальных показания - правило "3 подряд" не срабатывает
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void afterSave_ShouldEvaluateEventsDroppedAfterRulesStage() {
+        // Given: троттлинг после правил отбросил третье показание
+        List<DeviceEvent> events = List.of(
+                createDeviceEvent("device-1", "TEMPERATURE_READING", 1_000, "{\"value\": 41.0}"),
+                createDeviceEvent("device-1", "TEMPERATURE_READING", 2_000, "{\"value\": 42.0}"),
+                createDeviceEvent("device-1", "TEMPERATURE_READING", 3_000, "{\"value\": 43.5}"));
+
+        // When
+        stage.beforeSave("events", events);
+        stage.afterSave(events.subList(0, 2));
+
+        // Then
+        verify(kafkaTemplate).send(eq(ALERTS_TOPIC), eq("device-1"), anyString());
+    }
+
+    @Test
+    void sweep_ShouldReleaseStatesOfIdleDevices() {
+        // Given
+        process(List.of(createDeviceEvent("device-1", "BATTERY_LOW", 0, "{}")));
+        assertThat(meterRegistry.get("ecs.rules.state.devices").gauge().value()).isEqualTo(1.0);
+
+        // When
+        stage.sweep();
+
+        // Then
+        assertThat(meterRegistry.get("ecs.rules.state.devices").gauge().value()).isZero();
+    }
+
+    private void process(List<DeviceEvent> events) {
+        stage.afterSave(stage.beforeSave("events", events));
+    }
+
+    private DeviceEvent createDeviceEvent(String deviceId, String type, long createdAt, String meta) {
+        DeviceEvent event = new DeviceEvent();
+        event.setDeviceId(deviceId);
+        event.setDeviceType(type);
+        event.setCreatedAt(createdAt);
+        event.setMeta(meta);
+        return event;
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.alexkiyanov.iotplatform.ecs.serialization;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DeviceIdProjectionDeserializerTest {
+
+    private static final String TOPIC = "events";
+
+    private final DeviceIdProjectionDeserializer deserializer = new DeviceIdProjectionDeserializer();
+
+    @Test
+    void deserialize_WhenConfluentFramedEvent_ShouldReturnOnlyDeviceId() throws IOException {
+        // Given
+        byte[] data = confluentFramed(createDeviceEvent("device-1", "x".repeat(10_000)));
+
+        // When
+        String deviceId = deserializer.deserialize(TOPIC, data);
+
+        // Then
+        assertThat(deviceId).isEqualTo("device-1");
+    }
+
+    @Test
+    void deserialize_WhenByteBufferWithOffset_ShouldRespectPosition() throws IOException {
+        // Given
+        byte[] framed = confluentFramed(createDeviceEvent("device-42", "{}"));
+        byte[] padded = new byte[framed.length + 3];
+        System.arraycopy(framed, 0, padded, 3, framed.length);
+        ByteBuffer buffer = ByteBuffer.wrap(padded, 3, framed.length).slice();
+
+        // When
+        String deviceId = deserializer.deserialize(TOPIC, null, buffer);
+
+        // Then
+        assertThat(deviceId).isEqualTo("device-42");
+    }
+
+    @Test
+    void deserialize_WhenDataIsNull_ShouldReturnNull() {
+        assertThat(deserializer.deserialize(TOPIC, (byte[]) null)).isNull();
+    }
+
+    @Test
+    void deserialize_WhenMagicByteIsUnknown_ShouldThrowSerializationException() {
+        // Given
+        byte[] data = {0x1, 0x0, 0x0, 0x0, 0x1, 0x2, 'a'};
+
+        // When / Then
+        assertThatThrownBy(() -> deserializer.deserialize(TOPIC, data))
+                .isInstanceOf(SerializationException.class);
+    }
+
+    @Test
+    void deserialize_WhenPayloadIsTruncated_ShouldThrowSerializationException() {
+        // Given: заявлена строка длиной 10 байт, а данных нет
+        byte[] data = {0x0, 0x0, 0x0, 0x0, 0x1, 0x14};
+
+        // When / Then
+        assertThatThrownBy(() -> deserializer.deserialize(TOPIC, data))
+                .isInstanceOf(SerializationException.class);
+    }
+
+    @Test
+    void skipValueDeserializer_ShouldNeverDecodeValue() {
+        // Given
+        SkipValueDeserializer skip = new SkipValueDeserializer();
+
+        // When / Then
+        assertThat(skip.deserialize(TOPIC, new byte[]{1, 2, 3})).isNull();
+        assertThat(skip.deserialize(TOPIC, null, ByteBuffer.wrap(new byte[]{1, 2, 3}))).isNull();
+    }
+
+    private static byte[] confluentFramed(DeviceEvent event) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(DeviceIdProjectionDeserializer.MAGIC_BYTE);
+        out.write(ByteBuffer.allocate(Integer.BYTES).putInt(7).array());
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        new SpecificDatumWriter<>(DeviceEvent.class).write(event, encoder);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    private static DeviceEvent createDeviceEvent(String deviceId, String meta) {
+        return DeviceEvent.newBuilder()
+                .setDeviceId(deviceId)
+                .setDeviceType("SENSOR")
+                .setCreatedAt(1000L)
+                .setMeta(meta)
+                .build();
+    }
+}
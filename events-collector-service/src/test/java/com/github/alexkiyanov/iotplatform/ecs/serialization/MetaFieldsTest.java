@@ -0,0 +1,47 @@
+package com.github.alexkiyanov.iotplatform.ecs.serialization;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MetaFieldsTest {
+
+    @Test
+    void forEachNumber_ShouldReturnTopLevelNumbersOnly() {
+        // Given
+        String meta = "{\"value\": 23.5, \"unit\": \"cel\\\"sius\", \"nested\": {\"value\": 1, \"s\": \"}\"},"
+                + " \"list\": [1, [2], {\"a\": 3}], \"flag\": true, \"brightness\":-8e1, \"none\": null}";
+        Map<String, Double> numbers = new LinkedHashMap<>();
+
+        // When
+        MetaFields.forEachNumber(meta, numbers::put);
+
+        // Then
+        assertThat(numbers).containsExactly(Map.entry("value", 23.5), Map.entry("brightness", -80.0));
+    }
+
+    @Test
+    void forEachNumber_WhenMetaMalformed_ShouldStopQuietly() {
+        // Given
+        Map<String, Double> numbers = new LinkedHashMap<>();
+
+        // When
+        MetaFields.forEachNumber("{\"value\": 1, \"broken\": \"unterminated", numbers::put);
+        MetaFields.forEachNumber("[1, 2]", numbers::put);
+        MetaFields.forEachNumber("", numbers::put);
+        MetaFields.forEachNumber(null, numbers::put);
+
+        // Then
+        assertThat(numbers).containsExactly(Map.entry("value", 1.0));
+    }
+
+    @Test
+    void number_ShouldFindFieldByName() {
+        assertThat(MetaFields.number("{\"unit\": \"value\", \"value\":50}", "value")).isEqualTo(50.0);
+        assertThat(MetaFields.number("{\"value\": \"high\"}", "value")).isNaN();
+        assertThat(MetaFields.number("{\"other\": 50}", "value")).isNaN();
+    }
+}
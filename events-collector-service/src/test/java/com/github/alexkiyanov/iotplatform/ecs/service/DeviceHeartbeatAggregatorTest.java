@@ -0,0 +1,87 @@
+package com.github.alexkiyanov.iotplatform.ecs.service;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceHeartbeatAggregatorTest {
+
+    private static final String HEARTBEAT_TOPIC = "device-heartbeat-topic";
+
+    @Mock
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    private SimpleMeterRegistry meterRegistry;
+    private DeviceHeartbeatAggregator aggregator;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        aggregator = new DeviceHeartbeatAggregator(kafkaTemplate, HEARTBEAT_TOPIC, 1_000, meterRegistry);
+    }
+
+    @Test
+    void flush_WhenNothingSeen_ShouldNotPublish() {
+        // When
+        aggregator.flush();
+
+        // Then
+        verifyNoInteractions(kafkaTemplate);
+    }
+
+    @Test
+    void flush_ShouldPublishOneHeartbeatPerDeviceWithLatestCreatedAt() {
+        // Given
+        aggregator.afterSave(Arrays.asList(
+                createDeviceEvent("device-1", 1000L),
+                createDeviceEvent("device-1", 3000L),
+                createDeviceEvent("device-1", 2000L),
+                createDeviceEvent("device-2", 1500L)));
+
+        // When
+        aggregator.flush();
+
+        // Then
+        verify(kafkaTemplate).send(HEARTBEAT_TOPIC, "device-1", "3000");
+        verify(kafkaTemplate).send(HEARTBEAT_TOPIC, "device-2", "1500");
+        verify(kafkaTemplate, times(2)).send(anyString(), anyString(), anyString());
+        assertThat(meterRegistry.get("ecs.heartbeat.sent.total").counter().count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void flush_WhenCalledTwice_ShouldNotRepublishIdleDevices() {
+        // Given
+        aggregator.afterSave(Arrays.asList(createDeviceEvent("device-1", 1000L)));
+        aggregator.flush();
+
+        // When
+        aggregator.flush();
+
+        // Then
+        verify(kafkaTemplate, times(1)).send(anyString(), anyString(), anyString());
+        assertThat(meterRegistry.get("ecs.heartbeat.pending.devices").gauge().value()).isZero();
+    }
+
+    private DeviceEvent createDeviceEvent(String deviceId, long createdAt) {
+        DeviceEvent event = new DeviceEvent();
+        event.setDeviceId(deviceId);
+        event.setDeviceType("SENSOR");
+        event.setCreatedAt(createdAt);
+        event.setMeta("{}");
+        return event;
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.alexkiyanov.iotplatform.ecs.session;
+
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceSessionEntity;
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceSessionKey;
+import com.github.alexkiyanov.iotplatform.ecs.repository.DeviceSessionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceSessionServiceTest {
+
+    private static final long GAP_MS = 300_000;
+
+    @Mock
+    private DeviceSessionStage stage;
+
+    @Mock
+    private DeviceSessionRepository repository;
+
+    private DeviceSessionService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new DeviceSessionService(stage, repository, 100);
+    }
+
+    @Test
+    void current_WhenSessionOpenOnThisInstance_ShouldNotQueryCassandra() {
+        // Given
+        DeviceSession open = DeviceSession.of("device-1", 1_000, 2_000, null, null, 2, 2_000, GAP_MS);
+        when(stage.current("device-1")).thenReturn(open);
+
+        // When / Then
+        assertThat(service.current("device-1")).isSameAs(open);
+    }
+
+    @Test
+    void current_WhenStoredSessionStale_ShouldReportOffline() {
+        // Given: открытая в Cassandra сессия без событий дольше gap
+        long lastSeen = System.currentTimeMillis() - GAP_MS - 60_000;
+        when(stage.gapMs()).thenReturn(GAP_MS);
+        when(repository.findRecent("device-1", 1)).thenReturn(List.of(
+                new DeviceSessionEntity(new DeviceSessionKey("device-1", lastSeen - 10_000), lastSeen, null, null, 5)));
+
+        // When
+        DeviceSession session = service.current("device-1");
+
+        // Then
+        assertThat(session.online()).isFalse();
+        assertThat(session.since()).isEqualTo(lastSeen);
+        assertThat(session.endReason()).isEqualTo(DeviceSessionStage.INACTIVE);
+        assertThat(session.durationMs()).isEqualTo(10_000);
+    }
+
+    @Test
+    void recent_ShouldPreferInMemoryOpenSession() {
+        // Given
+        long now = System.currentTimeMillis();
+        when(stage.gapMs()).thenReturn(GAP_MS);
+        when(stage.current("device-1")).thenReturn(
+                DeviceSession.of("device-1", now - 1_000, now, null, null, 7, now, GAP_MS));
+        when(repository.findRecent("device-1", 2)).thenReturn(List.of(
+                new DeviceSessionEntity(new DeviceSessionKey("device-1", now - 1_000), now - 500, null, null, 3),
+                new DeviceSessionEntity(new DeviceSessionKey("device-1", now - 60_000), now - 30_000,
+                        now - 30_000, "CONNECTION_LOST", 4)));
+
+        // When
+        List<DeviceSession> sessions = service.recent("device-1", 2);
+
+        // Then
+        assertThat(sessions).extracting(DeviceSession::events).containsExactly(7L, 4L);
+        assertThat(sessions.get(1).online()).isFalse();
+    }
+
+    @Test
+    void recent_WhenLimitOutOfRange_ShouldThrow() {
+        assertThatThrownBy(() -> service.recent("device-1", 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.recent("device-1", 101)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,219 @@
+package com.github.alexkiyanov.iotplatform.ecs.session;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceSessionEntity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.cassandra.core.CassandraOperations;
+import org.springframework.data.cassandra.core.InsertOptions;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceSessionStageTest {
+
+    private static final long GAP_MS = Duration.ofMinutes(5).toMillis();
+    private static final long LATENESS_MS = Duration.ofMinutes(1).toMillis();
+
+    @Mock
+    private CassandraOperations cassandraOperations;
+
+    private SimpleMeterRegistry meterRegistry;
+    private DeviceSessionStage stage;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        stage = new DeviceSessionStage(cassandraOperations, Duration.ofMillis(GAP_MS), Duration.ofMillis(LATENESS_MS),
+                Set.of("CONNECTION_LOST"),
+                16, Duration.ofDays(90), meterRegistry);
+    }
+
+    @Test
+    void afterSave_ShouldExtendSessionWithinInactivityGap() {
+        // Given
+        long now = System.currentTimeMillis();
+
+        // When
+        stage.afterSave(List.of(
+                createDeviceEvent("device-1", "LIGHT_ON", now - 120_000),
+                createDeviceEvent("device-1", "LIGHT_OFF", now - 60_000),
+                createDeviceEvent("device-1", "LIGHT_ON", now)));
+
+        // Then
+        DeviceSession session = stage.current("device-1");
+        assertThat(session.online()).isTrue();
+        assertThat(session.since()).isEqualTo(now - 120_000);
+        assertThat(session.lastSeen()).isEqualTo(now);
+        assertThat(session.events()).isEqualTo(3);
+        assertThat(session.durationMs()).isEqualTo(120_000);
+    }
+
+    @Test
+    void afterSave_WhenGapExceeded_ShouldCloseAndOpenNewSession() {
+        // Given
+        long now = System.currentTimeMillis();
+        stage.afterSave(List.of(
+                createDeviceEvent("device-1", "LIGHT_ON", now - GAP_MS - 60_000),
+                createDeviceEvent("device-1", "LIGHT_ON", now - GAP_MS - 30_000),
+                createDeviceEvent("device-1", "LIGHT_ON", now)));
+
+        // When
+        stage.flush();
+
+        // Then
+        List<DeviceSessionEntity> stored = captureInserts(2);
+        assertThat(stored.get(0).getKey().getSessionStart()).isEqualTo(now - GAP_MS - 60_000);
+        assertThat(stored.get(0).getSessionEnd()).isEqualTo(now - GAP_MS - 30_000);
+        assertThat(stored.get(0).getEndReason()).isEqualTo(DeviceSessionStage.GAP);
+        assertThat(stored.get(0).getEvents()).isEqualTo(2);
+        assertThat(stored.get(1).getKey().getSessionStart()).isEqualTo(now);
+        assertThat(stored.get(1).getSessionEnd()).isNull();
+        assertThat(meterRegistry.get("ecs.sessions.closed.total").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void afterSave_WhenConnectionLost_ShouldCloseSessionAtEvent() {
+        // Given
+        long now = System.currentTimeMillis();
+
+        // When
+        stage.afterSave(List.of(
+                createDeviceEvent("device-1", "LIGHT_ON", now - 10_000),
+                createDeviceEvent("device-1", "CONNECTION_LOST", now - 5_000)));
+        stage.flush();
+
+        // Then
+        assertThat(stage.current("device-1")).isNull();
+        DeviceSessionEntity stored = captureInserts(1).getFirst();
+        assertThat(stored.getSessionEnd()).isEqualTo(now - 5_000);
+        assertThat(stored.getEndReason()).isEqualTo(DeviceSessionStage.CONNECTION_LOST);
+        assertThat(meterRegistry.get("ecs.sessions.open").gauge().value()).isZero();
+    }
+
+    @Test
+    void afterSave_WhenFirstEventIsConnectionLost_ShouldNotOpenSession() {
+        // When
+        stage.afterSave(List.of(createDeviceEvent("device-1", "CONNECTION_LOST", System.currentTimeMillis())));
+        stage.flush();
+
+        // Then
+        assertThat(stage.current("device-1")).isNull();
+        verify(cassandraOperations, never()).insert(any(DeviceSessionEntity.class), any(InsertOptions.class));
+        assertThat(meterRegistry.get("ecs.sessions.opened.total").counter().count()).isZero();
+    }
+
+    @Test
+    void flush_WhenDeviceSilentLongerThanGap_ShouldTimeOutSession() {
+        // Given: поток событий ушел дальше, чем gap + allowed-lateness от последнего события устройства
+        long lastSeen = System.currentTimeMillis() - GAP_MS - LATENESS_MS - 2_000;
+        stage.afterSave(List.of(createDeviceEvent("device-1", "LIGHT_ON", lastSeen)));
+        stage.afterSave(List.of(createDeviceEvent("device-2", "LIGHT_ON", lastSeen + GAP_MS + LATENESS_MS + 1_000)));
+
+        // When
+        stage.flush();
+
+        // Then: закрытая сессия device-1 и открытая device-2
+        assertThat(stage.current("device-1")).isNull();
+        assertThat(stage.current("device-2")).isNotNull();
+        DeviceSessionEntity stored = captureInserts(2).getFirst();
+        assertThat(stored.getSessionEnd()).isEqualTo(lastSeen);
+        assertThat(stored.getEndReason()).isEqualTo(DeviceSessionStage.TIMEOUT);
+    }
+
+    @Test
+    void flush_WhenConsumerLagsBehindMoreThanGap_ShouldKeepSessionsOpen() {
+        // Given: догоняем отставание в час, устройство шлет события непрерывно
+        long hourAgo = System.currentTimeMillis() - Duration.ofHours(1).toMillis();
+        stage.afterSave(List.of(
+                createDeviceEvent("device-1", "LIGHT_ON", hourAgo),
+                createDeviceEvent("device-1", "LIGHT_ON", hourAgo + 60_000)));
+
+        // When
+        stage.flush();
+
+        // Then
+        assertThat(stage.current("device-1")).isNotNull();
+        assertThat(meterRegistry.get("ecs.sessions.closed.total").counter().count()).isZero();
+    }
+
+    @Test
+    void flush_WhenStreamIdle_ShouldAdvanceWatermarkByWallClock() {
+        // Given
+        long now = System.currentTimeMillis();
+        stage.afterSave(List.of(createDeviceEvent("device-1", "LIGHT_ON", now)));
+
+        // When: событий нет дольше gap + allowed-lateness
+        stage.flush(now + GAP_MS + LATENESS_MS + 1_000);
+
+        // Then
+        assertThat(stage.current("device-1")).isNull();
+        assertThat(captureInserts(1).getFirst().getEndReason()).isEqualTo(DeviceSessionStage.TIMEOUT);
+    }
+
+    @Test
+    void flush_ShouldWriteOnlyChangedSessionsAndRetryFailed() {
+        // Given
+        long now = System.currentTimeMillis();
+        stage.afterSave(List.of(createDeviceEvent("device-1", "LIGHT_ON", now)));
+        doThrow(new IllegalStateException("cassandra down")).when(cassandraOperations)
+                .insert(any(DeviceSessionEntity.class), any(InsertOptions.class));
+        stage.flush();
+        clearInvocations(cassandraOperations);
+
+        // When
+        stage.flush();
+        stage.flush();
+
+        // Then: сессия с неудачной записью повторяется на каждом flush
+        verify(cassandraOperations, times(2)).insert(any(DeviceSessionEntity.class), any(InsertOptions.class));
+        assertThat(meterRegistry.get("ecs.sessions.flush.failures.total").counter().count()).isEqualTo(3.0);
+    }
+
+    @Test
+    void flush_WhenNothingChanged_ShouldNotWrite() {
+        // Given
+        stage.afterSave(List.of(createDeviceEvent("device-1", "LIGHT_ON", System.currentTimeMillis())));
+        stage.flush();
+        clearInvocations(cassandraOperations);
+
+        // When
+        stage.flush();
+
+        // Then
+        verify(cassandraOperations, never()).insert(any(DeviceSessionEntity.class), any(InsertOptions.class));
+    }
+
+    private List<DeviceSessionEntity> captureInserts(int expected) {
+        ArgumentCaptor<DeviceSessionEntity> captor = ArgumentCaptor.forClass(DeviceSessionEntity.class);
+        verify(cassandraOperations, times(expected)).insert(captor.capture(), any(InsertOptions.class));
+        return captor.getAllValues().stream()
+                .sorted(Comparator.comparingLong(entity -> entity.getKey().getSessionStart()))
+                .toList();
+    }
+
+    private DeviceEvent createDeviceEvent(String deviceId, String type, long createdAt) {
+        return DeviceEvent.newBuilder()
+                .setDeviceId(deviceId)
+                .setDeviceType(type)
+                .setCreatedAt(createdAt)
+                .setMeta("{}")
+                .build();
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CountMinSketchTest {
+
+    @Test
+    void estimate_ShouldNeverUnderestimate() {
+        // Given
+        CountMinSketch sketch = new CountMinSketch(4, 256);
+
+        // When
+        for (int i = 0; i < 5_000; i++) {
+            sketch.add("device-" + (i % 1000), 1);
+        }
+        sketch.add("device-hot", 700);
+
+        // Then
+        assertThat(sketch.estimate("device-hot")).isGreaterThanOrEqualTo(700);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(sketch.estimate("device-" + i)).isGreaterThanOrEqualTo(5);
+        }
+        assertThat(sketch.total()).isEqualTo(5_700);
+    }
+
+    @Test
+    void estimate_ShouldStayWithinErrorBound() {
+        // Given: погрешность e/width * total ~ 0.0106 * 10000 = 106
+        CountMinSketch sketch = new CountMinSketch(5, 256);
+        for (int i = 0; i < 10_000; i++) {
+            sketch.add("device-" + (i % 2000), 1);
+        }
+
+        // When / Then
+        assertThat(sketch.estimate("device-1")).isBetween(5L, 5L + 106);
+        assertThat(sketch.estimate("unknown")).isLessThanOrEqualTo(106);
+    }
+
+    @Test
+    void add_ShouldReturnCurrentEstimate() {
+        // Given
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+
+        // When / Then
+        assertThat(sketch.add("device-1", 3)).isEqualTo(3);
+        assertThat(sketch.add("device-1", 2)).isEqualTo(5);
+    }
+
+    @Test
+    void clear_ShouldResetCountersAndTotal() {
+        // Given
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        sketch.add("device-1", 10);
+
+        // When
+        sketch.clear();
+
+        // Then
+        assertThat(sketch.estimate("device-1")).isZero();
+        assertThat(sketch.total()).isZero();
+    }
+
+    @Test
+    void constructor_WhenWidthNotPowerOfTwo_ShouldThrow() {
+        assertThatThrownBy(() -> new CountMinSketch(4, 1000))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
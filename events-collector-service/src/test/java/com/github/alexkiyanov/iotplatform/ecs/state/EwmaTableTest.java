@@ -0,0 +1,76 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class EwmaTableTest {
+
+    @Test
+    void scoreAndUpdate_ShouldScoreOutlierAgainstBaseline() {
+        // Given: ряд колеблется 20 +- 1
+        EwmaTable table = new EwmaTable(64, 4, 0.1, 10);
+        long key = Hashing.hash64("device-1");
+        for (int i = 0; i < 200; i++) {
+            table.scoreAndUpdate(key, i % 2 == 0 ? 19 : 21, null);
+        }
+        double[] baseline = new double[2];
+
+        // When
+        double normal = table.scoreAndUpdate(key, 20.5, null);
+        double outlier = table.scoreAndUpdate(key, 30, baseline);
+
+        // Then
+        assertThat(normal).isLessThan(1.0);
+        assertThat(outlier).isGreaterThan(8.0);
+        assertThat(baseline[0]).isCloseTo(20.0, within(0.5));
+        assertThat(baseline[1]).isCloseTo(1.0, within(0.2));
+    }
+
+    @Test
+    void scoreAndUpdate_WhileWarmingUpOrFlat_ShouldReturnNaN() {
+        // Given
+        EwmaTable table = new EwmaTable(64, 1, 0.1, 5);
+        long noisy = Hashing.hash64("noisy");
+        long flat = Hashing.hash64("flat");
+
+        // When / Then
+        for (int i = 0; i < 5; i++) {
+            assertThat(table.scoreAndUpdate(noisy, i, null)).isNaN();
+        }
+        assertThat(table.scoreAndUpdate(noisy, 3, null)).isNotNaN();
+        for (int i = 0; i < 10; i++) {
+            table.scoreAndUpdate(flat, 7, null);
+        }
+        assertThat(table.scoreAndUpdate(flat, 100, null)).isNaN();
+    }
+
+    @Test
+    void scoreAndUpdate_WhenTableFull_ShouldEvictLeastObservedSeries() {
+        // Given: 16 слотов, ряд heavy копит наблюдения
+        EwmaTable table = new EwmaTable(16, 1, 0.1, 1);
+        long heavy = Hashing.hash64("heavy");
+        for (int i = 0; i < 50; i++) {
+            table.scoreAndUpdate(heavy, i % 2, null);
+        }
+
+        // When
+        for (int i = 0; i < 1000; i++) {
+            table.scoreAndUpdate(Hashing.hash64("device-" + i), 1, null);
+        }
+
+        // Then
+        assertThat(table.size()).isEqualTo(16);
+        assertThat(table.evictions()).isGreaterThan(900);
+        assertThat(table.scoreAndUpdate(heavy, 0.5, null)).isNotNaN();
+    }
+
+    @Test
+    void constructor_WhenArgumentsInvalid_ShouldThrow() {
+        assertThatThrownBy(() -> new EwmaTable(100, 4, 0.1, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new EwmaTable(16, 32, 0.1, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new EwmaTable(16, 4, 1.0, 1)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HashedTokenBucketsTest {
+
+    private static final long BASE = 1_000_000L;
+
+    @Test
+    void tryAcquire_ShouldAllowBurstThenThrottle() {
+        // Given
+        HashedTokenBuckets buckets = new HashedTokenBuckets(1024, 10, 5, BASE);
+
+        // When
+        int allowed = 0;
+        for (int i = 0; i < 20; i++) {
+            if (buckets.tryAcquire("device-1", BASE + 1)) {
+                allowed++;
+            }
+        }
+
+        // Then
+        assertThat(allowed).isEqualTo(5);
+    }
+
+    @Test
+    void tryAcquire_ShouldRefillAtConfiguredRate() {
+        // Given
+        HashedTokenBuckets buckets = new HashedTokenBuckets(1024, 10, 5, BASE);
+        for (int i = 0; i < 5; i++) {
+            buckets.tryAcquire("device-1", BASE);
+        }
+        assertThat(buckets.tryAcquire("device-1", BASE)).isFalse();
+
+        // When / Then: 10 токенов в секунду - один токен за 100 мс
+        assertThat(buckets.tryAcquire("device-1", BASE + 50)).isFalse();
+        assertThat(buckets.tryAcquire("device-1", BASE + 150)).isTrue();
+        assertThat(buckets.tryAcquire("device-1", BASE + 150)).isFalse();
+    }
+
+    @Test
+    void tryAcquire_ShouldNotRefillAboveBurst() {
+        // Given
+        HashedTokenBuckets buckets = new HashedTokenBuckets(1024, 10, 3, BASE);
+        buckets.tryAcquire("device-1", BASE);
+
+        // When
+        int allowed = 0;
+        for (int i = 0; i < 10; i++) {
+            if (buckets.tryAcquire("device-1", BASE + 3_600_000)) {
+                allowed++;
+            }
+        }
+
+        // Then
+        assertThat(allowed).isEqualTo(3);
+    }
+
+    @Test
+    void tryAcquire_WhenEventsOutOfOrder_ShouldNotRewindTime() {
+        // Given
+        HashedTokenBuckets buckets = new HashedTokenBuckets(1024, 1, 1, BASE);
+        assertThat(buckets.tryAcquire("device-1", BASE + 10_000)).isTrue();
+
+        // When / Then: более старое событие не дает повторного пополнения
+        assertThat(buckets.tryAcquire("device-1", BASE)).isFalse();
+        assertThat(buckets.tryAcquire("device-1", BASE + 10_500)).isFalse();
+        assertThat(buckets.tryAcquire("device-1", BASE + 11_000)).isTrue();
+    }
+
+    @Test
+    void tryAcquire_ShouldKeepDevicesIndependent() {
+        // Given
+        HashedTokenBuckets buckets = new HashedTokenBuckets(1 << 16, 1, 1, BASE);
+        buckets.tryAcquire("device-1", BASE);
+
+        // When / Then
+        assertThat(buckets.tryAcquire("device-1", BASE)).isFalse();
+        assertThat(buckets.tryAcquire("device-2", BASE)).isTrue();
+    }
+
+    @Test
+    void tryAcquire_WhenCalledConcurrently_ShouldNotExceedBurst() throws InterruptedException {
+        // Given
+        HashedTokenBuckets buckets = new HashedTokenBuckets(1024, 1, 1000, BASE);
+        AtomicInteger allowed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch done = new CountDownLatch(4);
+
+        // When
+        for (int t = 0; t < 4; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (buckets.tryAcquire("device-1", BASE)) {
+                        allowed.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            });
+        }
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        executor.shutdown();
+
+        // Then
+        assertThat(allowed.get()).isEqualTo(1000);
+    }
+
+    @Test
+    void constructor_WhenBurstTooLarge_ShouldThrow() {
+        assertThatThrownBy(() -> new HashedTokenBuckets(1024, 10, 100_000, BASE))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new HashedTokenBuckets(1000, 10, 10, BASE))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HyperLogLogTest {
+
+    @Test
+    void estimate_WhenEmpty_ShouldBeZero() {
+        HyperLogLog sketch = new HyperLogLog(12);
+
+        assertThat(sketch.estimate()).isZero();
+        assertThat(sketch.isEmpty()).isTrue();
+    }
+
+    @Test
+    void estimate_ShouldBeExactEnoughForSmallCardinalities() {
+        // Given
+        HyperLogLog sketch = new HyperLogLog(12);
+
+        // When
+        for (int i = 0; i < 100; i++) {
+            sketch.add("device-" + i);
+            sketch.add("device-" + i);
+        }
+
+        // Then
+        assertThat(sketch.estimate()).isBetween(98L, 102L);
+    }
+
+    @Test
+    void estimate_ShouldStayWithinStandardErrorForLargeCardinalities() {
+        // Given: 1.04/sqrt(4096) ~ 1.6%, проверяем с запасом в 3 сигмы
+        HyperLogLog sketch = new HyperLogLog(12);
+
+        // When
+        for (int i = 0; i < 200_000; i++) {
+            sketch.add("device-" + i);
+        }
+
+        // Then
+        assertThat(sketch.estimate()).isBetween(190_400L, 209_600L);
+    }
+
+    @Test
+    void merge_ShouldEstimateUnionOfSketches() {
+        // Given: два инстанса видят пересекающиеся множества устройств
+        HyperLogLog first = new HyperLogLog(12);
+        HyperLogLog second = new HyperLogLog(12);
+        for (int i = 0; i < 6_000; i++) {
+            first.add("device-" + i);
+        }
+        for (int i = 4_000; i < 10_000; i++) {
+            second.add("device-" + i);
+        }
+
+        // When
+        first.merge(second);
+
+        // Then
+        assertThat(first.estimate()).isBetween(9_520L, 10_480L);
+    }
+
+    @Test
+    void fromByteArray_ShouldRestoreSameEstimate() {
+        // Given
+        HyperLogLog sketch = new HyperLogLog(10);
+        for (int i = 0; i < 1_000; i++) {
+            sketch.add("device-" + i);
+        }
+
+        // When
+        HyperLogLog restored = HyperLogLog.fromByteArray(sketch.toByteArray());
+
+        // Then
+        assertThat(restored.precision()).isEqualTo(10);
+        assertThat(restored.estimate()).isEqualTo(sketch.estimate());
+    }
+
+    @Test
+    void merge_WhenPrecisionDiffers_ShouldThrow() {
+        assertThatThrownBy(() -> new HyperLogLog(10).merge(new HyperLogLog(12)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new HyperLogLog(20))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
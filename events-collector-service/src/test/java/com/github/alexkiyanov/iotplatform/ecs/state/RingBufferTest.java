@@ -0,0 +1,50 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RingBufferTest {
+
+    @Test
+    void get_ShouldReturnPublishedValuesBySequence() {
+        // Given
+        RingBuffer<String> ring = new RingBuffer<>(4);
+
+        // When
+        long first = ring.publish("a");
+        long second = ring.publish("b");
+
+        // Then
+        assertThat(first).isZero();
+        assertThat(second).isEqualTo(1);
+        assertThat(ring.get(0)).isEqualTo("a");
+        assertThat(ring.get(1)).isEqualTo("b");
+        assertThat(ring.get(2)).isNull();
+        assertThat(ring.overwritten(2)).isFalse();
+        assertThat(ring.claimed()).isEqualTo(2);
+    }
+
+    @Test
+    void get_WhenSlotOverwritten_ShouldReportIt() {
+        // Given
+        RingBuffer<String> ring = new RingBuffer<>(2);
+
+        // When
+        ring.publish("a");
+        ring.publish("b");
+        ring.publish("c");
+
+        // Then
+        assertThat(ring.get(0)).isNull();
+        assertThat(ring.overwritten(0)).isTrue();
+        assertThat(ring.get(2)).isEqualTo("c");
+    }
+
+    @Test
+    void constructor_WhenCapacityNotPowerOfTwo_ShouldThrow() {
+        assertThatThrownBy(() -> new RingBuffer<String>(3))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
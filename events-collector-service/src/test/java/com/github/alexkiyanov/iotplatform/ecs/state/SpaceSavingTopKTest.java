@@ -0,0 +1,87 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SpaceSavingTopKTest {
+
+    @Test
+    void top_WhenBelowCapacity_ShouldReturnExactCountsInDescendingOrder() {
+        // Given
+        SpaceSavingTopK topK = new SpaceSavingTopK(10);
+        topK.add("a", 1);
+        topK.add("b", 5);
+        topK.add("c", 3);
+        topK.add("a", 1);
+
+        // When
+        List<SpaceSavingTopK.Entry> top = topK.top(2);
+
+        // Then
+        assertThat(top).containsExactly(
+                new SpaceSavingTopK.Entry("b", 5, 0),
+                new SpaceSavingTopK.Entry("c", 3, 0));
+    }
+
+    @Test
+    void add_WhenFull_ShouldEvictMinimumAndInheritItsCountAsError() {
+        // Given
+        SpaceSavingTopK topK = new SpaceSavingTopK(2);
+        topK.add("a", 10);
+        topK.add("b", 2);
+
+        // When
+        topK.add("c", 1);
+
+        // Then
+        assertThat(topK.size()).isEqualTo(2);
+        assertThat(topK.top(2)).containsExactly(
+                new SpaceSavingTopK.Entry("a", 10, 0),
+                new SpaceSavingTopK.Entry("c", 3, 2));
+    }
+
+    @Test
+    void add_ShouldKeepHeavyHittersUnderLongTail() {
+        // Given: 3 горячих устройства на фоне 10000 редких
+        SpaceSavingTopK topK = new SpaceSavingTopK(32);
+
+        // When
+        for (int i = 0; i < 10_000; i++) {
+            topK.add("tail-" + i, 1);
+            if (i % 10 == 0) {
+                topK.add("hot-1", 1);
+                topK.add("hot-2", 1);
+            }
+            if (i % 20 == 0) {
+                topK.add("hot-3", 1);
+            }
+        }
+
+        // Then
+        List<SpaceSavingTopK.Entry> top = topK.top(3);
+        assertThat(top).extracting(SpaceSavingTopK.Entry::key).containsExactlyInAnyOrder("hot-1", "hot-2", "hot-3");
+        for (SpaceSavingTopK.Entry entry : top) {
+            long guaranteed = entry.count() - entry.error();
+            long exact = entry.key().equals("hot-3") ? 500 : 1000;
+            assertThat(guaranteed).isLessThanOrEqualTo(exact);
+            assertThat(entry.count()).isGreaterThanOrEqualTo(exact);
+        }
+    }
+
+    @Test
+    void clear_ShouldRemoveAllEntries() {
+        // Given
+        SpaceSavingTopK topK = new SpaceSavingTopK(4);
+        topK.add("a", 1);
+
+        // When
+        topK.clear();
+
+        // Then
+        assertThat(topK.size()).isZero();
+        assertThat(topK.top(4)).isEmpty();
+    }
+}
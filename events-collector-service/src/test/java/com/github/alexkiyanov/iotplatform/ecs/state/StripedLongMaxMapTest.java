@@ -0,0 +1,100 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StripedLongMaxMapTest {
+
+    @Test
+    void accumulate_WhenSameKeyRepeated_ShouldKeepMaximum() {
+        // Given
+        StripedLongMaxMap map = new StripedLongMaxMap(4, 16);
+
+        // When
+        map.accumulate("device-1", 1000L);
+        map.accumulate("device-1", 3000L);
+        map.accumulate("device-1", 2000L);
+        map.accumulate("device-2", 500L);
+
+        // Then
+        assertThat(map.size()).isEqualTo(2);
+        assertThat(drain(map)).containsOnly(Map.entry("device-1", 3000L), Map.entry("device-2", 500L));
+    }
+
+    @Test
+    void drain_ShouldClearMap() {
+        // Given
+        StripedLongMaxMap map = new StripedLongMaxMap(2, 16);
+        map.accumulate("device-1", 1000L);
+
+        // When
+        drain(map);
+
+        // Then
+        assertThat(map.size()).isZero();
+        assertThat(drain(map)).isEmpty();
+    }
+
+    @Test
+    void accumulate_WhenManyKeys_ShouldResizeWithoutLosingEntries() {
+        // Given
+        StripedLongMaxMap map = new StripedLongMaxMap(2, 1);
+
+        // When
+        for (int i = 0; i < 10_000; i++) {
+            map.accumulate("device-" + i, i);
+        }
+
+        // Then
+        Map<String, Long> drained = drain(map);
+        assertThat(drained).hasSize(10_000);
+        assertThat(drained.get("device-9999")).isEqualTo(9999L);
+    }
+
+    @Test
+    void accumulate_WhenCalledConcurrently_ShouldNotLoseMaximum() throws InterruptedException {
+        // Given
+        StripedLongMaxMap map = new StripedLongMaxMap(8, 64);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch done = new CountDownLatch(4);
+
+        // When
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    map.accumulate("device-" + (i % 100), i * 4L + thread);
+                }
+                done.countDown();
+            });
+        }
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        executor.shutdown();
+
+        // Then
+        Map<String, Long> drained = drain(map);
+        assertThat(drained).hasSize(100);
+        assertThat(drained.get("device-99")).isEqualTo(9999L * 4 + 3);
+    }
+
+    @Test
+    void constructor_WhenStripesNotPowerOfTwo_ShouldThrow() {
+        assertThatThrownBy(() -> new StripedLongMaxMap(3, 16))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static Map<String, Long> drain(StripedLongMaxMap map) {
+        Map<String, Long> result = new HashMap<>();
+        map.drain(result::put);
+        return result;
+    }
+}
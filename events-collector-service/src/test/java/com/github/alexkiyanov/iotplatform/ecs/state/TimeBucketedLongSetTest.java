@@ -0,0 +1,61 @@
+package com.github.alexkiyanov.iotplatform.ecs.state;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TimeBucketedLongSetTest {
+
+    @Test
+    void add_ShouldRejectKeySeenWithinWindow() {
+        // Given
+        TimeBucketedLongSet set = new TimeBucketedLongSet(64, 4, 4_000, 2);
+
+        // When / Then
+        assertThat(set.add(42, 0)).isTrue();
+        assertThat(set.add(42, 2_500)).isFalse();
+        assertThat(set.contains(42, 3_999)).isTrue();
+        assertThat(set.contains(43, 3_999)).isFalse();
+        assertThat(set.add(0, 0)).isTrue();
+        assertThat(set.contains(0, 0)).isTrue();
+    }
+
+    @Test
+    void contains_WhenWindowPassed_ShouldForgetKey() {
+        // Given
+        TimeBucketedLongSet set = new TimeBucketedLongSet(64, 4, 4_000, 1);
+        set.add(42, 0);
+        set.add(43, 2_000);
+
+        // When / Then
+        assertThat(set.contains(42, 4_000)).isFalse();
+        assertThat(set.contains(43, 4_000)).isTrue();
+        assertThat(set.contains(43, 1_000_000)).isFalse();
+        assertThat(set.size()).isZero();
+    }
+
+    @Test
+    void add_WhenBucketFull_ShouldRotateEarlyWithinBoundedMemory() {
+        // Given: 16 слотов на интервал, заполнение до 12
+        TimeBucketedLongSet set = new TimeBucketedLongSet(16, 2, 60_000, 1);
+
+        // When
+        for (long key = 1; key <= 100; key++) {
+            set.add(Hashing.mix64(key), 0);
+        }
+
+        // Then
+        assertThat(set.size()).isLessThanOrEqualTo(24);
+        assertThat(set.earlyRotations()).isGreaterThan(0);
+        assertThat(set.contains(Hashing.mix64(100), 0)).isTrue();
+        assertThat(set.contains(Hashing.mix64(1), 0)).isFalse();
+    }
+
+    @Test
+    void constructor_WhenArgumentsInvalid_ShouldThrow() {
+        assertThatThrownBy(() -> new TimeBucketedLongSet(100, 4, 4_000, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new TimeBucketedLongSet(16, 4, 4_000, 8)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new TimeBucketedLongSet(16, 1, 4_000, 1)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,176 @@
+package com.github.alexkiyanov.iotplatform.ecs.streaming;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class EventStreamHubTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private EventStreamHub hub;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        hub = new EventStreamHub(1024, 4, 2, 2, meterRegistry);
+        hub.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        hub.stop();
+    }
+
+    @Test
+    void afterSave_ShouldDeliverOnlyMatchingEvents() {
+        // Given
+        RecordingSink devices = new RecordingSink();
+        RecordingSink types = new RecordingSink();
+        hub.subscribe(Set.of("device-1"), Set.of(), devices);
+        hub.subscribe(Set.of(), Set.of("DOOR_OPENED"), types);
+
+        // When
+        hub.afterSave(List.of(
+                createDeviceEvent("device-1", "LIGHT_ON"),
+                createDeviceEvent("device-2", "DOOR_OPENED"),
+                createDeviceEvent("device-1", "DOOR_OPENED")));
+
+        // Then
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() -> {
+            assertThat(devices.events).extracting(DeviceEvent::getDeviceType).containsExactly("LIGHT_ON", "DOOR_OPENED");
+            assertThat(types.events).extracting(DeviceEvent::getDeviceId).containsExactly("device-2", "device-1");
+        });
+        assertThat(meterRegistry.get("ecs.stream.events.sent.total").counter().count()).isEqualTo(4.0);
+    }
+
+    @Test
+    void afterSave_WhenSubscriberIsSlow_ShouldDropOverflowWithoutBlockingOthers() throws InterruptedException {
+        // Given
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSink slow = new RecordingSink(release);
+        RecordingSink fast = new RecordingSink();
+        hub.subscribe(Set.of(), Set.of(), slow);
+        hub.subscribe(Set.of(), Set.of(), fast);
+
+        // When: очередь на 4 события, медленный подписчик застрял на первом
+        for (int i = 0; i < 20; i++) {
+            hub.afterSave(List.of(createDeviceEvent("device-" + i, "LIGHT_ON")));
+            int delivered = i + 1;
+            await().atMost(Duration.ofSeconds(5)).until(() -> fast.events.size() == delivered);
+        }
+
+        // Then
+        // Первое событие уже у отправителя (или еще в очереди), 4 в очереди, остальные отброшены
+        assertThat(meterRegistry.get("ecs.stream.events.dropped.total").counter().count()).isBetween(15.0, 16.0);
+        release.countDown();
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() -> {
+            assertThat(slow.dropped.get()).isPositive();
+            assertThat(slow.events.size() + slow.dropped.get()).isEqualTo(20);
+        });
+    }
+
+    @Test
+    void subscribe_WhenLimitReached_ShouldReturnNull() {
+        // Given
+        hub.subscribe(Set.of(), Set.of(), new RecordingSink());
+        hub.subscribe(Set.of(), Set.of(), new RecordingSink());
+
+        // When / Then
+        assertThat(hub.subscribe(Set.of(), Set.of(), new RecordingSink())).isNull();
+        assertThat(meterRegistry.get("ecs.stream.subscribers").gauge().value()).isEqualTo(2.0);
+    }
+
+    @Test
+    void send_WhenSinkFails_ShouldCloseAndRemoveSubscriber() {
+        // Given
+        RecordingSink broken = new RecordingSink();
+        broken.fail = true;
+        hub.subscribe(Set.of(), Set.of(), broken);
+
+        // When
+        hub.afterSave(List.of(createDeviceEvent("device-1", "LIGHT_ON")));
+
+        // Then
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() -> {
+            assertThat(broken.closed).isTrue();
+            assertThat(meterRegistry.get("ecs.stream.subscribers").gauge().value()).isZero();
+        });
+    }
+
+    @Test
+    void unsubscribe_ShouldStopDelivery() {
+        // Given
+        RecordingSink sink = new RecordingSink();
+        StreamSubscriber subscriber = hub.subscribe(Set.of(), Set.of(), sink);
+
+        // When
+        hub.unsubscribe(subscriber);
+        hub.afterSave(List.of(createDeviceEvent("device-1", "LIGHT_ON")));
+
+        // Then
+        assertThat(meterRegistry.get("ecs.stream.subscribers").gauge().value()).isZero();
+        assertThat(sink.events).isEmpty();
+    }
+
+    private DeviceEvent createDeviceEvent(String deviceId, String type) {
+        DeviceEvent event = new DeviceEvent();
+        event.setDeviceId(deviceId);
+        event.setDeviceType(type);
+        event.setCreatedAt(System.currentTimeMillis());
+        event.setMeta("{}");
+        return event;
+    }
+
+    private static final class RecordingSink implements EventSink {
+        private final List<DeviceEvent> events = new CopyOnWriteArrayList<>();
+        private final AtomicLong dropped = new AtomicLong();
+        private final CountDownLatch release;
+        private volatile boolean fail;
+        private volatile boolean closed;
+
+        RecordingSink() {
+            this(new CountDownLatch(0));
+        }
+
+        RecordingSink(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void send(DeviceEvent event) throws IOException {
+            if (fail) {
+                throw new IOException("Broken pipe");
+            }
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            events.add(event);
+        }
+
+        @Override
+        public void dropped(long count) {
+            dropped.addAndGet(count);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
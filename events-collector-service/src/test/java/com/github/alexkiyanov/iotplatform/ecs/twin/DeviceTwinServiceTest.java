@@ -0,0 +1,98 @@
+package com.github.alexkiyanov.iotplatform.ecs.twin;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceEventEntity;
+import com.github.alexkiyanov.iotplatform.ecs.model.cassandra.DeviceEventKey;
+import com.github.alexkiyanov.iotplatform.ecs.repository.DeviceEventRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceTwinServiceTest {
+
+    @Mock
+    private DeviceEventRepository repository;
+
+    @TempDir
+    Path tempDir;
+
+    private DeviceTwinStage stage;
+    private DeviceTwinService service;
+
+    @BeforeEach
+    void setUp() {
+        stage = new DeviceTwinStage(16, tempDir.resolve("device-twin.snapshot").toString(), new SimpleMeterRegistry());
+        service = new DeviceTwinService(stage, repository, 60_000, 50, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void state_WhenDeviceUpdatedOnThisInstance_ShouldNotQueryCassandra() {
+        // Given
+        stage.afterSave(List.of(createDeviceEvent("device-1", "LIGHT_ON", 100, "{}")));
+
+        // When
+        List<DeviceTwinStore.State> states = service.state("device-1");
+
+        // Then
+        assertThat(states).containsExactly(new DeviceTwinStore.State("LIGHT_ON", 100, "{}"));
+        verify(repository, never()).findRecent(anyString(), anyInt());
+    }
+
+    @Test
+    void state_WhenDeviceBelongsToAnotherInstance_ShouldReadLatestPerTypeFromCassandra() {
+        // Given
+        when(repository.findRecent("device-2", 50)).thenReturn(List.of(
+                entity("device-2", "LIGHT_ON", 300, "{\"v\":3}"),
+                entity("device-2", "LIGHT_OFF", 250, "{}"),
+                entity("device-2", "LIGHT_ON", 200, "{\"v\":2}")));
+
+        // When
+        List<DeviceTwinStore.State> states = service.state("device-2");
+
+        // Then
+        assertThat(states).containsExactlyInAnyOrder(
+                new DeviceTwinStore.State("LIGHT_ON", 300, "{\"v\":3}"),
+                new DeviceTwinStore.State("LIGHT_OFF", 250, "{}"));
+    }
+
+    @Test
+    void state_WhenTwinOnlyRestoredFromSnapshot_ShouldPreferNewerStoredEvents() {
+        // Given: состояние из снапшота без живых обновлений
+        stage.store().update("device-3", "LIGHT_ON", 100, "{\"v\":1}");
+        when(repository.findRecent("device-3", 50)).thenReturn(List.of(entity("device-3", "LIGHT_ON", 500, "{\"v\":5}")));
+
+        // When
+        DeviceTwinStore.State state = service.state("device-3", "LIGHT_ON");
+
+        // Then
+        assertThat(state).isEqualTo(new DeviceTwinStore.State("LIGHT_ON", 500, "{\"v\":5}"));
+    }
+
+    private static DeviceEventEntity entity(String deviceId, String type, long timestamp, String payload) {
+        return new DeviceEventEntity(new DeviceEventKey(deviceId, deviceId + "-" + timestamp), timestamp, type, payload);
+    }
+
+    private static DeviceEvent createDeviceEvent(String deviceId, String type, long createdAt, String meta) {
+        DeviceEvent event = new DeviceEvent();
+        event.setDeviceId(deviceId);
+        event.setDeviceType(type);
+        event.setCreatedAt(createdAt);
+        event.setMeta(meta);
+        return event;
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.alexkiyanov.iotplatform.ecs.twin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DeviceTwinSnapshotFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void read_ShouldRestoreWrittenSnapshot() throws IOException {
+        // Given
+        DeviceTwinStore source = new DeviceTwinStore(16);
+        source.update("device-1", "LIGHT_ON", 100, "{\"brightness\": 80}");
+        source.update("device-1", "DOOR_OPENED", 150, null);
+        source.update("устройство-2", "TEMPERATURE_READING", 200, "{\"value\": 23.5}");
+        DeviceTwinSnapshotFile file = new DeviceTwinSnapshotFile(tempDir.resolve("twin/device-twin.snapshot"));
+
+        // When
+        file.write(source.copy(), 1_000);
+        DeviceTwinStore restored = new DeviceTwinStore(16);
+        int devices = file.read(restored);
+
+        // Then
+        assertThat(devices).isEqualTo(2);
+        assertThat(restored.get("device-1")).containsExactlyInAnyOrderElementsOf(source.get("device-1"));
+        assertThat(restored.get("устройство-2", "TEMPERATURE_READING"))
+                .isEqualTo(new DeviceTwinStore.State("TEMPERATURE_READING", 200, "{\"value\": 23.5}"));
+        assertThat(restored.get("device-1", "DOOR_OPENED").meta()).isNull();
+    }
+
+    @Test
+    void write_WhenSnapshotExceedsRegion_ShouldRemapAndRestoreEverything() throws IOException {
+        // Given: окно в 1 КБ, снапшот в десятки окон
+        DeviceTwinStore source = new DeviceTwinStore(1024);
+        for (int i = 0; i < 1_000; i++) {
+            source.update("device-" + i, "TYPE_" + (i % 7), i, "{\"value\": " + i + "}");
+        }
+        DeviceTwinSnapshotFile file = new DeviceTwinSnapshotFile(tempDir.resolve("device-twin.snapshot"), 1024);
+
+        // When
+        long size = file.write(source.copy(), 1_000);
+        DeviceTwinStore restored = new DeviceTwinStore(1024);
+        file.read(restored);
+
+        // Then
+        assertThat(size).isEqualTo(Files.size(file.path())).isGreaterThan(10 * 1024);
+        assertThat(restored.size()).isEqualTo(1_000);
+        assertThat(restored.get("device-999", "TYPE_5")).isEqualTo(new DeviceTwinStore.State("TYPE_5", 999, "{\"value\": 999}"));
+    }
+
+    @Test
+    void read_WhenSnapshotMissing_ShouldReturnMinusOne() throws IOException {
+        DeviceTwinSnapshotFile file = new DeviceTwinSnapshotFile(tempDir.resolve("missing.snapshot"));
+
+        assertThat(file.read(new DeviceTwinStore(16))).isEqualTo(-1);
+    }
+
+    @Test
+    void read_WhenSnapshotCorrupted_ShouldThrowWithoutTouchingStore() throws IOException {
+        // Given
+        DeviceTwinStore source = new DeviceTwinStore(16);
+        source.update("device-1", "LIGHT_ON", 100, "{}");
+        DeviceTwinSnapshotFile file = new DeviceTwinSnapshotFile(tempDir.resolve("device-twin.snapshot"));
+        file.write(source.copy(), 1_000);
+        try (FileChannel channel = FileChannel.open(file.path(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{42}), 30);
+        }
+
+        // When / Then
+        DeviceTwinStore restored = new DeviceTwinStore(16);
+        assertThatThrownBy(() -> file.read(restored)).isInstanceOf(IOException.class);
+        assertThat(restored.size()).isZero();
+    }
+
+    @Test
+    void write_ShouldReplacePreviousSnapshot() throws IOException {
+        // Given
+        DeviceTwinSnapshotFile file = new DeviceTwinSnapshotFile(tempDir.resolve("device-twin.snapshot"));
+        DeviceTwinStore first = new DeviceTwinStore(16);
+        first.update("device-1", "LIGHT_ON", 100, "{}");
+        file.write(first.copy(), 1_000);
+        DeviceTwinStore second = new DeviceTwinStore(16);
+        second.update("device-2", "LIGHT_ON", 200, "{}");
+
+        // When
+        file.write(second.copy(), 2_000);
+        DeviceTwinStore restored = new DeviceTwinStore(16);
+        file.read(restored);
+
+        // Then
+        assertThat(restored.get("device-1")).isEmpty();
+        assertThat(restored.get("device-2")).hasSize(1);
+        assertThat(tempDir.resolve("device-twin.snapshot.tmp")).doesNotExist();
+    }
+}
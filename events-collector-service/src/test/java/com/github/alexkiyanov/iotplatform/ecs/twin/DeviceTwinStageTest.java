@@ -0,0 +1,75 @@
+package com.github.alexkiyanov.iotplatform.ecs.twin;
+
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeviceTwinStageTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void snapshot_ShouldLetNextInstanceRestoreState() {
+        // Given
+        Path snapshot = tempDir.resolve("device-twin.snapshot");
+        DeviceTwinStage stage = new DeviceTwinStage(16, snapshot.toString(), new SimpleMeterRegistry());
+        stage.restore();
+        stage.afterSave(List.of(createDeviceEvent("device-1", "LIGHT_ON", 100, "{\"brightness\": 80}")));
+
+        // When
+        stage.shutdown();
+        DeviceTwinStage restarted = new DeviceTwinStage(16, snapshot.toString(), new SimpleMeterRegistry());
+        restarted.restore();
+
+        // Then
+        assertThat(restarted.store().get("device-1", "LIGHT_ON"))
+                .isEqualTo(new DeviceTwinStore.State("LIGHT_ON", 100, "{\"brightness\": 80}"));
+    }
+
+    @Test
+    void snapshot_WhenNothingChanged_ShouldNotWriteFile() {
+        // Given
+        Path snapshot = tempDir.resolve("device-twin.snapshot");
+        DeviceTwinStage stage = new DeviceTwinStage(16, snapshot.toString(), new SimpleMeterRegistry());
+
+        // When
+        stage.snapshot();
+
+        // Then
+        assertThat(snapshot).doesNotExist();
+    }
+
+    @Test
+    void restore_WhenSnapshotCorrupted_ShouldStartEmpty() throws IOException {
+        // Given
+        Path snapshot = tempDir.resolve("device-twin.snapshot");
+        Files.write(snapshot, new byte[]{1, 2, 3});
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        DeviceTwinStage stage = new DeviceTwinStage(16, snapshot.toString(), meterRegistry);
+
+        // When
+        stage.restore();
+
+        // Then
+        assertThat(stage.store().size()).isZero();
+        assertThat(meterRegistry.get("ecs.twin.devices").gauge().value()).isZero();
+    }
+
+    private DeviceEvent createDeviceEvent(String deviceId, String type, long createdAt, String meta) {
+        DeviceEvent event = new DeviceEvent();
+        event.setDeviceId(deviceId);
+        event.setDeviceType(type);
+        event.setCreatedAt(createdAt);
+        event.setMeta(meta);
+        return event;
+    }
+}
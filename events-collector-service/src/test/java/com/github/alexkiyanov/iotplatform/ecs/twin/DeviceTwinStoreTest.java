@@ -0,0 +1,79 @@
+package com.github.alexkiyanov.iotplatform.ecs.twin;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeviceTwinStoreTest {
+
+    @Test
+    void update_ShouldKeepLatestEventPerType() {
+        // Given
+        DeviceTwinStore store = new DeviceTwinStore(16);
+
+        // When
+        store.update("device-1", "LIGHT_ON", 100, "{\"brightness\": 10}");
+        store.update("device-1", "LIGHT_ON", 200, "{\"brightness\": 80}");
+        store.update("device-1", "DOOR_OPENED", 150, "{}");
+
+        // Then
+        assertThat(store.get("device-1")).containsExactlyInAnyOrder(
+                new DeviceTwinStore.State("LIGHT_ON", 200, "{\"brightness\": 80}"),
+                new DeviceTwinStore.State("DOOR_OPENED", 150, "{}"));
+        assertThat(store.size()).isEqualTo(1);
+    }
+
+    @Test
+    void update_WhenEventIsOlder_ShouldIgnoreIt() {
+        // Given
+        DeviceTwinStore store = new DeviceTwinStore(16);
+        store.update("device-1", "LIGHT_ON", 200, "new");
+
+        // When
+        boolean updated = store.update("device-1", "LIGHT_ON", 100, "old");
+
+        // Then
+        assertThat(updated).isFalse();
+        assertThat(store.get("device-1", "LIGHT_ON").meta()).isEqualTo("new");
+    }
+
+    @Test
+    void get_WhenDeviceUnknown_ShouldReturnEmpty() {
+        DeviceTwinStore store = new DeviceTwinStore(16);
+
+        assertThat(store.get("unknown")).isEmpty();
+        assertThat(store.get("unknown", "LIGHT_ON")).isNull();
+    }
+
+    @Test
+    void update_ShouldGrowStatesBeyondInitialCapacity() {
+        // Given
+        DeviceTwinStore store = new DeviceTwinStore(16);
+
+        // When
+        for (int i = 0; i < 10; i++) {
+            store.update("device-1", "TYPE_" + i, i, null);
+        }
+
+        // Then
+        assertThat(store.get("device-1")).hasSize(10);
+        assertThat(store.get("device-1", "TYPE_7")).isEqualTo(new DeviceTwinStore.State("TYPE_7", 7, null));
+    }
+
+    @Test
+    void copy_ShouldReturnAllDevices() {
+        // Given
+        DeviceTwinStore store = new DeviceTwinStore(16);
+        store.update("device-1", "LIGHT_ON", 1, "{}");
+        store.update("device-2", "LIGHT_OFF", 2, "{}");
+
+        // When
+        List<DeviceTwinStore.DeviceStates> copy = store.copy();
+
+        // Then
+        assertThat(copy).extracting(DeviceTwinStore.DeviceStates::deviceId)
+                .containsExactlyInAnyOrder("device-1", "device-2");
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.alexkiyanov.iotplatform.ecs.typeindex;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class EventTypeIndexServiceTest {
+
+    private static final long MINUTE = 60_000;
+
+    @Mock
+    private CqlSession session;
+
+    @Mock
+    private PreparedStatement statement;
+
+    private final List<Object[]> stored = new ArrayList<>();
+    private final Map<BoundStatement, Object[]> bindings = new IdentityHashMap<>();
+    private EventTypeIndexStage stage;
+    private EventTypeIndexService service;
+
+    @BeforeEach
+    void setUp() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        when(session.prepare(anyString())).thenReturn(statement);
+        stage = new EventTypeIndexStage(session, Duration.ofMinutes(1), 4, Duration.ofDays(7),
+                Duration.ofSeconds(1), 2, meterRegistry);
+        service = new EventTypeIndexService(session, stage, 8, Duration.ofHours(1), 100, meterRegistry);
+        lenient().when(statement.bind(any(Object[].class))).thenAnswer(invocation -> {
+            BoundStatement bound = mock(BoundStatement.class, RETURNS_SELF);
+            bindings.put(bound, invocation.getArguments());
+            return bound;
+        });
+        lenient().when(session.executeAsync(any(Statement.class)))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(read(bindings.get(invocation.getArgument(0)))));
+    }
+
+    @Test
+    void query_ShouldMergePartitionsNewestFirst() {
+        // Given
+        store("DOOR_OPENED", "device-1", 10 * MINUTE + 5_000);
+        store("DOOR_OPENED", "device-2", 11 * MINUTE + 1_000);
+        store("DOOR_OPENED", "device-3", 12 * MINUTE + 30_000);
+        store("DOOR_OPENED", "device-4", 20 * MINUTE);
+        store("LIGHT_ON", "device-1", 11 * MINUTE);
+
+        // When
+        EventsByType result = service.query("DOOR_OPENED", 10 * MINUTE, 13 * MINUTE, 100);
+
+        // Then
+        assertThat(result.events()).extracting(EventsByType.IndexedEvent::deviceId)
+                .containsExactly("device-3", "device-2", "device-1");
+        assertThat(result.partitions()).isEqualTo(3 * 4);
+    }
+
+    @Test
+    void query_WhenLimitReached_ShouldStopBeforeOlderBuckets() {
+        // Given: волна - 2 интервала по 4 шарда
+        for (int minute = 0; minute < 10; minute++) {
+            store("DOOR_OPENED", "device-" + minute, minute * MINUTE + 1_000);
+        }
+
+        // When
+        EventsByType result = service.query("DOOR_OPENED", 0, 10 * MINUTE, 2);
+
+        // Then
+        assertThat(result.events()).extracting(EventsByType.IndexedEvent::deviceId)
+                .containsExactly("device-9", "device-8");
+        assertThat(result.partitions()).isEqualTo(8);
+    }
+
+    @Test
+    void query_WhenWindowOrLimitOutOfRange_ShouldThrow() {
+        assertThatThrownBy(() -> service.query("DOOR_OPENED", 0, 2 * 60 * MINUTE, 10))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.query("DOOR_OPENED", 0, MINUTE, 101))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void store(String type, String deviceId, long createdAt) {
+        stored.add(new Object[]{type, stage.bucketStart(createdAt), stage.shard(deviceId), createdAt, deviceId});
+    }
+
+    private AsyncResultSet read(Object[] binding) {
+        // binding: type, bucket, shard, from, to, limit
+        List<Row> rows = new ArrayList<>();
+        stored.stream()
+                .filter(row -> row[0].equals(binding[0]) && row[1].equals(binding[1]) && row[2].equals(binding[2]))
+                .filter(row -> (long) row[3] >= (long) binding[3] && (long) row[3] < (long) binding[4])
+                .sorted((a, b) -> Long.compare((long) b[3], (long) a[3]))
+                .limit((int) binding[5])
+                .forEach(row -> rows.add(row((String) row[4], (long) row[3])));
+        AsyncResultSet resultSet = mock(AsyncResultSet.class);
+        when(resultSet.currentPage()).thenReturn(rows);
+        when(resultSet.remaining()).thenReturn(rows.size());
+        return resultSet;
+    }
+
+    private Row row(String deviceId, long createdAt) {
+        Row row = mock(Row.class);
+        when(row.getString("device_id")).thenReturn(deviceId);
+        when(row.getLong("created_at")).thenReturn(createdAt);
+        when(row.getString("payload")).thenReturn("{}");
+        return row;
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.alexkiyanov.iotplatform.ecs.typeindex;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.github.alexkiyanov.iotplatform.avro.DeviceEvent;
+import com.github.alexkiyanov.iotplatform.ecs.pipeline.EventFingerprints;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class EventTypeIndexStageTest {
+
+    @Mock
+    private CqlSession session;
+
+    @Mock
+    private PreparedStatement insert;
+
+    @Mock
+    private BoundStatement bound;
+
+    @Mock
+    private AsyncResultSet resultSet;
+
+    private SimpleMeterRegistry meterRegistry;
+    private EventTypeIndexStage stage;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        when(session.prepare(anyString())).thenReturn(insert);
+        stage = new EventTypeIndexStage(session, Duration.ofMinutes(1), 8, Duration.ofDays(7),
+                Duration.ofSeconds(1), 2, meterRegistry);
+    }
+
+    @Test
+    void afterSave_ShouldWriteRowPerEventIntoTypeBucketAndShard() {
+        // Given
+        DeviceEvent event = createDeviceEvent("device-1", "DOOR_OPENED", 125_000);
+        when(insert.bind(any(Object[].class))).thenReturn(bound);
+        when(session.executeAsync(any(Statement.class))).thenReturn(CompletableFuture.completedFuture(resultSet));
+
+        // When
+        stage.afterSave(List.of(event));
+
+        // Then
+        verify(insert).bind("DOOR_OPENED", 120_000L, stage.shard("device-1"), 125_000L, "device-1",
+                EventFingerprints.of(event), "{}", (int) Duration.ofDays(7).toSeconds());
+        verify(session, times(1)).executeAsync(any(Statement.class));
+        assertThat(meterRegistry.get("ecs.type.index.writes.total").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void afterSave_WhenWriteFailsOnce_ShouldRetryOnlyFailedRow() {
+        // Given
+        when(insert.bind(any(Object[].class))).thenReturn(bound);
+        when(session.executeAsync(any(Statement.class)))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("timeout")))
+                .thenReturn(CompletableFuture.completedFuture(resultSet));
+
+        // When
+        stage.afterSave(List.of(createDeviceEvent("device-1", "DOOR_OPENED", 1_000)));
+
+        // Then
+        verify(session, times(2)).executeAsync(any(Statement.class));
+        assertThat(meterRegistry.get("ecs.type.index.writes.total").counter().count()).isEqualTo(1.0);
+        assertThat(meterRegistry.get("ecs.type.index.write.failures.total").counter().count()).isZero();
+    }
+
+    @Test
+    void afterSave_WhenAllAttemptsFail_ShouldCountDroppedRowsWithoutThrowing() {
+        // Given
+        when(insert.bind(any(Object[].class))).thenReturn(bound);
+        when(session.executeAsync(any(Statement.class)))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("timeout")));
+
+        // When - основная таблица уже сохранена, исключение привело бы к повторной записи батча
+        assertThatCode(() -> stage.afterSave(List.of(createDeviceEvent("device-1", "DOOR_OPENED", 1_000))))
+                .doesNotThrowAnyException();
+
+        // Then
+        verify(session, times(2)).executeAsync(any(Statement.class));
+        assertThat(meterRegistry.get("ecs.type.index.write.failures.total").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void shard_ShouldSpreadDevicesAcrossShards() {
+        // When
+        long used = IntStream.range(0, 1000)
+                .map(i -> stage.shard("device-" + i))
+                .distinct()
+                .count();
+
+        // Then
+        assertThat(used).isEqualTo(8);
+        assertThat(stage.bucketStart(-1)).isEqualTo(-60_000);
+        verify(session, never()).executeAsync(any(Statement.class));
+    }
+
+    private DeviceEvent createDeviceEvent(String deviceId, String type, long createdAt) {
+        return DeviceEvent.newBuilder()
+                .setDeviceId(deviceId)
+                .setDeviceType(type)
+                .setCreatedAt(createdAt)
+                .setMeta("{}")
+                .build();
+    }
+}